@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.client;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures creating and serializing the configuration message sent by
+ * {@code sendConfig()} for clients with many publishers and subscribers.
+ * 
+ * @author Axel Baumgartner
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ConfigBenchmark
+{
+	/**
+	 * The number of publishers and subscribers, half of each.
+	 */
+	@Param({ "10", "100", "1000", "10000" })
+	public int				routes;
+
+	private SpacebrewClient	client;
+
+	@Setup
+	public void setup()
+	{
+		client = new SpacebrewClient(null, "ws://localhost:9000", "benchmark");
+
+		StringSubscriber subscriber = new StringSubscriber()
+		{
+			@Override
+			public void receive(String value)
+			{
+			}
+		};
+
+		for (int i = 0; i < routes / 2; i++)
+		{
+			client.addPublisher("publisher" + i, "");
+			client.addSubscriber("subscriber" + i, subscriber);
+		}
+	}
+
+	@Benchmark
+	public String createConfig()
+	{
+		return client.createConfigMessage().toString();
+	}
+}
@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.client;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import at.ac.sbg.icts.spacebrew.client.codec.DoubleVectorCodec;
+
+/**
+ * Measures how fast a published value of each type is turned into the bytes
+ * of a WebSocket frame: the conversion done by
+ * {@link SpacebrewClient#publish(String, String, String)} and its typed
+ * variants, the queued message and the encoding done when it is sent.
+ * 
+ * @author Axel Baumgartner
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EncodeBenchmark
+{
+	private final MessageEncoder	encoder	= new MessageEncoder();
+	private final ByteBuffer		buffer	= ByteBuffer.allocate(SpacebrewClient.DEFAULT_FRAGMENT_SIZE);
+	private final DoubleVectorCodec	codec	= new DoubleVectorCodec();
+	private final double[]			vector	= { 0.25, -1.5, 3.125, 1e-3, 42 };
+	private final String			text	= "The quick brown fox \"jumps\" over the lazy dog äöü";
+	private int						counter;
+
+	@Benchmark
+	public int encodeBoolean()
+	{
+		boolean value = (counter++ & 1) == 0;
+		return encode("switch", SpacebrewMessage.TYPE_BOOLEAN, value + "");
+	}
+
+	@Benchmark
+	public int encodeRange()
+	{
+		int value = counter++ & 1023;
+		return encode("counter", SpacebrewMessage.TYPE_RANGE, value + "");
+	}
+
+	@Benchmark
+	public int encodeString()
+	{
+		return encode("text", SpacebrewMessage.TYPE_STRING, text);
+	}
+
+	@Benchmark
+	public int encodeCustom()
+	{
+		vector[0] = counter++;
+		return encode("vector", DoubleVectorCodec.TYPE, codec.encode(vector));
+	}
+
+	private int encode(String name, String type, CharSequence value)
+	{
+		encoder.begin(new OutboundMessage(name, type, value, 0), "benchmark");
+		buffer.clear();
+		encoder.encode(buffer);
+		encoder.clear();
+		return buffer.position();
+	}
+}
@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.client;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link SpacebrewClient#onMessage(String)}, parsing an incoming
+ * message and dispatching it to a subscriber registered with a callback
+ * method (called by reflection) or as {@link StringSubscriber}.
+ * 
+ * @author Axel Baumgartner
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class InboundBenchmark implements SpacebrewClientCallback
+{
+	private static final String	REFLECTIVE_MESSAGE	= "{\"message\":{\"clientName\":\"sender\",\"name\":\"reflective\","
+															+ "\"type\":\"string\",\"value\":\"The quick brown fox\"}}";
+
+	private static final String	INTERFACE_MESSAGE	= "{\"message\":{\"clientName\":\"sender\",\"name\":\"interface\","
+															+ "\"type\":\"string\",\"value\":\"The quick brown fox\"}}";
+
+	private SpacebrewClient		client;
+	private String				received;
+
+	@Setup
+	public void setup()
+	{
+		client = new SpacebrewClient(this, "ws://localhost:9000", "benchmark");
+		client.addSubscriber("reflective", SpacebrewMessage.TYPE_STRING, "input");
+		client.addSubscriber("interface", new StringSubscriber()
+		{
+			@Override
+			public void receive(String value)
+			{
+				received = value;
+			}
+		});
+	}
+
+	@Benchmark
+	public String parseAndDispatchReflective()
+	{
+		client.onMessage(REFLECTIVE_MESSAGE);
+		return received;
+	}
+
+	@Benchmark
+	public String parseAndDispatchInterface()
+	{
+		client.onMessage(INTERFACE_MESSAGE);
+		return received;
+	}
+
+	/**
+	 * The callback method of the reflective subscriber.
+	 * 
+	 * @param value The received value
+	 */
+	public void input(String value)
+	{
+		received = value;
+	}
+
+	@Override
+	public void onOpen()
+	{
+	}
+
+	@Override
+	public void onClose()
+	{
+	}
+
+	@Override
+	public void onError()
+	{
+	}
+}
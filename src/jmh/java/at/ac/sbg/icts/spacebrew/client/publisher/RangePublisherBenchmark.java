@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.client.publisher;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import at.ac.sbg.icts.spacebrew.client.SpacebrewClient;
+
+/**
+ * Measures {@link RangePublisher#publish(float)} with its filters on and
+ * off. The client counts the published values instead of sending them, so
+ * only the publisher is measured.
+ * 
+ * @author Axel Baumgartner
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RangePublisherBenchmark
+{
+	/**
+	 * The active filters: none, lowPass, update, range or all.
+	 */
+	@Param({ "none", "lowPass", "update", "range", "all" })
+	public String			filters;
+
+	private final float[]	values	= new float[1024];
+	private RangePublisher	publisher;
+	private CountingClient	client;
+	private int				index;
+
+	@Setup
+	public void setup()
+	{
+		for (int i = 0; i < values.length; i++)
+		{
+			values[i] = (float) (50 + 50 * Math.sin(i * 2 * Math.PI / values.length));
+		}
+
+		client = new CountingClient();
+		publisher = new RangePublisher("range", 0, client);
+
+		if (filters.equals("lowPass") || filters.equals("all"))
+		{
+			publisher.activateLowPassFilter();
+			publisher.setLowPassAlpha(0.2f);
+		}
+
+		if (filters.equals("update") || filters.equals("all"))
+		{
+			publisher.activateUpdateFilter();
+		}
+
+		if (filters.equals("range") || filters.equals("all"))
+		{
+			publisher.setMinValue(0);
+			publisher.setMaxValue(100);
+		}
+	}
+
+	@Benchmark
+	public long publish()
+	{
+		publisher.publish(values[index++ & (values.length - 1)]);
+		return client.published;
+	}
+
+	/**
+	 * A client that is always connected and counts published values.
+	 */
+	static class CountingClient extends SpacebrewClient
+	{
+		long	published;
+
+		CountingClient()
+		{
+			super(null, "ws://localhost:9000", "benchmark");
+		}
+
+		@Override
+		public boolean isConnected()
+		{
+			return true;
+		}
+
+		@Override
+		public void publish(String name, int value)
+		{
+			published += value;
+		}
+	}
+}
@@ -0,0 +1,130 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.client;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lends the buffers outgoing fragments are encoded into to several clients.
+ * A buffer is only held while one fragment is encoded and written (the
+ * WebSocket copies it before returning), so the number of buffers needed is
+ * bounded by the number of threads sending, not by the number of clients.
+ * 
+ * @author Axel Baumgartner
+ */
+public class ByteBufferPool
+{
+	/**
+	 * The default number of buffers kept for reuse.
+	 */
+	public static final int							DEFAULT_CAPACITY	= 64;
+
+	/**
+	 * The buffers available for reuse.
+	 */
+	private final ConcurrentLinkedQueue<ByteBuffer>	buffers				= new ConcurrentLinkedQueue<ByteBuffer>();
+
+	/**
+	 * The number of buffers available for reuse.
+	 */
+	private final AtomicInteger						available			= new AtomicInteger();
+
+	/**
+	 * The number of buffers kept for reuse, further buffers returned are left
+	 * to the garbage collector.
+	 */
+	private final int								capacity;
+
+	/**
+	 * The number of buffers allocated.
+	 */
+	private final AtomicLong						allocated			= new AtomicLong();
+
+	/**
+	 * Creates a pool keeping {@link #DEFAULT_CAPACITY} buffers.
+	 */
+	public ByteBufferPool()
+	{
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity The number of buffers kept for reuse
+	 */
+	public ByteBufferPool(int capacity)
+	{
+		this.capacity = Math.max(0, capacity);
+	}
+
+	/**
+	 * Lends a buffer, allocated if no buffer of sufficient capacity is
+	 * available. Buffers that are too small are dropped.
+	 * 
+	 * @param size The number of bytes needed
+	 * @return A cleared buffer whose limit is {@code size}
+	 */
+	public ByteBuffer acquire(int size)
+	{
+		ByteBuffer buffer;
+
+		while ((buffer = buffers.poll()) != null)
+		{
+			available.decrementAndGet();
+
+			if (buffer.capacity() >= size)
+			{
+				buffer.clear();
+				buffer.limit(size);
+				return buffer;
+			}
+		}
+
+		allocated.incrementAndGet();
+		return ByteBuffer.allocate(size);
+	}
+
+	/**
+	 * Returns a buffer lent by {@link #acquire(int)}, it must not be used
+	 * afterwards.
+	 * 
+	 * @param buffer The buffer
+	 */
+	public void release(ByteBuffer buffer)
+	{
+		if (available.incrementAndGet() <= capacity)
+		{
+			buffers.offer(buffer);
+		}
+		else
+		{
+			available.decrementAndGet();
+		}
+	}
+
+	/**
+	 * @return The number of buffers available for reuse
+	 */
+	public int getAvailable()
+	{
+		return available.get();
+	}
+
+	/**
+	 * @return The number of buffers allocated since the pool was created
+	 */
+	public long getAllocated()
+	{
+		return allocated.get();
+	}
+}
@@ -0,0 +1,257 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.client;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the messages compressed and decompressed by a
+ * {@link PerMessageDeflateDraft}, the bytes before and after compression and
+ * the time spent compressing, to decide whether compression pays off for a
+ * deployment. Sizes are the sizes of the WebSocket payloads, times are
+ * measured around the calls to {@link java.util.zip.Deflater} and
+ * {@link java.util.zip.Inflater}, which use the CPU exclusively.
+ * 
+ * @author Axel Baumgartner
+ */
+public class CompressionStatistics
+{
+	/**
+	 * The number of outgoing messages sent compressed.
+	 */
+	private final AtomicLong	compressedMessages		= new AtomicLong();
+
+	/**
+	 * The number of outgoing messages sent uncompressed because they were
+	 * smaller than the compression threshold.
+	 */
+	private final AtomicLong	uncompressedMessages	= new AtomicLong();
+
+	/**
+	 * The size of all compressed outgoing messages before compression.
+	 */
+	private final AtomicLong	compressedBytesIn		= new AtomicLong();
+
+	/**
+	 * The size of all compressed outgoing messages after compression.
+	 */
+	private final AtomicLong	compressedBytesOut		= new AtomicLong();
+
+	/**
+	 * The time spent compressing outgoing messages in nanoseconds.
+	 */
+	private final AtomicLong	compressionNanos		= new AtomicLong();
+
+	/**
+	 * The number of incoming messages that were decompressed.
+	 */
+	private final AtomicLong	decompressedMessages	= new AtomicLong();
+
+	/**
+	 * The size of all decompressed incoming messages before decompression.
+	 */
+	private final AtomicLong	decompressedBytesIn		= new AtomicLong();
+
+	/**
+	 * The size of all decompressed incoming messages after decompression.
+	 */
+	private final AtomicLong	decompressedBytesOut	= new AtomicLong();
+
+	/**
+	 * The time spent decompressing incoming messages in nanoseconds.
+	 */
+	private final AtomicLong	decompressionNanos		= new AtomicLong();
+
+	/**
+	 * The compression ratio of the latest compressed outgoing message.
+	 */
+	private volatile double		lastCompressionRatio	= 1;
+
+	/**
+	 * The time spent compressing the latest compressed outgoing message in
+	 * nanoseconds.
+	 */
+	private volatile long		lastCompressionNanos	= 0;
+
+	/**
+	 * @param bytesIn The size of the message before compression
+	 * @param bytesOut The size of the message after compression
+	 * @param nanos The time spent compressing the message
+	 */
+	void compressed(long bytesIn, long bytesOut, long nanos)
+	{
+		compressedMessages.incrementAndGet();
+		compressedBytesIn.addAndGet(bytesIn);
+		compressedBytesOut.addAndGet(bytesOut);
+		compressionNanos.addAndGet(nanos);
+
+		lastCompressionRatio = ratio(bytesOut, bytesIn);
+		lastCompressionNanos = nanos;
+	}
+
+	/**
+	 * Counts an outgoing message sent uncompressed.
+	 */
+	void uncompressed()
+	{
+		uncompressedMessages.incrementAndGet();
+	}
+
+	/**
+	 * @param bytesIn The size of the message before decompression
+	 * @param bytesOut The size of the message after decompression
+	 * @param nanos The time spent decompressing the message
+	 */
+	void decompressed(long bytesIn, long bytesOut, long nanos)
+	{
+		decompressedMessages.incrementAndGet();
+		decompressedBytesIn.addAndGet(bytesIn);
+		decompressedBytesOut.addAndGet(bytesOut);
+		decompressionNanos.addAndGet(nanos);
+	}
+
+	/**
+	 * @return The number of outgoing messages sent compressed
+	 */
+	public long getCompressedMessages()
+	{
+		return compressedMessages.get();
+	}
+
+	/**
+	 * @return The number of outgoing messages sent uncompressed because they
+	 *         were smaller than the compression threshold
+	 */
+	public long getUncompressedMessages()
+	{
+		return uncompressedMessages.get();
+	}
+
+	/**
+	 * @return The size of all compressed outgoing messages before compression
+	 */
+	public long getCompressedBytesIn()
+	{
+		return compressedBytesIn.get();
+	}
+
+	/**
+	 * @return The size of all compressed outgoing messages after compression
+	 */
+	public long getCompressedBytesOut()
+	{
+		return compressedBytesOut.get();
+	}
+
+	/**
+	 * @return The time spent compressing outgoing messages in nanoseconds
+	 */
+	public long getCompressionNanos()
+	{
+		return compressionNanos.get();
+	}
+
+	/**
+	 * @return The size of all compressed outgoing messages after compression
+	 *         divided by their size before compression, 1 if no message has
+	 *         been compressed yet
+	 */
+	public double getCompressionRatio()
+	{
+		return ratio(compressedBytesOut.get(), compressedBytesIn.get());
+	}
+
+	/**
+	 * @return The average time spent compressing an outgoing message in
+	 *         nanoseconds
+	 */
+	public double getAverageCompressionNanos()
+	{
+		long messages = compressedMessages.get();
+		return messages > 0 ? (double) compressionNanos.get() / messages : 0;
+	}
+
+	/**
+	 * @return The compression ratio of the latest compressed outgoing message
+	 */
+	public double getLastCompressionRatio()
+	{
+		return lastCompressionRatio;
+	}
+
+	/**
+	 * @return The time spent compressing the latest compressed outgoing
+	 *         message in nanoseconds
+	 */
+	public long getLastCompressionNanos()
+	{
+		return lastCompressionNanos;
+	}
+
+	/**
+	 * @return The number of incoming messages that were decompressed
+	 */
+	public long getDecompressedMessages()
+	{
+		return decompressedMessages.get();
+	}
+
+	/**
+	 * @return The size of all decompressed incoming messages before
+	 *         decompression
+	 */
+	public long getDecompressedBytesIn()
+	{
+		return decompressedBytesIn.get();
+	}
+
+	/**
+	 * @return The size of all decompressed incoming messages after
+	 *         decompression
+	 */
+	public long getDecompressedBytesOut()
+	{
+		return decompressedBytesOut.get();
+	}
+
+	/**
+	 * @return The time spent decompressing incoming messages in nanoseconds
+	 */
+	public long getDecompressionNanos()
+	{
+		return decompressionNanos.get();
+	}
+
+	/**
+	 * @return The size of all decompressed incoming messages before
+	 *         decompression divided by their size after decompression, 1 if
+	 *         no message has been decompressed yet
+	 */
+	public double getDecompressionRatio()
+	{
+		return ratio(decompressedBytesIn.get(), decompressedBytesOut.get());
+	}
+
+	/**
+	 * @return The average time spent decompressing an incoming message in
+	 *         nanoseconds
+	 */
+	public double getAverageDecompressionNanos()
+	{
+		long messages = decompressedMessages.get();
+		return messages > 0 ? (double) decompressionNanos.get() / messages : 0;
+	}
+
+	private static double ratio(long compressed, long uncompressed)
+	{
+		return uncompressed > 0 ? (double) compressed / uncompressed : 1;
+	}
+}
@@ -0,0 +1,57 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.client;
+
+import at.ac.sbg.icts.spacebrew.client.codec.StringDeltaDecoder;
+
+/**
+ * Binds a {@link StringSubscriber} to a {@link StringDeltaDecoder}, so the
+ * subscriber receives the rebuilt values of a delta-encoded string publisher.
+ * 
+ * @author Axel Baumgartner
+ */
+class DeltaSubscription
+{
+	/**
+	 * Rebuilds the values from keyframes and deltas.
+	 */
+	private final StringDeltaDecoder	decoder;
+
+	/**
+	 * The subscriber receiving the rebuilt values.
+	 */
+	private final StringSubscriber		subscriber;
+
+	/**
+	 * @param decoder Rebuilds the values from keyframes and deltas
+	 * @param subscriber The subscriber receiving the rebuilt values
+	 */
+	DeltaSubscription(StringDeltaDecoder decoder, StringSubscriber subscriber)
+	{
+		this.decoder = decoder;
+		this.subscriber = subscriber;
+	}
+
+	/**
+	 * Decodes an incoming keyframe or delta and passes the rebuilt value to
+	 * the subscriber. Deltas received while waiting for a keyframe are
+	 * ignored.
+	 * 
+	 * @param value The encoded value
+	 */
+	void receive(String value)
+	{
+		if (decoder.decode(value))
+		{
+			subscriber.receive(decoder.getValue());
+		}
+	}
+}
@@ -0,0 +1,29 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.client;
+
+/**
+ * Interface for objects that process the messages drained from the inbound
+ * queue of a {@link SpacebrewClient} in polling mode (see
+ * {@link SpacebrewClient#drainTo(InboundHandler, int)}).
+ * 
+ * @author Axel Baumgartner
+ */
+public interface InboundHandler
+{
+	/**
+	 * Processes a drained message. The message object is reused for the next
+	 * message and is only valid during this call.
+	 * 
+	 * @param message The drained message
+	 */
+	public void onMessage(InboundMessage message);
+}
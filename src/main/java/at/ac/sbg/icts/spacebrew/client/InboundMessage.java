@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.client;
+
+/**
+ * A view onto a message in the inbound queue of a {@link SpacebrewClient}.
+ * Instances are reused and only valid while they are passed to an
+ * {@link InboundHandler}.
+ * 
+ * @author Axel Baumgartner
+ */
+public class InboundMessage
+{
+	/**
+	 * The name of the subscriber.
+	 */
+	String	name;
+
+	/**
+	 * The type of the subscriber.
+	 */
+	String	type;
+
+	/**
+	 * The value as received.
+	 */
+	String	value;
+
+	/**
+	 * The numeric value (0 or 1 for boolean, the sanitized value for range
+	 * messages).
+	 */
+	long	numericValue;
+
+	/**
+	 * The time the message was received, as given by {@link System#nanoTime()}.
+	 */
+	long	timestamp;
+
+	/**
+	 * @return The name of the subscriber
+	 */
+	public String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * @return The type of the subscriber
+	 */
+	public String getType()
+	{
+		return type;
+	}
+
+	/**
+	 * @return The value as received
+	 */
+	public String getValue()
+	{
+		return value;
+	}
+
+	/**
+	 * @return The value of a boolean message
+	 */
+	public boolean getBooleanValue()
+	{
+		return numericValue != 0;
+	}
+
+	/**
+	 * @return The sanitized value of a range message
+	 */
+	public int getRangeValue()
+	{
+		return (int) numericValue;
+	}
+
+	/**
+	 * @return The time the message was received, as given by
+	 *         {@link System#nanoTime()}
+	 */
+	public long getTimestamp()
+	{
+		return timestamp;
+	}
+}
@@ -0,0 +1,183 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.client;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A preallocated single-producer single-consumer ring of inbound messages. The
+ * producer is the thread dispatching incoming messages, the consumer is the
+ * thread calling {@link #drainTo(InboundHandler, int)}. Messages are stored in
+ * parallel arrays, so queueing a message allocates nothing. When the ring is
+ * full incoming messages are dropped and counted, the producer never blocks.
+ * 
+ * @author Axel Baumgartner
+ */
+class InboundRing
+{
+	/**
+	 * The names of the queued messages.
+	 */
+	private final String[]			names;
+
+	/**
+	 * The types of the queued messages.
+	 */
+	private final String[]			types;
+
+	/**
+	 * The values of the queued messages as received.
+	 */
+	private final String[]			values;
+
+	/**
+	 * The numeric values of the queued messages.
+	 */
+	private final long[]			numericValues;
+
+	/**
+	 * The receive times of the queued messages.
+	 */
+	private final long[]			timestamps;
+
+	/**
+	 * Masks a position to an index, the capacity is a power of two.
+	 */
+	private final int				mask;
+
+	/**
+	 * The position of the next message to write, only written by the
+	 * producer.
+	 */
+	private final AtomicLong		tail		= new AtomicLong();
+
+	/**
+	 * The position of the next message to read, only written by the consumer.
+	 */
+	private final AtomicLong		head		= new AtomicLong();
+
+	/**
+	 * The number of messages dropped because the ring was full.
+	 */
+	private final AtomicLong		dropped		= new AtomicLong();
+
+	/**
+	 * The view passed to handlers, reused for every message.
+	 */
+	private final InboundMessage	message		= new InboundMessage();
+
+	/**
+	 * @param capacity The minimum number of messages the ring can hold, rounded
+	 *            up to the next power of two
+	 */
+	InboundRing(int capacity)
+	{
+		int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+
+		names = new String[size];
+		types = new String[size];
+		values = new String[size];
+		numericValues = new long[size];
+		timestamps = new long[size];
+		mask = size - 1;
+	}
+
+	/**
+	 * Queues a message. Must only be called by the producer.
+	 * 
+	 * @param name The name of the subscriber
+	 * @param type The type of the subscriber
+	 * @param value The value as received
+	 * @param numericValue The numeric value
+	 * @return False if the ring was full and the message has been dropped
+	 */
+	boolean offer(String name, String type, String value, long numericValue)
+	{
+		long position = tail.get();
+
+		if (position - head.getAcquire() > mask)
+		{
+			dropped.incrementAndGet();
+			return false;
+		}
+
+		int i = (int) position & mask;
+		names[i] = name;
+		types[i] = type;
+		values[i] = value;
+		numericValues[i] = numericValue;
+		timestamps[i] = System.nanoTime();
+
+		tail.setRelease(position + 1);
+
+		return true;
+	}
+
+	/**
+	 * Passes queued messages in arrival order to a handler. Must only be called
+	 * by the consumer.
+	 * 
+	 * @param handler The handler processing the messages
+	 * @param max The maximum number of messages to process
+	 * @return The number of messages processed
+	 */
+	int drainTo(InboundHandler handler, int max)
+	{
+		long position = head.get();
+		long available = tail.getAcquire() - position;
+		int count = (int) Math.min(available, max);
+
+		for (int n = 0; n < count; n++)
+		{
+			int i = (int) position & mask;
+
+			message.name = names[i];
+			message.type = types[i];
+			message.value = values[i];
+			message.numericValue = numericValues[i];
+			message.timestamp = timestamps[i];
+
+			names[i] = null;
+			types[i] = null;
+			values[i] = null;
+
+			head.setRelease(++position);
+
+			handler.onMessage(message);
+		}
+
+		return count;
+	}
+
+	/**
+	 * @return The number of queued messages
+	 */
+	int size()
+	{
+		return (int) (tail.get() - head.get());
+	}
+
+	/**
+	 * @return The number of messages the ring can hold
+	 */
+	int capacity()
+	{
+		return mask + 1;
+	}
+
+	/**
+	 * @return The number of messages dropped because the ring was full
+	 */
+	long getDropped()
+	{
+		return dropped.get();
+	}
+}
@@ -0,0 +1,374 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.client;
+
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the latest value, a sequence number and the receive timestamp of
+ * registered subscriber routes in preallocated arrays, for consumers that poll
+ * (e.g. render loops) instead of receiving callbacks.
+ * <p/>
+ * Values are written by a single thread, the thread dispatching incoming
+ * messages of the {@link SpacebrewClient}, and read without locks by any
+ * number of threads. Consistency is ensured by a sequence lock: the version is
+ * odd while an update is in progress and readers retry if the version changed
+ * while they were reading. Boolean values are stored as 0 or 1, range values as
+ * their sanitized {@code int} value, all other values as their string
+ * representation.
+ * 
+ * @author Axel Baumgartner
+ */
+public class LastValueCache
+{
+	/**
+	 * The default number of routes a cache can hold.
+	 */
+	public static final int									DEFAULT_CAPACITY	= 1024;
+
+	/**
+	 * Holds the handles of all registered routes (name, (type, handle)).
+	 */
+	private final ConcurrentHashMap<String, ConcurrentHashMap<String, Integer>>	handles	= new ConcurrentHashMap<String, ConcurrentHashMap<String, Integer>>();
+
+	/**
+	 * The numeric values of the routes.
+	 */
+	private final long[]									values;
+
+	/**
+	 * The string values of the routes.
+	 */
+	private final String[]									strings;
+
+	/**
+	 * The number of values received per route.
+	 */
+	private final long[]									sequences;
+
+	/**
+	 * The time of the last value received per route, as given by
+	 * {@link System#nanoTime()}.
+	 */
+	private final long[]									timestamps;
+
+	/**
+	 * The version of the cache, odd while an update is in progress.
+	 */
+	private final AtomicLong								version				= new AtomicLong();
+
+	/**
+	 * The number of registered routes.
+	 */
+	private volatile int									size				= 0;
+
+	/**
+	 * Creates a cache with the default capacity.
+	 */
+	public LastValueCache()
+	{
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity The number of routes the cache can hold
+	 */
+	public LastValueCache(int capacity)
+	{
+		values = new long[capacity];
+		strings = new String[capacity];
+		sequences = new long[capacity];
+		timestamps = new long[capacity];
+	}
+
+	/**
+	 * Registers a route. Registering a route twice returns the same handle.
+	 * 
+	 * @param name The name of the subscriber
+	 * @param type The type of the subscriber
+	 * @return The handle of the route, handles are assigned consecutively
+	 *         starting at 0
+	 * @throws IllegalStateException If the cache is full
+	 */
+	public synchronized int register(String name, String type)
+	{
+		ConcurrentHashMap<String, Integer> types = handles.get(name);
+
+		if (types == null)
+		{
+			types = new ConcurrentHashMap<String, Integer>();
+			handles.put(name, types);
+		}
+
+		Integer handle = types.get(type);
+
+		if (handle == null)
+		{
+			if (size == values.length)
+			{
+				throw new IllegalStateException("Last value cache is full, capacity: " + values.length);
+			}
+
+			handle = size;
+			types.put(type, handle);
+			size = handle + 1;
+		}
+
+		return handle;
+	}
+
+	/**
+	 * @param name The name of the subscriber
+	 * @param type The type of the subscriber
+	 * @return The handle of the route or -1 if it is not registered
+	 */
+	public int getHandle(String name, String type)
+	{
+		ConcurrentHashMap<String, Integer> types = handles.get(name);
+		Integer handle = types != null ? types.get(type) : null;
+
+		return handle != null ? handle : -1;
+	}
+
+	/**
+	 * @return The number of registered routes
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * @return The capacity of the cache
+	 */
+	public int capacity()
+	{
+		return values.length;
+	}
+
+	/**
+	 * Stores an incoming value if its route is registered. Must only be called
+	 * by the dispatching thread.
+	 * 
+	 * @param name The name of the subscriber
+	 * @param type The type of the subscriber
+	 * @param string The value as received
+	 */
+	void update(String name, String type, String string)
+	{
+		ConcurrentHashMap<String, Integer> types = handles.get(name);
+
+		if (types == null)
+		{
+			return;
+		}
+
+		Integer handle = types.get(type);
+
+		if (handle == null)
+		{
+			return;
+		}
+
+		long value = 0;
+
+		if (type.equals(SpacebrewMessage.TYPE_BOOLEAN))
+		{
+			value = Boolean.parseBoolean(string) ? 1 : 0;
+		}
+		else if (type.equals(SpacebrewMessage.TYPE_RANGE))
+		{
+			value = SpacebrewClient.sanitizeRangeMessage(string);
+		}
+
+		int i = handle;
+		long v = version.get();
+
+		version.setOpaque(v + 1);
+		VarHandle.storeStoreFence();
+
+		values[i] = value;
+		strings[i] = string;
+		sequences[i]++;
+		timestamps[i] = System.nanoTime();
+
+		version.setRelease(v + 2);
+	}
+
+	/**
+	 * @param handle The handle of the route
+	 * @return The latest numeric value of the route
+	 */
+	public long getLong(int handle)
+	{
+		long v;
+		long value;
+
+		do
+		{
+			v = beginRead();
+			value = values[handle];
+		}
+		while (!endRead(v));
+
+		return value;
+	}
+
+	/**
+	 * @param handle The handle of the route
+	 * @return The latest range value of the route
+	 */
+	public int getInt(int handle)
+	{
+		return (int) getLong(handle);
+	}
+
+	/**
+	 * @param handle The handle of the route
+	 * @return The latest boolean value of the route
+	 */
+	public boolean getBoolean(int handle)
+	{
+		return getLong(handle) != 0;
+	}
+
+	/**
+	 * @param handle The handle of the route
+	 * @return The latest string value of the route, null if no value has been
+	 *         received yet
+	 */
+	public String getString(int handle)
+	{
+		long v;
+		String value;
+
+		do
+		{
+			v = beginRead();
+			value = strings[handle];
+		}
+		while (!endRead(v));
+
+		return value;
+	}
+
+	/**
+	 * @param handle The handle of the route
+	 * @return The number of values received for the route, 0 if none has been
+	 *         received yet
+	 */
+	public long getSequence(int handle)
+	{
+		long v;
+		long value;
+
+		do
+		{
+			v = beginRead();
+			value = sequences[handle];
+		}
+		while (!endRead(v));
+
+		return value;
+	}
+
+	/**
+	 * @param handle The handle of the route
+	 * @return The time the latest value of the route was received, as given by
+	 *         {@link System#nanoTime()}
+	 */
+	public long getTimestamp(int handle)
+	{
+		long v;
+		long value;
+
+		do
+		{
+			v = beginRead();
+			value = timestamps[handle];
+		}
+		while (!endRead(v));
+
+		return value;
+	}
+
+	/**
+	 * Copies the state of all registered routes into the given arrays at the
+	 * index of their handle. All copied values belong to the same point in
+	 * time. Arrays may be null if they are of no interest.
+	 * 
+	 * @param values Receives the numeric values
+	 * @param sequences Receives the sequence numbers
+	 * @param timestamps Receives the receive timestamps
+	 * @return The number of routes copied, limited by the length of the
+	 *         shortest given array
+	 */
+	public int snapshot(long[] values, long[] sequences, long[] timestamps)
+	{
+		int count = size;
+		count = values != null ? Math.min(count, values.length) : count;
+		count = sequences != null ? Math.min(count, sequences.length) : count;
+		count = timestamps != null ? Math.min(count, timestamps.length) : count;
+
+		long v;
+
+		do
+		{
+			v = beginRead();
+
+			if (values != null)
+			{
+				System.arraycopy(this.values, 0, values, 0, count);
+			}
+
+			if (sequences != null)
+			{
+				System.arraycopy(this.sequences, 0, sequences, 0, count);
+			}
+
+			if (timestamps != null)
+			{
+				System.arraycopy(this.timestamps, 0, timestamps, 0, count);
+			}
+		}
+		while (!endRead(v));
+
+		return count;
+	}
+
+	/**
+	 * @return The version to pass to {@link #endRead(long)}, waits while an
+	 *         update is in progress
+	 */
+	private long beginRead()
+	{
+		long v;
+
+		while (((v = version.getAcquire()) & 1) != 0)
+		{
+			Thread.onSpinWait();
+		}
+
+		return v;
+	}
+
+	/**
+	 * @param v The version returned by {@link #beginRead()}
+	 * @return True if no update happened since {@link #beginRead()}
+	 */
+	private boolean endRead(long v)
+	{
+		VarHandle.loadLoadFence();
+		return version.getOpaque() == v;
+	}
+}
@@ -0,0 +1,360 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.client;
+
+import java.util.Random;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import at.ac.sbg.icts.spacebrew.client.metrics.SpacebrewMetrics;
+
+/**
+ * Measures the latency of messages routed through the Spacebrew server, so
+ * lags can be attributed to the client, the network or the server. The probe
+ * adds a publisher and a subscriber named {@link #NAME} to the client, asks
+ * the server to route the publisher to the subscriber (as admin client, see
+ * {@link SpacebrewClient#setRouteTracking(boolean)}) and publishes
+ * timestamped probe messages at a fixed interval.
+ * <p/>
+ * Probes of this client are timed with the monotonic clock and recorded as
+ * round trip time in {@link SpacebrewMetrics#getProbeRoundTrip()}. Comparing
+ * it with the round trip time of pings (see
+ * {@link SpacebrewClient#setPingInterval(long)}), which the server answers
+ * without routing, yields the time spent in the server. Probes of other
+ * clients routed to the subscriber are recorded as one-way latency in
+ * {@link SpacebrewMetrics#getProbeOneWay()}, which is only as accurate as the
+ * clocks of both hosts are synchronized.
+ * <p/>
+ * A probe message is encoded as
+ * {@code <probe id>:<sequence>:<monotonic nanos>:<wall clock nanos>}. At the
+ * default interval of one second the probe costs a few hundred bytes per
+ * second, so it can run continuously in production.
+ * 
+ * @author Axel Baumgartner
+ */
+public class LatencyProbe
+{
+	/**
+	 * The name of the publisher and the subscriber of the probe.
+	 */
+	public static final String		NAME				= "_probe";
+
+	/**
+	 * The default time between two probes in milliseconds.
+	 */
+	public static final long		DEFAULT_INTERVAL	= 1000;
+
+	/**
+	 * The time after which the route is requested again if the server has
+	 * not confirmed it, in milliseconds.
+	 */
+	private static final long		ROUTE_RETRY			= 5000;
+
+	/**
+	 * Provides logging facilities.
+	 */
+	private final Logger			log					= LoggerFactory.getLogger(LatencyProbe.class);
+
+	/**
+	 * The client whose latency is measured.
+	 */
+	private final SpacebrewClient	client;
+
+	/**
+	 * Tells the probes of this client from the probes of other clients.
+	 */
+	private final long				id					= new Random().nextLong() & Long.MAX_VALUE;
+
+	/**
+	 * The wall clock time in nanoseconds minus the monotonic time, so wall
+	 * clock time stamps with nanosecond resolution can be derived from
+	 * {@link System#nanoTime()}.
+	 */
+	private final long				epochOffset;
+
+	/**
+	 * Receives the probes routed to the subscriber.
+	 */
+	private final StringSubscriber	subscriber;
+
+	/**
+	 * The time between two probes in milliseconds.
+	 */
+	private volatile long			interval			= DEFAULT_INTERVAL;
+
+	/**
+	 * The task publishing the probes, null if the probe is stopped.
+	 */
+	private ScheduledFuture<?>		task;
+
+	/**
+	 * The sequence number of the last probe sent.
+	 */
+	private final AtomicLong		sequence			= new AtomicLong();
+
+	/**
+	 * The number of probes of this client received.
+	 */
+	private final AtomicLong		received			= new AtomicLong();
+
+	/**
+	 * The time the route was requested last as given by
+	 * {@link System#nanoTime()}, 0 if it has not been requested yet.
+	 */
+	private volatile long			routeRequested		= 0;
+
+	/**
+	 * The smoothed round trip time in nanoseconds, -1 if no probe has been
+	 * received yet.
+	 */
+	private volatile long			roundTripNanos		= -1;
+
+	/**
+	 * @param client The client whose latency is measured
+	 */
+	public LatencyProbe(SpacebrewClient client)
+	{
+		this.client = client;
+		this.epochOffset = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis()) - System.nanoTime();
+		this.subscriber = new StringSubscriber()
+		{
+			@Override
+			public void receive(String value)
+			{
+				onProbe(value);
+			}
+		};
+	}
+
+	/**
+	 * Sets the time between two probes, takes effect when the probe is
+	 * started next.
+	 * 
+	 * @param interval The time between two probes in milliseconds
+	 */
+	public void setInterval(long interval)
+	{
+		if (interval <= 0)
+		{
+			throw new IllegalArgumentException("Invalid interval: " + interval);
+		}
+
+		this.interval = interval;
+	}
+
+	/**
+	 * @return The time between two probes in milliseconds
+	 */
+	public long getInterval()
+	{
+		return interval;
+	}
+
+	/**
+	 * Adds the publisher and subscriber of the probe to the client, enables
+	 * route tracking and starts publishing probes.
+	 */
+	public synchronized void start()
+	{
+		if (task != null)
+		{
+			return;
+		}
+
+		client.addPublisher(NAME, SpacebrewMessage.TYPE_STRING, "");
+		client.addSubscriber(NAME, subscriber);
+		client.setRouteTracking(true);
+
+		routeRequested = 0;
+		task = client.getExecutor().scheduleAtFixedRate(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				probe();
+			}
+		}, 0, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops publishing probes, removes the route and the publisher and
+	 * subscriber of the probe. Route tracking stays enabled.
+	 */
+	public synchronized void stop()
+	{
+		if (task == null)
+		{
+			return;
+		}
+
+		task.cancel(false);
+		task = null;
+
+		SpacebrewRoute route = getRoute();
+
+		if (route != null && client.isConnected())
+		{
+			client.removeRoute(route);
+		}
+
+		client.removePublisher(NAME, SpacebrewMessage.TYPE_STRING);
+		client.removeSubscriber(NAME, SpacebrewMessage.TYPE_STRING);
+	}
+
+	/**
+	 * @return True while probes are published
+	 */
+	public synchronized boolean isRunning()
+	{
+		return task != null;
+	}
+
+	/**
+	 * @return True if the server confirmed the route of the probe
+	 */
+	public boolean isRouted()
+	{
+		SpacebrewRoute route = getRoute();
+		return route != null && client.getRoutes().contains(route);
+	}
+
+	/**
+	 * @return The number of probes sent
+	 */
+	public long getSent()
+	{
+		return sequence.get();
+	}
+
+	/**
+	 * @return The number of probes of this client received
+	 */
+	public long getReceived()
+	{
+		return received.get();
+	}
+
+	/**
+	 * @return The smoothed round trip time of the probes through the server
+	 *         in nanoseconds, -1 if no probe has been received yet
+	 */
+	public long getRoundTripNanos()
+	{
+		return roundTripNanos;
+	}
+
+	/**
+	 * @return The smoothed time the server takes to route a message in
+	 *         nanoseconds, estimated as the difference of the round trip time
+	 *         of the probes and of pings, -1 if either is unknown
+	 */
+	public long getServerNanos()
+	{
+		long probe = roundTripNanos;
+		long ping = client.getRoundTripNanos();
+
+		return probe < 0 || ping < 0 ? -1 : Math.max(0, probe - ping);
+	}
+
+	/**
+	 * Publishes a probe, after requesting the route if it is missing.
+	 */
+	private void probe()
+	{
+		if (!client.isConnected())
+		{
+			return;
+		}
+
+		long now = System.nanoTime();
+
+		if (!isRouted())
+		{
+			SpacebrewRoute route = getRoute();
+
+			if (route == null || (routeRequested != 0 && now - routeRequested < TimeUnit.MILLISECONDS
+					.toNanos(ROUTE_RETRY)))
+			{
+				return;
+			}
+
+			log.debug("Requesting route for latency probe: {}", route);
+			client.addRoute(route);
+			routeRequested = now;
+			return;
+		}
+
+		StringBuilder value = new StringBuilder(64);
+		value.append(id).append(':').append(sequence.incrementAndGet()).append(':').append(now).append(':')
+				.append(now + epochOffset);
+
+		client.publish(NAME, SpacebrewMessage.TYPE_STRING, value);
+	}
+
+	/**
+	 * Records the latency of a received probe.
+	 * 
+	 * @param value The probe message
+	 */
+	private void onProbe(String value)
+	{
+		long now = System.nanoTime();
+		String[] fields = value.split(":");
+
+		if (fields.length != 4)
+		{
+			return;
+		}
+
+		try
+		{
+			if (Long.parseLong(fields[0]) == id)
+			{
+				long nanos = now - Long.parseLong(fields[2]);
+
+				client.getMetrics().getProbeRoundTrip().record(nanos);
+				received.incrementAndGet();
+
+				long smoothed = roundTripNanos;
+				roundTripNanos = smoothed < 0 ? nanos : smoothed + ((nanos - smoothed) >> 3);
+			}
+			else
+			{
+				client.getMetrics().getProbeOneWay().record(now + epochOffset - Long.parseLong(fields[3]));
+			}
+		}
+		catch (NumberFormatException e)
+		{
+			log.debug("Ignored invalid probe: {}", value);
+		}
+	}
+
+	/**
+	 * @return The route from the publisher to the subscriber of the probe,
+	 *         null if the remote address of the client is unknown yet
+	 */
+	private SpacebrewRoute getRoute()
+	{
+		String address = client.getRemoteAddress();
+
+		if (address == null)
+		{
+			return null;
+		}
+
+		return new SpacebrewRoute(client.getCurrentName(), address, NAME, client.getCurrentName(), address, NAME,
+				SpacebrewMessage.TYPE_STRING);
+	}
+}
@@ -0,0 +1,245 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.client;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Streams an {@link OutboundMessage} as UTF-8 encoded JSON into byte buffers
+ * of limited size, so large values can be sent in several WebSocket frames
+ * without building the complete JSON string first. Publisher messages are
+ * wrapped into the Spacebrew message envelope
+ * <code>{"message":{"clientName":...,"name":...,"type":...,"value":...}}</code>
+ * , control messages are written as they are.
+ * <p/>
+ * A message is started with {@link #begin(OutboundMessage, String)} and
+ * written by calling {@link #encode(ByteBuffer)} until it returns true.
+ * Instances are not thread-safe.
+ * 
+ * @author Axel Baumgartner
+ */
+class MessageEncoder
+{
+	/**
+	 * The maximum number of bytes a single character is encoded to (an
+	 * escaped character \\uXXXX).
+	 */
+	static final int				MAX_BYTES_PER_CHAR	= 6;
+
+	/**
+	 * The hexadecimal digits used for escaped characters.
+	 */
+	private static final char[]		HEX					= "0123456789abcdef".toCharArray();
+
+	/**
+	 * The segments of the current message.
+	 */
+	private final CharSequence[]	segments			= new CharSequence[9];
+
+	/**
+	 * True for every segment whose characters have to be escaped.
+	 */
+	private final boolean[]			escaped				= new boolean[9];
+
+	/**
+	 * The number of segments of the current message.
+	 */
+	private int						count;
+
+	/**
+	 * The index of the segment currently written.
+	 */
+	private int						segment;
+
+	/**
+	 * The index of the next character of the segment currently written.
+	 */
+	private int						position;
+
+	/**
+	 * True once the first part of the current message has been written.
+	 */
+	private boolean					started;
+
+	/**
+	 * Starts encoding a message.
+	 * 
+	 * @param message The message to encode
+	 * @param clientName The name of the client sending the message
+	 */
+	void begin(OutboundMessage message, String clientName)
+	{
+		count = 0;
+		segment = 0;
+		position = 0;
+		started = false;
+
+		if (message.isControl())
+		{
+			add(message.value, false);
+			return;
+		}
+
+		add("{\"message\":{\"clientName\":\"", false);
+		add(clientName, true);
+		add("\",\"name\":\"", false);
+		add(message.name, true);
+		add("\",\"type\":\"", false);
+		add(message.type, true);
+		add("\",\"value\":\"", false);
+		add(message.value, true);
+		add("\"}}", false);
+	}
+
+	/**
+	 * Writes the next part of the current message into a buffer.
+	 * 
+	 * @param buffer The buffer to write into, must have room for at least
+	 *            {@link #MAX_BYTES_PER_CHAR} bytes
+	 * @return True if the message has been written completely, false if the
+	 *         buffer is full
+	 */
+	boolean encode(ByteBuffer buffer)
+	{
+		started = true;
+
+		while (segment < count)
+		{
+			CharSequence chars = segments[segment];
+			boolean escape = escaped[segment];
+			int length = chars.length();
+
+			while (position < length)
+			{
+				if (buffer.remaining() < MAX_BYTES_PER_CHAR)
+				{
+					return false;
+				}
+
+				char c = chars.charAt(position++);
+
+				if (escape && (c == '"' || c == '\\'))
+				{
+					buffer.put((byte) '\\');
+					buffer.put((byte) c);
+				}
+				else if (c < 0x80)
+				{
+					if (escape && c < 0x20)
+					{
+						putEscaped(buffer, c);
+					}
+					else
+					{
+						buffer.put((byte) c);
+					}
+				}
+				else if (c < 0x800)
+				{
+					buffer.put((byte) (0xc0 | (c >> 6)));
+					buffer.put((byte) (0x80 | (c & 0x3f)));
+				}
+				else if (Character.isHighSurrogate(c) && position < length
+						&& Character.isLowSurrogate(chars.charAt(position)))
+				{
+					int codePoint = Character.toCodePoint(c, chars.charAt(position++));
+					buffer.put((byte) (0xf0 | (codePoint >> 18)));
+					buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3f)));
+					buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3f)));
+					buffer.put((byte) (0x80 | (codePoint & 0x3f)));
+				}
+				else if (Character.isSurrogate(c))
+				{
+					// unpaired surrogates have no UTF-8 representation
+					if (escape)
+					{
+						putEscaped(buffer, c);
+					}
+					else
+					{
+						buffer.put((byte) '?');
+					}
+				}
+				else
+				{
+					buffer.put((byte) (0xe0 | (c >> 12)));
+					buffer.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+					buffer.put((byte) (0x80 | (c & 0x3f)));
+				}
+			}
+
+			segment++;
+			position = 0;
+		}
+
+		return true;
+	}
+
+	/**
+	 * @return True if no part of the current message has been written yet
+	 */
+	boolean isFirst()
+	{
+		return !started;
+	}
+
+	/**
+	 * Releases the references to the current message.
+	 */
+	void clear()
+	{
+		for (int i = 0; i < count; i++)
+		{
+			segments[i] = null;
+		}
+
+		count = 0;
+		segment = 0;
+		position = 0;
+	}
+
+	private void add(CharSequence chars, boolean escape)
+	{
+		segments[count] = chars != null ? chars : "";
+		escaped[count] = escape;
+		count++;
+	}
+
+	private static void putEscaped(ByteBuffer buffer, char c)
+	{
+		buffer.put((byte) '\\');
+
+		switch (c)
+		{
+			case '\n':
+				buffer.put((byte) 'n');
+				break;
+			case '\r':
+				buffer.put((byte) 'r');
+				break;
+			case '\t':
+				buffer.put((byte) 't');
+				break;
+			case '\b':
+				buffer.put((byte) 'b');
+				break;
+			case '\f':
+				buffer.put((byte) 'f');
+				break;
+			default:
+				buffer.put((byte) 'u');
+				buffer.put((byte) HEX[(c >> 12) & 0xf]);
+				buffer.put((byte) HEX[(c >> 8) & 0xf]);
+				buffer.put((byte) HEX[(c >> 4) & 0xf]);
+				buffer.put((byte) HEX[c & 0xf]);
+		}
+	}
+}
@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.client;
+
+/**
+ * A message waiting in the {@link OutboundQueue}. Either a publisher message
+ * that is encoded when it is sent, or an already encoded control message
+ * (e.g. a configuration message).
+ * 
+ * @author Axel Baumgartner
+ */
+class OutboundMessage
+{
+	/**
+	 * The name of the publisher, null for control messages.
+	 */
+	final String		name;
+
+	/**
+	 * The type of the publisher, null for control messages.
+	 */
+	final String		type;
+
+	/**
+	 * The value of the message, the complete encoded message for control
+	 * messages.
+	 */
+	final CharSequence	value;
+
+	/**
+	 * The time the message was queued, as given by {@link System#nanoTime()}.
+	 */
+	final long			queued;
+
+	/**
+	 * The time after which the message is dropped instead of sent, as given by
+	 * {@link System#nanoTime()}, 0 if the message never expires.
+	 */
+	final long			deadline;
+
+	/**
+	 * The next message of a batch, sent right after this one without other
+	 * messages in between, null if there is none.
+	 */
+	OutboundMessage		next;
+
+	/**
+	 * @param name The name of the publisher, null for control messages
+	 * @param type The type of the publisher, null for control messages
+	 * @param value The value, or the encoded message for control messages
+	 * @param timeToLive The time in milliseconds after which the message is
+	 *            dropped instead of sent, 0 if it never expires
+	 */
+	OutboundMessage(String name, String type, CharSequence value, long timeToLive)
+	{
+		this.name = name;
+		this.type = type;
+		this.value = value;
+		this.queued = System.nanoTime();
+		this.deadline = timeToLive > 0 ? queued + timeToLive * 1000000L : 0;
+	}
+
+	/**
+	 * @return True if this is an already encoded control message
+	 */
+	boolean isControl()
+	{
+		return name == null;
+	}
+
+	/**
+	 * @param now The current time as given by {@link System#nanoTime()}
+	 * @return True if the message has expired
+	 */
+	boolean isExpired(long now)
+	{
+		return deadline != 0 && now - deadline > 0;
+	}
+}
@@ -0,0 +1,55 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.client;
+
+/**
+ * The priority classes of outgoing messages. Each class is queued in its own
+ * lane, lanes are drained according to the {@link OutboundScheduling} of the
+ * client.
+ * 
+ * @author Axel Baumgartner
+ */
+public enum OutboundPriority
+{
+	/**
+	 * For messages that must overtake everything else (e.g. an emergency
+	 * stop).
+	 */
+	HIGH(4),
+
+	/**
+	 * The default priority.
+	 */
+	NORMAL(2),
+
+	/**
+	 * For bulk messages that may wait (e.g. large documents).
+	 */
+	LOW(1);
+
+	/**
+	 * The default weight of this priority for weighted scheduling.
+	 */
+	private final int	defaultWeight;
+
+	private OutboundPriority(int defaultWeight)
+	{
+		this.defaultWeight = defaultWeight;
+	}
+
+	/**
+	 * @return The default weight of this priority for weighted scheduling
+	 */
+	public int getDefaultWeight()
+	{
+		return defaultWeight;
+	}
+}
@@ -0,0 +1,272 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.client;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Queues outgoing messages in one lane per {@link OutboundPriority} plus a
+ * control lane for configuration messages, which is always drained first.
+ * Messages may be offered by any thread, but must only be polled by a single
+ * thread at a time. Expired messages are dropped when they are polled.
+ * 
+ * @author Axel Baumgartner
+ */
+class OutboundQueue
+{
+	/**
+	 * The index of the control lane.
+	 */
+	private static final int										CONTROL		= 0;
+
+	/**
+	 * The lanes, the control lane followed by one lane per priority.
+	 */
+	private final ConcurrentLinkedQueue<OutboundMessage>[]		lanes;
+
+	/**
+	 * The weight per lane for weighted scheduling.
+	 */
+	private final int[]												weights;
+
+	/**
+	 * The messages each lane may still send in the current round of weighted
+	 * scheduling, only used by the polling thread.
+	 */
+	private final int[]												credits;
+
+	/**
+	 * The number of queued messages.
+	 */
+	private final AtomicInteger										size		= new AtomicInteger();
+
+	/**
+	 * The number of messages dropped because they expired.
+	 */
+	private final AtomicLong										expired		= new AtomicLong();
+
+	/**
+	 * The order in which the lanes are drained.
+	 */
+	private volatile OutboundScheduling								scheduling	= OutboundScheduling.STRICT;
+
+	OutboundQueue()
+	{
+		OutboundPriority[] priorities = OutboundPriority.values();
+
+		@SuppressWarnings("unchecked")
+		ConcurrentLinkedQueue<OutboundMessage>[] lanes = (ConcurrentLinkedQueue<OutboundMessage>[]) new ConcurrentLinkedQueue<?>[priorities.length
+				+ 1];
+		this.lanes = lanes;
+		weights = new int[lanes.length];
+		credits = new int[lanes.length];
+
+		for (int i = 0; i < lanes.length; i++)
+		{
+			lanes[i] = new ConcurrentLinkedQueue<OutboundMessage>();
+		}
+
+		for (OutboundPriority priority : priorities)
+		{
+			weights[lane(priority)] = priority.getDefaultWeight();
+		}
+	}
+
+	/**
+	 * Queues a publisher message.
+	 * 
+	 * @param message The message to queue
+	 * @param priority The priority of the message
+	 */
+	void offer(OutboundMessage message, OutboundPriority priority)
+	{
+		lanes[lane(priority)].offer(message);
+		size.incrementAndGet();
+	}
+
+	/**
+	 * Queues a control message.
+	 * 
+	 * @param message The message to queue
+	 */
+	void offerControl(OutboundMessage message)
+	{
+		lanes[CONTROL].offer(message);
+		size.incrementAndGet();
+	}
+
+	/**
+	 * Takes the next message to send according to the scheduling, dropping
+	 * expired messages on the way.
+	 * 
+	 * @return The next message to send or null if the queue is empty
+	 */
+	OutboundMessage poll()
+	{
+		OutboundMessage message;
+
+		while ((message = next()) != null)
+		{
+			size.decrementAndGet();
+
+			if (!message.isExpired(System.nanoTime()))
+			{
+				return message;
+			}
+
+			expired.incrementAndGet();
+		}
+
+		return null;
+	}
+
+	/**
+	 * Drops all queued messages.
+	 * 
+	 * @return The number of dropped messages
+	 */
+	int clear()
+	{
+		int cleared = 0;
+
+		for (ConcurrentLinkedQueue<OutboundMessage> lane : lanes)
+		{
+			while (lane.poll() != null)
+			{
+				size.decrementAndGet();
+				cleared++;
+			}
+		}
+
+		return cleared;
+	}
+
+	/**
+	 * @return The number of queued messages
+	 */
+	int size()
+	{
+		return size.get();
+	}
+
+	/**
+	 * @return True if no messages are queued
+	 */
+	boolean isEmpty()
+	{
+		return size.get() == 0;
+	}
+
+	/**
+	 * @return The number of messages dropped because they expired
+	 */
+	long getExpired()
+	{
+		return expired.get();
+	}
+
+	/**
+	 * @param scheduling The order in which the lanes are drained
+	 */
+	void setScheduling(OutboundScheduling scheduling)
+	{
+		this.scheduling = scheduling;
+	}
+
+	/**
+	 * @return The order in which the lanes are drained
+	 */
+	OutboundScheduling getScheduling()
+	{
+		return scheduling;
+	}
+
+	/**
+	 * @param priority The priority
+	 * @param weight The number of messages of the priority sent per round of
+	 *            weighted scheduling, at least 1
+	 */
+	void setWeight(OutboundPriority priority, int weight)
+	{
+		weights[lane(priority)] = Math.max(1, weight);
+	}
+
+	/**
+	 * @param priority The priority
+	 * @return The number of messages of the priority sent per round of weighted
+	 *         scheduling
+	 */
+	int getWeight(OutboundPriority priority)
+	{
+		return weights[lane(priority)];
+	}
+
+	/**
+	 * @return The next message according to the scheduling, regardless of its
+	 *         deadline
+	 */
+	private OutboundMessage next()
+	{
+		OutboundMessage message = lanes[CONTROL].poll();
+
+		if (message != null)
+		{
+			return message;
+		}
+
+		if (scheduling == OutboundScheduling.STRICT)
+		{
+			for (int i = CONTROL + 1; i < lanes.length; i++)
+			{
+				message = lanes[i].poll();
+
+				if (message != null)
+				{
+					return message;
+				}
+			}
+
+			return null;
+		}
+
+		for (int round = 0; round < 2; round++)
+		{
+			for (int i = CONTROL + 1; i < lanes.length; i++)
+			{
+				if (credits[i] > 0)
+				{
+					message = lanes[i].poll();
+
+					if (message != null)
+					{
+						credits[i]--;
+						return message;
+					}
+				}
+			}
+
+			System.arraycopy(weights, 0, credits, 0, weights.length);
+		}
+
+		return null;
+	}
+
+	/**
+	 * @param priority The priority
+	 * @return The index of the lane of the priority
+	 */
+	private static int lane(OutboundPriority priority)
+	{
+		return CONTROL + 1 + priority.ordinal();
+	}
+}
@@ -0,0 +1,31 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.client;
+
+/**
+ * The order in which the priority lanes of the outbound queue are drained.
+ * Configuration messages are always sent first.
+ * 
+ * @author Axel Baumgartner
+ */
+public enum OutboundScheduling
+{
+	/**
+	 * A lane is only drained while all lanes of higher priority are empty.
+	 */
+	STRICT,
+
+	/**
+	 * Lanes are drained round robin, each lane sends up to its weight in
+	 * messages per round.
+	 */
+	WEIGHTED
+}
@@ -0,0 +1,783 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.client;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_17;
+import org.java_websocket.exceptions.InvalidDataException;
+import org.java_websocket.exceptions.InvalidFrameException;
+import org.java_websocket.exceptions.InvalidHandshakeException;
+import org.java_websocket.exceptions.LimitExedeedException;
+import org.java_websocket.framing.FrameBuilder;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.framing.Framedata.Opcode;
+import org.java_websocket.framing.FramedataImpl1;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.handshake.ClientHandshakeBuilder;
+import org.java_websocket.handshake.HandshakeBuilder;
+import org.java_websocket.handshake.ServerHandshake;
+import org.java_websocket.handshake.ServerHandshakeBuilder;
+
+/**
+ * Extends the WebSocket protocol (RFC 6455) by the permessage-deflate
+ * extension as defined in <a href="http://tools.ietf.org/html/rfc7692">RFC
+ * 7692</a>. The extension is offered by clients and accepted by servers, if
+ * the other side does not support it, messages are sent uncompressed.
+ * <p/>
+ * Outgoing data messages of at least the compression threshold are
+ * compressed, smaller ones (e.g. boolean and range messages) are sent as they
+ * are. The compression context is kept between messages unless the other side
+ * asks for no context takeover. Incoming compressed messages are decompressed
+ * before they are passed on.
+ * <p/>
+ * A copy of the draft is used per connection, all copies share the
+ * compression settings and the {@link CompressionStatistics}.
+ * 
+ * @author Axel Baumgartner
+ */
+public class PerMessageDeflateDraft extends Draft_17
+{
+	/**
+	 * The name of the extension.
+	 */
+	public static final String				EXTENSION					= "permessage-deflate";
+
+	/**
+	 * The default size in bytes from which outgoing messages are compressed.
+	 */
+	public static final int					DEFAULT_THRESHOLD			= 256;
+
+	/**
+	 * The HTTP header used to negotiate extensions.
+	 */
+	private static final String				EXTENSIONS_HEADER			= "Sec-WebSocket-Extensions";
+
+	/**
+	 * The bit of the first frame of a message marking the message as
+	 * compressed.
+	 */
+	private static final int				RSV1						= 0x40;
+
+	/**
+	 * The bytes each compressed message ends with, removed before sending and
+	 * added again before decompressing.
+	 */
+	private static final byte[]				TAIL						= { 0x00, 0x00, (byte) 0xff, (byte) 0xff };
+
+	/**
+	 * The size in bytes from which outgoing messages are compressed.
+	 */
+	private final int						threshold;
+
+	/**
+	 * The compression level used for outgoing messages.
+	 */
+	private final int						level;
+
+	/**
+	 * Counts compressed and decompressed messages.
+	 */
+	private final CompressionStatistics		statistics;
+
+	/**
+	 * True if the extension has been negotiated for the connection.
+	 */
+	private volatile boolean				negotiated					= false;
+
+	/**
+	 * True if outgoing messages may be compressed. False if the other side
+	 * demands a smaller window than {@link Deflater} supports.
+	 */
+	private boolean							compressOutgoing			= true;
+
+	/**
+	 * True if the compression context is reset after every outgoing message.
+	 */
+	private boolean							localNoContextTakeover		= false;
+
+	/**
+	 * True if the decompression context is reset after every incoming message.
+	 */
+	private boolean							remoteNoContextTakeover		= false;
+
+	/**
+	 * Compresses outgoing messages, created once the extension is negotiated.
+	 */
+	private Deflater						deflater;
+
+	/**
+	 * Decompresses incoming messages, created once the extension is
+	 * negotiated.
+	 */
+	private Inflater						inflater;
+
+	/**
+	 * True while the fragments of a compressed outgoing message are sent.
+	 */
+	private boolean							compressing					= false;
+
+	/**
+	 * The size of the current outgoing message before compression.
+	 */
+	private long							compressingBytesIn			= 0;
+
+	/**
+	 * The size of the current outgoing message after compression.
+	 */
+	private long							compressingBytesOut			= 0;
+
+	/**
+	 * The time spent compressing the current outgoing message.
+	 */
+	private long							compressingNanos			= 0;
+
+	/**
+	 * True while the fragments of a compressed incoming message are received.
+	 */
+	private boolean							decompressing				= false;
+
+	/**
+	 * The size of the current incoming message before decompression.
+	 */
+	private long							decompressingBytesIn		= 0;
+
+	/**
+	 * The size of the current incoming message after decompression.
+	 */
+	private long							decompressingBytesOut		= 0;
+
+	/**
+	 * The time spent decompressing the current incoming message.
+	 */
+	private long							decompressingNanos			= 0;
+
+	/**
+	 * Holds the payload passed to the deflater.
+	 */
+	private byte[]							deflaterInput				= new byte[1024];
+
+	/**
+	 * Holds the output of the deflater.
+	 */
+	private byte[]							deflaterOutput				= new byte[1024];
+
+	/**
+	 * Holds the payload passed to the inflater.
+	 */
+	private byte[]							inflaterInput				= new byte[1024];
+
+	/**
+	 * Holds the output of the inflater.
+	 */
+	private byte[]							inflaterOutput				= new byte[1024];
+
+	/**
+	 * Holds received bytes that do not form a complete frame yet, null if
+	 * there are none.
+	 */
+	private ByteBuffer						incomplete;
+
+	/**
+	 * Creates a draft with the default threshold and compression level.
+	 */
+	public PerMessageDeflateDraft()
+	{
+		this(DEFAULT_THRESHOLD, Deflater.DEFAULT_COMPRESSION, new CompressionStatistics());
+	}
+
+	/**
+	 * @param threshold The size in bytes from which outgoing messages are
+	 *            compressed
+	 * @param level The compression level (0-9 or
+	 *            {@link Deflater#DEFAULT_COMPRESSION})
+	 * @param statistics Counts compressed and decompressed messages
+	 */
+	public PerMessageDeflateDraft(int threshold, int level, CompressionStatistics statistics)
+	{
+		this.threshold = threshold;
+		this.level = level;
+		this.statistics = statistics;
+	}
+
+	/**
+	 * @return True if the extension has been negotiated for the connection
+	 */
+	public boolean isNegotiated()
+	{
+		return negotiated;
+	}
+
+	/**
+	 * @return The statistics shared by all copies of the draft
+	 */
+	public CompressionStatistics getStatistics()
+	{
+		return statistics;
+	}
+
+	@Override
+	public Draft copyInstance()
+	{
+		return new PerMessageDeflateDraft(threshold, level, statistics);
+	}
+
+	@Override
+	public ClientHandshakeBuilder postProcessHandshakeRequestAsClient(ClientHandshakeBuilder request)
+	{
+		super.postProcessHandshakeRequestAsClient(request);
+		request.put(EXTENSIONS_HEADER, EXTENSION);
+		return request;
+	}
+
+	@Override
+	public HandshakeState acceptHandshakeAsClient(ClientHandshake request, ServerHandshake response)
+			throws InvalidHandshakeException
+	{
+		HandshakeState state = super.acceptHandshakeAsClient(request, response);
+
+		if (state == HandshakeState.MATCHED)
+		{
+			HashMap<String, String> parameters = findOffer(response.getFieldValue(EXTENSIONS_HEADER));
+
+			if (parameters != null)
+			{
+				localNoContextTakeover = parameters.containsKey("client_no_context_takeover");
+				remoteNoContextTakeover = parameters.containsKey("server_no_context_takeover");
+				compressOutgoing = !hasSmallWindow(parameters.get("client_max_window_bits"));
+				negotiate();
+			}
+		}
+
+		return state;
+	}
+
+	@Override
+	public HandshakeState acceptHandshakeAsServer(ClientHandshake request) throws InvalidHandshakeException
+	{
+		HandshakeState state = super.acceptHandshakeAsServer(request);
+
+		if (state == HandshakeState.MATCHED)
+		{
+			HashMap<String, String> parameters = findOffer(request.getFieldValue(EXTENSIONS_HEADER));
+
+			if (parameters != null && !hasSmallWindow(parameters.get("server_max_window_bits")))
+			{
+				localNoContextTakeover = parameters.containsKey("server_no_context_takeover");
+				remoteNoContextTakeover = parameters.containsKey("client_no_context_takeover");
+				negotiate();
+			}
+		}
+
+		return state;
+	}
+
+	@Override
+	public HandshakeBuilder postProcessHandshakeResponseAsServer(ClientHandshake request,
+			ServerHandshakeBuilder response) throws InvalidHandshakeException
+	{
+		HandshakeBuilder builder = super.postProcessHandshakeResponseAsServer(request, response);
+
+		if (negotiated)
+		{
+			String extension = EXTENSION;
+
+			if (localNoContextTakeover)
+			{
+				extension += "; server_no_context_takeover";
+			}
+
+			if (remoteNoContextTakeover)
+			{
+				extension += "; client_no_context_takeover";
+			}
+
+			builder.put(EXTENSIONS_HEADER, extension);
+		}
+
+		return builder;
+	}
+
+	@Override
+	public ByteBuffer createBinaryFrame(Framedata frame)
+	{
+		Opcode opcode = frame.getOpcode();
+
+		if (!negotiated || !isData(opcode))
+		{
+			return super.createBinaryFrame(frame);
+		}
+
+		synchronized (this)
+		{
+			if (opcode != Opcode.CONTINUOUS)
+			{
+				compressing = compressOutgoing
+						&& (!frame.isFin() || frame.getPayloadData().remaining() >= threshold);
+				compressingBytesIn = 0;
+				compressingBytesOut = 0;
+				compressingNanos = 0;
+			}
+
+			if (!compressing)
+			{
+				if (frame.isFin())
+				{
+					statistics.uncompressed();
+				}
+
+				return super.createBinaryFrame(frame);
+			}
+
+			FramedataImpl1 compressed = new FramedataImpl1(opcode);
+			compressed.setFin(frame.isFin());
+
+			try
+			{
+				compressed.setPayload(deflate(frame.getPayloadData().duplicate(), frame.isFin()));
+			}
+			catch (InvalidDataException e)
+			{
+				throw new IllegalStateException(e);
+			}
+
+			ByteBuffer encoded = super.createBinaryFrame(compressed);
+
+			if (opcode != Opcode.CONTINUOUS)
+			{
+				encoded.put(0, (byte) (encoded.get(0) | RSV1));
+			}
+
+			if (frame.isFin())
+			{
+				statistics.compressed(compressingBytesIn, compressingBytesOut, compressingNanos);
+			}
+
+			return encoded;
+		}
+	}
+
+	/**
+	 * Splits the received bytes into frames and decompresses compressed
+	 * messages. {@code Draft_10} rejects frames with the RSV1 bit set, so
+	 * complete frames are cut out here and the bit is cleared before they are
+	 * parsed.
+	 */
+	@Override
+	public List<Framedata> translateFrame(ByteBuffer buffer) throws InvalidDataException
+	{
+		if (!negotiated && incomplete == null)
+		{
+			return super.translateFrame(buffer);
+		}
+
+		ByteBuffer source = buffer;
+
+		if (incomplete != null)
+		{
+			if (incomplete.remaining() < buffer.remaining())
+			{
+				ByteBuffer larger = ByteBuffer.allocate(checkAlloc(incomplete.position() + buffer.remaining()));
+				incomplete.flip();
+				larger.put(incomplete);
+				incomplete = larger;
+			}
+
+			incomplete.put(buffer);
+			incomplete.flip();
+			source = incomplete;
+		}
+
+		List<Framedata> frames = new LinkedList<Framedata>();
+		int length;
+
+		while ((length = getFrameLength(source)) > 0 && length <= source.remaining())
+		{
+			// Draft_10 copies payloads from the backing array ignoring the
+			// array offset, so frames are parsed in place instead of sliced
+			int limit = source.limit();
+			int end = source.position() + length;
+
+			source.limit(end);
+			frames.add(translateCompleteFrame(source));
+			source.limit(limit);
+			source.position(end);
+		}
+
+		if (source.hasRemaining())
+		{
+			ByteBuffer rest = ByteBuffer.allocate(checkAlloc(Math.max(length, source.remaining())));
+			rest.put(source);
+			incomplete = rest;
+		}
+		else
+		{
+			incomplete = null;
+		}
+
+		return frames;
+	}
+
+	@Override
+	public void reset()
+	{
+		super.reset();
+		incomplete = null;
+	}
+
+	/**
+	 * Parses a complete frame and decompresses its payload if it belongs to
+	 * a compressed message.
+	 * 
+	 * @param frame The received bytes, limited to the end of the frame
+	 * @return The parsed frame
+	 * @throws InvalidDataException If the frame is invalid
+	 */
+	private Framedata translateCompleteFrame(ByteBuffer frame) throws InvalidDataException
+	{
+		int position = frame.position();
+		byte first = frame.get(position);
+		boolean compressed = (first & RSV1) != 0;
+		frame.put(position, (byte) (first & ~RSV1));
+
+		Framedata framedata;
+
+		try
+		{
+			framedata = translateSingleFrame(frame);
+		}
+		catch (InvalidDataException e)
+		{
+			throw e;
+		}
+		catch (RuntimeException e)
+		{
+			throw e;
+		}
+		catch (Throwable e)
+		{
+			// Draft_10 signals incomplete frames by a package-private exception
+			throw new InvalidFrameException(e);
+		}
+
+		Opcode opcode = framedata.getOpcode();
+
+		if (!isData(opcode))
+		{
+			if (compressed)
+			{
+				throw new InvalidFrameException("Compressed control frame");
+			}
+
+			return framedata;
+		}
+
+		if (opcode != Opcode.CONTINUOUS)
+		{
+			decompressing = compressed;
+			decompressingBytesIn = 0;
+			decompressingBytesOut = 0;
+			decompressingNanos = 0;
+		}
+		else if (compressed)
+		{
+			throw new InvalidFrameException("Compressed continuation frame");
+		}
+
+		if (decompressing)
+		{
+			((FrameBuilder) framedata).setPayload(inflate(framedata.getPayloadData(), framedata.isFin()));
+
+			if (framedata.isFin())
+			{
+				statistics.decompressed(decompressingBytesIn, decompressingBytesOut, decompressingNanos);
+			}
+		}
+
+		return framedata;
+	}
+
+	/**
+	 * Compresses a fragment of an outgoing message.
+	 * 
+	 * @param payload The fragment
+	 * @param fin Whether this is the last fragment of the message
+	 * @return The compressed fragment
+	 */
+	private ByteBuffer deflate(ByteBuffer payload, boolean fin)
+	{
+		long start = System.nanoTime();
+		int length = payload.remaining();
+
+		if (deflaterInput.length < length)
+		{
+			deflaterInput = new byte[length];
+		}
+
+		payload.get(deflaterInput, 0, length);
+		deflater.setInput(deflaterInput, 0, length);
+
+		int flush = fin ? Deflater.SYNC_FLUSH : Deflater.NO_FLUSH;
+		int count = 0;
+
+		while (true)
+		{
+			count += deflater.deflate(deflaterOutput, count, deflaterOutput.length - count, flush);
+
+			if (count < deflaterOutput.length)
+			{
+				break;
+			}
+
+			deflaterOutput = grow(deflaterOutput, count);
+		}
+
+		if (fin)
+		{
+			// the tail of the sync flush is implied by the FIN bit
+			count -= TAIL.length;
+
+			if (localNoContextTakeover)
+			{
+				deflater.reset();
+			}
+		}
+
+		ByteBuffer compressed = ByteBuffer.allocate(count);
+		compressed.put(deflaterOutput, 0, count);
+		compressed.flip();
+
+		compressingBytesIn += length;
+		compressingBytesOut += count;
+		compressingNanos += System.nanoTime() - start;
+
+		return compressed;
+	}
+
+	/**
+	 * Decompresses a fragment of an incoming message.
+	 * 
+	 * @param payload The fragment
+	 * @param fin Whether this is the last fragment of the message
+	 * @return The decompressed fragment
+	 * @throws InvalidDataException If the fragment is no valid deflate data
+	 */
+	private ByteBuffer inflate(ByteBuffer payload, boolean fin) throws InvalidDataException
+	{
+		long start = System.nanoTime();
+		int length = payload.remaining();
+		int total = fin ? length + TAIL.length : length;
+
+		if (inflaterInput.length < total)
+		{
+			inflaterInput = new byte[total];
+		}
+
+		payload.get(inflaterInput, 0, length);
+
+		if (fin)
+		{
+			System.arraycopy(TAIL, 0, inflaterInput, length, TAIL.length);
+		}
+
+		inflater.setInput(inflaterInput, 0, total);
+
+		int count = 0;
+
+		try
+		{
+			while (true)
+			{
+				int read = inflater.inflate(inflaterOutput, count, inflaterOutput.length - count);
+				count += read;
+
+				if (count == inflaterOutput.length)
+				{
+					inflaterOutput = grow(inflaterOutput, checkAlloc(count + 1));
+				}
+				else if (inflater.needsInput() || inflater.finished())
+				{
+					break;
+				}
+				else if (read == 0)
+				{
+					throw new InvalidFrameException("Could not decompress message");
+				}
+			}
+		}
+		catch (DataFormatException e)
+		{
+			throw new InvalidFrameException(e);
+		}
+
+		if (fin && (remoteNoContextTakeover || inflater.finished()))
+		{
+			inflater.reset();
+		}
+
+		ByteBuffer decompressed = ByteBuffer.allocate(count);
+		decompressed.put(inflaterOutput, 0, count);
+		decompressed.flip();
+
+		decompressingBytesIn += length;
+		decompressingBytesOut += count;
+		decompressingNanos += System.nanoTime() - start;
+
+		return decompressed;
+	}
+
+	/**
+	 * Enables the extension for the connection.
+	 */
+	private void negotiate()
+	{
+		deflater = new Deflater(level, true);
+		inflater = new Inflater(true);
+		negotiated = true;
+	}
+
+	/**
+	 * Determines the length of the frame at the position of a buffer.
+	 * 
+	 * @param buffer The received bytes
+	 * @return The length of the frame including its header, 0 if the header
+	 *         is incomplete
+	 * @throws InvalidDataException If the frame is too large
+	 */
+	private int getFrameLength(ByteBuffer buffer) throws InvalidDataException
+	{
+		int position = buffer.position();
+		int remaining = buffer.remaining();
+
+		if (remaining < 2)
+		{
+			return 0;
+		}
+
+		byte second = buffer.get(position + 1);
+		long payload = second & 0x7f;
+		int header = 2;
+
+		if (payload == 126)
+		{
+			if (remaining < 4)
+			{
+				return 0;
+			}
+
+			payload = buffer.getShort(position + 2) & 0xffff;
+			header = 4;
+		}
+		else if (payload == 127)
+		{
+			if (remaining < 10)
+			{
+				return 0;
+			}
+
+			payload = buffer.getLong(position + 2);
+			header = 10;
+		}
+
+		if ((second & 0x80) != 0)
+		{
+			header += 4;
+		}
+
+		if (payload < 0 || payload > Integer.MAX_VALUE - header)
+		{
+			throw new LimitExedeedException("Payload size is too big");
+		}
+
+		return checkAlloc((int) payload + header);
+	}
+
+	/**
+	 * Parses the offer of the permessage-deflate extension from a
+	 * Sec-WebSocket-Extensions header.
+	 * 
+	 * @param header The value of the header, may be null
+	 * @return The parameters of the first offer (name, value) or null if the
+	 *         extension is not offered
+	 */
+	private static HashMap<String, String> findOffer(String header)
+	{
+		if (header == null)
+		{
+			return null;
+		}
+
+		for (String offer : header.split(","))
+		{
+			String[] parts = offer.split(";");
+
+			if (!parts[0].trim().equalsIgnoreCase(EXTENSION))
+			{
+				continue;
+			}
+
+			HashMap<String, String> parameters = new HashMap<String, String>();
+
+			for (int i = 1; i < parts.length; i++)
+			{
+				String[] parameter = parts[i].split("=", 2);
+				String value = parameter.length > 1 ? parameter[1].trim().replace("\"", "") : "";
+				parameters.put(parameter[0].trim().toLowerCase(), value);
+			}
+
+			return parameters;
+		}
+
+		return null;
+	}
+
+	/**
+	 * @param bits The value of a max_window_bits parameter, may be null or
+	 *            empty
+	 * @return True if the value demands a smaller window than {@link Deflater}
+	 *         uses
+	 */
+	private static boolean hasSmallWindow(String bits)
+	{
+		if (bits == null || bits.isEmpty())
+		{
+			return false;
+		}
+
+		try
+		{
+			return Integer.parseInt(bits) < 15;
+		}
+		catch (NumberFormatException e)
+		{
+			return true;
+		}
+	}
+
+	private static boolean isData(Opcode opcode)
+	{
+		return opcode == Opcode.TEXT || opcode == Opcode.BINARY || opcode == Opcode.CONTINUOUS;
+	}
+
+	private static byte[] grow(byte[] array, int minimum)
+	{
+		byte[] larger = new byte[Math.max(minimum, array.length * 2)];
+		System.arraycopy(array, 0, larger, 0, array.length);
+		return larger;
+	}
+}
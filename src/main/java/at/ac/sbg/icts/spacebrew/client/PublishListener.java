@@ -0,0 +1,31 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.client;
+
+/**
+ * Interface contract for objects that want to observe the messages published
+ * by a {@link SpacebrewClient}, e.g. to record them. Methods are called on
+ * the publishing thread before the message is sent and must return quickly.
+ * 
+ * @author Axel Baumgartner
+ */
+public interface PublishListener
+{
+	/**
+	 * Called when a message has been queued for sending.
+	 * 
+	 * @param name The name of the publisher
+	 * @param type The type of the publisher
+	 * @param value The value of the message, must not be kept since it may be
+	 *            mutable
+	 */
+	public void onPublish(String name, String type, CharSequence value);
+}
@@ -0,0 +1,37 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.client;
+
+/**
+ * Interface contract for objects that want to be notified when routes are
+ * added or removed on the Spacebrew server (see
+ * {@link SpacebrewClient#setRouteTracking(boolean)}). Methods are called on
+ * the thread receiving messages and should return quickly.
+ * 
+ * @author Axel Baumgartner
+ */
+public interface RouteListener
+{
+	/**
+	 * Called when a route has been added.
+	 * 
+	 * @param route The route
+	 */
+	public void onRouteAdded(SpacebrewRoute route);
+
+	/**
+	 * Called when a route has been removed, also for all known routes when
+	 * the connection to the server closes.
+	 * 
+	 * @param route The route
+	 */
+	public void onRouteRemoved(SpacebrewRoute route);
+}
@@ -11,16 +11,40 @@ import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.Deflater;
 
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
-import org.json.simple.JSONValue;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import at.ac.sbg.icts.spacebrew.client.codec.SpacebrewCodec;
+import at.ac.sbg.icts.spacebrew.client.codec.SpacebrewCodecRegistry;
+import at.ac.sbg.icts.spacebrew.client.codec.StringDeltaDecoder;
+import at.ac.sbg.icts.spacebrew.client.codec.StringDeltaEncoder;
+import at.ac.sbg.icts.spacebrew.client.jfr.ConfigEvent;
+import at.ac.sbg.icts.spacebrew.client.jfr.ConnectionEvent;
+import at.ac.sbg.icts.spacebrew.client.jfr.MessageEvent;
+import at.ac.sbg.icts.spacebrew.client.jfr.PublishEvent;
+import at.ac.sbg.icts.spacebrew.client.metrics.SpacebrewMetrics;
+
 /**
  * A client implementation of the Spacebrew protocol. Connects to a Spacebrew
  * server via WebSocket, allows to send data via publishers
@@ -46,6 +70,23 @@ import org.slf4j.LoggerFactory;
  */
 public class SpacebrewClient implements WebSocketClientImplCallback
 {
+	/**
+	 * The default maximum number of bytes sent in a single WebSocket frame.
+	 */
+	public static final int												DEFAULT_FRAGMENT_SIZE	= 16384;
+
+	/**
+	 * The delay in microseconds after which sending is retried when the
+	 * socket buffer is over the watermark.
+	 */
+	private static final long											FLUSH_RETRY_MIN_MICROS	= 200;
+
+	/**
+	 * The longest delay in microseconds the retry delay is doubled to while
+	 * the socket buffer stays over the watermark.
+	 */
+	private static final long											FLUSH_RETRY_MAX_MICROS	= 5000;
+
 	/**
 	 * Provides logging facilities.
 	 */
@@ -84,34 +125,54 @@ public class SpacebrewClient implements WebSocketClientImplCallback
 	 */
 	private String														currentServerUri;
 
+	/**
+	 * The name of this client on the current connection. The server knows a
+	 * client by the name it connected with, so a new name is only applied
+	 * when the next connection is opened.
+	 */
+	private volatile String												currentName;
+
 	/**
 	 * True if this client is currently connected to a Spacebrew server.
 	 */
-	private boolean														connected;
+	private volatile boolean											connected;
 
 	/**
 	 * Holds all publishers this client offers (publisherName, (type,
 	 * messageTemplate)).
 	 */
-	private final HashMap<String, HashMap<String, SpacebrewMessage>>	publishers			= new HashMap<String, HashMap<String, SpacebrewMessage>>();
+	private final Map<String, Map<String, SpacebrewMessage>>			publishers			= new ConcurrentHashMap<String, Map<String, SpacebrewMessage>>();
 
 	/**
 	 * Lists which subscribers this client offers (subscriberName, (type,
 	 * messageTemplate)).
 	 */
-	private final HashMap<String, HashMap<String, SpacebrewMessage>>	subscribers			= new HashMap<String, HashMap<String, SpacebrewMessage>>();
+	private final Map<String, Map<String, SpacebrewMessage>>			subscribers			= new ConcurrentHashMap<String, Map<String, SpacebrewMessage>>();
 
 	/**
 	 * Holds the callback methods for all subscribers this client offers
 	 * (subscriberName, (methodName, method)).
 	 */
-	private final HashMap<String, HashMap<String, Method>>				subscriberMethods	= new HashMap<String, HashMap<String, Method>>();
+	private final Map<String, Map<String, Method>>						subscriberMethods	= new ConcurrentHashMap<String, Map<String, Method>>();
+
+	/**
+	 * Holds the last decoded value of every callback method subscriber of a
+	 * custom type as single element, reused for the next message
+	 * (subscriberName, (type, value)).
+	 */
+	private final Map<String, Map<String, Object[]>>					subscriberValues	= new ConcurrentHashMap<String, Map<String, Object[]>>();
 
 	/**
 	 * Holds the callback objects for all subscribers this client offers
 	 * (subscriberName, callback).
 	 */
-	private final HashMap<String, HashMap<String, Object>>				subscriberObjects	= new HashMap<String, HashMap<String, Object>>();
+	private final Map<String, Map<String, Object>>						subscriberObjects	= new ConcurrentHashMap<String, Map<String, Object>>();
+
+	/**
+	 * Holds the codecs for custom types (type, codec).
+	 */
+	private final SpacebrewCodecRegistry								codecs				= SpacebrewCodecRegistry
+																									.createDefault();
 
 	/**
 	 * The time in milliseconds after which a lost connection is reopened. When
@@ -134,6 +195,249 @@ public class SpacebrewClient implements WebSocketClientImplCallback
 	 */
 	private boolean														reconnecting		= false;
 
+	/**
+	 * Guards the configuration messages, so they are created and sent in
+	 * the order of the changes. The maps of the publishers and subscribers
+	 * are changed while holding it, but read without it when messages are
+	 * published and dispatched, so they are concurrent maps.
+	 */
+	private final Object												configLock			= new Object();
+
+	/**
+	 * The number of reconfigurations begun and not ended yet, no configuration
+	 * messages are sent while it is greater than 0.
+	 */
+	private int															reconfigurations	= 0;
+
+	/**
+	 * True if the configuration changed during a reconfiguration.
+	 */
+	private boolean														configPending		= false;
+
+	/**
+	 * The latest configuration message sent on the current connection, null
+	 * if none has been sent yet.
+	 */
+	private String														sentConfig;
+
+	/**
+	 * The task reconnecting after the connection was lost, null if no
+	 * reconnect is pending.
+	 */
+	private ScheduledFuture<?>											reconnectTask;
+
+	/**
+	 * The number of messages that may be waiting to be sent before the
+	 * outbound queue counts as full.
+	 */
+	private int															outboundCapacity	= 1024;
+
+	/**
+	 * Queues outgoing messages in priority lanes until they are sent.
+	 */
+	private final OutboundQueue											outboundQueue		= new OutboundQueue();
+
+	/**
+	 * The number of frames that may be waiting to be written to the socket
+	 * before no more messages are taken from {@code outboundQueue}. Keeping it
+	 * low lets messages of higher priority overtake messages of lower priority
+	 * until they are actually written.
+	 */
+	private int															socketBufferWatermark	= 16;
+
+	/**
+	 * The maximum number of bytes sent in a single WebSocket frame, larger
+	 * messages are split into continuation frames.
+	 */
+	private volatile int												fragmentSize		= DEFAULT_FRAGMENT_SIZE;
+
+	/**
+	 * True if the permessage-deflate extension is offered to the server.
+	 */
+	private volatile boolean											compressionEnabled	= false;
+
+	/**
+	 * The size in bytes from which outgoing messages are compressed.
+	 */
+	private volatile int												compressionThreshold	= PerMessageDeflateDraft.DEFAULT_THRESHOLD;
+
+	/**
+	 * The compression level used for outgoing messages.
+	 */
+	private volatile int												compressionLevel	= Deflater.DEFAULT_COMPRESSION;
+
+	/**
+	 * Counts compressed and decompressed messages over all connections.
+	 */
+	private final CompressionStatistics									compressionStatistics	= new CompressionStatistics();
+
+	/**
+	 * Collects the metrics of this client.
+	 */
+	private final SpacebrewMetrics										metrics				= new SpacebrewMetrics(this);
+
+	/**
+	 * Parses incoming messages. Reused because every parser allocates a
+	 * large buffer, which would otherwise be garbage after each message.
+	 */
+	private final JSONParser											parser				= new JSONParser();
+
+	/**
+	 * The interval in milliseconds in which pings are sent to measure the
+	 * round trip time, 0 if no pings are sent.
+	 */
+	private volatile long												pingInterval		= 0;
+
+	/**
+	 * The task sending pings, null if no pings are sent.
+	 */
+	private ScheduledFuture<?>											pingTask;
+
+	/**
+	 * The smoothed round trip time in nanoseconds, -1 if it has not been
+	 * measured yet.
+	 */
+	private volatile long												roundTripNanos		= -1;
+
+	/**
+	 * The latest round trip time in nanoseconds, -1 if it has not been
+	 * measured yet.
+	 */
+	private volatile long												lastRoundTripNanos	= -1;
+
+	/**
+	 * True if the client registers as admin client to learn about the routes
+	 * on the server.
+	 */
+	private volatile boolean											routeTracking		= false;
+
+	/**
+	 * Holds the routes on the server while route tracking is enabled.
+	 */
+	private final HashSet<SpacebrewRoute>								routes				= new HashSet<SpacebrewRoute>();
+
+	/**
+	 * The remote address of this client as seen by the server, learned from
+	 * the configuration messages sent to admin clients, null if unknown.
+	 */
+	private volatile String												remoteAddress;
+
+	/**
+	 * The objects notified when routes are added or removed.
+	 */
+	private final CopyOnWriteArrayList<RouteListener>					routeListeners		= new CopyOnWriteArrayList<RouteListener>();
+
+	/**
+	 * The objects notified when messages are published, replaced as a whole
+	 * so publishing iterates without allocating.
+	 */
+	private volatile PublishListener[]									publishListeners	= new PublishListener[0];
+
+	/**
+	 * Encodes outgoing messages into fragments, only used by the task sending
+	 * outgoing messages.
+	 */
+	private final MessageEncoder										encoder				= new MessageEncoder();
+
+	/**
+	 * Holds the fragment currently sent if no buffer pool is set, only used by
+	 * the task sending outgoing messages.
+	 */
+	private ByteBuffer													fragment;
+
+	/**
+	 * The message whose fragments are currently sent, null if the next message
+	 * may be taken from {@code outboundQueue}.
+	 */
+	private OutboundMessage												fragmentedMessage;
+
+	/**
+	 * The WebSocket client the first fragment of {@code fragmentedMessage} has
+	 * been sent to.
+	 */
+	private WebSocketClientImpl											fragmentedClient;
+
+	/**
+	 * The size of the fragments of {@code fragmentedMessage} sent so far.
+	 */
+	private long														fragmentedBytes;
+
+	/**
+	 * The time spent encoding the fragments of {@code fragmentedMessage} so
+	 * far.
+	 */
+	private long														fragmentedEncodeNanos;
+
+	/**
+	 * The time {@code fragmentedMessage} was taken from the outbound queue as
+	 * given by {@link System#nanoTime()}.
+	 */
+	private long														fragmentedStart;
+
+	/**
+	 * The delay after which sending is retried while the socket buffer is
+	 * over the watermark, only used by the task sending outgoing messages.
+	 */
+	private long														flushRetryMicros	= FLUSH_RETRY_MIN_MICROS;
+
+	/**
+	 * Runs the tasks sending outgoing messages, created on first use.
+	 */
+	private ScheduledExecutorService									executor;
+
+	/**
+	 * Lends the buffers outgoing fragments are encoded into, null if the
+	 * client keeps its own buffer.
+	 */
+	private volatile ByteBufferPool										bufferPool;
+
+	/**
+	 * The pool limiting the connection attempts in progress, null if the
+	 * client is not part of a pool.
+	 */
+	private SpacebrewClientPool											pool;
+
+	/**
+	 * True while a task sending outgoing messages is scheduled or running.
+	 */
+	private final AtomicBoolean											flushScheduled		= new AtomicBoolean();
+
+	/**
+	 * Sends outgoing messages from {@code outboundQueue}.
+	 */
+	private final Runnable												flushTask			= new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			flush();
+		}
+	};
+
+	/**
+	 * Keeps the latest values of registered routes for polling consumers,
+	 * created on first use.
+	 */
+	private volatile LastValueCache										lastValueCache;
+
+	/**
+	 * Queues incoming messages in polling mode, null if incoming messages are
+	 * dispatched to the subscribers immediately.
+	 */
+	private volatile InboundRing										inboundRing;
+
+	/**
+	 * Dispatches messages drained in polling mode to the subscribers.
+	 */
+	private final InboundHandler										dispatcher			= new InboundHandler()
+	{
+		@Override
+		public void onMessage(InboundMessage message)
+		{
+			dispatch(message.getName(), message.getType(), message.getValue());
+		}
+	};
+
 	/**
 	 * @param callback The object that will receive messages via callback
 	 *            methods.
@@ -146,6 +450,7 @@ public class SpacebrewClient implements WebSocketClientImplCallback
 		this.callback = callback;
 		this.serverUri = serverUri;
 		this.name = name;
+		this.currentName = name;
 	}
 
 	/**
@@ -162,6 +467,7 @@ public class SpacebrewClient implements WebSocketClientImplCallback
 		this.callback = callback;
 		this.serverUri = serverUri;
 		this.name = name;
+		this.currentName = name;
 		this.description = description;
 	}
 
@@ -195,6 +501,10 @@ public class SpacebrewClient implements WebSocketClientImplCallback
 	}
 
 	/**
+	 * Sets the name of this client. The name is applied when the next
+	 * connection is opened, e.g. on {@link #reconnect()}, the server is not
+	 * updated on the current connection.
+	 * 
 	 * @param name The name of this client as it will appear in the Spacebrew
 	 *            administration
 	 */
@@ -213,12 +523,26 @@ public class SpacebrewClient implements WebSocketClientImplCallback
 	}
 
 	/**
+	 * @return The name of this client on the current connection, differs from
+	 *         {@link #getName()} after the name was changed until the next
+	 *         connection is opened
+	 */
+	public String getCurrentName()
+	{
+		return currentName;
+	}
+
+	/**
+	 * Sets the description of this client. If the client is connected, the
+	 * server is updated on the current connection.
+	 * 
 	 * @param description The description of this client as it will appear in
 	 *            the Spacebrew administration
 	 */
 	public void setDescription(String description)
 	{
 		this.description = description;
+		sendConfig();
 	}
 
 	/**
@@ -251,551 +575,2379 @@ public class SpacebrewClient implements WebSocketClientImplCallback
 	}
 
 	/**
-	 * Connects to the Spacebrew server and updates the server with the
-	 * currently registered subscribers and publishers this client offers.
+	 * Sets the number of messages that may be waiting to be sent before the
+	 * outbound queue counts as full. Messages are never rejected because of
+	 * this capacity, it is used by producers (e.g.
+	 * {@link at.ac.sbg.icts.spacebrew.client.flow.PublisherFlowSubscriber})
+	 * to limit how fast they publish.
+	 * 
+	 * @param outboundQueueCapacity The capacity of the outbound queue
 	 */
-	public void connect()
+	public void setOutboundQueueCapacity(int outboundQueueCapacity)
 	{
-		if (!connected)
-		{
-			connecting = true;
-
-			try
-			{
-				log.info("Connecting to server with URI: {}", serverUri);
-				webSocketClient = new WebSocketClientImpl(this, serverUri);
-				webSocketClient.connect();
-				currentServerUri = serverUri;
-			}
-			catch (Exception e)
-			{
-				log.error("Could not connect to server with URI: {}", serverUri);
-				log.debug("Exception: " + e.getMessage());
-			}
-		}
+		this.outboundCapacity = outboundQueueCapacity;
 	}
 
 	/**
-	 * Closes the connection to the Spacebrew server.
+	 * @return The capacity of the outbound queue
 	 */
-	public void disconnect()
+	public int getOutboundQueueCapacity()
 	{
-		if (connected)
-		{
-			log.info("Disconnecting from server with URI: {}", currentServerUri);
-			disconnecting = true;
-			webSocketClient.close();
-			webSocketClient = null;
-		}
+		return outboundCapacity;
 	}
 
 	/**
-	 * Disconnects and immediately reconnects to the Spacebrew server.
+	 * @return The number of messages waiting to be sent, including frames
+	 *         waiting to be written to the socket
 	 */
-	public void reconnect()
+	public int getOutboundQueueSize()
 	{
-		reconnecting = true;
-		disconnect();
+		WebSocketClientImpl current = webSocketClient;
+
+		if (connected && current != null)
+		{
+			return outboundQueue.size() + current.getBufferedFrameCount();
+		}
+
+		return outboundQueue.size();
 	}
 
 	/**
-	 * Updates the server about the current subscribers and publishers this
-	 * client offers. Called automatically when a connection was successfully
-	 * opened.
+	 * @return The number of frames that can be sent before the outbound queue
+	 *         is full, 0 if the client is not connected
 	 */
-	@SuppressWarnings("unchecked")
-	private void sendConfig()
+	public int getOutboundQueueRemainingCapacity()
 	{
 		if (!connected)
 		{
-			return;
-		}
-
-		JSONObject configPart = new JSONObject();
-
-		configPart.put("name", name);
-		configPart.put("description", description);
-
-		JSONArray publishes = new JSONArray();
-
-		HashMap<String, SpacebrewMessage> temp;
-		SpacebrewMessage message;
-		SortedSet<String> keys;
-		SortedSet<String> typeKeys;
-
-		keys = new TreeSet<String>(publishers.keySet());
-		for (String key : keys)
-		{
-			temp = publishers.get(key);
-
-			typeKeys = new TreeSet<String>(temp.keySet());
-			for (String typeKey : typeKeys)
-			{
-				message = temp.get(typeKey);
-
-				JSONObject publish = new JSONObject();
-				publish.put("name", message.name);
-				publish.put("type", message.type);
-				publish.put("default", message.defaultValue);
-
-				publishes.add(publish);
-			}
-		}
-
-		JSONObject publishPart = new JSONObject();
-		publishPart.put("messages", publishes);
-		configPart.put("publish", publishPart);
-
-		JSONArray subscribes = new JSONArray();
-
-		keys = new TreeSet<String>(subscribers.keySet());
-		for (String key : keys)
-		{
-			temp = subscribers.get(key);
-
-			typeKeys = new TreeSet<String>(temp.keySet());
-			for (String typeKey : typeKeys)
-			{
-				message = temp.get(typeKey);
-				JSONObject subscribe = new JSONObject();
-				subscribe.put("name", message.name);
-				subscribe.put("type", message.type);
-
-				subscribes.add(subscribe);
-			}
+			return 0;
 		}
 
-		JSONObject subscribePart = new JSONObject();
-		subscribePart.put("messages", subscribes);
-		configPart.put("subscribe", subscribePart);
-
-		JSONObject configMessage = new JSONObject();
-		configMessage.put("config", configPart);
-
-		publish(configMessage);
+		return Math.max(0, outboundCapacity - getOutboundQueueSize());
 	}
 
 	/**
-	 * Creates a boolean publisher and adds it to {@code publishers}.
-	 * Updates the server about the new publisher if the client is connected.
+	 * Sets the order in which the priority lanes of the outbound queue are
+	 * drained. The default is {@link OutboundScheduling#STRICT}.
 	 * 
-	 * @param name The name of the publisher
-	 * @param defaultValue The default starting value
+	 * @param scheduling The order in which the lanes are drained
 	 */
-	public void addPublisher(String name, boolean defaultValue)
+	public void setOutboundScheduling(OutboundScheduling scheduling)
 	{
-		addPublisher(name, SpacebrewMessage.TYPE_BOOLEAN, defaultValue + "");
+		outboundQueue.setScheduling(scheduling);
 	}
 
 	/**
-	 * Creates a range publisher and adds it to {@code publishers}. Updates
-	 * the server about the new publisher if the client is connected.
-	 * 
-	 * @param name The name of the publisher
-	 * @param defaultValue The default starting value
+	 * @return The order in which the priority lanes of the outbound queue are
+	 *         drained
 	 */
-	public void addPublisher(String name, int defaultValue)
+	public OutboundScheduling getOutboundScheduling()
 	{
-		addPublisher(name, SpacebrewMessage.TYPE_RANGE, defaultValue + "");
+		return outboundQueue.getScheduling();
 	}
 
 	/**
-	 * Creates a String publisher and adds it to {@code publishers}.
-	 * Updates the server about the new publisher if the client is connected.
+	 * Sets the number of messages of a priority sent per round when the
+	 * outbound queue uses {@link OutboundScheduling#WEIGHTED}.
 	 * 
-	 * @param name The name of the publisher
-	 * @param defaultValue The default starting value
+	 * @param priority The priority
+	 * @param weight The number of messages per round, at least 1
 	 */
-	public void addPublisher(String name, String defaultValue)
+	public void setOutboundWeight(OutboundPriority priority, int weight)
 	{
-		addPublisher(name, SpacebrewMessage.TYPE_STRING, defaultValue);
+		outboundQueue.setWeight(priority, weight);
 	}
 
 	/**
-	 * Creates a publisher and adds it to {@code publishers}. Updates the
-	 * server about the new publisher if the client is connected.
-	 * 
-	 * @param name The name of the publisher
-	 * @param type The type of the publisher (i.e.
-	 *            {@code SpacebrewMessage.TYPE_BOOLEAN},
-	 *            {@code SpacebrewMessage.TYPE_RANGE} or
-	 *            {@code SpacebrewMessage.TYPE_STRING})
-	 * @param defaultValue The default starting value
+	 * @param priority The priority
+	 * @return The number of messages of the priority sent per round when the
+	 *         outbound queue uses {@link OutboundScheduling#WEIGHTED}
 	 */
-	public void addPublisher(String name, String type, String defaultValue)
+	public int getOutboundWeight(OutboundPriority priority)
 	{
-		SpacebrewMessage message = new SpacebrewMessage();
-		message.name = name;
-		message.type = type;
-		message.defaultValue = defaultValue;
-
-		if (!publishers.containsKey(name))
-		{
-			publishers.put(name, new HashMap<String, SpacebrewMessage>());
-		}
-		publishers.get(name).put(type, message);
-
-		sendConfig();
-		log.debug("Added publisher with name \"{}\", type \"{}\" and default value \"{}\".", name, type, defaultValue);
+		return outboundQueue.getWeight(priority);
+	}
+
+	/**
+	 * @return The number of messages dropped because their time to live
+	 *         expired before they could be sent
+	 */
+	public long getOutboundExpired()
+	{
+		return outboundQueue.getExpired();
+	}
+
+	/**
+	 * Sets the number of frames that may be waiting to be written to the
+	 * socket before no more messages are taken from the outbound queue. Lower
+	 * values let messages of higher priority overtake more messages of lower
+	 * priority, higher values allow for more throughput.
+	 * 
+	 * @param socketBufferWatermark The number of frames, at least 1
+	 */
+	public void setSocketBufferWatermark(int socketBufferWatermark)
+	{
+		this.socketBufferWatermark = Math.max(1, socketBufferWatermark);
+	}
+
+	/**
+	 * @return The number of frames that may be waiting to be written to the
+	 *         socket before no more messages are taken from the outbound queue
+	 */
+	public int getSocketBufferWatermark()
+	{
+		return socketBufferWatermark;
+	}
+
+	/**
+	 * Sets the maximum number of bytes sent in a single WebSocket frame.
+	 * Larger messages are split into continuation frames, which lets control
+	 * frames (e.g. pings) pass in between and keeps the memory needed for
+	 * sending independent of the message size. Takes effect with the next
+	 * message sent.
+	 * 
+	 * @param fragmentSize The number of bytes, at least 64
+	 */
+	public void setFragmentSize(int fragmentSize)
+	{
+		this.fragmentSize = Math.max(64, fragmentSize);
+	}
+
+	/**
+	 * @return The maximum number of bytes sent in a single WebSocket frame
+	 */
+	public int getFragmentSize()
+	{
+		return fragmentSize;
+	}
+
+	/**
+	 * Enables or disables compression of messages with the permessage-deflate
+	 * extension (RFC 7692). Takes effect with the next connection, messages are
+	 * only compressed if the server supports the extension.
+	 * 
+	 * @param compressionEnabled True to offer the extension to the server
+	 */
+	public void setCompressionEnabled(boolean compressionEnabled)
+	{
+		this.compressionEnabled = compressionEnabled;
+	}
+
+	/**
+	 * @return True if the permessage-deflate extension is offered to the
+	 *         server
+	 */
+	public boolean isCompressionEnabled()
+	{
+		return compressionEnabled;
+	}
+
+	/**
+	 * @return True if the permessage-deflate extension has been negotiated
+	 *         for the current connection
+	 */
+	public boolean isCompressionNegotiated()
+	{
+		WebSocketClientImpl current = webSocketClient;
+		return current != null && current.isCompressionNegotiated();
+	}
+
+	/**
+	 * Sets the size from which outgoing messages are compressed. Compressing
+	 * small messages like boolean or range messages costs more time than it
+	 * saves bandwidth. Takes effect with the next connection.
+	 * 
+	 * @param compressionThreshold The size of the encoded message in bytes
+	 */
+	public void setCompressionThreshold(int compressionThreshold)
+	{
+		this.compressionThreshold = compressionThreshold;
+	}
+
+	/**
+	 * @return The size in bytes from which outgoing messages are compressed
+	 */
+	public int getCompressionThreshold()
+	{
+		return compressionThreshold;
+	}
+
+	/**
+	 * Sets the compression level used for outgoing messages. Takes effect with
+	 * the next connection.
+	 * 
+	 * @param compressionLevel The level from 0 (no compression) to 9 (best
+	 *            compression) or {@link Deflater#DEFAULT_COMPRESSION}
+	 * @throws IllegalArgumentException If the level is invalid
+	 */
+	public void setCompressionLevel(int compressionLevel)
+	{
+		if (compressionLevel < Deflater.DEFAULT_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION)
+		{
+			throw new IllegalArgumentException("Invalid compression level: " + compressionLevel);
+		}
+
+		this.compressionLevel = compressionLevel;
+	}
+
+	/**
+	 * @return The compression level used for outgoing messages
+	 */
+	public int getCompressionLevel()
+	{
+		return compressionLevel;
+	}
+
+	/**
+	 * @return The compression ratio and the time spent compressing and
+	 *         decompressing messages over all connections of this client
+	 */
+	public CompressionStatistics getCompressionStatistics()
+	{
+		return compressionStatistics;
+	}
+
+	/**
+	 * @return The metrics of this client, e.g. to register them as MBeans or
+	 *         to serve them with a
+	 *         {@link at.ac.sbg.icts.spacebrew.client.metrics.MetricsHttpServer}
+	 */
+	public SpacebrewMetrics getMetrics()
+	{
+		return metrics;
+	}
+
+	/**
+	 * Sets the interval in which ping control frames are sent to measure the
+	 * round trip time to the server (e.g. to adapt how fast sensors sample).
+	 * Takes effect immediately if the client is connected.
+	 * 
+	 * @param pingInterval The interval in milliseconds, 0 to send no pings
+	 */
+	public void setPingInterval(long pingInterval)
+	{
+		this.pingInterval = Math.max(0, pingInterval);
+
+		if (connected)
+		{
+			startPinging();
+		}
+	}
+
+	/**
+	 * @return The interval in milliseconds in which pings are sent, 0 if no
+	 *         pings are sent
+	 */
+	public long getPingInterval()
+	{
+		return pingInterval;
+	}
+
+	/**
+	 * @return The round trip time to the server in nanoseconds, smoothed over
+	 *         the latest pings, -1 if it has not been measured on the current
+	 *         connection yet
+	 */
+	public long getRoundTripNanos()
+	{
+		return roundTripNanos;
+	}
+
+	/**
+	 * @return The round trip time of the latest ping in nanoseconds, -1 if it
+	 *         has not been measured on the current connection yet
+	 */
+	public long getLastRoundTripNanos()
+	{
+		return lastRoundTripNanos;
+	}
+
+	/**
+	 * Enables or disables route tracking. While enabled the client registers
+	 * as admin client (without receiving the messages of other clients), so
+	 * the server informs it about all routes, e.g. to activate sensors only
+	 * while their publishers are routed. Takes effect immediately if the
+	 * client is connected.
+	 * 
+	 * @param routeTracking True to track the routes on the server
+	 */
+	public void setRouteTracking(boolean routeTracking)
+	{
+		boolean changed = this.routeTracking != routeTracking;
+		this.routeTracking = routeTracking;
+
+		if (routeTracking && changed && connected)
+		{
+			sendAdminRegistration();
+		}
+		else if (!routeTracking)
+		{
+			clearRoutes();
+		}
+	}
+
+	/**
+	 * @return True if the client tracks the routes on the server
+	 */
+	public boolean isRouteTracking()
+	{
+		return routeTracking;
+	}
+
+	/**
+	 * @param listener The object to notify when routes are added or removed
+	 */
+	public void addRouteListener(RouteListener listener)
+	{
+		routeListeners.addIfAbsent(listener);
+	}
+
+	/**
+	 * @param listener The object not to notify anymore
+	 */
+	public void removeRouteListener(RouteListener listener)
+	{
+		routeListeners.remove(listener);
+	}
+
+	/**
+	 * @return The routes currently known on the server, empty if route
+	 *         tracking is disabled
+	 */
+	public List<SpacebrewRoute> getRoutes()
+	{
+		synchronized (routes)
+		{
+			return new ArrayList<SpacebrewRoute>(routes);
+		}
+	}
+
+	/**
+	 * @param name The name of a publisher of this client
+	 * @param type The type of the publisher
+	 * @return The number of subscribers the publisher is currently routed to,
+	 *         0 if route tracking is disabled
+	 */
+	public int getRouteCount(String name, String type)
+	{
+		int count = 0;
+
+		synchronized (routes)
+		{
+			for (SpacebrewRoute route : routes)
+			{
+				if (route.getPublisherName().equals(name) && route.getType().equals(type)
+						&& route.getPublisherClientName().equals(currentName))
+				{
+					count++;
+				}
+			}
+		}
+
+		return count;
+	}
+
+	/**
+	 * @return The remote address of this client as seen by the server, null
+	 *         if unknown. Only learned while route tracking is enabled, from
+	 *         the latest configuration of a client with the name of this
+	 *         client.
+	 */
+	public String getRemoteAddress()
+	{
+		return remoteAddress;
+	}
+
+	/**
+	 * Asks the server to add a route, as the admin interface does. The route
+	 * is known to the client once the server confirms it (see
+	 * {@link #setRouteTracking(boolean)}).
+	 * 
+	 * @param route The route to add
+	 */
+	public void addRoute(SpacebrewRoute route)
+	{
+		publish(createRouteMessage(route, "add"));
+	}
+
+	/**
+	 * Asks the server to remove a route, as the admin interface does.
+	 * 
+	 * @param route The route to remove
+	 */
+	public void removeRoute(SpacebrewRoute route)
+	{
+		publish(createRouteMessage(route, "remove"));
+	}
+
+	/**
+	 * @param route The route
+	 * @param type The type of the route message, "add" or "remove"
+	 * @return The route message
+	 */
+	@SuppressWarnings("unchecked")
+	private JSONObject createRouteMessage(SpacebrewRoute route, String type)
+	{
+		JSONObject publisher = new JSONObject();
+		publisher.put("clientName", route.getPublisherClientName());
+		publisher.put("name", route.getPublisherName());
+		publisher.put("type", route.getType());
+		publisher.put("remoteAddress", route.getPublisherAddress());
+
+		JSONObject subscriber = new JSONObject();
+		subscriber.put("clientName", route.getSubscriberClientName());
+		subscriber.put("name", route.getSubscriberName());
+		subscriber.put("type", route.getType());
+		subscriber.put("remoteAddress", route.getSubscriberAddress());
+
+		JSONObject routePart = new JSONObject();
+		routePart.put("type", type);
+		routePart.put("publisher", publisher);
+		routePart.put("subscriber", subscriber);
+
+		JSONObject routeMessage = new JSONObject();
+		routeMessage.put("route", routePart);
+
+		return routeMessage;
+	}
+
+	/**
+	 * @param listener The object to notify when messages are published
+	 */
+	public synchronized void addPublishListener(PublishListener listener)
+	{
+		PublishListener[] listeners = publishListeners;
+
+		for (PublishListener existing : listeners)
+		{
+			if (existing == listener)
+			{
+				return;
+			}
+		}
+
+		PublishListener[] added = new PublishListener[listeners.length + 1];
+		System.arraycopy(listeners, 0, added, 0, listeners.length);
+		added[listeners.length] = listener;
+
+		publishListeners = added;
+	}
+
+	/**
+	 * @param listener The object not to notify anymore
+	 */
+	public synchronized void removePublishListener(PublishListener listener)
+	{
+		PublishListener[] listeners = publishListeners;
+		int count = 0;
+
+		PublishListener[] remaining = new PublishListener[listeners.length];
+
+		for (PublishListener existing : listeners)
+		{
+			if (existing != listener)
+			{
+				remaining[count++] = existing;
+			}
+		}
+
+		if (count < listeners.length)
+		{
+			PublishListener[] removed = new PublishListener[count];
+			System.arraycopy(remaining, 0, removed, 0, count);
+			publishListeners = removed;
+		}
+	}
+
+	/**
+	 * Sets the executor running the tasks that send outgoing messages, e.g. to
+	 * share one executor between several clients. Must be called before the
+	 * client connects.
+	 * 
+	 * @param executor The executor to use
+	 */
+	public synchronized void setExecutor(ScheduledExecutorService executor)
+	{
+		this.executor = executor;
+	}
+
+	/**
+	 * @return The executor running the tasks that send outgoing messages, a
+	 *         single daemon thread is created on first use if none has been
+	 *         set
+	 */
+	public synchronized ScheduledExecutorService getExecutor()
+	{
+		if (executor == null)
+		{
+			executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+			{
+				@Override
+				public Thread newThread(Runnable runnable)
+				{
+					Thread thread = new Thread(runnable, "SpacebrewClient-" + name);
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+
+		return executor;
+	}
+
+	/**
+	 * Sets the pool lending the buffers outgoing fragments are encoded into,
+	 * e.g. to share buffers between several clients instead of keeping one
+	 * buffer per client.
+	 * 
+	 * @param bufferPool The pool to use, null to keep an own buffer
+	 */
+	public void setBufferPool(ByteBufferPool bufferPool)
+	{
+		this.bufferPool = bufferPool;
+	}
+
+	/**
+	 * @return The pool lending the buffers outgoing fragments are encoded
+	 *         into, null if the client keeps its own buffer
+	 */
+	public ByteBufferPool getBufferPool()
+	{
+		return bufferPool;
+	}
+
+	/**
+	 * @param pool The pool limiting the connection attempts in progress, null
+	 *            to connect without limits
+	 */
+	void setPool(SpacebrewClientPool pool)
+	{
+		this.pool = pool;
+	}
+
+	/**
+	 * @return The clients holding the connections of this client, e.g. the
+	 *         stripes of a {@link StripedSpacebrewClient}
+	 */
+	SpacebrewClient[] getConnections()
+	{
+		return new SpacebrewClient[] { this };
+	}
+
+	/**
+	 * @return True if the connection of this client is open, unlike
+	 *         {@link #isConnected()} regardless of further connections opened
+	 *         by subclasses
+	 */
+	boolean isConnectionOpen()
+	{
+		return connected;
+	}
+
+	/**
+	 * @return The pool this client has been added to, null if none
+	 */
+	public SpacebrewClientPool getPool()
+	{
+		return pool;
+	}
+
+	/**
+	 * @return The cache keeping the latest values of registered routes, created
+	 *         with {@link LastValueCache#DEFAULT_CAPACITY} on first use
+	 */
+	public LastValueCache getLastValueCache()
+	{
+		if (lastValueCache == null)
+		{
+			synchronized (this)
+			{
+				if (lastValueCache == null)
+				{
+					lastValueCache = new LastValueCache();
+				}
+			}
+		}
+
+		return lastValueCache;
+	}
+
+	/**
+	 * Replaces the cache keeping the latest values of registered routes, e.g.
+	 * to use a cache with a larger capacity. Must be called before routes are
+	 * registered.
+	 * 
+	 * @param lastValueCache The cache to use
+	 */
+	public void setLastValueCache(LastValueCache lastValueCache)
+	{
+		this.lastValueCache = lastValueCache;
+	}
+
+	/**
+	 * Switches to polling mode: incoming messages are no longer dispatched to
+	 * the subscribers on the WebSocket thread, but are queued in a preallocated
+	 * ring and processed by {@link #drainTo(InboundHandler, int)} or
+	 * {@link #drain(int)} on the caller's thread. If the ring is full,
+	 * incoming messages are dropped.
+	 * 
+	 * @param capacity The minimum number of messages the ring can hold
+	 */
+	public void enablePolling(int capacity)
+	{
+		inboundRing = new InboundRing(capacity);
+		log.debug("Enabled polling mode with capacity {}.", inboundRing.capacity());
+	}
+
+	/**
+	 * Switches back to dispatching incoming messages to the subscribers on the
+	 * WebSocket thread. Messages still queued are discarded.
+	 */
+	public void disablePolling()
+	{
+		inboundRing = null;
+	}
+
+	/**
+	 * @return True if the client is in polling mode
+	 */
+	public boolean isPolling()
+	{
+		return inboundRing != null;
+	}
+
+	/**
+	 * Passes messages queued in polling mode in arrival order to a handler on
+	 * the caller's thread. Must only be called by one thread at a time.
+	 * 
+	 * @param handler The handler processing the messages
+	 * @param max The maximum number of messages to process
+	 * @return The number of messages processed, 0 if not in polling mode
+	 */
+	public int drainTo(InboundHandler handler, int max)
+	{
+		InboundRing ring = inboundRing;
+
+		if (ring == null)
+		{
+			return 0;
+		}
+
+		return ring.drainTo(handler, max);
+	}
+
+	/**
+	 * Dispatches messages queued in polling mode in arrival order to the
+	 * subscribers on the caller's thread. Must only be called by one thread at
+	 * a time.
+	 * 
+	 * @param max The maximum number of messages to dispatch
+	 * @return The number of messages dispatched, 0 if not in polling mode
+	 */
+	public int drain(int max)
+	{
+		return drainTo(dispatcher, max);
+	}
+
+	/**
+	 * @return The number of messages queued in polling mode
+	 */
+	public int getInboundQueueSize()
+	{
+		InboundRing ring = inboundRing;
+		return ring != null ? ring.size() : 0;
+	}
+
+	/**
+	 * @return The number of messages dropped in polling mode because the queue
+	 *         was full
+	 */
+	public long getInboundDropped()
+	{
+		InboundRing ring = inboundRing;
+		return ring != null ? ring.getDropped() : 0;
+	}
+
+	/**
+	 * @return The registry holding the codecs for custom types
+	 */
+	public SpacebrewCodecRegistry getCodecRegistry()
+	{
+		return codecs;
+	}
+
+	/**
+	 * Connects to the Spacebrew server and updates the server with the
+	 * currently registered subscribers and publishers this client offers.
+	 */
+	public void connect()
+	{
+		openConnection();
+	}
+
+	/**
+	 * Opens the connection of this client only. Used instead of
+	 * {@link #connect()} when reconnecting and by the pool, as subclasses may
+	 * override {@link #connect()} to open further connections.
+	 */
+	void openConnection()
+	{
+		if (!connected)
+		{
+			SpacebrewClientPool pool = this.pool;
+
+			if (pool != null && !pool.beginConnect(this))
+			{
+				log.debug("Waiting for the pool to allow another connection attempt.");
+				return;
+			}
+
+			connecting = true;
+
+			try
+			{
+				log.info("Connecting to server with URI: {}", serverUri);
+				ConnectionEvent.emit(name, serverUri, ConnectionEvent.CONNECT);
+				if (compressionEnabled)
+				{
+					webSocketClient = new WebSocketClientImpl(this, serverUri, new PerMessageDeflateDraft(
+							compressionThreshold, compressionLevel, compressionStatistics));
+				}
+				else
+				{
+					webSocketClient = new WebSocketClientImpl(this, serverUri);
+				}
+
+				webSocketClient.connect();
+				currentServerUri = serverUri;
+			}
+			catch (Exception e)
+			{
+				log.error("Could not connect to server with URI: {}", serverUri);
+				log.debug("Exception: " + e.getMessage());
+
+				if (pool != null)
+				{
+					pool.endConnect(this);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Closes the connection to the Spacebrew server.
+	 */
+	public void disconnect()
+	{
+		cancelReconnect();
+
+		if (pool != null)
+		{
+			pool.cancelConnect(this);
+		}
+
+		WebSocketClientImpl current = webSocketClient;
+
+		if (connected && current != null)
+		{
+			log.info("Disconnecting from server with URI: {}", currentServerUri);
+			disconnecting = true;
+			webSocketClient = null;
+			current.close();
+		}
+	}
+
+	/**
+	 * Disconnects and immediately reconnects to the Spacebrew server.
+	 */
+	public void reconnect()
+	{
+		reconnecting = true;
+		disconnect();
+	}
+
+	/**
+	 * Begins a reconfiguration: changes to the name, description, publishers
+	 * and subscribers of this client are collected until the matching call of
+	 * {@link #endReconfiguration()} and then sent as a single configuration
+	 * message. Reconfigurations may be nested, the message is sent when the
+	 * outermost one ends. The connection, the outbound queue and the state of
+	 * the subscribers are kept.
+	 */
+	public void beginReconfiguration()
+	{
+		synchronized (configLock)
+		{
+			reconfigurations++;
+		}
+	}
+
+	/**
+	 * Ends a reconfiguration begun with {@link #beginReconfiguration()}. When
+	 * the outermost reconfiguration ends, the server is updated with a single
+	 * configuration message if the configuration differs from the one it
+	 * received last, e.g. not at all if the changes cancelled each other out.
+	 */
+	public void endReconfiguration()
+	{
+		synchronized (configLock)
+		{
+			if (reconfigurations == 0)
+			{
+				log.error("Could not end reconfiguration, no reconfiguration has been begun!");
+				return;
+			}
+
+			reconfigurations--;
+
+			if (reconfigurations == 0 && configPending)
+			{
+				configPending = false;
+				sendConfig();
+			}
+		}
+	}
+
+	/**
+	 * Applies several changes to the name, description, publishers and
+	 * subscribers of this client as one reconfiguration (see
+	 * {@link #beginReconfiguration()}).
+	 * 
+	 * @param changes Makes the changes by calling the methods of this client
+	 */
+	public void reconfigure(Runnable changes)
+	{
+		beginReconfiguration();
+
+		try
+		{
+			changes.run();
+		}
+		finally
+		{
+			endReconfiguration();
+		}
+	}
+
+	/**
+	 * Updates the server about the current subscribers and publishers this
+	 * client offers. Called automatically when a connection was successfully
+	 * opened. Nothing is sent during a reconfiguration or if the server
+	 * already received the same configuration on the current connection.
+	 * Callers changing the publishers or subscribers hold {@code configLock}
+	 * across the change and this call, so every message describes a state the
+	 * maps were actually in.
+	 */
+	private void sendConfig()
+	{
+		if (!connected)
+		{
+			return;
+		}
+
+		synchronized (configLock)
+		{
+			if (reconfigurations > 0)
+			{
+				configPending = true;
+				return;
+			}
+
+			ConfigEvent event = new ConfigEvent();
+			event.begin();
+
+			String configMessage = createConfigMessage().toString();
+
+			if (configMessage.equals(sentConfig))
+			{
+				log.debug("Configuration unchanged, not sent.");
+				return;
+			}
+
+			sentConfig = configMessage;
+			publishControl(configMessage);
+			metrics.configSent();
+
+			if (event.shouldCommit())
+			{
+				event.client = name;
+				event.publishers = count(publishers);
+				event.subscribers = count(subscribers);
+				event.bytes = SpacebrewMetrics.utf8Length(configMessage);
+				event.commit();
+			}
+		}
+	}
+
+	/**
+	 * @param routes The publishers or subscribers (name, (type, message))
+	 * @return The number of publishers or subscribers
+	 */
+	private static int count(Map<String, Map<String, SpacebrewMessage>> routes)
+	{
+		int count = 0;
+
+		for (Map<String, SpacebrewMessage> types : routes.values())
+		{
+			count += types.size();
+		}
+
+		return count;
+	}
+
+	/**
+	 * @return The configuration message describing the current subscribers
+	 *         and publishers, sorted by name and type, created under
+	 *         {@code configLock} so it is consistent with concurrent changes
+	 */
+	@SuppressWarnings("unchecked")
+	JSONObject createConfigMessage()
+	{
+		synchronized (configLock)
+		{
+			JSONObject configPart = new JSONObject();
+
+			configPart.put("name", currentName);
+			configPart.put("description", description);
+
+			JSONArray publishes = new JSONArray();
+
+			Map<String, SpacebrewMessage> temp;
+			SpacebrewMessage message;
+			SortedSet<String> keys;
+			SortedSet<String> typeKeys;
+
+			keys = new TreeSet<String>(publishers.keySet());
+			for (String key : keys)
+			{
+				temp = publishers.get(key);
+
+				typeKeys = new TreeSet<String>(temp.keySet());
+				for (String typeKey : typeKeys)
+				{
+					message = temp.get(typeKey);
+
+					JSONObject publish = new JSONObject();
+					publish.put("name", message.name);
+					publish.put("type", message.type);
+					publish.put("default", message.defaultValue);
+
+					publishes.add(publish);
+				}
+			}
+
+			JSONObject publishPart = new JSONObject();
+			publishPart.put("messages", publishes);
+			configPart.put("publish", publishPart);
+
+			JSONArray subscribes = new JSONArray();
+
+			keys = new TreeSet<String>(subscribers.keySet());
+			for (String key : keys)
+			{
+				temp = subscribers.get(key);
+
+				typeKeys = new TreeSet<String>(temp.keySet());
+				for (String typeKey : typeKeys)
+				{
+					message = temp.get(typeKey);
+					JSONObject subscribe = new JSONObject();
+					subscribe.put("name", message.name);
+					subscribe.put("type", message.type);
+
+					subscribes.add(subscribe);
+				}
+			}
+
+			JSONObject subscribePart = new JSONObject();
+			subscribePart.put("messages", subscribes);
+			configPart.put("subscribe", subscribePart);
+
+			JSONObject configMessage = new JSONObject();
+			configMessage.put("config", configPart);
+
+			return configMessage;
+		}
+	}
+
+	/**
+	 * Registers this client as admin client that is informed about all
+	 * clients and routes but does not receive the messages of other clients.
+	 */
+	@SuppressWarnings("unchecked")
+	private void sendAdminRegistration()
+	{
+		JSONObject adminPart = new JSONObject();
+		adminPart.put("admin", true);
+		adminPart.put("no_msgs", true);
+
+		JSONArray admin = new JSONArray();
+		admin.add(adminPart);
+
+		JSONObject adminMessage = new JSONObject();
+		adminMessage.put("admin", admin);
+
+		publish(adminMessage);
+	}
+
+	/**
+	 * Creates a boolean publisher and adds it to {@code publishers}.
+	 * Updates the server about the new publisher if the client is connected.
+	 * 
+	 * @param name The name of the publisher
+	 * @param defaultValue The default starting value
+	 */
+	public void addPublisher(String name, boolean defaultValue)
+	{
+		addPublisher(name, SpacebrewMessage.TYPE_BOOLEAN, defaultValue + "");
+	}
+
+	/**
+	 * Creates a range publisher and adds it to {@code publishers}. Updates
+	 * the server about the new publisher if the client is connected.
+	 * 
+	 * @param name The name of the publisher
+	 * @param defaultValue The default starting value
+	 */
+	public void addPublisher(String name, int defaultValue)
+	{
+		addPublisher(name, SpacebrewMessage.TYPE_RANGE, defaultValue + "");
+	}
+
+	/**
+	 * Creates a String publisher and adds it to {@code publishers}.
+	 * Updates the server about the new publisher if the client is connected.
+	 * 
+	 * @param name The name of the publisher
+	 * @param defaultValue The default starting value
+	 */
+	public void addPublisher(String name, String defaultValue)
+	{
+		addPublisher(name, SpacebrewMessage.TYPE_STRING, defaultValue);
+	}
+
+	/**
+	 * Creates a publisher and adds it to {@code publishers}. Updates the
+	 * server about the new publisher if the client is connected.
+	 * 
+	 * @param name The name of the publisher
+	 * @param type The type of the publisher (i.e.
+	 *            {@code SpacebrewMessage.TYPE_BOOLEAN},
+	 *            {@code SpacebrewMessage.TYPE_RANGE} or
+	 *            {@code SpacebrewMessage.TYPE_STRING})
+	 * @param defaultValue The default starting value
+	 */
+	public void addPublisher(String name, String type, String defaultValue)
+	{
+		SpacebrewMessage message = new SpacebrewMessage();
+		message.name = name;
+		message.type = type;
+		message.defaultValue = defaultValue;
+
+		synchronized (configLock)
+		{
+			if (!publishers.containsKey(name))
+			{
+				publishers.put(name, new ConcurrentHashMap<String, SpacebrewMessage>());
+			}
+			publishers.get(name).put(type, message);
+
+			sendConfig();
+		}
+
+		log.debug("Added publisher with name \"{}\", type \"{}\" and default value \"{}\".", name, type, defaultValue);
+	}
+
+	/**
+	 * Creates a publisher of a custom type and adds it to {@code publishers}.
+	 * The codec is registered for its type. Updates the server about the new
+	 * publisher if the client is connected.
+	 * 
+	 * @param name The name of the publisher
+	 * @param codec The codec used to encode the values of the publisher
+	 * @param defaultValue The default starting value
+	 */
+	public <T> void addPublisher(String name, SpacebrewCodec<T> codec, T defaultValue)
+	{
+		codecs.register(codec);
+		addPublisher(name, codec.getType(), defaultValue == null ? "" : codec.encode(defaultValue));
 	}
 
 	/**
 	 * Adds a subscriber that uses the generic callback object. Updates the
 	 * server about the new subscriber if the client is connected.
 	 * 
-	 * @param name The name of the subscriber
-	 * @param type The type of the subscriber (i.e.
-	 *            {@code SpacebrewMessage.TYPE_BOOLEAN},
-	 *            {@code SpacebrewMessage.TYPE_RANGE} or
-	 *            {@code SpacebrewMessage.TYPE_STRING})
-	 * @param methodName The name of the method in the callback object
+	 * @param name The name of the subscriber
+	 * @param type The type of the subscriber (i.e.
+	 *            {@code SpacebrewMessage.TYPE_BOOLEAN},
+	 *            {@code SpacebrewMessage.TYPE_RANGE} or
+	 *            {@code SpacebrewMessage.TYPE_STRING} or a custom type with a
+	 *            registered codec)
+	 * @param methodName The name of the method in the callback object
+	 */
+	public void addSubscriber(String name, String type, String methodName)
+	{
+		SpacebrewMessage message = new SpacebrewMessage();
+		message.name = name;
+		message.type = type.toLowerCase();
+
+		Method method = null;
+		if (type.equals(SpacebrewMessage.TYPE_BOOLEAN))
+		{
+			try
+			{
+				method = callback.getClass().getMethod(methodName, new Class[] { boolean.class });
+			}
+			catch (Exception e)
+			{
+				log.error(
+						"Could not add subscriber with name \"{}\" and type \"{}\", callback does not implement method \"{}\"!",
+						name, type, methodName);
+			}
+		}
+		else if (type.equals(SpacebrewMessage.TYPE_RANGE))
+		{
+			try
+			{
+				method = callback.getClass().getMethod(methodName, new Class[] { int.class });
+			}
+			catch (Exception e)
+			{
+				log.error(
+						"Could not add subscriber with name \"{}\" and type \"{}\", callback does not implement method \"{}\"!",
+						name, type, methodName);
+			}
+		}
+		else if (type.equals(SpacebrewMessage.TYPE_STRING))
+		{
+			try
+			{
+				method = callback.getClass().getMethod(methodName, new Class[] { String.class });
+			}
+			catch (Exception e)
+			{
+				log.error(
+						"Could not add subscriber with name \"{}\" and type \"{}\", callback does not implement method \"{}\"!",
+						name, type, methodName);
+			}
+		}
+		else if (codecs.contains(type))
+		{
+			try
+			{
+				method = callback.getClass().getMethod(methodName,
+						new Class<?>[] { codecs.get(type).getValueType() });
+			}
+			catch (Exception e)
+			{
+				log.error(
+						"Could not add subscriber with name \"{}\" and type \"{}\", callback does not implement method \"{}\"!",
+						name, type, methodName);
+			}
+		}
+		else
+		{
+			log.error("Could not add subscriber with name \"{}\", no codec has been registered for type \"{}\"!",
+					name, type);
+		}
+
+		if (method != null)
+		{
+			synchronized (configLock)
+			{
+				if (!subscribers.containsKey(name))
+				{
+					subscribers.put(name, new ConcurrentHashMap<String, SpacebrewMessage>());
+				}
+				subscribers.get(name).put(type, message);
+
+				if (!subscriberMethods.containsKey(name))
+				{
+					subscriberMethods.put(name, new ConcurrentHashMap<String, Method>());
+				}
+
+				subscriberMethods.get(name).put(type, method);
+
+				if (codecs.contains(type))
+				{
+					if (!subscriberValues.containsKey(name))
+					{
+						subscriberValues.put(name, new ConcurrentHashMap<String, Object[]>());
+					}
+
+					subscriberValues.get(name).put(type, new Object[1]);
+				}
+
+				sendConfig();
+			}
+
+			log.debug("Added subscriber with name \"{}\", type \"{}\" and callback method \"{}\".", name, type,
+					method.getName());
+		}
+	}
+
+	/**
+	 * Adds a boolean subscriber that uses a specific callback object. Updates
+	 * the server about the new subscriber if the client is connected.
+	 * 
+	 * @param name The name of the subscriber
+	 * @param callback The callback object for boolean messages
+	 */
+	public void addSubscriber(String name, BooleanSubscriber callback)
+	{
+		addSubscriber(name, SpacebrewMessage.TYPE_BOOLEAN, callback);
+	}
+
+	/**
+	 * Adds a range subscriber that uses a specific callback object. Updates the
+	 * server about the new subscriber if the client is connected.
+	 * 
+	 * @param name The name of the subscriber
+	 * @param callback The callback object forrange messages
+	 */
+	public void addSubscriber(String name, RangeSubscriber callback)
+	{
+		addSubscriber(name, SpacebrewMessage.TYPE_RANGE, callback);
+	}
+
+	/**
+	 * Adds a string subscriber that uses a specific callback object. Updates
+	 * the server about the new subscriber if the client is connected.
+	 * 
+	 * @param name The name of the subscriber
+	 * @param callback The callback object for string messages
+	 */
+	public void addSubscriber(String name, StringSubscriber callback)
+	{
+		addSubscriber(name, SpacebrewMessage.TYPE_STRING, callback);
+	}
+
+	/**
+	 * Adds a subscriber without callback whose latest value is kept in the
+	 * {@link LastValueCache}. Updates the server about the new subscriber if
+	 * the client is connected.
+	 * 
+	 * @param name The name of the subscriber
+	 * @param type The type of the subscriber
+	 * @return The handle of the route in the {@link LastValueCache}
+	 */
+	public int addCachedSubscriber(String name, String type)
+	{
+		int handle = getLastValueCache().register(name, type);
+
+		SpacebrewMessage message = new SpacebrewMessage();
+		message.name = name;
+		message.type = type;
+
+		synchronized (configLock)
+		{
+			if (!subscribers.containsKey(name))
+			{
+				subscribers.put(name, new ConcurrentHashMap<String, SpacebrewMessage>());
+			}
+			subscribers.get(name).put(type, message);
+
+			sendConfig();
+		}
+
+		log.debug("Added cached subscriber with name \"{}\" and type \"{}\".", name, type);
+
+		return handle;
+	}
+
+	/**
+	 * Adds a subscriber of a custom type that uses a specific callback object.
+	 * The codec is registered for its type. Updates the server about the new
+	 * subscriber if the client is connected.
+	 * 
+	 * @param name The name of the subscriber
+	 * @param codec The codec used to decode incoming values
+	 * @param callback The callback object for decoded messages
+	 */
+	public <T> void addSubscriber(String name, SpacebrewCodec<T> codec, TypedSubscriber<T> callback)
+	{
+		codecs.register(codec);
+		addSubscriber(name, codec.getType(), new TypedSubscription<T>(codec, callback));
+	}
+
+	/**
+	 * Adds a subscriber for a delta-encoded string publisher (see
+	 * {@link at.ac.sbg.icts.spacebrew.client.publisher.DeltaStringPublisher}).
+	 * The callback object receives the full values rebuilt from keyframes and
+	 * deltas. After a missed delta no values are passed until the next
+	 * keyframe. Updates the server about the new subscriber if the client is
+	 * connected.
+	 * 
+	 * @param name The name of the subscriber
+	 * @param callback The callback object for the rebuilt values
+	 * @return The decoder, e.g. to query the number of missed deltas
+	 */
+	public StringDeltaDecoder addDeltaSubscriber(String name, StringSubscriber callback)
+	{
+		StringDeltaDecoder decoder = new StringDeltaDecoder();
+		addSubscriber(name, StringDeltaEncoder.TYPE, new DeltaSubscription(decoder, callback));
+		return decoder;
+	}
+
+	/**
+	 * Adds a subscriber which uses its own callback object.
+	 * 
+	 * @param name The name of the subscriber
+	 * @param type The type of the subscriber (i.e.
+	 *            {@code SpacebrewMessage.TYPE_BOOLEAN},
+	 *            {@code SpacebrewMessage.TYPE_RANGE} or
+	 *            {@code SpacebrewMessage.TYPE_STRING})
+	 * @param subscriber The callback object
+	 */
+	private void addSubscriber(String name, String type, Object subscriber)
+	{
+		SpacebrewMessage message = new SpacebrewMessage();
+		message.name = name;
+		message.type = type;
+
+		synchronized (configLock)
+		{
+			if (!subscribers.containsKey(name))
+			{
+				subscribers.put(name, new ConcurrentHashMap<String, SpacebrewMessage>());
+			}
+			subscribers.get(name).put(type, message);
+
+			if (!subscriberObjects.containsKey(name))
+			{
+				subscriberObjects.put(name, new ConcurrentHashMap<String, Object>());
+			}
+			subscriberObjects.get(name).put(type, subscriber);
+
+			sendConfig();
+		}
+
+		log.debug("Added subscriber with name \"{}\" and type \"{}\".", name, type);
+	}
+
+	/**
+	 * Sets the priority of the messages of a publisher. The default is
+	 * {@link OutboundPriority#NORMAL}.
+	 * 
+	 * @param name The name of the publisher
+	 * @param type The type of the publisher
+	 * @param priority The priority of the messages
+	 */
+	public void setPublisherPriority(String name, String type, OutboundPriority priority)
+	{
+		SpacebrewMessage message = getPublisherTemplate(name, type);
+
+		if (message != null)
+		{
+			message.priority = priority;
+		}
+	}
+
+	/**
+	 * Sets the time to live of the messages of a publisher. Messages that could
+	 * not be sent within this time are dropped, e.g. range values that have
+	 * become useless after waiting through a congestion. The default is 0.
+	 * 
+	 * @param name The name of the publisher
+	 * @param type The type of the publisher
+	 * @param timeToLive The time to live in milliseconds, 0 if messages never
+	 *            expire
+	 */
+	public void setPublisherTimeToLive(String name, String type, long timeToLive)
+	{
+		SpacebrewMessage message = getPublisherTemplate(name, type);
+
+		if (message != null)
+		{
+			message.timeToLive = timeToLive;
+		}
+	}
+
+	/**
+	 * @param name The name of the publisher
+	 * @param type The type of the publisher
+	 * @return The message template of the publisher or null if no such
+	 *         publisher has been added
+	 */
+	private SpacebrewMessage getPublisherTemplate(String name, String type)
+	{
+		Map<String, SpacebrewMessage> types = publishers.get(name);
+
+		if (types == null || !types.containsKey(type))
+		{
+			log.error("No publisher with name \"{}\" and type \"{}\" has been added!", name, type);
+			return null;
+		}
+
+		return types.get(type);
+	}
+
+	/**
+	 * Removes a specified publisher.
+	 * 
+	 * @param name The name of the publisher to remove
+	 * @param type The type of the publisher to remove
+	 */
+	public void removePublisher(String name, String type)
+	{
+		synchronized (configLock)
+		{
+			if (publishers.containsKey(name))
+			{
+				publishers.get(name).remove(type);
+
+				sendConfig();
+				log.debug("Removed publisher with name \"{}\" and type \"{}\".", name, type);
+			}
+		}
+	}
+
+	/**
+	 * Removes a specified subscriber.
+	 * 
+	 * @param name The name of the subscriber to remove
+	 * @param type The type of the subscriber to remove
+	 */
+	public void removeSubscriber(String name, String type)
+	{
+		synchronized (configLock)
+		{
+			if (subscribers.containsKey(name))
+			{
+				subscribers.get(name).remove(type);
+
+				if (subscriberMethods.containsKey(name))
+				{
+					subscriberMethods.get(name).remove(type);
+				}
+
+				if (subscriberValues.containsKey(name))
+				{
+					subscriberValues.get(name).remove(type);
+				}
+
+				if (subscriberObjects.containsKey(name))
+				{
+					subscriberObjects.get(name).remove(type);
+
+					sendConfig();
+					log.debug("Removed subscriber with name \"{}\", type \"{}\".", name, type);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Publishes a boolean message from a specified publisher.
+	 * 
+	 * @param name The name of the publisher
+	 * @param value The value of the message
+	 */
+	public void publish(String name, boolean value)
+	{
+		publish(name, SpacebrewMessage.TYPE_BOOLEAN, value + "");
+	}
+
+	/**
+	 * Publishes a range message from a specified publisher.
+	 * 
+	 * @param name The name of the publisher
+	 * @param value The value of the message
+	 */
+	public void publish(String name, int value)
+	{
+		publish(name, SpacebrewMessage.TYPE_RANGE, value + "");
+	}
+
+	/**
+	 * Publishes a string message from a specified publisher.
+	 * 
+	 * @param name The name of the publisher
+	 * @param value The value of the message
+	 */
+	public void publish(String name, String value)
+	{
+		publish(name, SpacebrewMessage.TYPE_STRING, value);
+	}
+
+	/**
+	 * Publishes a string message from a specified publisher without copying
+	 * the value, e.g. a large {@code StringBuilder}. The value is encoded
+	 * while it is sent, so it must not be modified afterwards.
+	 * 
+	 * @param name The name of the publisher
+	 * @param value The value of the message
+	 */
+	public void publish(String name, CharSequence value)
+	{
+		publish(name, SpacebrewMessage.TYPE_STRING, value);
+	}
+
+	/**
+	 * Publishes a message of a custom type from a specified publisher.
+	 * 
+	 * @param name The name of the publisher
+	 * @param codec The codec used to encode the value
+	 * @param value The value of the message
+	 */
+	public <T> void publish(String name, SpacebrewCodec<T> codec, T value)
+	{
+		publish(name, codec.getType(), codec.encode(value));
+	}
+
+	/**
+	 * Sends a message with a specified type from a specified publisher.
+	 * 
+	 * @param name The name of the publisher
+	 * @param type The type of the subscriber (i.e.
+	 *            {@code SpacebrewMessage.TYPE_BOOLEAN},
+	 *            {@code SpacebrewMessage.TYPE_RANGE} or
+	 *            {@code SpacebrewMessage.TYPE_STRING})
+	 * @param value The value of the message
+	 */
+	public void publish(String name, String type, String value)
+	{
+		publish(name, type, (CharSequence) value);
+	}
+
+	/**
+	 * Sends a message with a specified type from a specified publisher. The
+	 * value is not copied but encoded while it is sent, so it must not be
+	 * modified afterwards.
+	 * 
+	 * @param name The name of the publisher
+	 * @param type The type of the subscriber
+	 * @param value The value of the message
+	 */
+	public void publish(String name, String type, CharSequence value)
+	{
+		Map<String, SpacebrewMessage> types = publishers.get(name);
+
+		if (types != null)
+		{
+			if (!connected)
+			{
+				log.warn("Could not send message, not connected!");
+				return;
+			}
+
+			SpacebrewMessage template = types.get(type);
+
+			if (template != null)
+			{
+				outboundQueue.offer(new OutboundMessage(name, type, value, template.timeToLive), template.priority);
+			}
+			else
+			{
+				outboundQueue.offer(new OutboundMessage(name, type, value, 0), OutboundPriority.NORMAL);
+			}
+
+			notifyPublishListeners(name, type, value);
+
+			scheduleFlush();
+		}
+		else
+		{
+			log.error("Could not send message, no publisher with name \"{}\" and type \"{}\" has been added!", name,
+					type);
+		}
+	}
+
+	/**
+	 * Sends the messages of several publishers as one batch, e.g. all channels
+	 * of one sensor reading. The messages are sent back to back in the given
+	 * order without other messages in between, with the priority of the most
+	 * urgent publisher and the time to live of the first publisher. The batch
+	 * counts as a single message in the outbound queue. Messages of unknown
+	 * publishers are left out.
+	 * 
+	 * @param names The names of the publishers
+	 * @param types The types of the publishers
+	 * @param values The values of the messages
+	 * @param count The number of messages, the arrays may be longer
 	 */
-	public void addSubscriber(String name, String type, String methodName)
+	public void publishBatch(String[] names, String[] types, CharSequence[] values, int count)
 	{
-		SpacebrewMessage message = new SpacebrewMessage();
-		message.name = name;
-		message.type = type.toLowerCase();
+		if (!connected)
+		{
+			log.warn("Could not send message, not connected!");
+			return;
+		}
 
-		Method method = null;
-		if (type.equals(SpacebrewMessage.TYPE_BOOLEAN))
+		OutboundMessage first = null;
+		OutboundMessage last = null;
+		OutboundPriority priority = null;
+
+		for (int i = 0; i < count; i++)
 		{
-			try
+			Map<String, SpacebrewMessage> templates = publishers.get(names[i]);
+			SpacebrewMessage template = templates != null ? templates.get(types[i]) : null;
+
+			if (template == null)
 			{
-				method = callback.getClass().getMethod(methodName, new Class[] { boolean.class });
+				log.error("Could not send message, no publisher with name \"{}\" and type \"{}\" has been added!",
+						names[i], types[i]);
+				continue;
 			}
-			catch (Exception e)
+
+			OutboundMessage message = new OutboundMessage(names[i], types[i], values[i],
+					first == null ? template.timeToLive : 0);
+
+			if (first == null)
 			{
-				log.error(
-						"Could not add subscriber with name \"{}\" and type \"{}\", callback does not implement method \"{}\"!",
-						name, type, methodName);
+				first = message;
+			}
+			else
+			{
+				last.next = message;
+			}
+
+			last = message;
+			notifyPublishListeners(names[i], types[i], values[i]);
+
+			if (priority == null || template.priority.ordinal() < priority.ordinal())
+			{
+				priority = template.priority;
 			}
 		}
-		else if (type.equals(SpacebrewMessage.TYPE_RANGE))
+
+		if (first != null)
+		{
+			outboundQueue.offer(first, priority);
+			scheduleFlush();
+		}
+	}
+
+	/**
+	 * Passes a published message to the publish listeners.
+	 * 
+	 * @param name The name of the publisher
+	 * @param type The type of the publisher
+	 * @param value The value of the message
+	 */
+	private void notifyPublishListeners(String name, String type, CharSequence value)
+	{
+		for (PublishListener listener : publishListeners)
 		{
 			try
 			{
-				method = callback.getClass().getMethod(methodName, new Class[] { int.class });
+				listener.onPublish(name, type, value);
 			}
 			catch (Exception e)
 			{
-				log.error(
-						"Could not add subscriber with name \"{}\" and type \"{}\", callback does not implement method \"{}\"!",
-						name, type, methodName);
+				log.error("Could not pass published message to listener, exception occurred!");
+				log.debug("Exception: {}", e);
 			}
 		}
-		else if (type.equals(SpacebrewMessage.TYPE_STRING))
+	}
+
+	/**
+	 * Sends a JSON message to the server ahead of all publisher messages.
+	 * 
+	 * @param message The message to send
+	 */
+	private void publish(JSONObject message)
+	{
+		publishControl(message.toString());
+	}
+
+	/**
+	 * Sends a serialized JSON message to the server ahead of all publisher
+	 * messages.
+	 * 
+	 * @param message The message to send
+	 */
+	private void publishControl(String message)
+	{
+		if (connected)
 		{
-			try
+			outboundQueue.offerControl(new OutboundMessage(null, null, message, 0));
+			scheduleFlush();
+		}
+		else
+		{
+			log.warn("Could not send message, not connected!");
+		}
+	}
+
+	/**
+	 * Schedules a task sending the queued outgoing messages unless one is
+	 * already scheduled or running.
+	 */
+	private void scheduleFlush()
+	{
+		if (flushScheduled.compareAndSet(false, true))
+		{
+			getExecutor().execute(flushTask);
+		}
+	}
+
+	/**
+	 * Sends queued outgoing messages as long as the socket accepts them. If
+	 * too many frames are waiting to be written, the task is scheduled again
+	 * shortly, so the remaining messages can still be reordered by priority.
+	 * The delay doubles while the socket stays congested, so a stalled
+	 * connection does not keep a (possibly shared) executor busy polling.
+	 * Large messages are sent in fragments, the socket buffer is checked
+	 * between fragments as well.
+	 */
+	private void flush()
+	{
+		WebSocketClientImpl current = webSocketClient;
+
+		while (true)
+		{
+			if (!connected || current == null)
 			{
-				method = callback.getClass().getMethod(methodName, new Class[] { String.class });
+				outboundQueue.clear();
+				endFragmentedMessage();
 			}
-			catch (Exception e)
+			else if (current.getBufferedFrameCount() >= socketBufferWatermark)
 			{
-				log.error(
-						"Could not add subscriber with name \"{}\" and type \"{}\", callback does not implement method \"{}\"!",
-						name, type, methodName);
+				getExecutor().schedule(flushTask, flushRetryMicros, TimeUnit.MICROSECONDS);
+				flushRetryMicros = Math.min(flushRetryMicros * 2, FLUSH_RETRY_MAX_MICROS);
+				return;
+			}
+			else
+			{
+				if (fragmentedMessage != null && fragmentedClient != current)
+				{
+					// the connection has been replaced, the rest of the message is lost
+					endFragmentedMessage();
+				}
+
+				if (fragmentedMessage == null)
+				{
+					fragmentedMessage = outboundQueue.poll();
+
+					if (fragmentedMessage != null)
+					{
+						beginFragmentedMessage(current);
+					}
+				}
+
+				if (fragmentedMessage != null)
+				{
+					flushRetryMicros = FLUSH_RETRY_MIN_MICROS;
+					sendFragment(current);
+					continue;
+				}
+			}
+
+			flushScheduled.set(false);
+
+			if (outboundQueue.isEmpty() || !flushScheduled.compareAndSet(false, true))
+			{
+				return;
 			}
 		}
+	}
 
-		if (method != null)
+	/**
+	 * Starts sending {@code fragmentedMessage}.
+	 * 
+	 * @param current The WebSocket client to write to
+	 */
+	private void beginFragmentedMessage(WebSocketClientImpl current)
+	{
+		int size = fragmentSize;
+
+		if (bufferPool == null && (fragment == null || fragment.capacity() != size))
 		{
-			if (!subscribers.containsKey(name))
+			fragment = ByteBuffer.allocate(size);
+		}
+
+		encoder.begin(fragmentedMessage, currentName);
+		fragmentedClient = current;
+		fragmentedBytes = 0;
+		fragmentedEncodeNanos = 0;
+		fragmentedStart = System.nanoTime();
+	}
+
+	/**
+	 * Encodes the next fragment of {@code fragmentedMessage} and writes it to
+	 * the WebSocket. Messages that fit into a single fragment are sent as a
+	 * single frame.
+	 * 
+	 * @param current The WebSocket client to write to
+	 */
+	private void sendFragment(WebSocketClientImpl current)
+	{
+		boolean first = encoder.isFirst();
+
+		ByteBufferPool bufferPool = this.bufferPool;
+		ByteBuffer buffer = fragment;
+
+		if (bufferPool != null)
+		{
+			buffer = bufferPool.acquire(fragmentSize);
+		}
+		else
+		{
+			buffer.clear();
+		}
+
+		long start = System.nanoTime();
+		boolean last = encoder.encode(buffer);
+		buffer.flip();
+		fragmentedEncodeNanos += System.nanoTime() - start;
+		fragmentedBytes += buffer.remaining();
+
+		OutboundMessage next = fragmentedMessage.next;
+		boolean sent = true;
+
+		try
+		{
+			current.sendFragment(buffer, first, last);
+		}
+		catch (Exception e)
+		{
+			log.warn("Could not send message, connection lost!");
+			log.debug("Exception: {}", e);
+			metrics.error();
+			last = true;
+			next = null;
+			sent = false;
+		}
+
+		if (bufferPool != null)
+		{
+			bufferPool.release(buffer);
+		}
+
+		if (last)
+		{
+			if (sent)
+			{
+				metrics.sent(fragmentedMessage.name, fragmentedMessage.type, fragmentedBytes, fragmentedEncodeNanos);
+
+				if (!fragmentedMessage.isControl())
+				{
+					PublishEvent event = new PublishEvent();
+
+					if (event.shouldCommit())
+					{
+						event.publisher = fragmentedMessage.name;
+						event.type = fragmentedMessage.type;
+						event.bytes = fragmentedBytes;
+						event.queueWait = fragmentedStart - fragmentedMessage.queued;
+						event.encodeTime = fragmentedEncodeNanos;
+						event.commit();
+					}
+				}
+			}
+
+			endFragmentedMessage();
+
+			if (next != null)
 			{
-				subscribers.put(name, new HashMap<String, SpacebrewMessage>());
+				// continue with the next message of the batch
+				fragmentedMessage = next;
+				beginFragmentedMessage(current);
 			}
-			subscribers.get(name).put(type, message);
+		}
+	}
+
+	/**
+	 * Releases {@code fragmentedMessage} after it has been sent or dropped.
+	 */
+	private void endFragmentedMessage()
+	{
+		encoder.clear();
+		fragmentedMessage = null;
+		fragmentedClient = null;
+	}
+
+	/**
+	 * Schedules the task sending pings, replacing a previously scheduled one.
+	 */
+	private synchronized void startPinging()
+	{
+		stopPinging();
+
+		long interval = pingInterval;
+
+		if (interval > 0)
+		{
+			pingTask = getExecutor().scheduleWithFixedDelay(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					ping();
+				}
+			}, 0, interval, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Cancels the task sending pings.
+	 */
+	private synchronized void stopPinging()
+	{
+		if (pingTask != null)
+		{
+			pingTask.cancel(false);
+			pingTask = null;
+		}
+	}
+
+	/**
+	 * Sends a ping carrying the time it was sent.
+	 */
+	private void ping()
+	{
+		WebSocketClientImpl current = webSocketClient;
+
+		if (!connected || current == null)
+		{
+			return;
+		}
 
-			if (!subscriberMethods.containsKey(name))
+		ByteBuffer payload = ByteBuffer.allocate(8);
+		payload.putLong(0, System.nanoTime());
+
+		try
+		{
+			current.sendPing(payload);
+		}
+		catch (Exception e)
+		{
+			log.debug("Exception: {}", e);
+		}
+	}
+
+	/**
+	 * Callback method for the {@code WebsocketClient} object.
+	 */
+	@Override
+	public void onOpen()
+	{
+		currentName = name;
+		connected = true;
+		connecting = false;
+
+		if (pool != null)
+		{
+			pool.endConnect(this);
+		}
+
+		log.info("Connection opened to server with URI: {}", currentServerUri);
+		metrics.connected();
+		ConnectionEvent.emit(name, currentServerUri, ConnectionEvent.OPEN);
+
+		roundTripNanos = -1;
+		lastRoundTripNanos = -1;
+		startPinging();
+
+		synchronized (configLock)
+		{
+			sentConfig = null;
+			sendConfig();
+		}
+
+		if (routeTracking)
+		{
+			sendAdminRegistration();
+		}
+
+		callback.onOpen();
+	}
+
+	/**
+	 * Callback method for the {@code WebsocketClient} object.
+	 */
+	@Override
+	public void onClose()
+	{
+		if (connected)
+		{
+			connected = false;
+			log.info("Connection closed to server with URI: {}", currentServerUri);
+		}
+
+		ConnectionEvent.emit(name, currentServerUri, ConnectionEvent.CLOSE);
+
+		if (pool != null)
+		{
+			pool.endConnect(this);
+		}
+
+		stopPinging();
+		clearRoutes();
+		remoteAddress = null;
+
+		int dropped = outboundQueue.clear();
+		if (dropped > 0)
+		{
+			log.warn("Dropped {} outgoing messages that could not be sent before the connection closed.", dropped);
+		}
+
+		if (reconnecting)
+		{
+			reconnecting = false;
+			metrics.reconnecting();
+			ConnectionEvent.emit(name, currentServerUri, ConnectionEvent.RECONNECT);
+			openConnection();
+		}
+
+		if (disconnecting)
+		{
+			disconnecting = false;
+		}
+		else if (timeout > 0)
+		{
+			if (connecting)
 			{
-				subscriberMethods.put(name, new HashMap<String, Method>());
+				log.error("Could not connect to server with URI: {}", currentServerUri);
 			}
 
-			subscriberMethods.get(name).put(type, method);
-
-			sendConfig();
-			log.debug("Added subscriber with name \"{}\", type \"{}\" and callback method \"{}\".", name, type,
-					method.getName());
+			scheduleReconnect();
 		}
 	}
 
 	/**
-	 * Adds a boolean subscriber that uses a specific callback object. Updates
-	 * the server about the new subscriber if the client is connected.
-	 * 
-	 * @param name The name of the subscriber
-	 * @param callback The callback object for boolean messages
+	 * Reconnects after the timeout. Not done on the thread calling
+	 * {@link #onClose()}, which may be a thread of the closed connection that
+	 * is interrupted while it ends.
 	 */
-	public void addSubscriber(String name, BooleanSubscriber callback)
+	private synchronized void scheduleReconnect()
 	{
-		addSubscriber(name, SpacebrewMessage.TYPE_BOOLEAN, callback);
-	}
+		cancelReconnect();
 
-	/**
-	 * Adds a range subscriber that uses a specific callback object. Updates the
-	 * server about the new subscriber if the client is connected.
-	 * 
-	 * @param name The name of the subscriber
-	 * @param callback The callback object forrange messages
-	 */
-	public void addSubscriber(String name, RangeSubscriber callback)
-	{
-		addSubscriber(name, SpacebrewMessage.TYPE_RANGE, callback);
+		reconnectTask = getExecutor().schedule(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				metrics.reconnecting();
+				ConnectionEvent.emit(name, currentServerUri, ConnectionEvent.RECONNECT);
+				openConnection();
+			}
+		}, timeout, TimeUnit.MILLISECONDS);
 	}
 
 	/**
-	 * Adds a string subscriber that uses a specific callback object. Updates
-	 * the server about the new subscriber if the client is connected.
-	 * 
-	 * @param name The name of the subscriber
-	 * @param callback The callback object for string messages
+	 * Cancels a pending reconnect.
 	 */
-	public void addSubscriber(String name, StringSubscriber callback)
+	private synchronized void cancelReconnect()
 	{
-		addSubscriber(name, SpacebrewMessage.TYPE_STRING, callback);
+		if (reconnectTask != null)
+		{
+			reconnectTask.cancel(false);
+			reconnectTask = null;
+		}
 	}
 
 	/**
-	 * Adds a subscriber which uses its own callback object.
+	 * Callback method for the {@code WebsocketClient} object.
 	 * 
-	 * @param name The name of the subscriber
-	 * @param type The type of the subscriber (i.e.
-	 *            {@code SpacebrewMessage.TYPE_BOOLEAN},
-	 *            {@code SpacebrewMessage.TYPE_RANGE} or
-	 *            {@code SpacebrewMessage.TYPE_STRING})
-	 * @param subscriber The callback object
+	 * @param string The received message
+	 * @throws Throwable
 	 */
-	private void addSubscriber(String name, String type, Object subscriber)
+	@Override
+	public void onMessage(String string)
 	{
-		SpacebrewMessage message = new SpacebrewMessage();
-		message.name = name;
-		message.type = type;
+		long start = System.nanoTime();
+		Object temp;
 
-		if (!subscribers.containsKey(name))
+		synchronized (parser)
 		{
-			subscribers.put(name, new HashMap<String, SpacebrewMessage>());
+			try
+			{
+				temp = parser.parse(string);
+			}
+			catch (ParseException e)
+			{
+				temp = null;
+			}
 		}
-		subscribers.get(name).put(type, message);
 
-		if (!subscriberObjects.containsKey(name))
+		long parseNanos = System.nanoTime() - start;
+		long size = metrics.parsed(string, parseNanos);
+
+		if (temp instanceof JSONArray)
 		{
-			subscriberObjects.put(name, new HashMap<String, Object>());
+			// the server sends admin clients several messages at once
+			for (Object element : (JSONArray) temp)
+			{
+				onMessage(element, 0, 0);
+			}
+		}
+		else
+		{
+			onMessage(temp, size, parseNanos);
 		}
-		subscriberObjects.get(name).put(type, subscriber);
-
-		sendConfig();
-		log.debug("Added subscriber with name \"{}\" and type \"{}\".", name, type);
 	}
 
 	/**
-	 * Removes a specified publisher.
+	 * Handles a single incoming message.
 	 * 
-	 * @param name The name of the publisher to remove
-	 * @param type The type of the publisher to remove
+	 * @param temp The parsed message
+	 * @param size The size of the message, 0 if it arrived together with other
+	 *            messages
+	 * @param parseNanos The time spent parsing the message, 0 if it arrived
+	 *            together with other messages
 	 */
-	public void removePublisher(String name, String type)
+	private void onMessage(Object temp, long size, long parseNanos)
 	{
-		if (publishers.containsKey(name))
+		if (!(temp instanceof JSONObject))
 		{
-			publishers.get(name).remove(type);
+			log.debug("Ignored unknown message: {}", temp);
+			return;
+		}
 
-			sendConfig();
-			log.debug("Removed publisher with name \"{}\" and type \"{}\".", name, type);
+		JSONObject container = (JSONObject) temp;
+		Object message = container.get("message");
+
+		if (message instanceof JSONObject)
+		{
+			receive((JSONObject) message, size, parseNanos);
+		}
+		else if (routeTracking && container.get("route") instanceof JSONObject)
+		{
+			updateRoute((JSONObject) container.get("route"));
+		}
+		else if (routeTracking && container.get("remove") instanceof JSONArray)
+		{
+			removeClients((JSONArray) container.get("remove"));
+		}
+		else if (routeTracking && container.get("config") instanceof JSONObject)
+		{
+			JSONObject config = (JSONObject) container.get("config");
+
+			if (currentName.equals(config.get("name")) && config.get("remoteAddress") != null)
+			{
+				remoteAddress = config.get("remoteAddress").toString();
+			}
 		}
 	}
 
 	/**
-	 * Removes a specified subscriber.
+	 * Passes an incoming publisher message on.
 	 * 
-	 * @param name The name of the subscriber to remove
-	 * @param type The type of the subscriber to remove
+	 * @param message The body of the message
+	 * @param size The size of the message, 0 if unknown
+	 * @param parseNanos The time spent parsing the message, 0 if unknown
 	 */
-	public void removeSubscriber(String name, String type)
+	private void receive(JSONObject message, long size, long parseNanos)
 	{
-		if (subscribers.containsKey(name))
+		MessageEvent event = new MessageEvent();
+		event.begin();
+
+		String name = (String) message.get("name");
+		String type = (String) message.get("type");
+		String value = (String) message.get("value");
+
+		if (name == null || type == null)
+		{
+			log.debug("Ignored incomplete message: {}", message);
+			return;
+		}
+
+		metrics.received(name, type, size);
+
+		LastValueCache cache = lastValueCache;
+		if (cache != null)
+		{
+			cache.update(name, type, value);
+		}
+
+		InboundRing ring = inboundRing;
+		if (ring != null)
 		{
-			subscribers.get(name).remove(type);
+			long numericValue = 0;
 
-			if (subscriberMethods.containsKey(name))
+			if (type.equals(SpacebrewMessage.TYPE_BOOLEAN))
 			{
-				subscriberMethods.get(name).remove(type);
+				numericValue = Boolean.parseBoolean(value) ? 1 : 0;
 			}
-
-			if (subscriberObjects.containsKey(name))
+			else if (type.equals(SpacebrewMessage.TYPE_RANGE))
 			{
-				subscriberObjects.get(name).remove(type);
+				numericValue = sanitizeRangeMessage(value);
+			}
 
-				sendConfig();
-				log.debug("Removed subscriber with name \"{}\", type \"{}\".", name, type);
+			if (!ring.offer(name, type, value, numericValue))
+			{
+				log.debug("Inbound queue is full, dropped message for subscriber with name \"{}\".", name);
 			}
+
+			commit(event, name, type, size, parseNanos, 0, true);
+			return;
 		}
-	}
 
-	/**
-	 * Publishes a boolean message from a specified publisher.
-	 * 
-	 * @param name The name of the publisher
-	 * @param value The value of the message
-	 */
-	public void publish(String name, boolean value)
-	{
-		publish(name, SpacebrewMessage.TYPE_BOOLEAN, value + "");
+		long dispatchNanos = dispatch(name, type, value);
+		commit(event, name, type, size, parseNanos, dispatchNanos, false);
 	}
 
 	/**
-	 * Publishes a range message from a specified publisher.
-	 * 
-	 * @param name The name of the publisher
-	 * @param value The value of the message
+	 * Commits the event of an incoming message if the event type is enabled.
 	 */
-	public void publish(String name, int value)
+	private static void commit(MessageEvent event, String name, String type, long size, long parseNanos,
+			long dispatchNanos, boolean queued)
 	{
-		publish(name, SpacebrewMessage.TYPE_RANGE, value + "");
+		if (event.shouldCommit())
+		{
+			event.subscriber = name;
+			event.type = type;
+			event.bytes = size;
+			event.parseTime = parseNanos;
+			event.dispatchTime = dispatchNanos;
+			event.queued = queued;
+			event.commit();
+		}
 	}
 
 	/**
-	 * Publishes a string message from a specified publisher.
+	 * Adds or removes a route as announced by the server.
 	 * 
-	 * @param name The name of the publisher
-	 * @param value The value of the message
+	 * @param body The body of the route message
 	 */
-	public void publish(String name, String value)
+	private void updateRoute(JSONObject body)
 	{
-		publish(name, SpacebrewMessage.TYPE_STRING, value);
-	}
+		SpacebrewRoute route = SpacebrewRoute.parse(body);
 
-	/**
-	 * Sends a message with a specified type from a specified publisher.
-	 * 
-	 * @param name The name of the publisher
-	 * @param type The type of the subscriber (i.e.
-	 *            {@code SpacebrewMessage.TYPE_BOOLEAN},
-	 *            {@code SpacebrewMessage.TYPE_RANGE} or
-	 *            {@code SpacebrewMessage.TYPE_STRING})
-	 * @param value The value of the message
-	 */
-	@SuppressWarnings("unchecked")
-	public void publish(String name, String type, String value)
-	{
-		if (publishers.containsKey(name))
+		if (route == null)
 		{
-			JSONObject messagePart = new JSONObject();
-
-			messagePart.put("clientName", this.name);
-			messagePart.put("name", name);
-			messagePart.put("type", type);
-			messagePart.put("value", value);
+			log.debug("Ignored incomplete route message: {}", body);
+			return;
+		}
 
-			JSONObject message = new JSONObject();
-			message.put("message", messagePart);
+		boolean add = "add".equals(body.get("type"));
+		boolean changed;
 
-			publish(message);
+		synchronized (routes)
+		{
+			changed = add ? routes.add(route) : routes.remove(route);
 		}
-		else
+
+		if (changed)
 		{
-			log.error("Could not send message, no publisher with name \"{}\" and type \"{}\" has been added!", name,
-					type);
+			log.debug("Route {}: {}", add ? "added" : "removed", route);
+			notifyRouteListeners(route, add);
 		}
 	}
 
 	/**
-	 * Sends a JSON message to the server.
+	 * Removes the routes of clients that disconnected from the server.
 	 * 
-	 * @param message The message to send
+	 * @param clients The clients as announced by the server
 	 */
-	private void publish(JSONObject message)
+	private void removeClients(JSONArray clients)
 	{
-		if (connected)
+		List<SpacebrewRoute> removed = new ArrayList<SpacebrewRoute>();
+
+		synchronized (routes)
 		{
-			webSocketClient.send(message.toString());
+			for (Object client : clients)
+			{
+				if (!(client instanceof JSONObject))
+				{
+					continue;
+				}
+
+				Object clientName = ((JSONObject) client).get("name");
+				Object address = ((JSONObject) client).get("remoteAddress");
+
+				for (SpacebrewRoute route : routes)
+				{
+					if (route.involves(clientName != null ? clientName.toString() : null,
+							address != null ? address.toString() : null))
+					{
+						removed.add(route);
+					}
+				}
+			}
+
+			routes.removeAll(removed);
 		}
-		else
+
+		for (SpacebrewRoute route : removed)
 		{
-			log.warn("Could not send message, not connected!");
+			notifyRouteListeners(route, false);
 		}
 	}
 
 	/**
-	 * Callback method for the {@code WebsocketClient} object.
+	 * Forgets all routes, e.g. when the connection closes.
 	 */
-	@Override
-	public void onOpen()
+	private void clearRoutes()
 	{
-		connected = true;
-		connecting = false;
-
-		log.info("Connection opened to server with URI: {}", currentServerUri);
+		List<SpacebrewRoute> removed;
 
-		sendConfig();
-		callback.onOpen();
-	}
-
-	/**
-	 * Callback method for the {@code WebsocketClient} object.
-	 */
-	@Override
-	public void onClose()
-	{
-		if (connected)
+		synchronized (routes)
 		{
-			connected = false;
-			log.info("Connection closed to server with URI: {}", currentServerUri);
+			removed = new ArrayList<SpacebrewRoute>(routes);
+			routes.clear();
 		}
 
-		if (reconnecting)
+		for (SpacebrewRoute route : removed)
 		{
-			reconnecting = false;
-			connect();
+			notifyRouteListeners(route, false);
 		}
+	}
 
-		if (disconnecting)
-		{
-			disconnecting = false;
-		}
-		else if (timeout > 0)
+	private void notifyRouteListeners(SpacebrewRoute route, boolean added)
+	{
+		for (RouteListener listener : routeListeners)
 		{
-			if (connecting)
-			{
-				log.error("Could not connect to server with URI: {}", currentServerUri);
-			}
-
 			try
 			{
-				Thread.sleep(timeout);
-				connect();
+				if (added)
+				{
+					listener.onRouteAdded(route);
+				}
+				else
+				{
+					listener.onRouteRemoved(route);
+				}
 			}
-			catch (InterruptedException ex)
+			catch (Exception e)
 			{
-				// ignore
+				log.error("Could not pass route change to listener, exception occurred!");
+				log.debug("Exception: {}", e);
 			}
 		}
 	}
 
 	/**
-	 * Callback method for the {@code WebsocketClient} object.
+	 * Passes an incoming message to the subscribers registered for its name
+	 * and type and measures the time it took.
 	 * 
-	 * @param string The received message
-	 * @throws Throwable
+	 * @param name The name of the subscriber
+	 * @param type The type of the subscriber
+	 * @param value The value as received
+	 * @return The time it took in nanoseconds
 	 */
-	@Override
-	public void onMessage(String string)
+	private long dispatch(String name, String type, String value)
 	{
-		Object temp = JSONValue.parse(string);
-		JSONObject container = (JSONObject) temp;
+		long start = System.nanoTime();
+		deliver(name, type, value);
 
-		JSONObject message = (JSONObject) container.get("message");
+		long nanos = System.nanoTime() - start;
+		metrics.dispatched(nanos);
+		return nanos;
+	}
 
-		String name = (String) message.get("name");
-		String type = (String) message.get("type");
-		String value = (String) message.get("value");
+	/**
+	 * Passes an incoming message to the subscribers registered for its name
+	 * and type.
+	 * 
+	 * @param name The name of the subscriber
+	 * @param type The type of the subscriber
+	 * @param value The value as received
+	 */
+	private void deliver(String name, String type, String value)
+	{
+		Map<String, Method> methods = subscriberMethods.get(name);
+		Method method = methods != null ? methods.get(type) : null;
 
-		if (subscriberMethods.containsKey(name))
+		if (method != null)
 		{
 			Throwable cause = null;
 
 			try
 			{
-				Method method = subscriberMethods.get(name).get(type);
-
 				if (type.equals(SpacebrewMessage.TYPE_BOOLEAN))
 				{
 					method.invoke(callback, Boolean.parseBoolean(value));
@@ -808,6 +2960,18 @@ public class SpacebrewClient implements WebSocketClientImplCallback
 				{
 					method.invoke(callback, value);
 				}
+				else if (codecs.contains(type))
+				{
+					SpacebrewCodec<Object> codec = codecs.get(type);
+					Map<String, Object[]> values = subscriberValues.get(name);
+					Object[] reuse = values != null ? values.get(type) : null;
+
+					if (reuse != null)
+					{
+						reuse[0] = codec.decode(value, reuse[0]);
+						method.invoke(callback, reuse[0]);
+					}
+				}
 			}
 			catch (InvocationTargetException e)
 			{
@@ -815,11 +2979,17 @@ public class SpacebrewClient implements WebSocketClientImplCallback
 			}
 			catch (IllegalAccessException e)
 			{
-				cause = e.getCause();
+				cause = e;
+			}
+			catch (RuntimeException e)
+			{
+				// e.g. a value the codec cannot decode
+				cause = e;
 			}
 
 			if (cause != null)
 			{
+				metrics.error();
 				log.error(
 						"Could not pass incoming spacebrew message to callback, exception occurred while calling callback method for subscriber with name \"{}\" and type \"{}\"!",
 						name, type);
@@ -830,13 +3000,13 @@ public class SpacebrewClient implements WebSocketClientImplCallback
 			}
 		}
 
-		if (subscriberObjects.containsKey(name))
-		{
-			Object subscriber = null;
+		Map<String, Object> objects = subscriberObjects.get(name);
+		Object subscriber = objects != null ? objects.get(type) : null;
 
+		if (subscriber != null)
+		{
 			try
 			{
-				subscriber = subscriberObjects.get(name).get(type);
 				if (type.equals(SpacebrewMessage.TYPE_BOOLEAN))
 				{
 					((BooleanSubscriber) subscriber).receive(Boolean.parseBoolean(value));
@@ -849,9 +3019,18 @@ public class SpacebrewClient implements WebSocketClientImplCallback
 				{
 					((StringSubscriber) subscriber).receive(value);
 				}
+				else if (subscriber instanceof TypedSubscription)
+				{
+					((TypedSubscription<?>) subscriber).receive(value);
+				}
+				else if (subscriber instanceof DeltaSubscription)
+				{
+					((DeltaSubscription) subscriber).receive(value);
+				}
 			}
 			catch (Exception e)
 			{
+				metrics.error();
 				log.error(
 						"Could not pass message to callback, exception occured while passing message to subscriber with name \"{}\"",
 						name);
@@ -860,6 +3039,35 @@ public class SpacebrewClient implements WebSocketClientImplCallback
 		}
 	}
 
+	/**
+	 * Callback method for {@code webSocketClient}, measures the round trip
+	 * time of a ping sent by {@link #ping()}.
+	 * 
+	 * @param payload The application data of the pong
+	 */
+	@Override
+	public void onPong(ByteBuffer payload)
+	{
+		if (payload == null || payload.remaining() != 8)
+		{
+			return;
+		}
+
+		long nanos = System.nanoTime() - payload.getLong(payload.position());
+
+		if (nanos < 0)
+		{
+			return;
+		}
+
+		lastRoundTripNanos = nanos;
+
+		long smoothed = roundTripNanos;
+
+		// smoothed like TCP's round trip time estimate (RFC 6298)
+		roundTripNanos = smoothed < 0 ? nanos : smoothed + ((nanos - smoothed) >> 3);
+	}
+
 	/**
 	 * Callback method for {@code webSocketClient}.
 	 * 
@@ -870,6 +3078,7 @@ public class SpacebrewClient implements WebSocketClientImplCallback
 	{
 		log.error("Connection error occured!");
 		log.debug("Exception: {}", exception);
+		metrics.error();
 
 		callback.onError();
 	}
@@ -890,7 +3099,7 @@ public class SpacebrewClient implements WebSocketClientImplCallback
 	 * @param message The unsanitized incoming range message
 	 * @return The sanitized {@code int} value
 	 */
-	private int sanitizeRangeMessage(String message)
+	static int sanitizeRangeMessage(String message)
 	{
 		int value = 0;
 
@@ -0,0 +1,584 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.client;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import at.ac.sbg.icts.spacebrew.client.metrics.SpacebrewMetrics;
+
+/**
+ * Hosts many clients in one JVM with a fixed number of threads. All clients
+ * of a pool send their outgoing messages, pings and reconnects on one shared
+ * executor and encode their fragments into buffers lent by one shared
+ * {@link ByteBufferPool}. The number of connection attempts in progress is
+ * limited, further clients wait until an attempt has succeeded or failed, so
+ * e.g. a restarting server is not hit by all clients reconnecting at once.
+ * <p/>
+ * Incoming messages are still read and dispatched on the threads of each
+ * connection. Clients in polling mode can be drained together with
+ * {@link #drain(int)} on the thread of the consumer.
+ * 
+ * @author Axel Baumgartner
+ */
+public class SpacebrewClientPool
+{
+	/**
+	 * The default number of connection attempts in progress at a time.
+	 */
+	public static final int								DEFAULT_MAX_CONNECTING	= 16;
+
+	/**
+	 * The default time in milliseconds {@link #shutdown()} waits for the
+	 * connections to close.
+	 */
+	public static final long							DEFAULT_CLOSE_TIMEOUT	= 5000;
+
+	/**
+	 * Provides logging facilities.
+	 */
+	private final Logger								log						= LoggerFactory.getLogger(SpacebrewClientPool.class);
+
+	/**
+	 * Counts the pools created, to name their threads.
+	 */
+	private static final AtomicInteger					poolCount				= new AtomicInteger();
+
+	/**
+	 * Runs the tasks sending outgoing messages, pings and reconnects of all
+	 * clients.
+	 */
+	private final ScheduledExecutorService				executor;
+
+	/**
+	 * Lends the buffers outgoing fragments are encoded into to all clients.
+	 */
+	private final ByteBufferPool						bufferPool;
+
+	/**
+	 * The number of connection attempts in progress at a time.
+	 */
+	private final int									maxConnecting;
+
+	/**
+	 * The clients of this pool.
+	 */
+	private final CopyOnWriteArrayList<SpacebrewClient>	clients					= new CopyOnWriteArrayList<SpacebrewClient>();
+
+	/**
+	 * The clients whose connection attempt is in progress, guarded by this
+	 * pool.
+	 */
+	private final HashSet<SpacebrewClient>				connecting				= new HashSet<SpacebrewClient>();
+
+	/**
+	 * The clients waiting to start their connection attempt in the order they
+	 * called {@link SpacebrewClient#connect()}, guarded by this pool.
+	 */
+	private final LinkedHashSet<SpacebrewClient>		waiting					= new LinkedHashSet<SpacebrewClient>();
+
+	/**
+	 * Creates a pool with a thread per processor and
+	 * {@link #DEFAULT_MAX_CONNECTING} connection attempts at a time.
+	 */
+	public SpacebrewClientPool()
+	{
+		this(Runtime.getRuntime().availableProcessors(), DEFAULT_MAX_CONNECTING);
+	}
+
+	/**
+	 * @param threads The number of threads sending outgoing messages, pings
+	 *            and reconnects of all clients
+	 * @param maxConnecting The number of connection attempts in progress at a
+	 *            time
+	 */
+	public SpacebrewClientPool(int threads, int maxConnecting)
+	{
+		final int pool = poolCount.incrementAndGet();
+
+		this.maxConnecting = Math.max(1, maxConnecting);
+		this.bufferPool = new ByteBufferPool(Math.max(ByteBufferPool.DEFAULT_CAPACITY, threads * 2));
+		this.executor = Executors.newScheduledThreadPool(Math.max(1, threads), new ThreadFactory()
+		{
+			private final AtomicInteger	threadCount	= new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable)
+			{
+				Thread thread = new Thread(runnable, "SpacebrewClientPool-" + pool + "-"
+						+ threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Creates a client and adds it to this pool.
+	 * 
+	 * @param callback The object that will receive messages via callback
+	 *            methods
+	 * @param serverUri The complete URI of the server to connect to
+	 * @param name The name of the client as it will appear in the Spacebrew
+	 *            administration
+	 * @return The client, not connected yet
+	 */
+	public SpacebrewClient createClient(SpacebrewClientCallback callback, String serverUri, String name)
+	{
+		return createClient(callback, serverUri, name, "");
+	}
+
+	/**
+	 * Creates a client and adds it to this pool.
+	 * 
+	 * @param callback The object that will receive messages via callback
+	 *            methods
+	 * @param serverUri The complete URI of the server to connect to
+	 * @param name The name of the client as it will appear in the Spacebrew
+	 *            administration
+	 * @param description The description of the client as it will appear in
+	 *            the Spacebrew administration
+	 * @return The client, not connected yet
+	 */
+	public SpacebrewClient createClient(SpacebrewClientCallback callback, String serverUri, String name,
+			String description)
+	{
+		SpacebrewClient client = new SpacebrewClient(callback, serverUri, name, description);
+		add(client);
+		return client;
+	}
+
+	/**
+	 * Adds a client to this pool. Must be called before the client connects.
+	 * All connections of a {@link StripedSpacebrewClient} use the executor and
+	 * buffers of this pool and each of them waits for its turn to connect.
+	 * 
+	 * @param client The client to add
+	 */
+	public void add(SpacebrewClient client)
+	{
+		if (client.getPool() != null && client.getPool() != this)
+		{
+			throw new IllegalArgumentException("The client has already been added to another pool!");
+		}
+
+		client.setExecutor(executor);
+		client.setBufferPool(bufferPool);
+		client.setPool(this);
+		clients.addIfAbsent(client);
+	}
+
+	/**
+	 * Removes a client from this pool. Its connection attempts are not limited
+	 * anymore and it creates its own executor and buffer, so it keeps working
+	 * after the pool has been shut down.
+	 * 
+	 * @param client The client to remove
+	 */
+	public void remove(SpacebrewClient client)
+	{
+		if (clients.remove(client))
+		{
+			client.setPool(null);
+			client.setExecutor(null);
+			client.setBufferPool(null);
+
+			for (SpacebrewClient connection : client.getConnections())
+			{
+				endConnect(connection);
+				cancelConnect(connection);
+			}
+		}
+	}
+
+	/**
+	 * @return The clients of this pool
+	 */
+	public List<SpacebrewClient> getClients()
+	{
+		return new ArrayList<SpacebrewClient>(clients);
+	}
+
+	/**
+	 * Connects all clients, at most {@code maxConnecting} at a time.
+	 */
+	public void connectAll()
+	{
+		for (SpacebrewClient client : clients)
+		{
+			client.connect();
+		}
+	}
+
+	/**
+	 * Disconnects all clients.
+	 */
+	public void disconnectAll()
+	{
+		for (SpacebrewClient client : clients)
+		{
+			client.disconnect();
+		}
+	}
+
+	/**
+	 * Disconnects all clients, waits at most
+	 * {@link #DEFAULT_CLOSE_TIMEOUT} milliseconds for their connections to
+	 * close and stops the threads of this pool. The pool cannot be used
+	 * afterwards.
+	 */
+	public void shutdown()
+	{
+		shutdown(DEFAULT_CLOSE_TIMEOUT);
+	}
+
+	/**
+	 * Disconnects all clients, waits for their connections to close and stops
+	 * the threads of this pool, so no client is left sending on a stopped
+	 * executor. The pool cannot be used afterwards.
+	 * 
+	 * @param timeout The time in milliseconds to wait for the connections to
+	 *            close
+	 * @return True if all connections were closed in time
+	 */
+	public boolean shutdown(long timeout)
+	{
+		disconnectAll();
+
+		long deadline = System.currentTimeMillis() + timeout;
+		boolean closed = isClosed();
+
+		try
+		{
+			while (!closed && System.currentTimeMillis() < deadline)
+			{
+				Thread.sleep(10);
+				closed = isClosed();
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+
+		if (!closed)
+		{
+			log.warn("Stopping the pool although not all connections have been closed.");
+		}
+
+		executor.shutdown();
+		return closed;
+	}
+
+	/**
+	 * Dispatches the messages queued by the clients in polling mode to their
+	 * subscribers on the calling thread.
+	 * 
+	 * @param max The maximum number of messages to dispatch per client
+	 * @return The number of messages dispatched
+	 */
+	public int drain(int max)
+	{
+		int count = 0;
+
+		for (SpacebrewClient client : clients)
+		{
+			count += client.drain(max);
+		}
+
+		return count;
+	}
+
+	/**
+	 * @return The executor running the tasks sending outgoing messages, pings
+	 *         and reconnects of all clients
+	 */
+	public ScheduledExecutorService getExecutor()
+	{
+		return executor;
+	}
+
+	/**
+	 * @return The pool lending the buffers outgoing fragments are encoded into
+	 */
+	public ByteBufferPool getBufferPool()
+	{
+		return bufferPool;
+	}
+
+	/**
+	 * @return The number of connection attempts in progress at a time
+	 */
+	public int getMaxConnecting()
+	{
+		return maxConnecting;
+	}
+
+	/**
+	 * @return The number of connection attempts in progress
+	 */
+	public synchronized int getConnectingCount()
+	{
+		return connecting.size();
+	}
+
+	/**
+	 * @return The number of clients waiting to start their connection attempt
+	 */
+	public synchronized int getWaitingCount()
+	{
+		return waiting.size();
+	}
+
+	/**
+	 * @return The number of connected clients
+	 */
+	public int getConnectedCount()
+	{
+		int count = 0;
+
+		for (SpacebrewClient client : clients)
+		{
+			if (client.isConnected())
+			{
+				count++;
+			}
+		}
+
+		return count;
+	}
+
+	/**
+	 * @return The metrics of all clients, one per connection (e.g. per stripe
+	 *         of a {@link StripedSpacebrewClient}), e.g. to serve them with a
+	 *         {@link at.ac.sbg.icts.spacebrew.client.metrics.MetricsHttpServer}
+	 *         or write them with
+	 *         {@link SpacebrewMetrics#writePrometheus(java.util.Collection, StringBuilder)}
+	 */
+	public List<SpacebrewMetrics> getMetrics()
+	{
+		List<SpacebrewMetrics> metrics = new ArrayList<SpacebrewMetrics>(clients.size());
+
+		for (SpacebrewClient client : clients)
+		{
+			for (SpacebrewClient connection : client.getConnections())
+			{
+				metrics.add(connection.getMetrics());
+			}
+		}
+
+		return metrics;
+	}
+
+	/**
+	 * @return The number of publisher messages sent by all clients
+	 */
+	public long getMessagesSent()
+	{
+		long count = 0;
+
+		for (SpacebrewMetrics metrics : getMetrics())
+		{
+			count += metrics.getMessagesSent();
+		}
+
+		return count;
+	}
+
+	/**
+	 * @return The number of bytes of publisher messages sent by all clients
+	 */
+	public long getBytesSent()
+	{
+		long count = 0;
+
+		for (SpacebrewMetrics metrics : getMetrics())
+		{
+			count += metrics.getBytesSent();
+		}
+
+		return count;
+	}
+
+	/**
+	 * @return The number of messages received by all clients
+	 */
+	public long getMessagesReceived()
+	{
+		long count = 0;
+
+		for (SpacebrewMetrics metrics : getMetrics())
+		{
+			count += metrics.getMessagesReceived();
+		}
+
+		return count;
+	}
+
+	/**
+	 * @return The number of bytes of messages received by all clients
+	 */
+	public long getBytesReceived()
+	{
+		long count = 0;
+
+		for (SpacebrewMetrics metrics : getMetrics())
+		{
+			count += metrics.getBytesReceived();
+		}
+
+		return count;
+	}
+
+	/**
+	 * @return The number of reconnects of all clients
+	 */
+	public long getReconnects()
+	{
+		long count = 0;
+
+		for (SpacebrewMetrics metrics : getMetrics())
+		{
+			count += metrics.getReconnects();
+		}
+
+		return count;
+	}
+
+	/**
+	 * @return The number of errors of all clients
+	 */
+	public long getErrors()
+	{
+		long count = 0;
+
+		for (SpacebrewMetrics metrics : getMetrics())
+		{
+			count += metrics.getErrors();
+		}
+
+		return count;
+	}
+
+	/**
+	 * @return The number of messages waiting to be sent by all clients
+	 */
+	public int getOutboundQueueSize()
+	{
+		int size = 0;
+
+		for (SpacebrewClient client : clients)
+		{
+			size += client.getOutboundQueueSize();
+		}
+
+		return size;
+	}
+
+	/**
+	 * @return True if no connection of any client is open
+	 */
+	private boolean isClosed()
+	{
+		for (SpacebrewClient client : clients)
+		{
+			for (SpacebrewClient connection : client.getConnections())
+			{
+				if (connection.isConnectionOpen())
+				{
+					return false;
+				}
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Called by a client before it starts a connection attempt.
+	 * 
+	 * @param client The client
+	 * @return True if the client may connect now, false if it has to wait and
+	 *         will be connected by the pool later
+	 */
+	synchronized boolean beginConnect(SpacebrewClient client)
+	{
+		if (connecting.contains(client))
+		{
+			return true;
+		}
+
+		if (connecting.size() < maxConnecting)
+		{
+			connecting.add(client);
+			return true;
+		}
+
+		waiting.add(client);
+		return false;
+	}
+
+	/**
+	 * Called by a client when its connection attempt has succeeded or failed,
+	 * starts the attempt of the next waiting client.
+	 * 
+	 * @param client The client
+	 */
+	synchronized void endConnect(SpacebrewClient client)
+	{
+		if (!connecting.remove(client))
+		{
+			return;
+		}
+
+		Iterator<SpacebrewClient> iterator = waiting.iterator();
+
+		while (connecting.size() < maxConnecting && iterator.hasNext())
+		{
+			final SpacebrewClient next = iterator.next();
+			iterator.remove();
+			connecting.add(next);
+
+			executor.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					next.openConnection();
+				}
+			});
+		}
+
+		log.debug("{} connection attempts in progress, {} waiting.", connecting.size(), waiting.size());
+	}
+
+	/**
+	 * Called by a client when it disconnects, so it does not connect while
+	 * waiting for its turn.
+	 * 
+	 * @param client The client
+	 */
+	synchronized void cancelConnect(SpacebrewClient client)
+	{
+		waiting.remove(client);
+	}
+}
@@ -55,4 +55,15 @@ public class SpacebrewMessage
 	 * The {@code String} value of the message if it is a string message.
 	 */
 	public String				stringValue;
+
+	/**
+	 * The priority of outgoing messages if this is a publisher.
+	 */
+	public OutboundPriority		priority		= OutboundPriority.NORMAL;
+
+	/**
+	 * The time in milliseconds after which outgoing messages are dropped if
+	 * they could not be sent yet, 0 if they never expire.
+	 */
+	public long					timeToLive		= 0;
 }
@@ -0,0 +1,247 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.client;
+
+import org.json.simple.JSONObject;
+
+/**
+ * A route on the Spacebrew server connecting a publisher of one client to a
+ * subscriber of another client. Clients are identified by their name and
+ * remote address as seen by the server.
+ * 
+ * @author Axel Baumgartner
+ */
+public class SpacebrewRoute
+{
+	/**
+	 * The name of the client offering the publisher.
+	 */
+	private final String	publisherClientName;
+
+	/**
+	 * The remote address of the client offering the publisher.
+	 */
+	private final String	publisherAddress;
+
+	/**
+	 * The name of the publisher.
+	 */
+	private final String	publisherName;
+
+	/**
+	 * The name of the client offering the subscriber.
+	 */
+	private final String	subscriberClientName;
+
+	/**
+	 * The remote address of the client offering the subscriber.
+	 */
+	private final String	subscriberAddress;
+
+	/**
+	 * The name of the subscriber.
+	 */
+	private final String	subscriberName;
+
+	/**
+	 * The type of the publisher and the subscriber.
+	 */
+	private final String	type;
+
+	/**
+	 * @param publisherClientName The name of the client offering the
+	 *            publisher
+	 * @param publisherAddress The remote address of the client offering the
+	 *            publisher
+	 * @param publisherName The name of the publisher
+	 * @param subscriberClientName The name of the client offering the
+	 *            subscriber
+	 * @param subscriberAddress The remote address of the client offering the
+	 *            subscriber
+	 * @param subscriberName The name of the subscriber
+	 * @param type The type of the publisher and the subscriber
+	 */
+	public SpacebrewRoute(String publisherClientName, String publisherAddress, String publisherName,
+			String subscriberClientName, String subscriberAddress, String subscriberName, String type)
+	{
+		this.publisherClientName = publisherClientName;
+		this.publisherAddress = publisherAddress;
+		this.publisherName = publisherName;
+		this.subscriberClientName = subscriberClientName;
+		this.subscriberAddress = subscriberAddress;
+		this.subscriberName = subscriberName;
+		this.type = type;
+	}
+
+	/**
+	 * Creates a route from the body of a route message sent by the server to
+	 * admin clients.
+	 * 
+	 * @param route The body of the route message
+	 * @return The route, null if the message is incomplete
+	 */
+	static SpacebrewRoute parse(JSONObject route)
+	{
+		Object publisher = route.get("publisher");
+		Object subscriber = route.get("subscriber");
+
+		if (!(publisher instanceof JSONObject) || !(subscriber instanceof JSONObject))
+		{
+			return null;
+		}
+
+		JSONObject pub = (JSONObject) publisher;
+		JSONObject sub = (JSONObject) subscriber;
+
+		String publisherClientName = string(pub, "clientName");
+		String publisherName = string(pub, "name");
+		String type = string(pub, "type");
+
+		if (publisherClientName == null || publisherName == null || type == null)
+		{
+			return null;
+		}
+
+		return new SpacebrewRoute(publisherClientName, string(pub, "remoteAddress"), publisherName, string(sub,
+				"clientName"), string(sub, "remoteAddress"), string(sub, "name"), type);
+	}
+
+	/**
+	 * @return The name of the client offering the publisher
+	 */
+	public String getPublisherClientName()
+	{
+		return publisherClientName;
+	}
+
+	/**
+	 * @return The remote address of the client offering the publisher, null
+	 *         if unknown
+	 */
+	public String getPublisherAddress()
+	{
+		return publisherAddress;
+	}
+
+	/**
+	 * @return The name of the publisher
+	 */
+	public String getPublisherName()
+	{
+		return publisherName;
+	}
+
+	/**
+	 * @return The name of the client offering the subscriber
+	 */
+	public String getSubscriberClientName()
+	{
+		return subscriberClientName;
+	}
+
+	/**
+	 * @return The remote address of the client offering the subscriber, null
+	 *         if unknown
+	 */
+	public String getSubscriberAddress()
+	{
+		return subscriberAddress;
+	}
+
+	/**
+	 * @return The name of the subscriber
+	 */
+	public String getSubscriberName()
+	{
+		return subscriberName;
+	}
+
+	/**
+	 * @return The type of the publisher and the subscriber
+	 */
+	public String getType()
+	{
+		return type;
+	}
+
+	/**
+	 * @param clientName The name of a client
+	 * @param address The remote address of the client
+	 * @return True if the publisher or the subscriber of this route belongs
+	 *         to the client
+	 */
+	public boolean involves(String clientName, String address)
+	{
+		return (equal(publisherClientName, clientName) && equal(publisherAddress, address))
+				|| (equal(subscriberClientName, clientName) && equal(subscriberAddress, address));
+	}
+
+	@Override
+	public boolean equals(Object object)
+	{
+		if (this == object)
+		{
+			return true;
+		}
+
+		if (!(object instanceof SpacebrewRoute))
+		{
+			return false;
+		}
+
+		SpacebrewRoute other = (SpacebrewRoute) object;
+
+		return equal(publisherClientName, other.publisherClientName) && equal(publisherAddress, other.publisherAddress)
+				&& equal(publisherName, other.publisherName)
+				&& equal(subscriberClientName, other.subscriberClientName)
+				&& equal(subscriberAddress, other.subscriberAddress) && equal(subscriberName, other.subscriberName)
+				&& equal(type, other.type);
+	}
+
+	@Override
+	public int hashCode()
+	{
+		int hash = 17;
+
+		hash = hash * 31 + hashCode(publisherClientName);
+		hash = hash * 31 + hashCode(publisherAddress);
+		hash = hash * 31 + hashCode(publisherName);
+		hash = hash * 31 + hashCode(subscriberClientName);
+		hash = hash * 31 + hashCode(subscriberAddress);
+		hash = hash * 31 + hashCode(subscriberName);
+		hash = hash * 31 + hashCode(type);
+
+		return hash;
+	}
+
+	@Override
+	public String toString()
+	{
+		return publisherClientName + "/" + publisherName + " -> " + subscriberClientName + "/" + subscriberName + " ("
+				+ type + ")";
+	}
+
+	private static String string(JSONObject object, String key)
+	{
+		Object value = object.get(key);
+		return value != null ? value.toString() : null;
+	}
+
+	private static boolean equal(String a, String b)
+	{
+		return a == null ? b == null : a.equals(b);
+	}
+
+	private static int hashCode(String string)
+	{
+		return string != null ? string.hashCode() : 0;
+	}
+}
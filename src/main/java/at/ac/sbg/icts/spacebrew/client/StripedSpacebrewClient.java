@@ -0,0 +1,702 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+
+import at.ac.sbg.icts.spacebrew.client.codec.SpacebrewCodec;
+import at.ac.sbg.icts.spacebrew.client.metrics.SpacebrewMetrics;
+
+/**
+ * A {@link SpacebrewClient} that spreads its publishers across several
+ * connections (stripes), so messages of different publishers are encoded and
+ * written in parallel instead of queueing for the single write thread of one
+ * connection. Each publisher is assigned to a stripe by the hash of its name,
+ * all its messages go through that stripe, so the order of the messages of
+ * every route is preserved.
+ * <p/>
+ * The first stripe is this client itself: it keeps the name, callback and all
+ * subscribers. The other stripes are internal clients named
+ * {@code <name>#<stripe>}, each registering only its own publishers, which
+ * therefore appear as separate clients in the Spacebrew administration and
+ * have to be routed under these names. The callback is notified when the
+ * first stripe opens and closes, {@link #isConnected()} is true once all
+ * stripes are connected.
+ * <p/>
+ * Connecting, disconnecting, the executor, the buffer pool and the
+ * connection, compression and outbound queue settings overridden here apply
+ * to all stripes, all other settings (e.g. listeners other than publish
+ * listeners) apply to the first stripe only and can be set on the others via
+ * {@link #getStripe(int)}. {@link #getMetrics()} holds the metrics of the
+ * first stripe, {@link #getStripeMetrics()} those of all stripes. Batches
+ * whose publishers are assigned to different stripes are split per stripe.
+ * 
+ * @author Axel Baumgartner
+ */
+public class StripedSpacebrewClient extends SpacebrewClient
+{
+	/**
+	 * The stripes, the first one is this client.
+	 */
+	private final SpacebrewClient[]	stripes;
+
+	/**
+	 * @param callback The object that will receive messages via callback
+	 *            methods
+	 * @param serverUri The complete URI of the server to connect to
+	 * @param name The name of this client as it will appear in the Spacebrew
+	 *            administration
+	 * @param stripeCount The number of connections to spread the publishers
+	 *            across
+	 */
+	public StripedSpacebrewClient(SpacebrewClientCallback callback, String serverUri, String name, int stripeCount)
+	{
+		this(callback, serverUri, name, "", stripeCount);
+	}
+
+	/**
+	 * @param callback The object that will receive messages via callback
+	 *            methods
+	 * @param serverUri The complete URI of the server to connect to
+	 * @param name The name of this client as it will appear in the Spacebrew
+	 *            administration
+	 * @param description The description of this client as it will appear in
+	 *            the Spacebrew administration
+	 * @param stripeCount The number of connections to spread the publishers
+	 *            across
+	 */
+	public StripedSpacebrewClient(final SpacebrewClientCallback callback, String serverUri, String name,
+			String description, int stripeCount)
+	{
+		super(callback, serverUri, name, description);
+
+		if (stripeCount < 1)
+		{
+			throw new IllegalArgumentException("The number of stripes must be at least 1!");
+		}
+
+		SpacebrewClientCallback stripeCallback = new SpacebrewClientCallback()
+		{
+			@Override
+			public void onOpen()
+			{
+			}
+
+			@Override
+			public void onClose()
+			{
+			}
+
+			@Override
+			public void onError()
+			{
+				callback.onError();
+			}
+		};
+
+		stripes = new SpacebrewClient[stripeCount];
+		stripes[0] = this;
+
+		for (int i = 1; i < stripeCount; i++)
+		{
+			stripes[i] = new SpacebrewClient(stripeCallback, serverUri, getStripeName(name, i), description);
+		}
+	}
+
+	/**
+	 * @return The number of connections the publishers are spread across
+	 */
+	public int getStripeCount()
+	{
+		return stripes.length;
+	}
+
+	/**
+	 * @param index The index of the stripe, 0 for this client
+	 * @return The stripe
+	 */
+	public SpacebrewClient getStripe(int index)
+	{
+		return stripes[index];
+	}
+
+	/**
+	 * @param name The name of a publisher
+	 * @return The index of the stripe the publisher is assigned to
+	 */
+	public int getStripeIndex(String name)
+	{
+		return stripes.length == 1 ? 0 : (name.hashCode() & Integer.MAX_VALUE) % stripes.length;
+	}
+
+	@Override
+	public void setServerUri(String serverUri)
+	{
+		super.setServerUri(serverUri);
+
+		for (int i = 1; i < stripes.length; i++)
+		{
+			stripes[i].setServerUri(serverUri);
+		}
+	}
+
+	@Override
+	public void setName(String name)
+	{
+		super.setName(name);
+
+		for (int i = 1; i < stripes.length; i++)
+		{
+			stripes[i].setName(getStripeName(name, i));
+		}
+	}
+
+	@Override
+	public void setDescription(String description)
+	{
+		super.setDescription(description);
+
+		for (int i = 1; i < stripes.length; i++)
+		{
+			stripes[i].setDescription(description);
+		}
+	}
+
+	@Override
+	public void setTimeout(long timeout)
+	{
+		super.setTimeout(timeout);
+
+		for (int i = 1; i < stripes.length; i++)
+		{
+			stripes[i].setTimeout(timeout);
+		}
+	}
+
+	/**
+	 * Sets the capacity of the outbound queue of every stripe.
+	 */
+	@Override
+	public void setOutboundQueueCapacity(int outboundQueueCapacity)
+	{
+		super.setOutboundQueueCapacity(outboundQueueCapacity);
+
+		for (int i = 1; i < stripes.length; i++)
+		{
+			stripes[i].setOutboundQueueCapacity(outboundQueueCapacity);
+		}
+	}
+
+	/**
+	 * @return The number of messages waiting to be sent on all stripes
+	 */
+	@Override
+	public int getOutboundQueueSize()
+	{
+		int size = super.getOutboundQueueSize();
+
+		for (int i = 1; i < stripes.length; i++)
+		{
+			size += stripes[i].getOutboundQueueSize();
+		}
+
+		return size;
+	}
+
+	/**
+	 * @return The number of frames that can be sent before the fullest
+	 *         outbound queue of all stripes is full
+	 */
+	@Override
+	public int getOutboundQueueRemainingCapacity()
+	{
+		int remaining = super.getOutboundQueueRemainingCapacity();
+
+		for (int i = 1; i < stripes.length; i++)
+		{
+			remaining = Math.min(remaining, stripes[i].getOutboundQueueRemainingCapacity());
+		}
+
+		return remaining;
+	}
+
+	@Override
+	public void setSocketBufferWatermark(int socketBufferWatermark)
+	{
+		super.setSocketBufferWatermark(socketBufferWatermark);
+
+		for (int i = 1; i < stripes.length; i++)
+		{
+			stripes[i].setSocketBufferWatermark(socketBufferWatermark);
+		}
+	}
+
+	@Override
+	public void setFragmentSize(int fragmentSize)
+	{
+		super.setFragmentSize(fragmentSize);
+
+		for (int i = 1; i < stripes.length; i++)
+		{
+			stripes[i].setFragmentSize(fragmentSize);
+		}
+	}
+
+	@Override
+	public void setCompressionEnabled(boolean compressionEnabled)
+	{
+		super.setCompressionEnabled(compressionEnabled);
+
+		for (int i = 1; i < stripes.length; i++)
+		{
+			stripes[i].setCompressionEnabled(compressionEnabled);
+		}
+	}
+
+	@Override
+	public void setPingInterval(long pingInterval)
+	{
+		super.setPingInterval(pingInterval);
+
+		for (int i = 1; i < stripes.length; i++)
+		{
+			stripes[i].setPingInterval(pingInterval);
+		}
+	}
+
+	@Override
+	public void setCompressionThreshold(int compressionThreshold)
+	{
+		super.setCompressionThreshold(compressionThreshold);
+
+		for (int i = 1; i < stripes.length; i++)
+		{
+			stripes[i].setCompressionThreshold(compressionThreshold);
+		}
+	}
+
+	@Override
+	public void setCompressionLevel(int compressionLevel)
+	{
+		super.setCompressionLevel(compressionLevel);
+
+		for (int i = 1; i < stripes.length; i++)
+		{
+			stripes[i].setCompressionLevel(compressionLevel);
+		}
+	}
+
+	@Override
+	public void setOutboundScheduling(OutboundScheduling scheduling)
+	{
+		super.setOutboundScheduling(scheduling);
+
+		for (int i = 1; i < stripes.length; i++)
+		{
+			stripes[i].setOutboundScheduling(scheduling);
+		}
+	}
+
+	@Override
+	public void setOutboundWeight(OutboundPriority priority, int weight)
+	{
+		super.setOutboundWeight(priority, weight);
+
+		for (int i = 1; i < stripes.length; i++)
+		{
+			stripes[i].setOutboundWeight(priority, weight);
+		}
+	}
+
+	/**
+	 * Sets the executor of all stripes, null to let each stripe create its
+	 * own.
+	 */
+	@Override
+	public synchronized void setExecutor(ScheduledExecutorService executor)
+	{
+		super.setExecutor(executor);
+
+		for (int i = 1; i < stripes.length; i++)
+		{
+			stripes[i].setExecutor(executor);
+		}
+	}
+
+	@Override
+	public void setBufferPool(ByteBufferPool bufferPool)
+	{
+		super.setBufferPool(bufferPool);
+
+		for (int i = 1; i < stripes.length; i++)
+		{
+			stripes[i].setBufferPool(bufferPool);
+		}
+	}
+
+	@Override
+	void setPool(SpacebrewClientPool pool)
+	{
+		super.setPool(pool);
+
+		for (int i = 1; i < stripes.length; i++)
+		{
+			stripes[i].setPool(pool);
+		}
+	}
+
+	@Override
+	SpacebrewClient[] getConnections()
+	{
+		return stripes.clone();
+	}
+
+	/**
+	 * @return The metrics of all stripes, in stripe order, e.g. to register
+	 *         them as MBeans or to write them with
+	 *         {@link SpacebrewMetrics#writePrometheus(java.util.Collection, StringBuilder)}
+	 */
+	public List<SpacebrewMetrics> getStripeMetrics()
+	{
+		List<SpacebrewMetrics> metrics = new ArrayList<SpacebrewMetrics>(stripes.length);
+
+		for (SpacebrewClient stripe : stripes)
+		{
+			metrics.add(stripe.getMetrics());
+		}
+
+		return metrics;
+	}
+
+	/**
+	 * Counts the routes of the publisher to the stripe it is assigned to. The
+	 * routes are tracked by the first stripe.
+	 */
+	@Override
+	public int getRouteCount(String name, String type)
+	{
+		int stripe = getStripeIndex(name);
+
+		if (stripe == 0)
+		{
+			return super.getRouteCount(name, type);
+		}
+
+		String clientName = stripes[stripe].getCurrentName();
+		int count = 0;
+
+		for (SpacebrewRoute route : getRoutes())
+		{
+			if (route.getPublisherName().equals(name) && route.getType().equals(type)
+					&& route.getPublisherClientName().equals(clientName))
+			{
+				count++;
+			}
+		}
+
+		return count;
+	}
+
+	@Override
+	public synchronized void addPublishListener(PublishListener listener)
+	{
+		super.addPublishListener(listener);
+
+		for (int i = 1; i < stripes.length; i++)
+		{
+			stripes[i].addPublishListener(listener);
+		}
+	}
+
+	@Override
+	public synchronized void removePublishListener(PublishListener listener)
+	{
+		super.removePublishListener(listener);
+
+		for (int i = 1; i < stripes.length; i++)
+		{
+			stripes[i].removePublishListener(listener);
+		}
+	}
+
+	/**
+	 * Begins a reconfiguration of all stripes, each stripe sends at most one
+	 * configuration message when it ends.
+	 */
+	@Override
+	public void beginReconfiguration()
+	{
+		super.beginReconfiguration();
+
+		for (int i = 1; i < stripes.length; i++)
+		{
+			stripes[i].beginReconfiguration();
+		}
+	}
+
+	@Override
+	public void endReconfiguration()
+	{
+		super.endReconfiguration();
+
+		for (int i = 1; i < stripes.length; i++)
+		{
+			stripes[i].endReconfiguration();
+		}
+	}
+
+	/**
+	 * Connects all stripes to the Spacebrew server.
+	 */
+	@Override
+	public void connect()
+	{
+		super.connect();
+
+		for (int i = 1; i < stripes.length; i++)
+		{
+			stripes[i].connect();
+		}
+	}
+
+	/**
+	 * Closes the connections of all stripes.
+	 */
+	@Override
+	public void disconnect()
+	{
+		super.disconnect();
+
+		for (int i = 1; i < stripes.length; i++)
+		{
+			stripes[i].disconnect();
+		}
+	}
+
+	/**
+	 * Disconnects and immediately reconnects all stripes.
+	 */
+	@Override
+	public void reconnect()
+	{
+		super.reconnect();
+
+		for (int i = 1; i < stripes.length; i++)
+		{
+			stripes[i].reconnect();
+		}
+	}
+
+	/**
+	 * @return True if all stripes are connected
+	 */
+	@Override
+	public boolean isConnected()
+	{
+		if (!super.isConnected())
+		{
+			return false;
+		}
+
+		for (int i = 1; i < stripes.length; i++)
+		{
+			if (!stripes[i].isConnected())
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Adds the publisher to the stripe it is assigned to.
+	 */
+	@Override
+	public void addPublisher(String name, String type, String defaultValue)
+	{
+		int stripe = getStripeIndex(name);
+
+		if (stripe == 0)
+		{
+			super.addPublisher(name, type, defaultValue);
+		}
+		else
+		{
+			stripes[stripe].addPublisher(name, type, defaultValue);
+		}
+	}
+
+	/**
+	 * Adds the publisher to the stripe it is assigned to, the codec is
+	 * registered on that stripe.
+	 */
+	@Override
+	public <T> void addPublisher(String name, SpacebrewCodec<T> codec, T defaultValue)
+	{
+		int stripe = getStripeIndex(name);
+
+		if (stripe == 0)
+		{
+			super.addPublisher(name, codec, defaultValue);
+		}
+		else
+		{
+			stripes[stripe].addPublisher(name, codec, defaultValue);
+		}
+	}
+
+	@Override
+	public void setPublisherPriority(String name, String type, OutboundPriority priority)
+	{
+		int stripe = getStripeIndex(name);
+
+		if (stripe == 0)
+		{
+			super.setPublisherPriority(name, type, priority);
+		}
+		else
+		{
+			stripes[stripe].setPublisherPriority(name, type, priority);
+		}
+	}
+
+	@Override
+	public void setPublisherTimeToLive(String name, String type, long timeToLive)
+	{
+		int stripe = getStripeIndex(name);
+
+		if (stripe == 0)
+		{
+			super.setPublisherTimeToLive(name, type, timeToLive);
+		}
+		else
+		{
+			stripes[stripe].setPublisherTimeToLive(name, type, timeToLive);
+		}
+	}
+
+	@Override
+	public void removePublisher(String name, String type)
+	{
+		int stripe = getStripeIndex(name);
+
+		if (stripe == 0)
+		{
+			super.removePublisher(name, type);
+		}
+		else
+		{
+			stripes[stripe].removePublisher(name, type);
+		}
+	}
+
+	/**
+	 * Sends the message on the stripe the publisher is assigned to.
+	 */
+	@Override
+	public void publish(String name, String type, CharSequence value)
+	{
+		int stripe = getStripeIndex(name);
+
+		if (stripe == 0)
+		{
+			super.publish(name, type, value);
+		}
+		else
+		{
+			stripes[stripe].publish(name, type, value);
+		}
+	}
+
+	/**
+	 * Sends the messages on the stripes their publishers are assigned to. The
+	 * messages of each stripe are sent as one batch in the given order.
+	 */
+	@Override
+	public void publishBatch(String[] names, String[] types, CharSequence[] values, int count)
+	{
+		if (count == 0)
+		{
+			return;
+		}
+
+		int stripe = getStripeIndex(names[0]);
+		boolean split = false;
+
+		for (int i = 1; i < count && !split; i++)
+		{
+			split = getStripeIndex(names[i]) != stripe;
+		}
+
+		if (!split)
+		{
+			publishBatch(stripe, names, types, values, count);
+			return;
+		}
+
+		String[] stripeNames = new String[count];
+		String[] stripeTypes = new String[count];
+		CharSequence[] stripeValues = new CharSequence[count];
+
+		for (stripe = 0; stripe < stripes.length; stripe++)
+		{
+			int stripeCount = 0;
+
+			for (int i = 0; i < count; i++)
+			{
+				if (getStripeIndex(names[i]) == stripe)
+				{
+					stripeNames[stripeCount] = names[i];
+					stripeTypes[stripeCount] = types[i];
+					stripeValues[stripeCount] = values[i];
+					stripeCount++;
+				}
+			}
+
+			if (stripeCount > 0)
+			{
+				publishBatch(stripe, stripeNames, stripeTypes, stripeValues, stripeCount);
+			}
+		}
+	}
+
+	/**
+	 * @param stripe The index of the stripe to send the batch on
+	 * @param names The names of the publishers
+	 * @param types The types of the publishers
+	 * @param values The values of the messages
+	 * @param count The number of messages
+	 */
+	private void publishBatch(int stripe, String[] names, String[] types, CharSequence[] values, int count)
+	{
+		if (stripe == 0)
+		{
+			super.publishBatch(names, types, values, count);
+		}
+		else
+		{
+			stripes[stripe].publishBatch(names, types, values, count);
+		}
+	}
+
+	/**
+	 * @param name The name of this client
+	 * @param index The index of the stripe
+	 * @return The name of the stripe in the Spacebrew administration
+	 */
+	private static String getStripeName(String name, int index)
+	{
+		return name + "#" + index;
+	}
+}
@@ -0,0 +1,30 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.client;
+
+/**
+ * Interface for a subscriber of a custom type that is decoded by a
+ * {@link at.ac.sbg.icts.spacebrew.client.codec.SpacebrewCodec}.
+ * 
+ * @param <T> The type of the decoded values
+ * @author Axel Baumgartner
+ */
+public interface TypedSubscriber<T>
+{
+	/**
+	 * Receives a decoded message from the server. The value may be reused
+	 * by the client for the next message of this subscriber (e.g. arrays are
+	 * decoded into the same instance), copy it if it has to outlive this call.
+	 * 
+	 * @param value The decoded value of the message
+	 */
+	public void receive(T value);
+}
@@ -0,0 +1,59 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.client;
+
+import at.ac.sbg.icts.spacebrew.client.codec.SpacebrewCodec;
+
+/**
+ * Binds a {@link TypedSubscriber} to its codec and keeps the last decoded
+ * value, so it can be decoded into again by the next message.
+ * 
+ * @param <T> The type of the decoded values
+ * @author Axel Baumgartner
+ */
+class TypedSubscription<T>
+{
+	/**
+	 * The codec used to decode incoming values.
+	 */
+	private final SpacebrewCodec<T>		codec;
+
+	/**
+	 * The subscriber receiving the decoded values.
+	 */
+	private final TypedSubscriber<T>	subscriber;
+
+	/**
+	 * The last decoded value, reused for the next message.
+	 */
+	private T							reuse;
+
+	/**
+	 * @param codec The codec used to decode incoming values
+	 * @param subscriber The subscriber receiving the decoded values
+	 */
+	TypedSubscription(SpacebrewCodec<T> codec, TypedSubscriber<T> subscriber)
+	{
+		this.codec = codec;
+		this.subscriber = subscriber;
+	}
+
+	/**
+	 * Decodes an incoming value and passes it to the subscriber.
+	 * 
+	 * @param value The encoded value
+	 */
+	void receive(String value)
+	{
+		reuse = codec.decode(value, reuse);
+		subscriber.receive(reuse);
+	}
+}
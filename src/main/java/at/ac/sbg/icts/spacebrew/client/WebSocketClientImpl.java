@@ -12,8 +12,16 @@ package at.ac.sbg.icts.spacebrew.client;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
 
+import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
 import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.exceptions.InvalidDataException;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.framing.Framedata.Opcode;
+import org.java_websocket.framing.FramedataImpl1;
 import org.java_websocket.handshake.ServerHandshake;
 
 /**
@@ -39,6 +47,89 @@ public class WebSocketClientImpl extends WebSocketClient
 		this.callback = callback;
 	}
 
+	/**
+	 * @param callback The object that implements the callback methods
+	 * @param serverURI The URI of the server to connect to
+	 * @param draft The WebSocket protocol draft, e.g. a
+	 *            {@link PerMessageDeflateDraft}
+	 */
+	public WebSocketClientImpl(WebSocketClientImplCallback callback, String serverURI, Draft draft)
+			throws URISyntaxException
+	{
+		super(new URI(serverURI), draft);
+		this.callback = callback;
+	}
+
+	/**
+	 * @return True if the permessage-deflate extension has been negotiated
+	 *         for the connection
+	 */
+	public boolean isCompressionNegotiated()
+	{
+		WebSocket connection = getConnection();
+
+		if (connection instanceof WebSocketImpl)
+		{
+			Draft draft = ((WebSocketImpl) connection).getDraft();
+			return draft instanceof PerMessageDeflateDraft && ((PerMessageDeflateDraft) draft).isNegotiated();
+		}
+
+		return false;
+	}
+
+	/**
+	 * @return The number of frames that have been sent but not yet written to
+	 *         the socket
+	 */
+	public int getBufferedFrameCount()
+	{
+		WebSocket connection = getConnection();
+
+		if (connection instanceof WebSocketImpl)
+		{
+			return ((WebSocketImpl) connection).outQueue.size();
+		}
+
+		return 0;
+	}
+
+	/**
+	 * Sends one fragment of a text message. The first fragment is sent as a
+	 * text frame, all following fragments as continuation frames, the last
+	 * fragment has the FIN bit set. Fragments of different messages must not
+	 * be interleaved.
+	 * 
+	 * @param payload The UTF-8 encoded fragment, copied before the method
+	 *            returns
+	 * @param first Whether this is the first fragment of the message
+	 * @param last Whether this is the last fragment of the message
+	 * @throws InvalidDataException If the payload is rejected
+	 */
+	public void sendFragment(ByteBuffer payload, boolean first, boolean last) throws InvalidDataException
+	{
+		FramedataImpl1 frame = new FramedataImpl1(first ? Opcode.TEXT : Opcode.CONTINUOUS);
+		frame.setFin(last);
+		frame.setPayload(payload);
+
+		getConnection().sendFrame(frame);
+	}
+
+	/**
+	 * Sends a ping control frame, the server answers with a pong carrying the
+	 * same payload.
+	 * 
+	 * @param payload The application data of the ping, at most 125 bytes
+	 * @throws InvalidDataException If the payload is rejected
+	 */
+	public void sendPing(ByteBuffer payload) throws InvalidDataException
+	{
+		FramedataImpl1 frame = new FramedataImpl1(Opcode.PING);
+		frame.setFin(true);
+		frame.setPayload(payload);
+
+		getConnection().sendFrame(frame);
+	}
+
 	/**
 	 * Called by {@code WebSocketClient} and passes the call through to the
 	 * callback object.
@@ -76,6 +167,19 @@ public class WebSocketClientImpl extends WebSocketClient
 		callback.onClose();
 	}
 
+	/**
+	 * Called by {@code WebSocketClient} and passes the call through to the
+	 * callback object.
+	 * 
+	 * @param conn The connection the pong was received on
+	 * @param f The pong control frame
+	 */
+	@Override
+	public void onWebsocketPong(WebSocket conn, Framedata f)
+	{
+		callback.onPong(f.getPayloadData());
+	}
+
 	/**
 	 * Called by {@code WebSocketClient} and passes the call through to the
 	 * callback object.
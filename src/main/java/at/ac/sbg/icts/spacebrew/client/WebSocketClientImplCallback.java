@@ -10,6 +10,8 @@
  ******************************************************************************/
 package at.ac.sbg.icts.spacebrew.client;
 
+import java.nio.ByteBuffer;
+
 /**
  * Interface contract for objects that want to act as a callback object for
  * {@link WebSocketClientImpl} objects.
@@ -35,6 +37,13 @@ public interface WebSocketClientImplCallback
 	 */
 	public void onMessage(String message);
 
+	/**
+	 * Called when a pong control frame has been received.
+	 * 
+	 * @param payload The application data of the pong
+	 */
+	public void onPong(ByteBuffer payload);
+
 	/**
 	 * Called when an exception occurred during the lifetime of the connection.
 	 * 
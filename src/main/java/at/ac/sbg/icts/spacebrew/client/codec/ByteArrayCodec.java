@@ -0,0 +1,57 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.client.codec;
+
+/**
+ * A codec for byte blobs ({@code byte[]}). Values are encoded as base64.
+ * 
+ * @author Axel Baumgartner
+ */
+public class ByteArrayCodec implements SpacebrewCodec<byte[]>
+{
+	/**
+	 * The Spacebrew message type of this codec.
+	 */
+	public static final String	TYPE	= "bytes";
+
+	@Override
+	public String getType()
+	{
+		return TYPE;
+	}
+
+	@Override
+	public Class<byte[]> getValueType()
+	{
+		return byte[].class;
+	}
+
+	@Override
+	public String encode(byte[] value)
+	{
+		return LittleEndianBase64.encode(value);
+	}
+
+	/**
+	 * Decodes into {@code reuse} if it has exactly the length of the encoded
+	 * blob, thus receiving blobs of constant length allocates nothing.
+	 */
+	@Override
+	public byte[] decode(String value, byte[] reuse)
+	{
+		int length = LittleEndianBase64.decodedLength(value);
+
+		byte[] result = reuse != null && reuse.length == length ? reuse : new byte[length];
+		LittleEndianBase64.decode(value, result);
+
+		return result;
+	}
+}
@@ -0,0 +1,63 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.client.codec;
+
+/**
+ * A codec for vectors of 64-bit floating point values ({@code double[]}). Values are encoded as base64 of their
+ * little-endian byte representation.
+ * 
+ * @author Axel Baumgartner
+ */
+public class DoubleVectorCodec implements SpacebrewCodec<double[]>
+{
+	/**
+	 * The Spacebrew message type of this codec.
+	 */
+	public static final String	TYPE	= "doubles";
+
+	@Override
+	public String getType()
+	{
+		return TYPE;
+	}
+
+	@Override
+	public Class<double[]> getValueType()
+	{
+		return double[].class;
+	}
+
+	@Override
+	public String encode(double[] value)
+	{
+		return LittleEndianBase64.encode(value);
+	}
+
+	/**
+	 * Decodes into {@code reuse} if it has exactly the length of the encoded
+	 * vector, thus receiving vectors of constant length allocates nothing.
+	 */
+	@Override
+	public double[] decode(String value, double[] reuse)
+	{
+		int length = LittleEndianBase64.decodedLength(value);
+
+		if (length % 8 != 0)
+		{
+			throw new IllegalArgumentException("Length of decoded value is not a multiple of 8: " + length);
+		}
+
+		double[] result = reuse != null && reuse.length == length / 8 ? reuse : new double[length / 8];
+		LittleEndianBase64.decode(value, result);
+
+		return result;
+	}
+}
@@ -0,0 +1,243 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.client.codec;
+
+/**
+ * Encodes arrays of primitives as base64 (RFC 4648) of their little-endian
+ * byte representation and decodes them into existing arrays. Exactly one of
+ * the array arguments of the private methods is non-null and determines the
+ * word width (1, 4 or 8 bytes).
+ * 
+ * @author Axel Baumgartner
+ */
+final class LittleEndianBase64
+{
+	/**
+	 * The base64 alphabet.
+	 */
+	private static final char[]	ALPHABET	= "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/"
+													.toCharArray();
+
+	/**
+	 * Maps characters to their 6-bit value, -1 for invalid characters.
+	 */
+	private static final byte[]	VALUES		= new byte[128];
+
+	static
+	{
+		for (int i = 0; i < VALUES.length; i++)
+		{
+			VALUES[i] = -1;
+		}
+
+		for (int i = 0; i < ALPHABET.length; i++)
+		{
+			VALUES[ALPHABET[i]] = (byte) i;
+		}
+	}
+
+	private LittleEndianBase64()
+	{
+	}
+
+	/**
+	 * @param src The bytes to encode
+	 * @return The encoded bytes
+	 */
+	static String encode(byte[] src)
+	{
+		return encode(src, null, null, src.length);
+	}
+
+	/**
+	 * @param src The floats to encode
+	 * @return The encoded floats
+	 */
+	static String encode(float[] src)
+	{
+		return encode(null, src, null, src.length * 4);
+	}
+
+	/**
+	 * @param src The doubles to encode
+	 * @return The encoded doubles
+	 */
+	static String encode(double[] src)
+	{
+		return encode(null, null, src, src.length * 8);
+	}
+
+	/**
+	 * @param value The encoded value
+	 * @param dst The bytes to decode into, must have a length of exactly
+	 *            {@link #decodedLength(String)}
+	 */
+	static void decode(String value, byte[] dst)
+	{
+		decode(value, dst, null, null, dst.length);
+	}
+
+	/**
+	 * @param value The encoded value
+	 * @param dst The floats to decode into, must have a length of exactly
+	 *            {@link #decodedLength(String)} / 4
+	 */
+	static void decode(String value, float[] dst)
+	{
+		decode(value, null, dst, null, dst.length * 4);
+	}
+
+	/**
+	 * @param value The encoded value
+	 * @param dst The doubles to decode into, must have a length of exactly
+	 *            {@link #decodedLength(String)} / 8
+	 */
+	static void decode(String value, double[] dst)
+	{
+		decode(value, null, null, dst, dst.length * 8);
+	}
+
+	/**
+	 * @param value The encoded value
+	 * @return The number of bytes the encoded value holds
+	 * @throws IllegalArgumentException If the length of the value is not a
+	 *             multiple of four
+	 */
+	static int decodedLength(String value)
+	{
+		int length = value.length();
+
+		if (length % 4 != 0)
+		{
+			throw new IllegalArgumentException("Length of base64 value is not a multiple of four: " + length);
+		}
+
+		int padding = 0;
+		if (length > 0 && value.charAt(length - 1) == '=')
+		{
+			padding++;
+
+			if (value.charAt(length - 2) == '=')
+			{
+				padding++;
+			}
+		}
+
+		return length / 4 * 3 - padding;
+	}
+
+	private static String encode(byte[] bytes, float[] floats, double[] doubles, int count)
+	{
+		char[] chars = new char[(count + 2) / 3 * 4];
+		int c = 0;
+
+		for (int i = 0; i < count; i += 3)
+		{
+			int remaining = count - i;
+			int group = byteAt(bytes, floats, doubles, i) << 16;
+
+			if (remaining > 1)
+			{
+				group |= byteAt(bytes, floats, doubles, i + 1) << 8;
+			}
+
+			if (remaining > 2)
+			{
+				group |= byteAt(bytes, floats, doubles, i + 2);
+			}
+
+			chars[c++] = ALPHABET[(group >>> 18) & 0x3f];
+			chars[c++] = ALPHABET[(group >>> 12) & 0x3f];
+			chars[c++] = remaining > 1 ? ALPHABET[(group >>> 6) & 0x3f] : '=';
+			chars[c++] = remaining > 2 ? ALPHABET[group & 0x3f] : '=';
+		}
+
+		return new String(chars);
+	}
+
+	private static int byteAt(byte[] bytes, float[] floats, double[] doubles, int index)
+	{
+		if (bytes != null)
+		{
+			return bytes[index] & 0xff;
+		}
+		else if (floats != null)
+		{
+			return (Float.floatToRawIntBits(floats[index >> 2]) >>> ((index & 3) << 3)) & 0xff;
+		}
+		else
+		{
+			return (int) (Double.doubleToRawLongBits(doubles[index >> 3]) >>> ((index & 7) << 3)) & 0xff;
+		}
+	}
+
+	private static void decode(String value, byte[] bytes, float[] floats, double[] doubles, int count)
+	{
+		int width = bytes != null ? 1 : (floats != null ? 4 : 8);
+		long word = 0;
+		int shift = 0;
+		int index = 0;
+		int group = 0;
+
+		for (int i = 0; i < count; i++)
+		{
+			int position = i % 3;
+
+			if (position == 0)
+			{
+				int c = i / 3 * 4;
+				group = (valueOf(value, c) << 18) | (valueOf(value, c + 1) << 12) | (valueOf(value, c + 2) << 6)
+						| valueOf(value, c + 3);
+			}
+
+			word |= (long) ((group >>> (16 - position * 8)) & 0xff) << shift;
+			shift += 8;
+
+			if (shift == width * 8)
+			{
+				if (bytes != null)
+				{
+					bytes[index++] = (byte) word;
+				}
+				else if (floats != null)
+				{
+					floats[index++] = Float.intBitsToFloat((int) word);
+				}
+				else
+				{
+					doubles[index++] = Double.longBitsToDouble(word);
+				}
+
+				word = 0;
+				shift = 0;
+			}
+		}
+	}
+
+	private static int valueOf(String value, int index)
+	{
+		char c = value.charAt(index);
+
+		if (c == '=')
+		{
+			return 0;
+		}
+
+		int v = c < VALUES.length ? VALUES[c] : -1;
+
+		if (v < 0)
+		{
+			throw new IllegalArgumentException("Invalid base64 character at index " + index + ": " + c);
+		}
+
+		return v;
+	}
+}
@@ -0,0 +1,53 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.client.codec;
+
+/**
+ * Converts values of a custom Spacebrew message type to and from the string
+ * representation that is sent over the wire. Codecs are registered by their
+ * type name in a {@link SpacebrewCodecRegistry}.
+ * 
+ * @param <T> The type of the values this codec handles
+ * @author Axel Baumgartner
+ */
+public interface SpacebrewCodec<T>
+{
+	/**
+	 * @return The name of the Spacebrew message type this codec handles
+	 */
+	public String getType();
+
+	/**
+	 * @return The class of the values this codec handles
+	 */
+	public Class<T> getValueType();
+
+	/**
+	 * Encodes a value to its string representation.
+	 * 
+	 * @param value The value to encode
+	 * @return The encoded value
+	 */
+	public String encode(T value);
+
+	/**
+	 * Decodes a value from its string representation. If {@code reuse} is
+	 * suitable to hold the decoded value (e.g. an array of the right length),
+	 * the value is decoded into it and {@code reuse} is returned, otherwise a
+	 * new object is created.
+	 * 
+	 * @param value The encoded value
+	 * @param reuse An object the value may be decoded into, may be null
+	 * @return The decoded value
+	 * @throws IllegalArgumentException If the value is not properly encoded
+	 */
+	public T decode(String value, T reuse);
+}
@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.client.codec;
+
+import java.util.HashMap;
+
+/**
+ * Holds codecs for custom Spacebrew message types (type, codec).
+ * 
+ * @author Axel Baumgartner
+ */
+public class SpacebrewCodecRegistry
+{
+	/**
+	 * Holds all registered codecs (type, codec).
+	 */
+	private final HashMap<String, SpacebrewCodec<?>>	codecs	= new HashMap<String, SpacebrewCodec<?>>();
+
+	/**
+	 * Creates a registry that already holds the built-in codecs
+	 * {@link FloatVectorCodec}, {@link DoubleVectorCodec} and
+	 * {@link ByteArrayCodec}.
+	 * 
+	 * @return The new registry
+	 */
+	public static SpacebrewCodecRegistry createDefault()
+	{
+		SpacebrewCodecRegistry registry = new SpacebrewCodecRegistry();
+		registry.register(new FloatVectorCodec());
+		registry.register(new DoubleVectorCodec());
+		registry.register(new ByteArrayCodec());
+		return registry;
+	}
+
+	/**
+	 * Registers a codec for its type. A codec already registered for the same
+	 * type is replaced.
+	 * 
+	 * @param codec The codec to register
+	 */
+	public void register(SpacebrewCodec<?> codec)
+	{
+		codecs.put(codec.getType(), codec);
+	}
+
+	/**
+	 * Removes the codec registered for a type.
+	 * 
+	 * @param type The type of the codec to remove
+	 */
+	public void unregister(String type)
+	{
+		codecs.remove(type);
+	}
+
+	/**
+	 * @param type The type of the codec
+	 * @return The codec registered for the type or null if there is none
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> SpacebrewCodec<T> get(String type)
+	{
+		return (SpacebrewCodec<T>) codecs.get(type);
+	}
+
+	/**
+	 * @param type The type of the codec
+	 * @return True if a codec is registered for the type
+	 */
+	public boolean contains(String type)
+	{
+		return codecs.containsKey(type);
+	}
+}
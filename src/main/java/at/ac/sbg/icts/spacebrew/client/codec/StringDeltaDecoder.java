@@ -0,0 +1,369 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.client.codec;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Rebuilds the values of a delta-encoded string publisher from the messages
+ * created by a {@link StringDeltaEncoder}. If a delta is missed (e.g. because
+ * it was dropped or the subscriber connected late), all deltas are ignored
+ * until the next keyframe.
+ * <p/>
+ * Several publishers may be routed to the same subscriber, so a value is
+ * kept per stream, i.e. per encoder. The value and state returned are those
+ * of the stream of the latest message, the counters are summed up over all
+ * streams. Streams not heard of for a while are dropped.
+ * <p/>
+ * Instances are not thread-safe, messages have to be decoded in the order
+ * they were received.
+ * 
+ * @author Axel Baumgartner
+ */
+public class StringDeltaDecoder
+{
+	/**
+	 * The maximum number of streams a value is kept for.
+	 */
+	private static final int					MAX_STREAMS	= 16;
+
+	/**
+	 * The streams by their identifier, the least recently used first.
+	 */
+	private final LinkedHashMap<String, Stream>	streams		= new LinkedHashMap<String, Stream>(16, 0.75f, true)
+	{
+		private static final long	serialVersionUID	= 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Stream> eldest)
+		{
+			return size() > MAX_STREAMS;
+		}
+	};
+
+	/**
+	 * The stream of the latest message, null before the first message.
+	 */
+	private Stream								stream;
+
+	/**
+	 * Builds the next value from the current value of a stream.
+	 */
+	private StringBuilder						next		= new StringBuilder();
+
+	/**
+	 * The number of keyframes received.
+	 */
+	private long								keyframes	= 0;
+
+	/**
+	 * The number of deltas applied.
+	 */
+	private long								deltas		= 0;
+
+	/**
+	 * The number of deltas ignored while waiting for a keyframe.
+	 */
+	private long								skipped		= 0;
+
+	/**
+	 * The number of times a delta was missed.
+	 */
+	private long								missed		= 0;
+
+	/**
+	 * Decodes the next message.
+	 * 
+	 * @param message The message as received
+	 * @return True if the message updated the value, false if it was ignored
+	 */
+	public boolean decode(String message)
+	{
+		int colon = message.indexOf(':');
+		int separator = colon < 0 ? -1 : message.lastIndexOf(StringDeltaEncoder.STREAM, colon);
+
+		if (separator < 2 || parse(message, 1, separator) < 0)
+		{
+			return desync();
+		}
+
+		String id = message.substring(1, separator);
+		stream = streams.get(id);
+
+		if (stream == null)
+		{
+			stream = new Stream();
+			streams.put(id, stream);
+		}
+
+		long messageSequence = parse(message, separator + 1, colon);
+
+		if (messageSequence < 0)
+		{
+			return desync();
+		}
+
+		char kind = message.charAt(0);
+
+		if (kind == StringDeltaEncoder.KEYFRAME)
+		{
+			stream.current.setLength(0);
+			stream.current.append(message, colon + 1, message.length());
+			stream.value = null;
+			stream.sequence = messageSequence;
+			stream.synced = true;
+			stream.complete = true;
+			keyframes++;
+			return true;
+		}
+
+		if (kind != StringDeltaEncoder.DELTA)
+		{
+			return desync();
+		}
+
+		if (!stream.synced)
+		{
+			skipped++;
+			return false;
+		}
+
+		if (messageSequence == stream.sequence)
+		{
+			// duplicate
+			return false;
+		}
+
+		if (messageSequence != stream.sequence + 1 || !apply(message, colon + 1))
+		{
+			skipped++;
+			return desync();
+		}
+
+		StringBuilder swap = stream.current;
+		stream.current = next;
+		next = swap;
+
+		stream.value = null;
+		stream.sequence = messageSequence;
+		deltas++;
+		return true;
+	}
+
+	/**
+	 * @return The current value of the stream of the latest message, null if
+	 *         no keyframe has been received for it yet
+	 */
+	public String getValue()
+	{
+		if (stream == null || !stream.complete)
+		{
+			return null;
+		}
+
+		if (stream.value == null)
+		{
+			stream.value = stream.current.toString();
+		}
+
+		return stream.value;
+	}
+
+	/**
+	 * @return True if the current value of the stream of the latest message is
+	 *         complete and deltas can be applied
+	 */
+	public boolean isSynced()
+	{
+		return stream != null && stream.synced;
+	}
+
+	/**
+	 * @return The number of keyframes received
+	 */
+	public long getKeyframes()
+	{
+		return keyframes;
+	}
+
+	/**
+	 * @return The number of deltas applied
+	 */
+	public long getDeltas()
+	{
+		return deltas;
+	}
+
+	/**
+	 * @return The number of deltas ignored while waiting for a keyframe
+	 */
+	public long getSkipped()
+	{
+		return skipped;
+	}
+
+	/**
+	 * @return The number of times a delta was missed and the decoder had to
+	 *         wait for the next keyframe
+	 */
+	public long getMissed()
+	{
+		return missed;
+	}
+
+	/**
+	 * Applies the operations of a delta to the current value of the stream,
+	 * the result is written to {@code next}.
+	 * 
+	 * @param message The message
+	 * @param start The index of the first operation
+	 * @return True if the operations are valid
+	 */
+	private boolean apply(String message, int start)
+	{
+		next.setLength(0);
+
+		int length = message.length();
+		int position = start;
+
+		while (position < length)
+		{
+			char operation = message.charAt(position++);
+
+			if (operation == StringDeltaEncoder.COPY)
+			{
+				int comma = message.indexOf(',', position);
+				int semicolon = comma < 0 ? -1 : message.indexOf(';', comma);
+
+				if (semicolon < 0)
+				{
+					return false;
+				}
+
+				long offset = parse(message, position, comma);
+				long count = parse(message, comma + 1, semicolon);
+
+				if (offset < 0 || count < 0 || offset + count > stream.current.length())
+				{
+					return false;
+				}
+
+				next.append(stream.current, (int) offset, (int) (offset + count));
+				position = semicolon + 1;
+			}
+			else if (operation == StringDeltaEncoder.LITERAL)
+			{
+				int colon = message.indexOf(':', position);
+
+				if (colon < 0)
+				{
+					return false;
+				}
+
+				long count = parse(message, position, colon);
+
+				if (count < 0 || colon + 1 + count > length)
+				{
+					return false;
+				}
+
+				next.append(message, colon + 1, colon + 1 + (int) count);
+				position = colon + 1 + (int) count;
+			}
+			else
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Waits for the next keyframe of the stream of the latest message.
+	 * 
+	 * @return False
+	 */
+	private boolean desync()
+	{
+		if (stream != null && stream.synced)
+		{
+			stream.synced = false;
+			missed++;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Parses a non-negative base 36 number.
+	 * 
+	 * @param text The text holding the number
+	 * @param start The index of the first digit
+	 * @param end The index after the last digit
+	 * @return The number or -1 if it is invalid
+	 */
+	private static long parse(String text, int start, int end)
+	{
+		if (start >= end || end - start > 12)
+		{
+			return -1;
+		}
+
+		long number = 0;
+
+		for (int i = start; i < end; i++)
+		{
+			int digit = Character.digit(text.charAt(i), 36);
+
+			if (digit < 0)
+			{
+				return -1;
+			}
+
+			number = number * 36 + digit;
+		}
+
+		return number;
+	}
+
+	/**
+	 * The value of a stream.
+	 */
+	private static class Stream
+	{
+		/**
+		 * The current value.
+		 */
+		private StringBuilder	current		= new StringBuilder();
+
+		/**
+		 * The current value as string, null if it has not been created yet.
+		 */
+		private String			value;
+
+		/**
+		 * The sequence number of the current value.
+		 */
+		private long			sequence	= 0;
+
+		/**
+		 * True if the current value is complete and deltas can be applied.
+		 */
+		private boolean			synced		= false;
+
+		/**
+		 * True once a keyframe has been received.
+		 */
+		private boolean			complete	= false;
+	}
+}
@@ -0,0 +1,506 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.client.codec;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Encodes successive values of a string publisher as periodic keyframes
+ * holding the full value and deltas against the previous value, for large
+ * values of which only small parts change (e.g. JSON state documents).
+ * Messages are decoded by a {@link StringDeltaDecoder}.
+ * <p/>
+ * Messages are numbered consecutively. A keyframe is encoded as
+ * {@code K<stream>.<sequence>:<value>}, a delta as {@code
+ * D<stream>.<sequence>:<operations>}, where the stream is a random number
+ * identifying the encoder and the operations rebuild the value from the
+ * previous one: {@code
+ * c<offset>,<length>;} copies a range of the previous value and {@code
+ * l<length>:<text>} inserts literal text. Numbers are written in base 36.
+ * <p/>
+ * Deltas are found by indexing blocks of the previous value by a hash and
+ * looking up the hash of every window of the new value (rolling hash), so
+ * changes anywhere in the value cost only about their own size.
+ * 
+ * @author Axel Baumgartner
+ */
+public class StringDeltaEncoder
+{
+	/**
+	 * The custom type of delta-encoded string publishers and subscribers.
+	 */
+	public static final String	TYPE						= "stringdelta";
+
+	/**
+	 * The default number of messages after which a keyframe is sent.
+	 */
+	public static final int		DEFAULT_KEYFRAME_INTERVAL	= 50;
+
+	/**
+	 * Marks a keyframe.
+	 */
+	static final char			KEYFRAME					= 'K';
+
+	/**
+	 * Marks a delta.
+	 */
+	static final char			DELTA						= 'D';
+
+	/**
+	 * Separates the stream from the sequence number.
+	 */
+	static final char			STREAM						= '.';
+
+	/**
+	 * Marks a copy operation.
+	 */
+	static final char			COPY						= 'c';
+
+	/**
+	 * Marks a literal operation.
+	 */
+	static final char			LITERAL						= 'l';
+
+	/**
+	 * The number of characters of the blocks indexed in the previous value.
+	 */
+	private static final int	BLOCK						= 16;
+
+	/**
+	 * The multiplier of the rolling hash.
+	 */
+	private static final int	PRIME						= 31;
+
+	/**
+	 * {@code PRIME} to the power of {@code BLOCK - 1}, removes the first
+	 * character from the rolling hash.
+	 */
+	private static final int	PRIME_POWER;
+
+	static
+	{
+		int power = 1;
+
+		for (int i = 1; i < BLOCK; i++)
+		{
+			power *= PRIME;
+		}
+
+		PRIME_POWER = power;
+	}
+
+	/**
+	 * The number of messages after which a keyframe is sent.
+	 */
+	private final int			keyframeInterval;
+
+	/**
+	 * Identifies the messages of this encoder, as messages forwarded by the
+	 * server do not tell which publisher sent them.
+	 */
+	private final String		stream;
+
+	/**
+	 * The previous value, null before the first value.
+	 */
+	private String				previous;
+
+	/**
+	 * The sequence number of the previous message.
+	 */
+	private long				sequence					= 0;
+
+	/**
+	 * The number of deltas sent since the last keyframe.
+	 */
+	private int					deltasSinceKeyframe			= 0;
+
+	/**
+	 * True if the next message is sent as keyframe.
+	 */
+	private boolean				keyframeRequested			= false;
+
+	/**
+	 * Maps block hashes to the block positions in the previous value plus 1,
+	 * 0 marks an empty slot.
+	 */
+	private int[]				blocks						= new int[0];
+
+	/**
+	 * Builds the encoded messages.
+	 */
+	private final StringBuilder	message						= new StringBuilder();
+
+	/**
+	 * The offset of a copy operation not written yet, so adjacent copies can
+	 * be merged.
+	 */
+	private int					copyOffset;
+
+	/**
+	 * The length of a copy operation not written yet, 0 if there is none.
+	 */
+	private int					copyLength;
+
+	/**
+	 * The number of keyframes encoded.
+	 */
+	private long				keyframes					= 0;
+
+	/**
+	 * The number of deltas encoded.
+	 */
+	private long				deltas						= 0;
+
+	/**
+	 * The number of characters of all encoded values.
+	 */
+	private long				valueCharacters				= 0;
+
+	/**
+	 * The number of characters of all encoded messages.
+	 */
+	private long				messageCharacters			= 0;
+
+	/**
+	 * Creates an encoder with the default keyframe interval.
+	 */
+	public StringDeltaEncoder()
+	{
+		this(DEFAULT_KEYFRAME_INTERVAL);
+	}
+
+	/**
+	 * @param keyframeInterval The number of messages after which a keyframe is
+	 *            sent, 1 to send only keyframes
+	 */
+	public StringDeltaEncoder(int keyframeInterval)
+	{
+		this.keyframeInterval = Math.max(1, keyframeInterval);
+		this.stream = Integer.toString(new Random().nextInt(Integer.MAX_VALUE), 36);
+	}
+
+	/**
+	 * Encodes the next value. The first value, every value after the keyframe
+	 * interval and every value whose delta is not considerably smaller than
+	 * the value itself is encoded as keyframe.
+	 * 
+	 * @param value The value to encode
+	 * @return The encoded message
+	 */
+	public String encode(String value)
+	{
+		sequence++;
+		message.setLength(0);
+
+		boolean keyframe = previous == null || keyframeRequested || deltasSinceKeyframe + 1 >= keyframeInterval;
+
+		if (!keyframe)
+		{
+			message.append(DELTA).append(stream).append(STREAM).append(Long.toString(sequence, 36)).append(':');
+			appendDelta(previous, value);
+
+			// a delta of more than half the value saves too little
+			keyframe = message.length() > value.length() / 2;
+		}
+
+		if (keyframe)
+		{
+			message.setLength(0);
+			message.append(KEYFRAME).append(stream).append(STREAM).append(Long.toString(sequence, 36)).append(':')
+					.append(value);
+
+			keyframeRequested = false;
+			deltasSinceKeyframe = 0;
+			keyframes++;
+		}
+		else
+		{
+			deltasSinceKeyframe++;
+			deltas++;
+		}
+
+		previous = value;
+		valueCharacters += value.length();
+		messageCharacters += message.length();
+
+		return message.toString();
+	}
+
+	/**
+	 * Encodes the next value as keyframe, e.g. after messages may have been
+	 * lost.
+	 */
+	public void requestKeyframe()
+	{
+		keyframeRequested = true;
+	}
+
+	/**
+	 * @return The number of keyframes encoded
+	 */
+	public long getKeyframes()
+	{
+		return keyframes;
+	}
+
+	/**
+	 * @return The number of deltas encoded
+	 */
+	public long getDeltas()
+	{
+		return deltas;
+	}
+
+	/**
+	 * @return The number of characters of all encoded messages divided by the
+	 *         number of characters of all encoded values, 1 if no value has
+	 *         been encoded yet
+	 */
+	public double getRatio()
+	{
+		return valueCharacters > 0 ? (double) messageCharacters / valueCharacters : 1;
+	}
+
+	/**
+	 * Appends the operations rebuilding a value from the previous value.
+	 * 
+	 * @param previous The previous value
+	 * @param value The new value
+	 */
+	private void appendDelta(String previous, String value)
+	{
+		int previousLength = previous.length();
+		int length = value.length();
+
+		int prefix = 0;
+
+		while (prefix < length && prefix < previousLength && previous.charAt(prefix) == value.charAt(prefix))
+		{
+			prefix++;
+		}
+
+		int suffix = 0;
+
+		while (suffix < length - prefix && suffix < previousLength - prefix
+				&& previous.charAt(previousLength - 1 - suffix) == value.charAt(length - 1 - suffix))
+		{
+			suffix++;
+		}
+
+		// operations must not split surrogate pairs, a lone surrogate in a
+		// literal cannot be sent
+		if (splitsPair(value, prefix))
+		{
+			prefix--;
+		}
+
+		if (splitsPair(value, length - suffix))
+		{
+			suffix--;
+		}
+
+		copyLength = 0;
+		appendCopy(0, prefix);
+
+		int end = length - suffix;
+		int literal = prefix;
+		int position = prefix;
+
+		if (end - position >= BLOCK && previousLength >= BLOCK)
+		{
+			int mask = indexBlocks(previous);
+			int hash = hash(value, position);
+
+			while (true)
+			{
+				int candidate = blocks[mix(hash) & mask] - 1;
+
+				if (candidate >= 0 && value.regionMatches(position, previous, candidate, BLOCK))
+				{
+					int matchLength = BLOCK;
+
+					while (position + matchLength < end && candidate + matchLength < previousLength
+							&& value.charAt(position + matchLength) == previous.charAt(candidate + matchLength))
+					{
+						matchLength++;
+					}
+
+					while (position > literal && candidate > 0
+							&& value.charAt(position - 1) == previous.charAt(candidate - 1))
+					{
+						position--;
+						candidate--;
+						matchLength++;
+					}
+
+					if (splitsPair(value, position))
+					{
+						position++;
+						candidate++;
+						matchLength--;
+					}
+
+					if (splitsPair(value, position + matchLength))
+					{
+						matchLength--;
+					}
+
+					appendLiteral(value, literal, position);
+					appendCopy(candidate, matchLength);
+
+					position += matchLength;
+					literal = position;
+
+					if (position + BLOCK > end)
+					{
+						break;
+					}
+
+					hash = hash(value, position);
+				}
+				else
+				{
+					if (position + BLOCK >= end)
+					{
+						break;
+					}
+
+					hash = (hash - value.charAt(position) * PRIME_POWER) * PRIME + value.charAt(position + BLOCK);
+					position++;
+				}
+			}
+		}
+
+		appendLiteral(value, literal, end);
+		appendCopy(previousLength - suffix, suffix);
+		flushCopy();
+	}
+
+	/**
+	 * Indexes the non-overlapping blocks of the previous value by their hash.
+	 * 
+	 * @param previous The previous value
+	 * @return The mask for indices into {@code blocks}
+	 */
+	private int indexBlocks(String previous)
+	{
+		int count = previous.length() / BLOCK;
+		int size = Integer.highestOneBit(Math.max(1, count) * 2 - 1) << 1;
+
+		if (blocks.length < size)
+		{
+			blocks = new int[size];
+		}
+		else
+		{
+			Arrays.fill(blocks, 0, size, 0);
+		}
+
+		int mask = size - 1;
+
+		for (int i = 0; i < count; i++)
+		{
+			int index = mix(hash(previous, i * BLOCK)) & mask;
+
+			if (blocks[index] == 0)
+			{
+				blocks[index] = i * BLOCK + 1;
+			}
+		}
+
+		return mask;
+	}
+
+	/**
+	 * Appends a copy operation, merged with the previous one if they are
+	 * adjacent.
+	 * 
+	 * @param offset The offset in the previous value
+	 * @param length The number of characters to copy
+	 */
+	private void appendCopy(int offset, int length)
+	{
+		if (length == 0)
+		{
+			return;
+		}
+
+		if (copyLength > 0 && copyOffset + copyLength == offset)
+		{
+			copyLength += length;
+			return;
+		}
+
+		flushCopy();
+		copyOffset = offset;
+		copyLength = length;
+	}
+
+	/**
+	 * Writes the pending copy operation.
+	 */
+	private void flushCopy()
+	{
+		if (copyLength > 0)
+		{
+			message.append(COPY).append(Integer.toString(copyOffset, 36)).append(',')
+					.append(Integer.toString(copyLength, 36)).append(';');
+			copyLength = 0;
+		}
+	}
+
+	/**
+	 * Appends a literal operation.
+	 * 
+	 * @param value The new value
+	 * @param start The index of the first character to insert
+	 * @param end The index after the last character to insert
+	 */
+	private void appendLiteral(String value, int start, int end)
+	{
+		if (end > start)
+		{
+			flushCopy();
+			message.append(LITERAL).append(Integer.toString(end - start, 36)).append(':').append(value, start, end);
+		}
+	}
+
+	/**
+	 * @param value The new value
+	 * @param index The index of a boundary of an operation
+	 * @return True if the boundary falls between a high and a low surrogate
+	 */
+	private static boolean splitsPair(String value, int index)
+	{
+		return index > 0 && index < value.length() && Character.isHighSurrogate(value.charAt(index - 1))
+				&& Character.isLowSurrogate(value.charAt(index));
+	}
+
+	private static int hash(String value, int start)
+	{
+		int hash = 0;
+
+		for (int i = start; i < start + BLOCK; i++)
+		{
+			hash = hash * PRIME + value.charAt(i);
+		}
+
+		return hash;
+	}
+
+	private static int mix(int hash)
+	{
+		hash *= 0x9e3779b9;
+		return hash ^ (hash >>> 16);
+	}
+}
@@ -0,0 +1,236 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.client.flow;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The subscription of a single {@link Flow.Subscriber} to a
+ * {@link SubscriptionFlowPublisher}. Incoming messages are delivered as long
+ * as there is outstanding demand, otherwise they are handled according to the
+ * {@link OverflowStrategy}. Deliveries are serialized, so {@code onNext} is
+ * never called concurrently, regardless of the thread calling
+ * {@link #request(long)} or {@link #offer(Object)}. Completion is signalled
+ * through the same deliveries, after the buffered values.
+ * 
+ * @param <T> The type of the delivered values
+ * @author Axel Baumgartner
+ */
+class BufferedSubscription<T> implements Flow.Subscription
+{
+	/**
+	 * The publisher this subscription belongs to.
+	 */
+	private final SubscriptionFlowPublisher<T>	publisher;
+
+	/**
+	 * The subscriber receiving the values.
+	 */
+	private final Flow.Subscriber<? super T>	subscriber;
+
+	/**
+	 * The strategy for values that have not been requested yet.
+	 */
+	private final OverflowStrategy				strategy;
+
+	/**
+	 * Holds values that have not been delivered yet (DROP and BUFFER).
+	 */
+	private final ArrayBlockingQueue<T>			queue;
+
+	/**
+	 * Holds the latest value that has not been delivered yet (LATEST).
+	 */
+	private final AtomicReference<T>			latest		= new AtomicReference<T>();
+
+	/**
+	 * The number of values requested but not delivered yet.
+	 */
+	private final AtomicLong					requested	= new AtomicLong();
+
+	/**
+	 * Serializes deliveries, non-zero while a thread is delivering.
+	 */
+	private final AtomicInteger					wip			= new AtomicInteger();
+
+	/**
+	 * The number of values dropped because of missing demand.
+	 */
+	private final AtomicLong					dropped		= new AtomicLong();
+
+	/**
+	 * True once the subscription has been cancelled or terminated.
+	 */
+	private volatile boolean					cancelled	= false;
+
+	/**
+	 * True once the publisher has completed, the subscriber is completed when
+	 * the buffered values have been delivered.
+	 */
+	private volatile boolean					done		= false;
+
+	/**
+	 * @param publisher The publisher this subscription belongs to
+	 * @param subscriber The subscriber receiving the values
+	 * @param strategy The strategy for values that have not been requested yet
+	 * @param capacity The maximum number of buffered values
+	 */
+	BufferedSubscription(SubscriptionFlowPublisher<T> publisher, Flow.Subscriber<? super T> subscriber,
+			OverflowStrategy strategy, int capacity)
+	{
+		this.publisher = publisher;
+		this.subscriber = subscriber;
+		this.strategy = strategy;
+		this.queue = new ArrayBlockingQueue<T>(Math.max(1, capacity));
+	}
+
+	/**
+	 * Passes an incoming value to the subscriber or handles it according to
+	 * the overflow strategy if it has not been requested yet.
+	 * 
+	 * @param value The incoming value
+	 */
+	void offer(T value)
+	{
+		if (cancelled || done)
+		{
+			return;
+		}
+
+		if (strategy == OverflowStrategy.LATEST)
+		{
+			if (latest.getAndSet(value) != null)
+			{
+				dropped.incrementAndGet();
+			}
+		}
+		else if (strategy == OverflowStrategy.DROP && requested.get() <= queue.size())
+		{
+			dropped.incrementAndGet();
+		}
+		else if (!queue.offer(value))
+		{
+			dropped.incrementAndGet();
+		}
+
+		drain();
+	}
+
+	@Override
+	public void request(long n)
+	{
+		if (n <= 0)
+		{
+			cancel();
+			subscriber.onError(new IllegalArgumentException("Non-positive request: " + n));
+			return;
+		}
+
+		long current;
+		long next;
+		do
+		{
+			current = requested.get();
+			next = current + n;
+
+			if (next < 0)
+			{
+				next = Long.MAX_VALUE;
+			}
+		}
+		while (!requested.compareAndSet(current, next));
+
+		drain();
+	}
+
+	@Override
+	public void cancel()
+	{
+		if (!cancelled)
+		{
+			cancelled = true;
+			publisher.remove(this);
+			queue.clear();
+			latest.set(null);
+		}
+	}
+
+	/**
+	 * Completes the subscription. No further values are accepted, the
+	 * subscriber is completed once the buffered values have been delivered.
+	 */
+	void complete()
+	{
+		done = true;
+		drain();
+	}
+
+	/**
+	 * @return The number of values dropped because of missing demand
+	 */
+	long getDropped()
+	{
+		return dropped.get();
+	}
+
+	/**
+	 * Delivers as many values as have been requested, followed by the
+	 * completion once the publisher has completed and no values are left.
+	 * Only one thread delivers at a time, other threads only mark that there
+	 * is more work.
+	 */
+	private void drain()
+	{
+		if (wip.getAndIncrement() != 0)
+		{
+			return;
+		}
+
+		int missed = 1;
+
+		do
+		{
+			long demand = requested.get();
+			long emitted = 0;
+
+			while (emitted != demand && !cancelled)
+			{
+				T value = strategy == OverflowStrategy.LATEST ? latest.getAndSet(null) : queue.poll();
+
+				if (value == null)
+				{
+					break;
+				}
+
+				subscriber.onNext(value);
+				emitted++;
+			}
+
+			if (emitted != 0 && demand != Long.MAX_VALUE)
+			{
+				requested.addAndGet(-emitted);
+			}
+
+			if (done && !cancelled && queue.isEmpty() && latest.get() == null)
+			{
+				cancelled = true;
+				subscriber.onComplete();
+			}
+
+			missed = wip.addAndGet(-missed);
+		}
+		while (missed != 0);
+	}
+}
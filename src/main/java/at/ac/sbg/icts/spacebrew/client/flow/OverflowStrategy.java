@@ -0,0 +1,37 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.client.flow;
+
+/**
+ * Determines what happens to incoming messages a
+ * {@link java.util.concurrent.Flow.Subscriber} has not requested yet.
+ * 
+ * @author Axel Baumgartner
+ */
+public enum OverflowStrategy
+{
+	/**
+	 * Messages arriving without outstanding demand are dropped.
+	 */
+	DROP,
+
+	/**
+	 * Only the latest message arriving without outstanding demand is kept and
+	 * delivered on the next request.
+	 */
+	LATEST,
+
+	/**
+	 * Messages arriving without outstanding demand are buffered up to a
+	 * capacity, further messages are dropped.
+	 */
+	BUFFER
+}
@@ -0,0 +1,191 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.client.flow;
+
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import at.ac.sbg.icts.spacebrew.client.SpacebrewClient;
+import at.ac.sbg.icts.spacebrew.client.publisher.Publisher;
+
+/**
+ * A {@link Flow.Subscriber} that feeds a {@link Publisher}. Demand is tied to
+ * the remaining capacity of the outbound queue of the publisher's client: at
+ * most that many values are requested, and while the queue is full (or the
+ * client is not connected) no values are requested at all. The capacity is
+ * checked again periodically until there is room. Instances are created by
+ * {@link SpacebrewFlow}.
+ * 
+ * @param <T> The type of the received values
+ * @author Axel Baumgartner
+ */
+public abstract class PublisherFlowSubscriber<T> implements Flow.Subscriber<T>
+{
+	/**
+	 * Provides logging facilities.
+	 */
+	private final Logger					log				= LoggerFactory.getLogger(PublisherFlowSubscriber.class);
+
+	/**
+	 * The client whose outbound queue capacity limits the demand.
+	 */
+	private final SpacebrewClient			client;
+
+	/**
+	 * The maximum number of values requested at once.
+	 */
+	private final int						batchSize;
+
+	/**
+	 * The time in milliseconds after which a full outbound queue is checked
+	 * again.
+	 */
+	private final long						pollInterval;
+
+	/**
+	 * Used to check a full outbound queue again.
+	 */
+	private final ScheduledExecutorService	scheduler;
+
+	/**
+	 * The number of values requested but not received yet.
+	 */
+	private final AtomicLong				outstanding		= new AtomicLong();
+
+	/**
+	 * True while a check of the outbound queue capacity is scheduled.
+	 */
+	private final AtomicBoolean				checkScheduled	= new AtomicBoolean();
+
+	/**
+	 * The subscription to the upstream publisher.
+	 */
+	private volatile Flow.Subscription		subscription;
+
+	/**
+	 * @param publisher The publisher the received values are published with
+	 * @param batchSize The maximum number of values requested at once
+	 * @param pollInterval The time in milliseconds after which a full outbound
+	 *            queue is checked again
+	 * @param scheduler Used to check a full outbound queue again
+	 */
+	protected PublisherFlowSubscriber(Publisher publisher, int batchSize, long pollInterval,
+			ScheduledExecutorService scheduler)
+	{
+		this.client = publisher.getClient();
+		this.batchSize = Math.max(1, batchSize);
+		this.pollInterval = pollInterval;
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * Publishes a received value.
+	 * 
+	 * @param item The received value
+	 */
+	protected abstract void publish(T item);
+
+	@Override
+	public void onSubscribe(Flow.Subscription subscription)
+	{
+		if (this.subscription != null)
+		{
+			subscription.cancel();
+			return;
+		}
+
+		this.subscription = subscription;
+		requestMore();
+	}
+
+	@Override
+	public void onNext(T item)
+	{
+		publish(item);
+
+		if (outstanding.decrementAndGet() == 0)
+		{
+			requestMore();
+		}
+	}
+
+	@Override
+	public void onError(Throwable throwable)
+	{
+		log.error("Upstream publisher signalled an error: {}", throwable.getMessage());
+		log.debug("Exception: {}", throwable);
+		subscription = null;
+	}
+
+	@Override
+	public void onComplete()
+	{
+		subscription = null;
+	}
+
+	/**
+	 * Cancels the subscription to the upstream publisher.
+	 */
+	public void cancel()
+	{
+		Flow.Subscription current = subscription;
+
+		if (current != null)
+		{
+			subscription = null;
+			current.cancel();
+		}
+	}
+
+	/**
+	 * Requests as many values as fit into the outbound queue, or schedules
+	 * another check if it is full.
+	 */
+	private void requestMore()
+	{
+		Flow.Subscription current = subscription;
+
+		if (current == null || outstanding.get() > 0)
+		{
+			return;
+		}
+
+		int n = Math.min(batchSize, client.getOutboundQueueRemainingCapacity());
+
+		if (n > 0)
+		{
+			// onNext and the scheduled check may get here at the same time,
+			// only the one opening the window requests
+			if (outstanding.compareAndSet(0, n))
+			{
+				current.request(n);
+			}
+		}
+		else if (checkScheduled.compareAndSet(false, true))
+		{
+			scheduler.schedule(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					checkScheduled.set(false);
+					requestMore();
+				}
+			}, pollInterval, TimeUnit.MILLISECONDS);
+		}
+	}
+}
@@ -0,0 +1,297 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.client.flow;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+
+import at.ac.sbg.icts.spacebrew.client.BooleanSubscriber;
+import at.ac.sbg.icts.spacebrew.client.RangeSubscriber;
+import at.ac.sbg.icts.spacebrew.client.SpacebrewClient;
+import at.ac.sbg.icts.spacebrew.client.SpacebrewMessage;
+import at.ac.sbg.icts.spacebrew.client.StringSubscriber;
+import at.ac.sbg.icts.spacebrew.client.publisher.BooleanPublisher;
+import at.ac.sbg.icts.spacebrew.client.publisher.RangePublisher;
+import at.ac.sbg.icts.spacebrew.client.publisher.StringPublisher;
+import at.ac.sbg.icts.spacebrew.client.publisher.TypedPublisher;
+
+/**
+ * Creates {@link java.util.concurrent.Flow} adapters for subscribers and
+ * publishers of a {@link SpacebrewClient}:
+ * <ul>
+ * <li>{@link Flow.Publisher} views over subscribers, which honour
+ * {@code request(n)} and handle messages arriving without demand according to
+ * an {@link OverflowStrategy}.</li>
+ * <li>{@link Flow.Subscriber} adapters feeding publishers, which only request
+ * as many values as fit into the client's outbound queue.</li>
+ * </ul>
+ * 
+ * @author Axel Baumgartner
+ */
+public final class SpacebrewFlow
+{
+	/**
+	 * The default maximum number of values a subscriber adapter requests at
+	 * once.
+	 */
+	public static final int							DEFAULT_BATCH_SIZE		= 64;
+
+	/**
+	 * The default time in milliseconds after which a subscriber adapter checks
+	 * a full outbound queue again.
+	 */
+	public static final long						DEFAULT_POLL_INTERVAL	= 10;
+
+	/**
+	 * Shared by all subscriber adapters to check full outbound queues again.
+	 */
+	private static volatile ScheduledExecutorService	scheduler;
+
+	private SpacebrewFlow()
+	{
+	}
+
+	/**
+	 * Adds a boolean subscriber to the client and returns a publisher view
+	 * over it.
+	 * 
+	 * @param client The client to add the subscriber to
+	 * @param name The name of the subscriber
+	 * @param strategy The strategy for messages that have not been requested
+	 * @param capacity The maximum number of buffered messages per subscription
+	 * @return The publisher view over the subscriber
+	 */
+	public static SubscriptionFlowPublisher<Boolean> fromBoolean(SpacebrewClient client, String name,
+			OverflowStrategy strategy, int capacity)
+	{
+		final SubscriptionFlowPublisher<Boolean> publisher = new SubscriptionFlowPublisher<Boolean>(client, name,
+				SpacebrewMessage.TYPE_BOOLEAN, strategy, capacity);
+
+		client.addSubscriber(name, new BooleanSubscriber()
+		{
+			@Override
+			public void receive(boolean value)
+			{
+				publisher.offer(value);
+			}
+		});
+
+		return publisher;
+	}
+
+	/**
+	 * Adds a range subscriber to the client and returns a publisher view over
+	 * it.
+	 * 
+	 * @param client The client to add the subscriber to
+	 * @param name The name of the subscriber
+	 * @param strategy The strategy for messages that have not been requested
+	 * @param capacity The maximum number of buffered messages per subscription
+	 * @return The publisher view over the subscriber
+	 */
+	public static SubscriptionFlowPublisher<Integer> fromRange(SpacebrewClient client, String name,
+			OverflowStrategy strategy, int capacity)
+	{
+		final SubscriptionFlowPublisher<Integer> publisher = new SubscriptionFlowPublisher<Integer>(client, name,
+				SpacebrewMessage.TYPE_RANGE, strategy, capacity);
+
+		client.addSubscriber(name, new RangeSubscriber()
+		{
+			@Override
+			public void receive(int value)
+			{
+				publisher.offer(value);
+			}
+		});
+
+		return publisher;
+	}
+
+	/**
+	 * Adds a string subscriber to the client and returns a publisher view over
+	 * it.
+	 * 
+	 * @param client The client to add the subscriber to
+	 * @param name The name of the subscriber
+	 * @param strategy The strategy for messages that have not been requested
+	 * @param capacity The maximum number of buffered messages per subscription
+	 * @return The publisher view over the subscriber
+	 */
+	public static SubscriptionFlowPublisher<String> fromString(SpacebrewClient client, String name,
+			OverflowStrategy strategy, int capacity)
+	{
+		final SubscriptionFlowPublisher<String> publisher = new SubscriptionFlowPublisher<String>(client, name,
+				SpacebrewMessage.TYPE_STRING, strategy, capacity);
+
+		client.addSubscriber(name, new StringSubscriber()
+		{
+			@Override
+			public void receive(String value)
+			{
+				publisher.offer(value);
+			}
+		});
+
+		return publisher;
+	}
+
+	/**
+	 * @param publisher The publisher to feed
+	 * @return A subscriber feeding the publisher with the default batch size
+	 *         and poll interval
+	 */
+	public static PublisherFlowSubscriber<Boolean> toPublisher(BooleanPublisher publisher)
+	{
+		return toPublisher(publisher, DEFAULT_BATCH_SIZE, DEFAULT_POLL_INTERVAL);
+	}
+
+	/**
+	 * @param publisher The publisher to feed
+	 * @param batchSize The maximum number of values requested at once
+	 * @param pollInterval The time in milliseconds after which a full outbound
+	 *            queue is checked again
+	 * @return A subscriber feeding the publisher
+	 */
+	public static PublisherFlowSubscriber<Boolean> toPublisher(final BooleanPublisher publisher, int batchSize,
+			long pollInterval)
+	{
+		return new PublisherFlowSubscriber<Boolean>(publisher, batchSize, pollInterval, getScheduler())
+		{
+			@Override
+			protected void publish(Boolean item)
+			{
+				publisher.publish(item.booleanValue());
+			}
+		};
+	}
+
+	/**
+	 * @param publisher The publisher to feed
+	 * @return A subscriber feeding the publisher with the default batch size
+	 *         and poll interval
+	 */
+	public static PublisherFlowSubscriber<Number> toPublisher(RangePublisher publisher)
+	{
+		return toPublisher(publisher, DEFAULT_BATCH_SIZE, DEFAULT_POLL_INTERVAL);
+	}
+
+	/**
+	 * @param publisher The publisher to feed, values are passed to
+	 *            {@link RangePublisher#publish(float)}
+	 * @param batchSize The maximum number of values requested at once
+	 * @param pollInterval The time in milliseconds after which a full outbound
+	 *            queue is checked again
+	 * @return A subscriber feeding the publisher
+	 */
+	public static PublisherFlowSubscriber<Number> toPublisher(final RangePublisher publisher, int batchSize,
+			long pollInterval)
+	{
+		return new PublisherFlowSubscriber<Number>(publisher, batchSize, pollInterval, getScheduler())
+		{
+			@Override
+			protected void publish(Number item)
+			{
+				publisher.publish(item.floatValue());
+			}
+		};
+	}
+
+	/**
+	 * @param publisher The publisher to feed
+	 * @return A subscriber feeding the publisher with the default batch size
+	 *         and poll interval
+	 */
+	public static PublisherFlowSubscriber<String> toPublisher(StringPublisher publisher)
+	{
+		return toPublisher(publisher, DEFAULT_BATCH_SIZE, DEFAULT_POLL_INTERVAL);
+	}
+
+	/**
+	 * @param publisher The publisher to feed
+	 * @param batchSize The maximum number of values requested at once
+	 * @param pollInterval The time in milliseconds after which a full outbound
+	 *            queue is checked again
+	 * @return A subscriber feeding the publisher
+	 */
+	public static PublisherFlowSubscriber<String> toPublisher(final StringPublisher publisher, int batchSize,
+			long pollInterval)
+	{
+		return new PublisherFlowSubscriber<String>(publisher, batchSize, pollInterval, getScheduler())
+		{
+			@Override
+			protected void publish(String item)
+			{
+				publisher.publish(item);
+			}
+		};
+	}
+
+	/**
+	 * @param publisher The publisher to feed
+	 * @return A subscriber feeding the publisher with the default batch size
+	 *         and poll interval
+	 */
+	public static <T> PublisherFlowSubscriber<T> toPublisher(TypedPublisher<T> publisher)
+	{
+		return toPublisher(publisher, DEFAULT_BATCH_SIZE, DEFAULT_POLL_INTERVAL);
+	}
+
+	/**
+	 * @param publisher The publisher to feed
+	 * @param batchSize The maximum number of values requested at once
+	 * @param pollInterval The time in milliseconds after which a full outbound
+	 *            queue is checked again
+	 * @return A subscriber feeding the publisher
+	 */
+	public static <T> PublisherFlowSubscriber<T> toPublisher(final TypedPublisher<T> publisher, int batchSize,
+			long pollInterval)
+	{
+		return new PublisherFlowSubscriber<T>(publisher, batchSize, pollInterval, getScheduler())
+		{
+			@Override
+			protected void publish(T item)
+			{
+				publisher.publish(item);
+			}
+		};
+	}
+
+	/**
+	 * @return The scheduler shared by all subscriber adapters, created on first
+	 *         use
+	 */
+	private static ScheduledExecutorService getScheduler()
+	{
+		if (scheduler == null)
+		{
+			synchronized (SpacebrewFlow.class)
+			{
+				if (scheduler == null)
+				{
+					scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+					{
+						@Override
+						public Thread newThread(Runnable runnable)
+						{
+							Thread thread = new Thread(runnable, "SpacebrewFlow");
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+				}
+			}
+		}
+
+		return scheduler;
+	}
+}
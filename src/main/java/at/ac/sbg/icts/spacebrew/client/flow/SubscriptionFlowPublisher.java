@@ -0,0 +1,178 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.client.flow;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+
+import at.ac.sbg.icts.spacebrew.client.SpacebrewClient;
+
+/**
+ * A {@link Flow.Publisher} view over a subscriber of a
+ * {@link SpacebrewClient}. Every {@link Flow.Subscriber} gets its own
+ * subscription that honours {@code request(n)}; messages arriving without
+ * outstanding demand are handled according to the {@link OverflowStrategy}.
+ * Instances are created by {@link SpacebrewFlow}.
+ * 
+ * @param <T> The type of the published values
+ * @author Axel Baumgartner
+ */
+public class SubscriptionFlowPublisher<T> implements Flow.Publisher<T>
+{
+	/**
+	 * The client the subscriber is registered with.
+	 */
+	private final SpacebrewClient							client;
+
+	/**
+	 * The name of the subscriber.
+	 */
+	private final String									name;
+
+	/**
+	 * The type of the subscriber.
+	 */
+	private final String									type;
+
+	/**
+	 * The strategy for values that have not been requested yet.
+	 */
+	private final OverflowStrategy							strategy;
+
+	/**
+	 * The maximum number of buffered values per subscription.
+	 */
+	private final int										capacity;
+
+	/**
+	 * Holds the subscriptions of all current subscribers.
+	 */
+	private final CopyOnWriteArrayList<BufferedSubscription<T>>	subscriptions	= new CopyOnWriteArrayList<BufferedSubscription<T>>();
+
+	/**
+	 * The number of values dropped by already cancelled subscriptions.
+	 */
+	private long											droppedByCancelled;
+
+	/**
+	 * True once the publisher has been closed.
+	 */
+	private volatile boolean								closed			= false;
+
+	/**
+	 * @param client The client the subscriber is registered with
+	 * @param name The name of the subscriber
+	 * @param type The type of the subscriber
+	 * @param strategy The strategy for values that have not been requested yet
+	 * @param capacity The maximum number of buffered values per subscription
+	 */
+	SubscriptionFlowPublisher(SpacebrewClient client, String name, String type, OverflowStrategy strategy,
+			int capacity)
+	{
+		this.client = client;
+		this.name = name;
+		this.type = type;
+		this.strategy = strategy;
+		this.capacity = capacity;
+	}
+
+	@Override
+	public void subscribe(Flow.Subscriber<? super T> subscriber)
+	{
+		BufferedSubscription<T> subscription = new BufferedSubscription<T>(this, subscriber, strategy, capacity);
+		subscriber.onSubscribe(subscription);
+
+		if (closed)
+		{
+			subscription.complete();
+		}
+		else
+		{
+			subscriptions.add(subscription);
+		}
+	}
+
+	/**
+	 * Passes an incoming value to all subscriptions.
+	 * 
+	 * @param value The incoming value
+	 */
+	void offer(T value)
+	{
+		for (BufferedSubscription<T> subscription : subscriptions)
+		{
+			subscription.offer(value);
+		}
+	}
+
+	/**
+	 * Removes a cancelled subscription.
+	 * 
+	 * @param subscription The cancelled subscription
+	 */
+	synchronized void remove(BufferedSubscription<T> subscription)
+	{
+		if (subscriptions.remove(subscription))
+		{
+			droppedByCancelled += subscription.getDropped();
+		}
+	}
+
+	/**
+	 * Removes the subscriber from the client and completes all subscriptions.
+	 */
+	public void close()
+	{
+		if (!closed)
+		{
+			closed = true;
+			client.removeSubscriber(name, type);
+
+			for (BufferedSubscription<T> subscription : subscriptions)
+			{
+				subscriptions.remove(subscription);
+				subscription.complete();
+			}
+		}
+	}
+
+	/**
+	 * @return The number of values dropped because of missing demand, summed
+	 *         over all subscriptions
+	 */
+	public synchronized long getDropped()
+	{
+		long dropped = droppedByCancelled;
+
+		for (BufferedSubscription<T> subscription : subscriptions)
+		{
+			dropped += subscription.getDropped();
+		}
+
+		return dropped;
+	}
+
+	/**
+	 * @return The name of the subscriber
+	 */
+	public String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * @return The type of the subscriber
+	 */
+	public String getType()
+	{
+		return type;
+	}
+}
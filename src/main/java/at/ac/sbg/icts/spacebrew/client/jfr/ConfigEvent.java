@@ -0,0 +1,54 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.client.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A JDK Flight Recorder event for every configuration message sent, spanning
+ * its creation. Disabled by default, enable it with the settings in
+ * {@code spacebrew.jfc} or by name.
+ * 
+ * @author Axel Baumgartner
+ */
+@Name(ConfigEvent.NAME)
+@Label("Config")
+@Category("Spacebrew")
+@Description("A configuration message sent")
+@Enabled(false)
+@StackTrace(false)
+public final class ConfigEvent extends Event
+{
+	/**
+	 * The name of the event type.
+	 */
+	public static final String	NAME	= "at.ac.sbg.icts.spacebrew.Config";
+
+	@Label("Client")
+	public String				client;
+
+	@Label("Publishers")
+	public int					publishers;
+
+	@Label("Subscribers")
+	public int					subscribers;
+
+	@Label("Size")
+	@DataAmount
+	public long					bytes;
+}
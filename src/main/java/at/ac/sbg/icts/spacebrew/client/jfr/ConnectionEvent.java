@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.client.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A JDK Flight Recorder event for every change of the connection to the
+ * server. Disabled by default, enable it with the settings in
+ * {@code spacebrew.jfc} or by name.
+ * 
+ * @author Axel Baumgartner
+ */
+@Name(ConnectionEvent.NAME)
+@Label("Connection")
+@Category("Spacebrew")
+@Description("A change of the connection to the server")
+@Enabled(false)
+@StackTrace(false)
+public final class ConnectionEvent extends Event
+{
+	/**
+	 * The name of the event type.
+	 */
+	public static final String	NAME		= "at.ac.sbg.icts.spacebrew.Connection";
+
+	/**
+	 * The client started connecting.
+	 */
+	public static final String	CONNECT		= "connect";
+
+	/**
+	 * The connection has been opened.
+	 */
+	public static final String	OPEN		= "open";
+
+	/**
+	 * The connection has been closed.
+	 */
+	public static final String	CLOSE		= "close";
+
+	/**
+	 * The client reconnects after the connection has been closed.
+	 */
+	public static final String	RECONNECT	= "reconnect";
+
+	@Label("Client")
+	public String				client;
+
+	@Label("Server")
+	public String				server;
+
+	@Label("Action")
+	@Description("connect, open, close or reconnect")
+	public String				action;
+
+	/**
+	 * Commits an event if the event type is enabled.
+	 * 
+	 * @param client The name of the client
+	 * @param server The URI of the server
+	 * @param action The change of the connection
+	 */
+	public static void emit(String client, String server, String action)
+	{
+		ConnectionEvent event = new ConnectionEvent();
+
+		if (event.shouldCommit())
+		{
+			event.client = client;
+			event.server = server;
+			event.action = action;
+			event.commit();
+		}
+	}
+}
@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.client.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A JDK Flight Recorder event for every publisher message received, spanning
+ * its delivery to the subscribers. Disabled by default, enable it with the
+ * settings in {@code spacebrew.jfc} or by name.
+ * 
+ * @author Axel Baumgartner
+ */
+@Name(MessageEvent.NAME)
+@Label("Message")
+@Category("Spacebrew")
+@Description("A publisher message received")
+@Enabled(false)
+@StackTrace(false)
+public final class MessageEvent extends Event
+{
+	/**
+	 * The name of the event type.
+	 */
+	public static final String	NAME	= "at.ac.sbg.icts.spacebrew.Message";
+
+	@Label("Subscriber")
+	public String				subscriber;
+
+	@Label("Type")
+	public String				type;
+
+	@Label("Size")
+	@Description("Size of the message, 0 if it arrived together with other messages")
+	@DataAmount
+	public long					bytes;
+
+	@Label("Parse Time")
+	@Timespan
+	public long					parseTime;
+
+	@Label("Dispatch Time")
+	@Description("Time spent in the subscribers, 0 if the message was queued for polling")
+	@Timespan
+	public long					dispatchTime;
+
+	@Label("Queued")
+	@Description("True if the message was queued for polling instead of dispatched")
+	public boolean				queued;
+}
@@ -0,0 +1,61 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.client.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A JDK Flight Recorder event for every publisher message sent, committed
+ * when its last fragment has been written to the WebSocket. Disabled by
+ * default, enable it with the settings in {@code spacebrew.jfc} or by name.
+ * 
+ * @author Axel Baumgartner
+ */
+@Name(PublishEvent.NAME)
+@Label("Publish")
+@Category("Spacebrew")
+@Description("A publisher message sent")
+@Enabled(false)
+@StackTrace(false)
+public final class PublishEvent extends Event
+{
+	/**
+	 * The name of the event type.
+	 */
+	public static final String	NAME	= "at.ac.sbg.icts.spacebrew.Publish";
+
+	@Label("Publisher")
+	public String				publisher;
+
+	@Label("Type")
+	public String				type;
+
+	@Label("Size")
+	@DataAmount
+	public long					bytes;
+
+	@Label("Queue Wait")
+	@Description("Time the message waited in the outbound queue")
+	@Timespan
+	public long					queueWait;
+
+	@Label("Encode Time")
+	@Timespan
+	public long					encodeTime;
+}
@@ -0,0 +1,248 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.client.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts latencies in logarithmic buckets, each power of two split into
+ * {@code 2^SUB_BUCKET_BITS} linear sub-buckets, so percentiles are accurate
+ * to about 3% of the value over the whole range of {@code long}. Recording
+ * is lock-free and does not allocate, so latencies can be recorded on the
+ * hot path by any number of threads.
+ * <p/>
+ * Reading while recording is safe, but a snapshot of the counts is not
+ * atomic, so percentiles may be off by the values recorded meanwhile.
+ * Histograms of a client can be registered as MBeans (see
+ * {@link SpacebrewMetrics#registerMBeans()}).
+ * 
+ * @author Axel Baumgartner
+ */
+public class LatencyHistogram implements LatencyHistogramMBean
+{
+	/**
+	 * The number of bits of the linear sub-buckets per power of two.
+	 */
+	private static final int	SUB_BUCKET_BITS		= 5;
+
+	/**
+	 * The number of sub-buckets per power of two.
+	 */
+	private static final int	SUB_BUCKET_COUNT	= 1 << SUB_BUCKET_BITS;
+
+	/**
+	 * The number of buckets, enough for all non-negative {@code long} values.
+	 */
+	private static final int	BUCKET_COUNT		= (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+	/**
+	 * The number of values per bucket.
+	 */
+	private final AtomicLongArray	counts			= new AtomicLongArray(BUCKET_COUNT);
+
+	/**
+	 * The number of recorded values.
+	 */
+	private final AtomicLong		count			= new AtomicLong();
+
+	/**
+	 * The sum of the recorded values.
+	 */
+	private final AtomicLong		sum				= new AtomicLong();
+
+	/**
+	 * The highest recorded value.
+	 */
+	private final AtomicLong		max				= new AtomicLong();
+
+	/**
+	 * Records a latency.
+	 * 
+	 * @param nanos The latency in nanoseconds, negative values count as 0
+	 */
+	public void record(long nanos)
+	{
+		long value = Math.max(0, nanos);
+
+		counts.incrementAndGet(index(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+
+		long current;
+
+		while (value > (current = max.get()) && !max.compareAndSet(current, value))
+		{
+			// retry
+		}
+	}
+
+	@Override
+	public long getCount()
+	{
+		return count.get();
+	}
+
+	/**
+	 * @return The sum of the recorded values in nanoseconds
+	 */
+	public long getSum()
+	{
+		return sum.get();
+	}
+
+	@Override
+	public double getMean()
+	{
+		long values = count.get();
+		return values > 0 ? (double) sum.get() / values : 0;
+	}
+
+	@Override
+	public long getMax()
+	{
+		return max.get();
+	}
+
+	/**
+	 * Returns the value below or at which a given percentage of the recorded
+	 * values lie.
+	 * 
+	 * @param percentile The percentage, e.g. 99.9
+	 * @return The highest value of the bucket of the percentile in
+	 *         nanoseconds, limited to the highest recorded value, 0 if no
+	 *         value has been recorded
+	 */
+	public long getValueAtPercentile(double percentile)
+	{
+		long[] snapshot = new long[BUCKET_COUNT];
+		long total = 0;
+
+		for (int i = 0; i < BUCKET_COUNT; i++)
+		{
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}
+
+		if (total == 0)
+		{
+			return 0;
+		}
+
+		long rank = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * total));
+		long seen = 0;
+
+		for (int i = 0; i < BUCKET_COUNT; i++)
+		{
+			seen += snapshot[i];
+
+			if (seen >= rank)
+			{
+				return Math.min(highestValue(i), max.get());
+			}
+		}
+
+		return max.get();
+	}
+
+	@Override
+	public long getPercentile50()
+	{
+		return getValueAtPercentile(50);
+	}
+
+	@Override
+	public long getPercentile99()
+	{
+		return getValueAtPercentile(99);
+	}
+
+	@Override
+	public long getPercentile999()
+	{
+		return getValueAtPercentile(99.9);
+	}
+
+	/**
+	 * Adds the values recorded by another histogram to this one.
+	 * 
+	 * @param other The histogram to add
+	 */
+	public void add(LatencyHistogram other)
+	{
+		for (int i = 0; i < BUCKET_COUNT; i++)
+		{
+			long bucket = other.counts.get(i);
+
+			if (bucket > 0)
+			{
+				counts.addAndGet(i, bucket);
+			}
+		}
+
+		count.addAndGet(other.count.get());
+		sum.addAndGet(other.sum.get());
+
+		long value = other.max.get();
+		long current;
+
+		while (value > (current = max.get()) && !max.compareAndSet(current, value))
+		{
+			// retry
+		}
+	}
+
+	/**
+	 * Discards all recorded values, e.g. after a warm-up phase.
+	 */
+	public void reset()
+	{
+		for (int i = 0; i < BUCKET_COUNT; i++)
+		{
+			counts.set(i, 0);
+		}
+
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+	/**
+	 * @param value A non-negative value
+	 * @return The index of the bucket of the value
+	 */
+	static int index(long value)
+	{
+		if (value < SUB_BUCKET_COUNT)
+		{
+			return (int) value;
+		}
+
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return (shift + 1) * SUB_BUCKET_COUNT + (int) ((value >>> shift) & (SUB_BUCKET_COUNT - 1));
+	}
+
+	/**
+	 * @param index The index of a bucket
+	 * @return The highest value counted in the bucket
+	 */
+	static long highestValue(int index)
+	{
+		if (index < SUB_BUCKET_COUNT)
+		{
+			return index;
+		}
+
+		int shift = index / SUB_BUCKET_COUNT - 1;
+		long lowest = (long) (SUB_BUCKET_COUNT + index % SUB_BUCKET_COUNT) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+}
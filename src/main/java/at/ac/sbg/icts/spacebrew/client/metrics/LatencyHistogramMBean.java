@@ -0,0 +1,56 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.client.metrics;
+
+/**
+ * The attributes of a {@link LatencyHistogram} registered as MBean, all
+ * times in nanoseconds.
+ * 
+ * @author Axel Baumgartner
+ */
+public interface LatencyHistogramMBean
+{
+	/**
+	 * @return The number of recorded values
+	 */
+	public long getCount();
+
+	/**
+	 * @return The mean of the recorded values, 0 if no value has been
+	 *         recorded
+	 */
+	public double getMean();
+
+	/**
+	 * @return The highest recorded value
+	 */
+	public long getMax();
+
+	/**
+	 * @return The median of the recorded values
+	 */
+	public long getPercentile50();
+
+	/**
+	 * @return The 99th percentile of the recorded values
+	 */
+	public long getPercentile99();
+
+	/**
+	 * @return The 99.9th percentile of the recorded values
+	 */
+	public long getPercentile999();
+
+	/**
+	 * Discards all recorded values.
+	 */
+	public void reset();
+}
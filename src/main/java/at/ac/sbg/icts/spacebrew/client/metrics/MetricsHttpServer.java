@@ -0,0 +1,201 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.client.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the metrics of one or more clients in the Prometheus text
+ * exposition format over HTTP, using the HTTP server built into the JDK. The
+ * metrics are written on request on a single daemon thread, so scraping
+ * does not slow down the clients beyond reading their counters.
+ * 
+ * @author Axel Baumgartner
+ */
+public class MetricsHttpServer implements HttpHandler
+{
+	/**
+	 * The path the metrics are served at.
+	 */
+	public static final String								PATH			= "/metrics";
+
+	/**
+	 * The content type of the Prometheus text exposition format.
+	 */
+	private static final String								CONTENT_TYPE	= "text/plain; version=0.0.4; charset=utf-8";
+
+	/**
+	 * Provides logging facilities.
+	 */
+	private final Logger									log				= LoggerFactory.getLogger(MetricsHttpServer.class);
+
+	/**
+	 * The address the server listens on.
+	 */
+	private final InetSocketAddress							address;
+
+	/**
+	 * The metrics served.
+	 */
+	private final CopyOnWriteArrayList<SpacebrewMetrics>	metrics			= new CopyOnWriteArrayList<SpacebrewMetrics>();
+
+	/**
+	 * The running server, null if the server is stopped.
+	 */
+	private HttpServer										server;
+
+	/**
+	 * Handles the requests of the running server.
+	 */
+	private ExecutorService									executor;
+
+	/**
+	 * @param port The port to listen on, on all interfaces, 0 for any free
+	 *            port
+	 */
+	public MetricsHttpServer(int port)
+	{
+		this(new InetSocketAddress(port));
+	}
+
+	/**
+	 * @param address The address to listen on
+	 */
+	public MetricsHttpServer(InetSocketAddress address)
+	{
+		this.address = address;
+	}
+
+	/**
+	 * @param clientMetrics The metrics of a client to serve
+	 */
+	public void add(SpacebrewMetrics clientMetrics)
+	{
+		metrics.addIfAbsent(clientMetrics);
+	}
+
+	/**
+	 * @param clientMetrics The metrics of a client not to serve anymore
+	 */
+	public void remove(SpacebrewMetrics clientMetrics)
+	{
+		metrics.remove(clientMetrics);
+	}
+
+	/**
+	 * Starts listening.
+	 * 
+	 * @throws IOException If the server could not bind to its address
+	 */
+	public synchronized void start() throws IOException
+	{
+		if (server != null)
+		{
+			return;
+		}
+
+		executor = Executors.newSingleThreadExecutor(new ThreadFactory()
+		{
+			@Override
+			public Thread newThread(Runnable runnable)
+			{
+				Thread thread = new Thread(runnable, "MetricsHttpServer");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		server = HttpServer.create(address, 0);
+		server.createContext(PATH, this);
+		server.setExecutor(executor);
+		server.start();
+
+		log.info("Serving metrics at http://{}:{}{}", address.getHostString(), getPort(), PATH);
+	}
+
+	/**
+	 * Stops listening.
+	 */
+	public synchronized void stop()
+	{
+		if (server != null)
+		{
+			server.stop(0);
+			executor.shutdown();
+			server = null;
+			executor = null;
+		}
+	}
+
+	/**
+	 * @return The port the server listens on, -1 if it is stopped
+	 */
+	public synchronized int getPort()
+	{
+		return server != null ? server.getAddress().getPort() : -1;
+	}
+
+	/**
+	 * Writes the metrics of all clients.
+	 * 
+	 * @param exchange The request and response
+	 */
+	@Override
+	public void handle(HttpExchange exchange) throws IOException
+	{
+		try
+		{
+			String method = exchange.getRequestMethod();
+
+			if (!method.equals("GET") && !method.equals("HEAD"))
+			{
+				exchange.sendResponseHeaders(405, -1);
+				return;
+			}
+
+			StringBuilder text = new StringBuilder(4096);
+			SpacebrewMetrics.writePrometheus(metrics, text);
+			byte[] body = text.toString().getBytes(StandardCharsets.UTF_8);
+
+			exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+
+			if (method.equals("HEAD"))
+			{
+				exchange.sendResponseHeaders(200, -1);
+				return;
+			}
+
+			exchange.sendResponseHeaders(200, body.length);
+
+			OutputStream out = exchange.getResponseBody();
+			out.write(body);
+			out.close();
+		}
+		finally
+		{
+			exchange.close();
+		}
+	}
+}
@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.client.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the messages and bytes of one publisher or subscriber of a client.
+ * The counters are striped, so any number of threads can count without
+ * contending.
+ * 
+ * @author Axel Baumgartner
+ */
+public class RouteMetrics implements RouteMetricsMBean
+{
+	/**
+	 * The name of the publisher or subscriber.
+	 */
+	private final String		name;
+
+	/**
+	 * The type of the publisher or subscriber.
+	 */
+	private final String		type;
+
+	/**
+	 * True for a publisher, false for a subscriber.
+	 */
+	private final boolean		outbound;
+
+	/**
+	 * The number of messages sent or received.
+	 */
+	private final LongAdder		messages	= new LongAdder();
+
+	/**
+	 * The size of the messages sent or received in bytes.
+	 */
+	private final LongAdder		bytes		= new LongAdder();
+
+	/**
+	 * @param name The name of the publisher or subscriber
+	 * @param type The type of the publisher or subscriber
+	 * @param outbound True for a publisher, false for a subscriber
+	 */
+	RouteMetrics(String name, String type, boolean outbound)
+	{
+		this.name = name;
+		this.type = type;
+		this.outbound = outbound;
+	}
+
+	/**
+	 * Counts a message.
+	 * 
+	 * @param size The size of the message in bytes
+	 */
+	void count(long size)
+	{
+		messages.increment();
+		bytes.add(size);
+	}
+
+	@Override
+	public String getName()
+	{
+		return name;
+	}
+
+	@Override
+	public String getType()
+	{
+		return type;
+	}
+
+	@Override
+	public boolean isOutbound()
+	{
+		return outbound;
+	}
+
+	@Override
+	public long getMessages()
+	{
+		return messages.sum();
+	}
+
+	@Override
+	public long getBytes()
+	{
+		return bytes.sum();
+	}
+}
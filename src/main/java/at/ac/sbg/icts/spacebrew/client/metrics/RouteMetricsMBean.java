@@ -0,0 +1,44 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.client.metrics;
+
+/**
+ * The attributes of a {@link RouteMetrics} registered as MBean.
+ * 
+ * @author Axel Baumgartner
+ */
+public interface RouteMetricsMBean
+{
+	/**
+	 * @return The name of the publisher or subscriber
+	 */
+	public String getName();
+
+	/**
+	 * @return The type of the publisher or subscriber
+	 */
+	public String getType();
+
+	/**
+	 * @return True for a publisher, false for a subscriber
+	 */
+	public boolean isOutbound();
+
+	/**
+	 * @return The number of messages sent or received
+	 */
+	public long getMessages();
+
+	/**
+	 * @return The size of the messages sent or received in bytes
+	 */
+	public long getBytes();
+}
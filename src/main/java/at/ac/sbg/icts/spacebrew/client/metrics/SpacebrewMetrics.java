@@ -0,0 +1,956 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.client.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import at.ac.sbg.icts.spacebrew.client.SpacebrewClient;
+
+/**
+ * Collects the metrics of a {@link SpacebrewClient}: messages and bytes per
+ * publisher and subscriber, the time spent encoding, parsing and dispatching
+ * messages, connects, reconnects, errors and configuration messages, the
+ * latencies measured by latency probes, plus the queue depths read from the
+ * client when the metrics are read.
+ * <p/>
+ * Recording uses striped counters ({@link LongAdder}) and lock-free
+ * histograms ({@link LatencyHistogram}), so it does not allocate once a
+ * publisher or subscriber has been counted for the first time and costs a
+ * few nanoseconds per message. The metrics can be registered as MBeans in the
+ * platform MBean server with {@link #registerMBeans()} and served in the
+ * Prometheus text format by a {@link MetricsHttpServer}.
+ * 
+ * @author Axel Baumgartner
+ */
+public class SpacebrewMetrics implements SpacebrewMetricsMBean
+{
+	/**
+	 * The domain of the MBeans.
+	 */
+	public static final String															DOMAIN				= "at.ac.sbg.icts.spacebrew";
+
+	/**
+	 * The families written in the Prometheus text format, in order.
+	 */
+	private static final Family[]														FAMILIES;
+
+	/**
+	 * Counts the instances, so clients of the same name register MBeans of
+	 * different names.
+	 */
+	private static final AtomicInteger													INSTANCES			= new AtomicInteger();
+
+	/**
+	 * Provides logging facilities.
+	 */
+	private final Logger																log					= LoggerFactory.getLogger(SpacebrewMetrics.class);
+
+	/**
+	 * The client whose metrics are collected.
+	 */
+	private final SpacebrewClient														client;
+
+	/**
+	 * The number of this instance, unique within the JVM.
+	 */
+	private final int																	instance;
+
+	/**
+	 * The metrics per publisher (name, (type, metrics)).
+	 */
+	private final ConcurrentHashMap<String, ConcurrentHashMap<String, RouteMetrics>>	publishers			= new ConcurrentHashMap<String, ConcurrentHashMap<String, RouteMetrics>>();
+
+	/**
+	 * The metrics per subscriber (name, (type, metrics)).
+	 */
+	private final ConcurrentHashMap<String, ConcurrentHashMap<String, RouteMetrics>>	subscribers			= new ConcurrentHashMap<String, ConcurrentHashMap<String, RouteMetrics>>();
+
+	/**
+	 * The number of publisher messages sent.
+	 */
+	private final LongAdder																messagesSent		= new LongAdder();
+
+	/**
+	 * The number of control messages sent.
+	 */
+	private final LongAdder																controlMessagesSent	= new LongAdder();
+
+	/**
+	 * The size of all messages sent in bytes.
+	 */
+	private final LongAdder																bytesSent			= new LongAdder();
+
+	/**
+	 * The number of publisher messages received.
+	 */
+	private final LongAdder																messagesReceived	= new LongAdder();
+
+	/**
+	 * The size of all messages received in bytes.
+	 */
+	private final LongAdder																bytesReceived		= new LongAdder();
+
+	/**
+	 * The number of configuration messages sent.
+	 */
+	private final LongAdder																configSends			= new LongAdder();
+
+	/**
+	 * The number of connections opened.
+	 */
+	private final LongAdder																connects			= new LongAdder();
+
+	/**
+	 * The number of reconnection attempts.
+	 */
+	private final LongAdder																reconnects			= new LongAdder();
+
+	/**
+	 * The number of errors.
+	 */
+	private final LongAdder																errors				= new LongAdder();
+
+	/**
+	 * The time spent encoding an outgoing message.
+	 */
+	private final LatencyHistogram														encodeTime			= new LatencyHistogram();
+
+	/**
+	 * The time spent parsing an incoming message.
+	 */
+	private final LatencyHistogram														parseTime			= new LatencyHistogram();
+
+	/**
+	 * The time spent passing an incoming message to its subscribers.
+	 */
+	private final LatencyHistogram														dispatchTime		= new LatencyHistogram();
+
+	/**
+	 * The round trip time of the probes of the client through the server.
+	 */
+	private final LatencyHistogram														probeRoundTrip		= new LatencyHistogram();
+
+	/**
+	 * The one-way latency of the probes received from other clients.
+	 */
+	private final LatencyHistogram														probeOneWay			= new LatencyHistogram();
+
+	/**
+	 * The names of the registered MBeans, null if the MBeans are not
+	 * registered.
+	 */
+	private ArrayList<ObjectName>														registered;
+
+	/**
+	 * @param client The client whose metrics are collected
+	 */
+	public SpacebrewMetrics(SpacebrewClient client)
+	{
+		this.client = client;
+		this.instance = INSTANCES.incrementAndGet();
+	}
+
+	/**
+	 * Counts a message sent by the client.
+	 * 
+	 * @param name The name of the publisher, null for control messages
+	 * @param type The type of the publisher, null for control messages
+	 * @param bytes The size of the message in bytes
+	 * @param encodeNanos The time spent encoding the message
+	 */
+	public void sent(String name, String type, long bytes, long encodeNanos)
+	{
+		bytesSent.add(bytes);
+
+		if (name == null)
+		{
+			controlMessagesSent.increment();
+			return;
+		}
+
+		messagesSent.increment();
+		encodeTime.record(encodeNanos);
+		route(publishers, name, type, true).count(bytes);
+	}
+
+	/**
+	 * Counts a text frame received by the client.
+	 * 
+	 * @param text The text of the frame
+	 * @param parseNanos The time spent parsing the frame
+	 * @return The size of the frame in bytes
+	 */
+	public long parsed(CharSequence text, long parseNanos)
+	{
+		long bytes = utf8Length(text);
+		bytesReceived.add(bytes);
+		parseTime.record(parseNanos);
+		return bytes;
+	}
+
+	/**
+	 * Counts a publisher message received by the client.
+	 * 
+	 * @param name The name of the subscriber
+	 * @param type The type of the subscriber
+	 * @param bytes The size of the message in bytes, 0 if it arrived together
+	 *            with other messages
+	 */
+	public void received(String name, String type, long bytes)
+	{
+		messagesReceived.increment();
+		route(subscribers, name, type, false).count(bytes);
+	}
+
+	/**
+	 * @param nanos The time spent passing a message to its subscribers
+	 */
+	public void dispatched(long nanos)
+	{
+		dispatchTime.record(nanos);
+	}
+
+	/**
+	 * Counts a configuration message.
+	 */
+	public void configSent()
+	{
+		configSends.increment();
+	}
+
+	/**
+	 * Counts an opened connection.
+	 */
+	public void connected()
+	{
+		connects.increment();
+	}
+
+	/**
+	 * Counts a reconnection attempt.
+	 */
+	public void reconnecting()
+	{
+		reconnects.increment();
+	}
+
+	/**
+	 * Counts an error.
+	 */
+	public void error()
+	{
+		errors.increment();
+	}
+
+	/**
+	 * @param name The name of the publisher
+	 * @param type The type of the publisher
+	 * @return The metrics of the publisher, null if it has not sent messages
+	 */
+	public RouteMetrics getPublisherMetrics(String name, String type)
+	{
+		ConcurrentHashMap<String, RouteMetrics> types = publishers.get(name);
+		return types != null ? types.get(type) : null;
+	}
+
+	/**
+	 * @param name The name of the subscriber
+	 * @param type The type of the subscriber
+	 * @return The metrics of the subscriber, null if it has not received
+	 *         messages
+	 */
+	public RouteMetrics getSubscriberMetrics(String name, String type)
+	{
+		ConcurrentHashMap<String, RouteMetrics> types = subscribers.get(name);
+		return types != null ? types.get(type) : null;
+	}
+
+	/**
+	 * @return The time spent encoding an outgoing message
+	 */
+	public LatencyHistogram getEncodeTime()
+	{
+		return encodeTime;
+	}
+
+	/**
+	 * @return The time spent parsing an incoming message
+	 */
+	public LatencyHistogram getParseTime()
+	{
+		return parseTime;
+	}
+
+	/**
+	 * @return The time spent passing an incoming message to its subscribers
+	 */
+	public LatencyHistogram getDispatchTime()
+	{
+		return dispatchTime;
+	}
+
+	/**
+	 * @return The round trip time of the probes of the client through the
+	 *         server (see {@link at.ac.sbg.icts.spacebrew.client.LatencyProbe})
+	 */
+	public LatencyHistogram getProbeRoundTrip()
+	{
+		return probeRoundTrip;
+	}
+
+	/**
+	 * @return The one-way latency of the probes received from other clients,
+	 *         as accurate as the clocks of the clients are synchronized
+	 */
+	public LatencyHistogram getProbeOneWay()
+	{
+		return probeOneWay;
+	}
+
+	@Override
+	public String getClientName()
+	{
+		return client.getName();
+	}
+
+	@Override
+	public long getMessagesSent()
+	{
+		return messagesSent.sum();
+	}
+
+	@Override
+	public long getControlMessagesSent()
+	{
+		return controlMessagesSent.sum();
+	}
+
+	@Override
+	public long getBytesSent()
+	{
+		return bytesSent.sum();
+	}
+
+	@Override
+	public long getMessagesReceived()
+	{
+		return messagesReceived.sum();
+	}
+
+	@Override
+	public long getBytesReceived()
+	{
+		return bytesReceived.sum();
+	}
+
+	@Override
+	public long getConfigSends()
+	{
+		return configSends.sum();
+	}
+
+	@Override
+	public long getConnects()
+	{
+		return connects.sum();
+	}
+
+	@Override
+	public long getReconnects()
+	{
+		return reconnects.sum();
+	}
+
+	@Override
+	public long getErrors()
+	{
+		return errors.sum();
+	}
+
+	@Override
+	public int getOutboundQueueSize()
+	{
+		return client.getOutboundQueueSize();
+	}
+
+	@Override
+	public int getInboundQueueSize()
+	{
+		return client.getInboundQueueSize();
+	}
+
+	@Override
+	public long getOutboundExpired()
+	{
+		return client.getOutboundExpired();
+	}
+
+	@Override
+	public long getInboundDropped()
+	{
+		return client.getInboundDropped();
+	}
+
+	@Override
+	public long getRoundTripNanos()
+	{
+		return client.getRoundTripNanos();
+	}
+
+	/**
+	 * Registers the metrics of the client, its histograms and of every
+	 * publisher and subscriber as MBeans in the platform MBean server, in the
+	 * domain {@link #DOMAIN} with the name of the client and the number of
+	 * this instance as keys, as several clients may have the same name.
+	 * Publishers and subscribers counted later are registered when they are
+	 * counted first.
+	 */
+	public synchronized void registerMBeans()
+	{
+		if (registered != null)
+		{
+			return;
+		}
+
+		registered = new ArrayList<ObjectName>();
+
+		String clientKey = getClientKey();
+
+		register(this, "type=Client,name=" + ObjectName.quote(client.getName()) + ",instance=" + instance);
+		register(encodeTime, "type=Histogram," + clientKey + ",name=encode");
+		register(parseTime, "type=Histogram," + clientKey + ",name=parse");
+		register(dispatchTime, "type=Histogram," + clientKey + ",name=dispatch");
+		register(probeRoundTrip, "type=Histogram," + clientKey + ",name=probeRoundTrip");
+		register(probeOneWay, "type=Histogram," + clientKey + ",name=probeOneWay");
+
+		for (RouteMetrics route : getRoutes())
+		{
+			register(route);
+		}
+	}
+
+	/**
+	 * Removes the MBeans registered by {@link #registerMBeans()}, e.g. before
+	 * the client is discarded.
+	 */
+	public synchronized void unregisterMBeans()
+	{
+		if (registered == null)
+		{
+			return;
+		}
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+		for (ObjectName name : registered)
+		{
+			try
+			{
+				server.unregisterMBean(name);
+			}
+			catch (JMException e)
+			{
+				log.debug("Exception: {}", e);
+			}
+		}
+
+		registered = null;
+	}
+
+	/**
+	 * @return True if the MBeans are registered
+	 */
+	public synchronized boolean isRegistered()
+	{
+		return registered != null;
+	}
+
+	/**
+	 * Writes the metrics of several clients in the Prometheus text exposition
+	 * format, grouped by metric. Times are written in seconds.
+	 * 
+	 * @param metrics The metrics of the clients
+	 * @param out The text to append to
+	 */
+	public static void writePrometheus(Collection<SpacebrewMetrics> metrics, StringBuilder out)
+	{
+		for (Family family : FAMILIES)
+		{
+			out.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+			out.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+
+			for (SpacebrewMetrics clientMetrics : metrics)
+			{
+				family.write(clientMetrics, out);
+			}
+		}
+	}
+
+	/**
+	 * @param text A text
+	 * @return The size of the text encoded as UTF-8 in bytes
+	 */
+	public static long utf8Length(CharSequence text)
+	{
+		int length = text.length();
+		long bytes = length;
+
+		for (int i = 0; i < length; i++)
+		{
+			char c = text.charAt(i);
+
+			if (c >= 0x80)
+			{
+				if (c < 0x800)
+				{
+					bytes++;
+				}
+				else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1)))
+				{
+					// four bytes for two characters
+					bytes += 2;
+					i++;
+				}
+				else
+				{
+					bytes += 2;
+				}
+			}
+		}
+
+		return bytes;
+	}
+
+	/**
+	 * @return The metrics of all publishers and subscribers counted so far
+	 */
+	private ArrayList<RouteMetrics> getRoutes()
+	{
+		ArrayList<RouteMetrics> routes = new ArrayList<RouteMetrics>();
+
+		for (ConcurrentHashMap<String, RouteMetrics> types : publishers.values())
+		{
+			routes.addAll(types.values());
+		}
+
+		for (ConcurrentHashMap<String, RouteMetrics> types : subscribers.values())
+		{
+			routes.addAll(types.values());
+		}
+
+		return routes;
+	}
+
+	/**
+	 * Looks up the metrics of a publisher or subscriber, creates them when it
+	 * is counted first.
+	 * 
+	 * @param routes The metrics of the publishers or subscribers
+	 * @param name The name of the publisher or subscriber
+	 * @param type The type of the publisher or subscriber
+	 * @param outbound True for a publisher, false for a subscriber
+	 * @return The metrics
+	 */
+	private RouteMetrics route(ConcurrentHashMap<String, ConcurrentHashMap<String, RouteMetrics>> routes,
+			String name, String type, boolean outbound)
+	{
+		ConcurrentHashMap<String, RouteMetrics> types = routes.get(name);
+
+		if (types == null)
+		{
+			ConcurrentHashMap<String, RouteMetrics> created = new ConcurrentHashMap<String, RouteMetrics>();
+			types = routes.putIfAbsent(name, created);
+
+			if (types == null)
+			{
+				types = created;
+			}
+		}
+
+		RouteMetrics route = types.get(type);
+
+		if (route == null)
+		{
+			RouteMetrics created = new RouteMetrics(name, type, outbound);
+			route = types.putIfAbsent(type, created);
+
+			if (route == null)
+			{
+				route = created;
+
+				synchronized (this)
+				{
+					if (registered != null)
+					{
+						register(route);
+					}
+				}
+			}
+		}
+
+		return route;
+	}
+
+	private void register(RouteMetrics route)
+	{
+		register(route, "type=Route," + getClientKey() + ",direction=" + (route.isOutbound() ? "out" : "in") + ",name="
+				+ ObjectName.quote(route.getName()) + ",messageType=" + ObjectName.quote(route.getType()));
+	}
+
+	/**
+	 * @return The keys identifying the client in the names of the MBeans of
+	 *         its histograms, publishers and subscribers
+	 */
+	private String getClientKey()
+	{
+		return "client=" + ObjectName.quote(client.getName()) + ",instance=" + instance;
+	}
+
+	private void register(Object mbean, String properties)
+	{
+		try
+		{
+			ObjectName name = new ObjectName(DOMAIN + ":" + properties);
+			ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, name);
+			registered.add(name);
+		}
+		catch (JMException e)
+		{
+			log.error("Could not register MBean {}!", properties);
+			log.debug("Exception: {}", e);
+		}
+	}
+
+	/**
+	 * Appends a sample in the Prometheus text format.
+	 * 
+	 * @param out The text to append to
+	 * @param family The name of the metric
+	 * @param labels The labels as alternating names and values
+	 * @param value The value
+	 */
+	private static void sample(StringBuilder out, String family, String[] labels, double value)
+	{
+		out.append(family).append('{');
+
+		for (int i = 0; i + 1 < labels.length; i += 2)
+		{
+			if (i > 0)
+			{
+				out.append(',');
+			}
+
+			out.append(labels[i]).append("=\"");
+
+			String label = labels[i + 1];
+
+			for (int j = 0; j < label.length(); j++)
+			{
+				char c = label.charAt(j);
+
+				if (c == '\\' || c == '"')
+				{
+					out.append('\\').append(c);
+				}
+				else if (c == '\n')
+				{
+					out.append("\\n");
+				}
+				else
+				{
+					out.append(c);
+				}
+			}
+
+			out.append('"');
+		}
+
+		out.append("} ");
+
+		if (value == Math.rint(value) && Math.abs(value) < 1e15)
+		{
+			out.append((long) value);
+		}
+		else
+		{
+			out.append(value);
+		}
+
+		out.append('\n');
+	}
+
+	/**
+	 * Appends the quantiles, sum and count of a histogram as Prometheus
+	 * summary in seconds.
+	 */
+	private static void summary(StringBuilder out, String family, String clientName, LatencyHistogram histogram)
+	{
+		sample(out, family, new String[] { "client", clientName, "quantile", "0.5" },
+				histogram.getPercentile50() / 1e9);
+		sample(out, family, new String[] { "client", clientName, "quantile", "0.99" },
+				histogram.getPercentile99() / 1e9);
+		sample(out, family, new String[] { "client", clientName, "quantile", "0.999" },
+				histogram.getPercentile999() / 1e9);
+		sample(out, family + "_sum", new String[] { "client", clientName }, histogram.getSum() / 1e9);
+		sample(out, family + "_count", new String[] { "client", clientName }, histogram.getCount());
+	}
+
+	/**
+	 * Appends the messages or bytes per publisher or subscriber.
+	 */
+	private static void routes(StringBuilder out, String family, String clientName,
+			ConcurrentHashMap<String, ConcurrentHashMap<String, RouteMetrics>> routes, boolean bytes)
+	{
+		for (ConcurrentHashMap<String, RouteMetrics> types : routes.values())
+		{
+			for (RouteMetrics route : types.values())
+			{
+				sample(out, family, new String[] { "client", clientName,
+						route.isOutbound() ? "publisher" : "subscriber", route.getName(), "type", route.getType() },
+						bytes ? route.getBytes() : route.getMessages());
+			}
+		}
+	}
+
+	/**
+	 * A metric written in the Prometheus text format.
+	 */
+	private static abstract class Family
+	{
+		private final String	name;
+		private final String	type;
+		private final String	help;
+
+		Family(String name, String type, String help)
+		{
+			this.name = name;
+			this.type = type;
+			this.help = help;
+		}
+
+		/**
+		 * Appends a value of the metric for one client.
+		 */
+		void write(SpacebrewMetrics metrics, StringBuilder out)
+		{
+			sample(out, name, new String[] { "client", metrics.getClientName() }, value(metrics));
+		}
+
+		/**
+		 * @return The value of the metric for one client
+		 */
+		double value(SpacebrewMetrics metrics)
+		{
+			return 0;
+		}
+	}
+
+	static
+	{
+		FAMILIES = new Family[] {
+				new Family("spacebrew_messages_sent_total", "counter", "Publisher messages sent per publisher.")
+				{
+					@Override
+					void write(SpacebrewMetrics metrics, StringBuilder out)
+					{
+						routes(out, "spacebrew_messages_sent_total", metrics.getClientName(), metrics.publishers,
+								false);
+					}
+				},
+				new Family("spacebrew_message_bytes_sent_total", "counter",
+						"Size of the publisher messages sent per publisher in bytes.")
+				{
+					@Override
+					void write(SpacebrewMetrics metrics, StringBuilder out)
+					{
+						routes(out, "spacebrew_message_bytes_sent_total", metrics.getClientName(),
+								metrics.publishers, true);
+					}
+				},
+				new Family("spacebrew_messages_received_total", "counter",
+						"Publisher messages received per subscriber.")
+				{
+					@Override
+					void write(SpacebrewMetrics metrics, StringBuilder out)
+					{
+						routes(out, "spacebrew_messages_received_total", metrics.getClientName(),
+								metrics.subscribers, false);
+					}
+				},
+				new Family("spacebrew_message_bytes_received_total", "counter",
+						"Size of the publisher messages received per subscriber in bytes.")
+				{
+					@Override
+					void write(SpacebrewMetrics metrics, StringBuilder out)
+					{
+						routes(out, "spacebrew_message_bytes_received_total", metrics.getClientName(),
+								metrics.subscribers, true);
+					}
+				},
+				new Family("spacebrew_bytes_sent_total", "counter", "Size of all messages sent in bytes.")
+				{
+					@Override
+					double value(SpacebrewMetrics metrics)
+					{
+						return metrics.getBytesSent();
+					}
+				},
+				new Family("spacebrew_bytes_received_total", "counter", "Size of all messages received in bytes.")
+				{
+					@Override
+					double value(SpacebrewMetrics metrics)
+					{
+						return metrics.getBytesReceived();
+					}
+				},
+				new Family("spacebrew_control_messages_sent_total", "counter", "Control messages sent.")
+				{
+					@Override
+					double value(SpacebrewMetrics metrics)
+					{
+						return metrics.getControlMessagesSent();
+					}
+				},
+				new Family("spacebrew_config_sends_total", "counter", "Configuration messages sent.")
+				{
+					@Override
+					double value(SpacebrewMetrics metrics)
+					{
+						return metrics.getConfigSends();
+					}
+				},
+				new Family("spacebrew_connects_total", "counter", "Connections opened.")
+				{
+					@Override
+					double value(SpacebrewMetrics metrics)
+					{
+						return metrics.getConnects();
+					}
+				},
+				new Family("spacebrew_reconnects_total", "counter", "Reconnection attempts.")
+				{
+					@Override
+					double value(SpacebrewMetrics metrics)
+					{
+						return metrics.getReconnects();
+					}
+				},
+				new Family("spacebrew_errors_total", "counter",
+						"Connection errors, failed sends and exceptions thrown by subscribers.")
+				{
+					@Override
+					double value(SpacebrewMetrics metrics)
+					{
+						return metrics.getErrors();
+					}
+				},
+				new Family("spacebrew_outbound_queue_size", "gauge", "Outgoing messages waiting to be sent.")
+				{
+					@Override
+					double value(SpacebrewMetrics metrics)
+					{
+						return metrics.getOutboundQueueSize();
+					}
+				},
+				new Family("spacebrew_inbound_queue_size", "gauge",
+						"Incoming messages waiting to be drained in polling mode.")
+				{
+					@Override
+					double value(SpacebrewMetrics metrics)
+					{
+						return metrics.getInboundQueueSize();
+					}
+				},
+				new Family("spacebrew_outbound_expired_total", "counter",
+						"Outgoing messages dropped because they expired.")
+				{
+					@Override
+					double value(SpacebrewMetrics metrics)
+					{
+						return metrics.getOutboundExpired();
+					}
+				},
+				new Family("spacebrew_inbound_dropped_total", "counter",
+						"Incoming messages dropped because the inbound queue was full.")
+				{
+					@Override
+					double value(SpacebrewMetrics metrics)
+					{
+						return metrics.getInboundDropped();
+					}
+				},
+				new Family("spacebrew_round_trip_seconds", "gauge", "Smoothed round trip time, -1 if unknown.")
+				{
+					@Override
+					double value(SpacebrewMetrics metrics)
+					{
+						long nanos = metrics.getRoundTripNanos();
+						return nanos < 0 ? -1 : nanos / 1e9;
+					}
+				},
+				new Family("spacebrew_encode_seconds", "summary", "Time spent encoding an outgoing message.")
+				{
+					@Override
+					void write(SpacebrewMetrics metrics, StringBuilder out)
+					{
+						summary(out, "spacebrew_encode_seconds", metrics.getClientName(), metrics.encodeTime);
+					}
+				},
+				new Family("spacebrew_parse_seconds", "summary", "Time spent parsing an incoming message.")
+				{
+					@Override
+					void write(SpacebrewMetrics metrics, StringBuilder out)
+					{
+						summary(out, "spacebrew_parse_seconds", metrics.getClientName(), metrics.parseTime);
+					}
+				},
+				new Family("spacebrew_dispatch_seconds", "summary",
+						"Time spent passing an incoming message to its subscribers.")
+				{
+					@Override
+					void write(SpacebrewMetrics metrics, StringBuilder out)
+					{
+						summary(out, "spacebrew_dispatch_seconds", metrics.getClientName(), metrics.dispatchTime);
+					}
+				},
+				new Family("spacebrew_probe_round_trip_seconds", "summary",
+						"Round trip time of the latency probes through the server.")
+				{
+					@Override
+					void write(SpacebrewMetrics metrics, StringBuilder out)
+					{
+						summary(out, "spacebrew_probe_round_trip_seconds", metrics.getClientName(),
+								metrics.probeRoundTrip);
+					}
+				},
+				new Family("spacebrew_probe_one_way_seconds", "summary",
+						"One-way latency of the latency probes received from other clients.")
+				{
+					@Override
+					void write(SpacebrewMetrics metrics, StringBuilder out)
+					{
+						summary(out, "spacebrew_probe_one_way_seconds", metrics.getClientName(), metrics.probeOneWay);
+					}
+				} };
+	}
+}
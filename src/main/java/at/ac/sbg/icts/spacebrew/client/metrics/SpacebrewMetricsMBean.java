@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.client.metrics;
+
+/**
+ * The attributes of a {@link SpacebrewMetrics} registered as MBean.
+ * 
+ * @author Axel Baumgartner
+ */
+public interface SpacebrewMetricsMBean
+{
+	/**
+	 * @return The name of the client
+	 */
+	public String getClientName();
+
+	/**
+	 * @return The number of publisher messages sent
+	 */
+	public long getMessagesSent();
+
+	/**
+	 * @return The number of control messages sent (e.g. configuration
+	 *         messages)
+	 */
+	public long getControlMessagesSent();
+
+	/**
+	 * @return The size of all messages sent in bytes, before compression
+	 */
+	public long getBytesSent();
+
+	/**
+	 * @return The number of publisher messages received
+	 */
+	public long getMessagesReceived();
+
+	/**
+	 * @return The size of all messages received in bytes, after decompression
+	 */
+	public long getBytesReceived();
+
+	/**
+	 * @return The number of configuration messages sent
+	 */
+	public long getConfigSends();
+
+	/**
+	 * @return The number of connections opened
+	 */
+	public long getConnects();
+
+	/**
+	 * @return The number of reconnection attempts
+	 */
+	public long getReconnects();
+
+	/**
+	 * @return The number of errors (connection errors, failed sends and
+	 *         exceptions thrown by subscribers)
+	 */
+	public long getErrors();
+
+	/**
+	 * @return The number of outgoing messages waiting to be sent
+	 */
+	public int getOutboundQueueSize();
+
+	/**
+	 * @return The number of incoming messages waiting to be drained in polling
+	 *         mode
+	 */
+	public int getInboundQueueSize();
+
+	/**
+	 * @return The number of outgoing messages dropped because they expired
+	 */
+	public long getOutboundExpired();
+
+	/**
+	 * @return The number of incoming messages dropped because the inbound
+	 *         queue was full
+	 */
+	public long getInboundDropped();
+
+	/**
+	 * @return The smoothed round trip time in nanoseconds, -1 if unknown
+	 */
+	public long getRoundTripNanos();
+}
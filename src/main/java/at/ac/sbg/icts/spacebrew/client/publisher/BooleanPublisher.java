@@ -11,6 +11,7 @@
 package at.ac.sbg.icts.spacebrew.client.publisher;
 
 import at.ac.sbg.icts.spacebrew.client.SpacebrewClient;
+import at.ac.sbg.icts.spacebrew.client.SpacebrewMessage;
 
 /**
  * A boolean publisher.
@@ -38,7 +39,7 @@ public class BooleanPublisher extends Publisher
 	 */
 	public BooleanPublisher(String name, boolean defaultValue, SpacebrewClient client)
 	{
-		super(name, client);
+		super(name, SpacebrewMessage.TYPE_BOOLEAN, client);
 		this.defaultValue = defaultValue;
 		client.addPublisher(name, defaultValue);
 	}
@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.client.publisher;
+
+import at.ac.sbg.icts.spacebrew.client.SpacebrewClient;
+import at.ac.sbg.icts.spacebrew.client.codec.StringDeltaEncoder;
+
+/**
+ * A string publisher for large values of which only small parts change, e.g.
+ * JSON state documents. Values are sent as periodic keyframes and deltas
+ * against the previous value (see {@link StringDeltaEncoder}) with the custom
+ * type {@code StringDeltaEncoder.TYPE}. Subscribers rebuild the values with
+ * {@link SpacebrewClient#addDeltaSubscriber(String, at.ac.sbg.icts.spacebrew.client.StringSubscriber)}.
+ * 
+ * @author Axel Baumgartner
+ */
+public class DeltaStringPublisher extends Publisher
+{
+	/**
+	 * Encodes the values as keyframes and deltas.
+	 */
+	protected final StringDeltaEncoder	encoder;
+
+	/**
+	 * The default value
+	 */
+	protected String					defaultValue	= "";
+	protected String					outValue		= "";
+
+	/**
+	 * Adds a delta-encoded string publisher with its name to the client, which
+	 * sends a keyframe after the default keyframe interval.
+	 * 
+	 * @param name The name of this publisher
+	 * @param defaultValue The default value
+	 * @param client The client through which messages are sent
+	 */
+	public DeltaStringPublisher(String name, String defaultValue, SpacebrewClient client)
+	{
+		this(name, defaultValue, StringDeltaEncoder.DEFAULT_KEYFRAME_INTERVAL, client);
+	}
+
+	/**
+	 * Adds a delta-encoded string publisher with its name to the client.
+	 * 
+	 * @param name The name of this publisher
+	 * @param defaultValue The default value
+	 * @param keyframeInterval The number of messages after which a keyframe is
+	 *            sent, subscribers that missed a delta wait at most this long
+	 * @param client The client through which messages are sent
+	 */
+	public DeltaStringPublisher(String name, String defaultValue, int keyframeInterval, SpacebrewClient client)
+	{
+		super(name, StringDeltaEncoder.TYPE, client);
+		this.encoder = new StringDeltaEncoder(keyframeInterval);
+		this.defaultValue = defaultValue;
+		client.addPublisher(name, StringDeltaEncoder.TYPE, defaultValue);
+	}
+
+	/**
+	 * Sends a keyframe or a delta against the previously published value to
+	 * the server. While the client is disconnected the value is dropped
+	 * without being encoded, so the first value published after connecting is
+	 * sent as keyframe.
+	 * 
+	 * @param value The value to publish
+	 */
+	public void publish(String value)
+	{
+		if (updateFilterActive && value.equals(outValue))
+		{
+			return;
+		}
+
+		outValue = value;
+
+		if (!client.isConnected())
+		{
+			encoder.requestKeyframe();
+			return;
+		}
+
+		client.publish(getName(), StringDeltaEncoder.TYPE, encoder.encode(value));
+	}
+
+	/**
+	 * Sends the next value as keyframe, e.g. when new subscribers have been
+	 * routed to this publisher.
+	 */
+	public void requestKeyframe()
+	{
+		encoder.requestKeyframe();
+	}
+
+	/**
+	 * @return The last value that was sent to the server
+	 */
+	public String getOutValue()
+	{
+		return outValue;
+	}
+
+	/**
+	 * @return The encoder, e.g. to query the number of keyframes and deltas
+	 *         sent
+	 */
+	public StringDeltaEncoder getEncoder()
+	{
+		return encoder;
+	}
+}
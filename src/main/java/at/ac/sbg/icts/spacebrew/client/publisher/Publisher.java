@@ -10,6 +10,7 @@
  ******************************************************************************/
 package at.ac.sbg.icts.spacebrew.client.publisher;
 
+import at.ac.sbg.icts.spacebrew.client.OutboundPriority;
 import at.ac.sbg.icts.spacebrew.client.SpacebrewClient;
 
 /**
@@ -25,6 +26,11 @@ public abstract class Publisher
 	 */
 	private String				name				= "";
 
+	/**
+	 * The type of the publisher
+	 */
+	private String				type;
+
 	/**
 	 * The client instance through which messages are sent
 	 */
@@ -45,6 +51,18 @@ public abstract class Publisher
 		this.client = client;
 	}
 
+	/**
+	 * @param name The name of the publisher
+	 * @param type The type of the publisher
+	 * @param client The client instance through which messages are sent
+	 */
+	public Publisher(String name, String type, SpacebrewClient client)
+	{
+		this.name = name;
+		this.type = type;
+		this.client = client;
+	}
+
 	/**
 	 * @return The name of the publisher
 	 */
@@ -53,6 +71,48 @@ public abstract class Publisher
 		return name;
 	}
 
+	/**
+	 * @return The type of the publisher (i.e.
+	 *         {@code SpacebrewMessage.TYPE_BOOLEAN},
+	 *         {@code SpacebrewMessage.TYPE_RANGE},
+	 *         {@code SpacebrewMessage.TYPE_STRING} or a custom type), null if
+	 *         the subclass did not specify it
+	 */
+	public String getType()
+	{
+		return type;
+	}
+
+	/**
+	 * Sets the priority of the messages of this publisher.
+	 * 
+	 * @param priority The priority of the messages
+	 */
+	public void setPriority(OutboundPriority priority)
+	{
+		client.setPublisherPriority(name, type, priority);
+	}
+
+	/**
+	 * Sets the time after which messages of this publisher are dropped if they
+	 * could not be sent yet.
+	 * 
+	 * @param timeToLive The time to live in milliseconds, 0 if messages never
+	 *            expire
+	 */
+	public void setTimeToLive(long timeToLive)
+	{
+		client.setPublisherTimeToLive(name, type, timeToLive);
+	}
+
+	/**
+	 * @return The client instance through which messages are sent
+	 */
+	public SpacebrewClient getClient()
+	{
+		return client;
+	}
+
 	/**
 	 * Activates the update filter.
 	 */
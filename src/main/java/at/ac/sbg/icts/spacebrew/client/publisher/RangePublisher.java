@@ -11,6 +11,7 @@
 package at.ac.sbg.icts.spacebrew.client.publisher;
 
 import at.ac.sbg.icts.spacebrew.client.SpacebrewClient;
+import at.ac.sbg.icts.spacebrew.client.SpacebrewMessage;
 
 /**
  * A range publisher offering simple linear transformation and low-pass
@@ -68,7 +69,7 @@ public class RangePublisher extends Publisher
 	 */
 	public RangePublisher(String name, int defaultValue, SpacebrewClient client)
 	{
-		super(name, client);
+		super(name, SpacebrewMessage.TYPE_RANGE, client);
 		this.defaultValue = defaultValue;
 		client.addPublisher(name, defaultValue);
 	}
@@ -11,6 +11,7 @@
 package at.ac.sbg.icts.spacebrew.client.publisher;
 
 import at.ac.sbg.icts.spacebrew.client.SpacebrewClient;
+import at.ac.sbg.icts.spacebrew.client.SpacebrewMessage;
 
 /**
  * A string publisher.
@@ -34,7 +35,7 @@ public class StringPublisher extends Publisher
 	 */
 	public StringPublisher(String name, String defaultValue, SpacebrewClient client)
 	{
-		super(name, client);
+		super(name, SpacebrewMessage.TYPE_STRING, client);
 		this.defaultValue = defaultValue;
 		client.addPublisher(name, defaultValue);
 	}
@@ -56,6 +57,19 @@ public class StringPublisher extends Publisher
 		client.publish(getName(), outValue);
 	}
 
+	/**
+	 * Sends a string message to the server without copying the value, e.g. a
+	 * large {@code StringBuilder}. The value is encoded while it is sent, so
+	 * it must not be modified afterwards. The update filter does not apply and
+	 * the out value is not changed.
+	 * 
+	 * @param value The value to publish
+	 */
+	public void publish(CharSequence value)
+	{
+		client.publish(getName(), value);
+	}
+
 	/**
 	 * @return The last value that was sent to the server
 	 */
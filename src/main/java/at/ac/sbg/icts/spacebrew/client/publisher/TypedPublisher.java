@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.client.publisher;
+
+import at.ac.sbg.icts.spacebrew.client.SpacebrewClient;
+import at.ac.sbg.icts.spacebrew.client.codec.SpacebrewCodec;
+
+/**
+ * A publisher for a custom type whose values are encoded by a
+ * {@link SpacebrewCodec}.
+ * 
+ * @param <T> The type of the published values
+ * @author Axel Baumgartner
+ */
+public class TypedPublisher<T> extends Publisher
+{
+	/**
+	 * The codec used to encode the values
+	 */
+	protected final SpacebrewCodec<T>	codec;
+
+	/**
+	 * The default value
+	 */
+	protected T							defaultValue;
+
+	/**
+	 * Adds a publisher of the codec's type with its name to the client.
+	 * 
+	 * @param name The name of this publisher
+	 * @param codec The codec used to encode the values
+	 * @param defaultValue The default value
+	 * @param client The client through which messages are sent
+	 */
+	public TypedPublisher(String name, SpacebrewCodec<T> codec, T defaultValue, SpacebrewClient client)
+	{
+		super(name, codec.getType(), client);
+		this.codec = codec;
+		this.defaultValue = defaultValue;
+		client.addPublisher(name, codec, defaultValue);
+	}
+
+	/**
+	 * Sends a message with the encoded value. The update filter is not
+	 * applied, since values of custom types are usually mutable.
+	 * 
+	 * @param value The value to publish
+	 */
+	public void publish(T value)
+	{
+		client.publish(getName(), codec, value);
+	}
+
+	/**
+	 * @return The default value
+	 */
+	public T getDefaultValue()
+	{
+		return defaultValue;
+	}
+
+	/**
+	 * @return The codec used to encode the values
+	 */
+	public SpacebrewCodec<T> getCodec()
+	{
+		return codec;
+	}
+}
@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.sensor;
+
+import at.ac.sbg.icts.spacebrew.client.SpacebrewClient;
+
+/**
+ * A synthetic sensor publishing a sawtooth at the sample rate, interrupted
+ * by bursts of samples published back to back, e.g. to test how the client
+ * copes with load peaks. Every burst publishes the burst size in samples at
+ * once.
+ * 
+ * @author Axel Baumgartner
+ */
+public class BurstSensor extends SyntheticSensor
+{
+	/**
+	 * The number of samples per burst.
+	 */
+	private volatile int	burstSize;
+
+	/**
+	 * The number of ticks between two bursts.
+	 */
+	private volatile long	burstInterval;
+
+	/**
+	 * @param client The client through which messages are published
+	 * @param name The name of the sensor
+	 * @param channelCount The number of channels
+	 * @param rate The sample rate in samples per second
+	 * @param payloadSize The minimum length of a value in characters
+	 * @param burstSize The number of samples per burst
+	 * @param burstInterval The number of samples at the sample rate between
+	 *            two bursts
+	 */
+	public BurstSensor(SpacebrewClient client, String name, int channelCount, double rate, int payloadSize,
+			int burstSize, long burstInterval)
+	{
+		super(client, name, channelCount, rate, payloadSize);
+		setBurst(burstSize, burstInterval);
+	}
+
+	/**
+	 * @param burstSize The number of samples per burst
+	 * @param burstInterval The number of samples at the sample rate between
+	 *            two bursts
+	 */
+	public void setBurst(int burstSize, long burstInterval)
+	{
+		if (burstSize < 1 || burstInterval < 1)
+		{
+			throw new IllegalArgumentException("Invalid burst: " + burstSize + " every " + burstInterval);
+		}
+
+		this.burstSize = burstSize;
+		this.burstInterval = burstInterval;
+	}
+
+	/**
+	 * @return The number of samples per burst
+	 */
+	public int getBurstSize()
+	{
+		return burstSize;
+	}
+
+	/**
+	 * @return The number of samples at the sample rate between two bursts
+	 */
+	public long getBurstInterval()
+	{
+		return burstInterval;
+	}
+
+	@Override
+	protected int getSampleCount(long tick)
+	{
+		return tick % burstInterval == burstInterval - 1 ? burstSize : 1;
+	}
+
+	@Override
+	protected double sample(int channel, long tick, double seconds)
+	{
+		return (double) (tick % burstInterval) / burstInterval;
+	}
+}
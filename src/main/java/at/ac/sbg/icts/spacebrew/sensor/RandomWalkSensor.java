@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.sensor;
+
+import java.util.Random;
+
+import at.ac.sbg.icts.spacebrew.client.SpacebrewClient;
+
+/**
+ * A synthetic sensor publishing independent random walks between 0 and 1,
+ * e.g. to mimic noisy environmental readings. Each sample moves every
+ * channel by a uniformly distributed step.
+ * 
+ * @author Axel Baumgartner
+ */
+public class RandomWalkSensor extends SyntheticSensor
+{
+	/**
+	 * The largest step per sample.
+	 */
+	private volatile double	stepSize;
+
+	/**
+	 * Generates the steps, only used by the sampling thread.
+	 */
+	private final Random	random;
+
+	/**
+	 * The current values of the channels, only used by the sampling thread.
+	 */
+	private final double[]	positions;
+
+	/**
+	 * @param client The client through which messages are published
+	 * @param name The name of the sensor
+	 * @param channelCount The number of channels
+	 * @param rate The sample rate in samples per second
+	 * @param payloadSize The minimum length of a value in characters
+	 * @param stepSize The largest step per sample
+	 * @param seed The seed of the random steps, so runs can be repeated
+	 */
+	public RandomWalkSensor(SpacebrewClient client, String name, int channelCount, double rate, int payloadSize,
+			double stepSize, long seed)
+	{
+		super(client, name, channelCount, rate, payloadSize);
+		this.stepSize = stepSize;
+		this.random = new Random(seed);
+		this.positions = new double[channelCount];
+
+		for (int i = 0; i < channelCount; i++)
+		{
+			positions[i] = random.nextDouble();
+		}
+	}
+
+	/**
+	 * @param stepSize The largest step per sample
+	 */
+	public void setStepSize(double stepSize)
+	{
+		this.stepSize = stepSize;
+	}
+
+	/**
+	 * @return The largest step per sample
+	 */
+	public double getStepSize()
+	{
+		return stepSize;
+	}
+
+	@Override
+	protected double sample(int channel, long tick, double seconds)
+	{
+		double position = positions[channel] + (random.nextDouble() * 2 - 1) * stepSize;
+		positions[channel] = Math.max(0, Math.min(1, position));
+		return positions[channel];
+	}
+}
@@ -0,0 +1,46 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.sensor;
+
+import at.ac.sbg.icts.spacebrew.client.SpacebrewClient;
+import at.ac.sbg.icts.spacebrew.client.publisher.Publisher;
+
+/**
+ * A publisher of any type that sends recorded values as they are, used by
+ * {@link ReplaySensor}.
+ * 
+ * @author Axel Baumgartner
+ */
+class ReplayPublisher extends Publisher
+{
+	/**
+	 * Adds a publisher with its name and type to the client.
+	 * 
+	 * @param name The name of this publisher
+	 * @param type The type of this publisher
+	 * @param client The client through which messages are sent
+	 */
+	ReplayPublisher(String name, String type, SpacebrewClient client)
+	{
+		super(name, type, client);
+		client.addPublisher(name, type, "");
+	}
+
+	/**
+	 * Sends a recorded value.
+	 * 
+	 * @param value The value as recorded
+	 */
+	void publish(String value)
+	{
+		client.publish(getName(), getType(), value);
+	}
+}
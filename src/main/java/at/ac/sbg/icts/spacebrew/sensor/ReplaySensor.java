@@ -0,0 +1,346 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.sensor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import at.ac.sbg.icts.spacebrew.client.SpacebrewClient;
+
+/**
+ * Plays back a log written by a {@link SensorRecorder} through real
+ * publishers, e.g. to reproduce issues from the field or to load test
+ * routing. The log is replayed in real time, a multiple of it or as fast as
+ * possible. Replaying waits while the outbound queue of the client is full,
+ * so it never publishes faster than the client can send.
+ * <p/>
+ * One publisher is created per channel of the log when the sensor is
+ * created. The sensor is available if the log could be read. Replaying stops
+ * after a pass that published nothing, even if it loops.
+ * 
+ * @author Axel Baumgartner
+ */
+public class ReplaySensor extends SpacebrewSensor
+{
+	/**
+	 * Replays the log as fast as possible.
+	 */
+	public static final double					MAXIMUM_SPEED		= Double.POSITIVE_INFINITY;
+
+	/**
+	 * Provides logging facilities.
+	 */
+	private final Logger						log					= LoggerFactory.getLogger(ReplaySensor.class);
+
+	/**
+	 * The log to replay.
+	 */
+	private final File							file;
+
+	/**
+	 * The publishers by channel id of the log.
+	 */
+	private final ArrayList<ReplayPublisher>	channelPublishers	= new ArrayList<ReplayPublisher>();
+
+	/**
+	 * The speed relative to the recording, {@code MAXIMUM_SPEED} to replay as
+	 * fast as possible.
+	 */
+	private volatile double						speed				= 1;
+
+	/**
+	 * True if the log is replayed again from the start when it ends.
+	 */
+	private volatile boolean					loop				= false;
+
+	/**
+	 * The number of messages replayed.
+	 */
+	private final AtomicLong					replayed			= new AtomicLong();
+
+	/**
+	 * The thread replaying the log, null if the sensor is not active.
+	 */
+	private Thread								thread;
+
+	/**
+	 * Reads the channels of a log and creates their publishers.
+	 * 
+	 * @param client The client through which messages are published
+	 * @param name The name of the sensor
+	 * @param file The log to replay
+	 */
+	public ReplaySensor(SpacebrewClient client, String name, File file)
+	{
+		super(client, name);
+		this.file = file;
+
+		SensorLogReader reader = null;
+
+		try
+		{
+			reader = new SensorLogReader(file);
+
+			while (reader.next())
+			{
+				int id = reader.getChannelId();
+
+				while (channelPublishers.size() <= id)
+				{
+					channelPublishers.add(null);
+				}
+
+				if (channelPublishers.get(id) == null)
+				{
+					ReplayPublisher publisher = new ReplayPublisher(reader.getName(), reader.getType(), client);
+					channelPublishers.set(id, publisher);
+					addPublisher(publisher);
+				}
+			}
+
+			available = true;
+		}
+		catch (IOException e)
+		{
+			log.error("Could not read sensor log {}!", file);
+			log.debug("Exception: {}", e);
+		}
+		finally
+		{
+			close(reader);
+		}
+	}
+
+	/**
+	 * Sets the speed relative to the recording, takes effect when the sensor
+	 * is activated next.
+	 * 
+	 * @param speed The speed, e.g. 1 for real time, 10 for ten times as fast
+	 *            or {@link #MAXIMUM_SPEED}
+	 */
+	public void setSpeed(double speed)
+	{
+		if (!(speed > 0))
+		{
+			throw new IllegalArgumentException("Invalid speed: " + speed);
+		}
+
+		this.speed = speed;
+	}
+
+	/**
+	 * @return The speed relative to the recording
+	 */
+	public double getSpeed()
+	{
+		return speed;
+	}
+
+	/**
+	 * @param loop True to replay the log again from the start when it ends
+	 */
+	public void setLoop(boolean loop)
+	{
+		this.loop = loop;
+	}
+
+	/**
+	 * @return True if the log is replayed again from the start when it ends
+	 */
+	public boolean isLoop()
+	{
+		return loop;
+	}
+
+	/**
+	 * @return The number of messages replayed
+	 */
+	public long getReplayed()
+	{
+		return replayed.get();
+	}
+
+	/**
+	 * @return True while the log is being replayed
+	 */
+	public synchronized boolean isReplaying()
+	{
+		return thread != null && thread.isAlive();
+	}
+
+	/**
+	 * Starts replaying the log from the start.
+	 */
+	@Override
+	public synchronized void onActivate()
+	{
+		thread = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				replay();
+			}
+		}, "ReplaySensor-" + getName());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops replaying the log and waits for the replaying thread to end.
+	 */
+	@Override
+	public synchronized void onDeactivate()
+	{
+		if (thread != null)
+		{
+			thread.interrupt();
+
+			try
+			{
+				thread.join();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+
+			thread = null;
+		}
+	}
+
+	/**
+	 * Replays the log until it ends or the sensor is deactivated.
+	 */
+	private void replay()
+	{
+		SensorLogReader reader = null;
+
+		try
+		{
+			reader = new SensorLogReader(file);
+
+			do
+			{
+				double currentSpeed = speed;
+				long start = System.nanoTime();
+				boolean emitted = false;
+
+				while (!Thread.currentThread().isInterrupted() && reader.next())
+				{
+					if (currentSpeed != MAXIMUM_SPEED && !waitUntil(start + (long) (reader.getNanos() / currentSpeed)))
+					{
+						return;
+					}
+
+					if (!waitForCapacity())
+					{
+						return;
+					}
+
+					ReplayPublisher publisher = reader.getChannelId() < channelPublishers.size() ? channelPublishers
+							.get(reader.getChannelId()) : null;
+
+					if (publisher != null)
+					{
+						publisher.publish(reader.getValue());
+						replayed.incrementAndGet();
+						emitted = true;
+					}
+				}
+
+				if (!emitted && !Thread.currentThread().isInterrupted())
+				{
+					// looping over a log without values would never wait
+					log.warn("Sensor log {} holds no values to replay!", file);
+					return;
+				}
+
+				reader.rewind();
+			}
+			while (loop && !Thread.currentThread().isInterrupted());
+		}
+		catch (IOException e)
+		{
+			log.error("Could not replay sensor log {}!", file);
+			log.debug("Exception: {}", e);
+		}
+		finally
+		{
+			close(reader);
+		}
+	}
+
+	/**
+	 * Waits until a point in time.
+	 * 
+	 * @param deadline The point in time as given by {@link System#nanoTime()}
+	 * @return False if the thread has been interrupted
+	 */
+	private static boolean waitUntil(long deadline)
+	{
+		long remaining;
+
+		while ((remaining = deadline - System.nanoTime()) > 0)
+		{
+			LockSupport.parkNanos(remaining);
+
+			if (Thread.currentThread().isInterrupted())
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Waits while the outbound queue of the client is full.
+	 * 
+	 * @return False if the thread has been interrupted
+	 */
+	private boolean waitForCapacity()
+	{
+		while (client.isConnected() && client.getOutboundQueueRemainingCapacity() == 0)
+		{
+			LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(200));
+
+			if (Thread.currentThread().isInterrupted())
+			{
+				return false;
+			}
+		}
+
+		return !Thread.currentThread().isInterrupted();
+	}
+
+	private void close(SensorLogReader reader)
+	{
+		if (reader != null)
+		{
+			try
+			{
+				reader.close();
+			}
+			catch (IOException e)
+			{
+				log.debug("Exception: {}", e);
+			}
+		}
+	}
+}
@@ -0,0 +1,327 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.sensor;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import at.ac.sbg.icts.spacebrew.client.SpacebrewClient;
+
+/**
+ * Adapts the sample rate of the sensors publishing through one
+ * {@link SpacebrewClient} to the load of the client. The rates are lowered
+ * multiplicatively when the outbound queue fills up or the round trip time to
+ * the server rises, and raised again step by step while there is headroom, so
+ * latency stays bounded under load without manual tuning.
+ * <p/>
+ * Only sensors with a sample rate range (see
+ * {@link SpacebrewSensor#setSampleRateRange(double, double)}) are adapted.
+ * The round trip time is only taken into account if the client sends pings
+ * (see {@link SpacebrewClient#setPingInterval(long)}).
+ * <p/>
+ * The controller runs on a thread of its own, so it neither delays the
+ * messages sent on the executor of the client nor waits for it.
+ * 
+ * @author Axel Baumgartner
+ */
+public class SampleRateController implements Runnable
+{
+	/**
+	 * The default interval in milliseconds in which the sample rates are
+	 * adapted.
+	 */
+	public static final long							DEFAULT_PERIOD		= 250;
+
+	private final Logger								log					= LoggerFactory.getLogger(SampleRateController.class);
+
+	/**
+	 * The client whose load is observed.
+	 */
+	private final SpacebrewClient						client;
+
+	/**
+	 * The sensors whose sample rates are adapted.
+	 */
+	private final CopyOnWriteArrayList<SpacebrewSensor>	sensors				= new CopyOnWriteArrayList<SpacebrewSensor>();
+
+	/**
+	 * The interval in milliseconds in which the sample rates are adapted.
+	 */
+	private long										period				= DEFAULT_PERIOD;
+
+	/**
+	 * The fill level of the outbound queue (0 - 1) from which the sample rates
+	 * are lowered.
+	 */
+	private volatile double								highWatermark		= 0.5;
+
+	/**
+	 * The fill level of the outbound queue (0 - 1) up to which the sample
+	 * rates are raised.
+	 */
+	private volatile double								lowWatermark		= 0.1;
+
+	/**
+	 * The round trip time in milliseconds from which the sample rates are
+	 * lowered, they are raised while the round trip time is below half of it.
+	 */
+	private volatile long								roundTripTimeLimit	= 200;
+
+	/**
+	 * The factor the sample rates are multiplied with when lowered.
+	 */
+	private volatile double								decreaseFactor		= 0.5;
+
+	/**
+	 * The part of the sample rate range the sample rates are raised by.
+	 */
+	private volatile double								increaseStep		= 0.1;
+
+	/**
+	 * Runs the task adapting the sample rates, null if it is not running.
+	 */
+	private ScheduledExecutorService					scheduler;
+
+	/**
+	 * @param client The client whose load is observed
+	 */
+	public SampleRateController(SpacebrewClient client)
+	{
+		this.client = client;
+	}
+
+	/**
+	 * Adds a sensor whose sample rate is adapted.
+	 * 
+	 * @param sensor The sensor to add
+	 */
+	public void addSensor(SpacebrewSensor sensor)
+	{
+		sensors.addIfAbsent(sensor);
+	}
+
+	/**
+	 * Removes a sensor, its sample rate stays as it is.
+	 * 
+	 * @param sensor The sensor to remove
+	 */
+	public void removeSensor(SpacebrewSensor sensor)
+	{
+		sensors.remove(sensor);
+	}
+
+	/**
+	 * Starts adapting the sample rates periodically on a daemon thread of its
+	 * own.
+	 */
+	public synchronized void start()
+	{
+		if (scheduler == null)
+		{
+			scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+			{
+				@Override
+				public Thread newThread(Runnable runnable)
+				{
+					Thread thread = new Thread(runnable, "SampleRateController-" + client.getName());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			scheduler.scheduleWithFixedDelay(this, period, period, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Stops adapting the sample rates, they stay as they are.
+	 */
+	public synchronized void stop()
+	{
+		if (scheduler != null)
+		{
+			scheduler.shutdown();
+			scheduler = null;
+		}
+	}
+
+	/**
+	 * Adapts the sample rates of all active sensors once. Errors are logged,
+	 * as the scheduler would not run the task again after an exception.
+	 */
+	@Override
+	public void run()
+	{
+		try
+		{
+			adapt();
+		}
+		catch (RuntimeException e)
+		{
+			log.error("Could not adapt the sample rates!");
+			log.debug("Exception: {}", e);
+		}
+	}
+
+	/**
+	 * Adapts the sample rates of all active sensors once.
+	 */
+	private void adapt()
+	{
+		if (!client.isConnected())
+		{
+			return;
+		}
+
+		int capacity = client.getOutboundQueueCapacity();
+		double fill = capacity > 0 ? (double) client.getOutboundQueueSize() / capacity : 0;
+		long roundTripNanos = client.getRoundTripNanos();
+		long limitNanos = TimeUnit.MILLISECONDS.toNanos(roundTripTimeLimit);
+
+		boolean congested = fill >= highWatermark || roundTripNanos > limitNanos;
+		boolean headroom = fill <= lowWatermark && roundTripNanos <= limitNanos / 2;
+
+		if (!congested && !headroom)
+		{
+			return;
+		}
+
+		for (SpacebrewSensor sensor : sensors)
+		{
+			if (!sensor.isActive())
+			{
+				continue;
+			}
+
+			double rate = sensor.getSampleRate();
+
+			if (congested)
+			{
+				sensor.adjustSampleRate(rate * decreaseFactor);
+			}
+			else
+			{
+				sensor.adjustSampleRate(rate + (sensor.getMaxSampleRate() - sensor.getMinSampleRate()) * increaseStep);
+			}
+		}
+	}
+
+	/**
+	 * @return The client whose load is observed
+	 */
+	public SpacebrewClient getClient()
+	{
+		return client;
+	}
+
+	/**
+	 * Sets the interval in which the sample rates are adapted. Takes effect
+	 * the next time the controller is started.
+	 * 
+	 * @param period The interval in milliseconds
+	 */
+	public synchronized void setPeriod(long period)
+	{
+		this.period = Math.max(1, period);
+	}
+
+	/**
+	 * @return The interval in milliseconds in which the sample rates are
+	 *         adapted
+	 */
+	public synchronized long getPeriod()
+	{
+		return period;
+	}
+
+	/**
+	 * Sets the fill levels of the outbound queue between which the sample
+	 * rates are held. Above the high watermark they are lowered, below the
+	 * low watermark they are raised.
+	 * 
+	 * @param lowWatermark The fill level (0 - 1) up to which the sample rates
+	 *            are raised
+	 * @param highWatermark The fill level (0 - 1) from which the sample rates
+	 *            are lowered
+	 */
+	public void setWatermarks(double lowWatermark, double highWatermark)
+	{
+		if (lowWatermark < 0 || highWatermark < lowWatermark)
+		{
+			throw new IllegalArgumentException("Invalid watermarks: " + lowWatermark + " - " + highWatermark);
+		}
+
+		this.lowWatermark = lowWatermark;
+		this.highWatermark = highWatermark;
+	}
+
+	/**
+	 * @return The fill level of the outbound queue up to which the sample
+	 *         rates are raised
+	 */
+	public double getLowWatermark()
+	{
+		return lowWatermark;
+	}
+
+	/**
+	 * @return The fill level of the outbound queue from which the sample
+	 *         rates are lowered
+	 */
+	public double getHighWatermark()
+	{
+		return highWatermark;
+	}
+
+	/**
+	 * Sets the round trip time from which the sample rates are lowered, they
+	 * are raised while the round trip time is below half of it.
+	 * 
+	 * @param roundTripTimeLimit The round trip time in milliseconds
+	 */
+	public void setRoundTripTimeLimit(long roundTripTimeLimit)
+	{
+		this.roundTripTimeLimit = roundTripTimeLimit;
+	}
+
+	/**
+	 * @return The round trip time in milliseconds from which the sample rates
+	 *         are lowered
+	 */
+	public long getRoundTripTimeLimit()
+	{
+		return roundTripTimeLimit;
+	}
+
+	/**
+	 * Sets how fast the sample rates are lowered and raised.
+	 * 
+	 * @param decreaseFactor The factor (0 - 1) the sample rates are
+	 *            multiplied with when lowered
+	 * @param increaseStep The part (0 - 1) of the sample rate range the sample
+	 *            rates are raised by
+	 */
+	public void setSteps(double decreaseFactor, double increaseStep)
+	{
+		if (decreaseFactor <= 0 || decreaseFactor >= 1 || increaseStep <= 0 || increaseStep > 1)
+		{
+			throw new IllegalArgumentException("Invalid steps: " + decreaseFactor + ", " + increaseStep);
+		}
+
+		this.decreaseFactor = decreaseFactor;
+		this.increaseStep = increaseStep;
+	}
+}
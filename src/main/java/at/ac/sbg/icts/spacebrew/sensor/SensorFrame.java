@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.sensor;
+
+/**
+ * One reading of a multi-channel sensor (e.g. the three axes of an
+ * accelerometer), holding the value of every channel and the time the
+ * reading was taken. Frames are taken from the pool of their sensor by
+ * {@link SpacebrewSensor#acquireFrame()} and returned to it when they are
+ * published by {@link SpacebrewSensor#publishFrame(SensorFrame)}, so they
+ * must not be used afterwards.
+ * 
+ * @author Axel Baumgartner
+ */
+public final class SensorFrame
+{
+	/**
+	 * The values of the channels.
+	 */
+	private final double[]	values;
+
+	/**
+	 * Holds the encoded values while the frame is published as one message
+	 * per channel.
+	 */
+	final CharSequence[]	encoded;
+
+	/**
+	 * Holds the timestamp followed by the values while the frame is published
+	 * as a combined message.
+	 */
+	final double[]			combined;
+
+	/**
+	 * The time the reading was taken in milliseconds since the epoch.
+	 */
+	private long			timestamp;
+
+	/**
+	 * The number of the reading, counted per sensor.
+	 */
+	private long			sequence;
+
+	/**
+	 * @param channels The number of channels
+	 */
+	SensorFrame(int channels)
+	{
+		values = new double[channels];
+		encoded = new CharSequence[channels];
+		combined = new double[channels + 1];
+	}
+
+	/**
+	 * Prepares the frame for the next reading.
+	 * 
+	 * @param timestamp The time the reading is taken
+	 * @param sequence The number of the reading
+	 */
+	void reset(long timestamp, long sequence)
+	{
+		this.timestamp = timestamp;
+		this.sequence = sequence;
+
+		for (int i = 0; i < values.length; i++)
+		{
+			values[i] = 0;
+		}
+	}
+
+	/**
+	 * @param channel The index of the channel, as given to
+	 *            {@link SpacebrewSensor#setChannels(at.ac.sbg.icts.spacebrew.client.publisher.Publisher...)}
+	 * @param value The value of the channel
+	 * @return This frame
+	 */
+	public SensorFrame set(int channel, double value)
+	{
+		values[channel] = value;
+		return this;
+	}
+
+	/**
+	 * @param channel The index of the channel
+	 * @return The value of the channel
+	 */
+	public double get(int channel)
+	{
+		return values[channel];
+	}
+
+	/**
+	 * @return The number of channels
+	 */
+	public int getChannelCount()
+	{
+		return values.length;
+	}
+
+	/**
+	 * Sets the time the reading was taken, by default the time the frame was
+	 * acquired.
+	 * 
+	 * @param timestamp The time in milliseconds since the epoch
+	 */
+	public void setTimestamp(long timestamp)
+	{
+		this.timestamp = timestamp;
+	}
+
+	/**
+	 * @return The time the reading was taken in milliseconds since the epoch
+	 */
+	public long getTimestamp()
+	{
+		return timestamp;
+	}
+
+	/**
+	 * @return The number of the reading, counted per sensor
+	 */
+	public long getSequence()
+	{
+		return sequence;
+	}
+}
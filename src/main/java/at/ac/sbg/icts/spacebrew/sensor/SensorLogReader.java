@@ -0,0 +1,357 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.sensor;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+
+/**
+ * Reads the value records of a log written by a {@link SensorRecorder} one
+ * after another. The file is memory-mapped in regions. A log that has not
+ * been closed properly (e.g. after a crash) ends at the first empty record.
+ * <p/>
+ * Instances are not thread-safe.
+ * 
+ * @author Axel Baumgartner
+ */
+public class SensorLogReader implements Closeable
+{
+	/**
+	 * The character set of all strings in the log.
+	 */
+	private static final Charset		UTF8		= Charset.forName("UTF-8");
+
+	/**
+	 * The file the log is read from.
+	 */
+	private final RandomAccessFile		file;
+
+	/**
+	 * The channel of {@code file}.
+	 */
+	private final FileChannel			channel;
+
+	/**
+	 * The size of the file.
+	 */
+	private final long					size;
+
+	/**
+	 * The size of the regions of the file mapped at once.
+	 */
+	private final int					regionSize;
+
+	/**
+	 * The region currently read.
+	 */
+	private MappedByteBuffer			region;
+
+	/**
+	 * The position of {@code region} in the file.
+	 */
+	private long						regionStart;
+
+	/**
+	 * The time the recording started in milliseconds since the epoch.
+	 */
+	private final long					startTime;
+
+	/**
+	 * The names of the channels by id.
+	 */
+	private final ArrayList<String>		names		= new ArrayList<String>();
+
+	/**
+	 * The types of the channels by id.
+	 */
+	private final ArrayList<String>		types		= new ArrayList<String>();
+
+	/**
+	 * Holds the bytes of the string currently read.
+	 */
+	private byte[]						bytes		= new byte[256];
+
+	/**
+	 * The time of the current record in nanoseconds since the start.
+	 */
+	private long						nanos;
+
+	/**
+	 * The channel id of the current record.
+	 */
+	private int							channelId;
+
+	/**
+	 * The value of the current record.
+	 */
+	private String						value;
+
+	/**
+	 * @param file The file to read the log from
+	 * @throws IOException If the file cannot be read or is not a log
+	 */
+	public SensorLogReader(File file) throws IOException
+	{
+		this(file, SensorRecorder.DEFAULT_REGION_SIZE);
+	}
+
+	/**
+	 * @param file The file to read the log from
+	 * @param regionSize The size of the regions of the file mapped at once
+	 * @throws IOException If the file cannot be read or is not a log
+	 */
+	public SensorLogReader(File file, int regionSize) throws IOException
+	{
+		this.file = new RandomAccessFile(file, "r");
+		this.channel = this.file.getChannel();
+		this.size = channel.size();
+		this.regionSize = Math.max(4096, regionSize);
+
+		if (size < SensorRecorder.HEADER_SIZE)
+		{
+			close();
+			throw new IOException("Not a sensor log: " + file);
+		}
+
+		map(0, SensorRecorder.HEADER_SIZE);
+
+		if (region.getInt() != SensorRecorder.MAGIC || region.getInt() != SensorRecorder.VERSION)
+		{
+			close();
+			throw new IOException("Not a sensor log or unsupported version: " + file);
+		}
+
+		startTime = region.getLong();
+	}
+
+	/**
+	 * Reads the next value record. Channel records on the way are read as
+	 * well.
+	 * 
+	 * @return True if a record has been read, false at the end of the log
+	 * @throws IOException If the log is corrupt
+	 */
+	public boolean next() throws IOException
+	{
+		while (true)
+		{
+			if (!ensure(1))
+			{
+				return false;
+			}
+
+			byte kind = region.get();
+
+			if (kind == SensorRecorder.VALUE)
+			{
+				require(8 + 2 + 4);
+				nanos = region.getLong();
+				channelId = region.getShort();
+
+				if (channelId < 0 || channelId >= names.size())
+				{
+					throw new IOException("Unknown channel " + channelId + " at " + position());
+				}
+
+				value = getString();
+				return true;
+			}
+			else if (kind == SensorRecorder.CHANNEL)
+			{
+				require(2 + 4);
+				int id = region.getShort();
+
+				if (id != names.size())
+				{
+					throw new IOException("Unexpected channel " + id + " at " + position());
+				}
+
+				String name = getString();
+				require(4);
+				names.add(name);
+				types.add(getString());
+			}
+			else if (kind == 0)
+			{
+				// end of a log that has not been closed properly
+				return false;
+			}
+			else
+			{
+				throw new IOException("Unknown record " + kind + " at " + position());
+			}
+		}
+	}
+
+	/**
+	 * Starts reading again from the first record.
+	 * 
+	 * @throws IOException If the file cannot be read
+	 */
+	public void rewind() throws IOException
+	{
+		map(SensorRecorder.HEADER_SIZE, 0);
+		names.clear();
+		types.clear();
+	}
+
+	/**
+	 * @return The time the recording started in milliseconds since the epoch
+	 */
+	public long getStartTime()
+	{
+		return startTime;
+	}
+
+	/**
+	 * @return The time of the current record in nanoseconds since the start
+	 *         of the recording
+	 */
+	public long getNanos()
+	{
+		return nanos;
+	}
+
+	/**
+	 * @return The channel id of the current record
+	 */
+	public int getChannelId()
+	{
+		return channelId;
+	}
+
+	/**
+	 * @return The name of the publisher of the current record
+	 */
+	public String getName()
+	{
+		return names.get(channelId);
+	}
+
+	/**
+	 * @return The type of the publisher of the current record
+	 */
+	public String getType()
+	{
+		return types.get(channelId);
+	}
+
+	/**
+	 * @return The value of the current record
+	 */
+	public String getValue()
+	{
+		return value;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		region = null;
+		file.close();
+	}
+
+	/**
+	 * @return The position of the next byte in the file
+	 */
+	private long position()
+	{
+		return regionStart + region.position();
+	}
+
+	/**
+	 * Makes sure a number of bytes can be read from the current region,
+	 * mapping the next region if necessary.
+	 * 
+	 * @param count The number of bytes
+	 * @return False if the file ends before
+	 * @throws IOException If the file cannot be read
+	 */
+	private boolean ensure(int count) throws IOException
+	{
+		if (region.remaining() >= count)
+		{
+			return true;
+		}
+
+		long position = position();
+
+		if (size - position < count)
+		{
+			return false;
+		}
+
+		map(position, count);
+		return true;
+	}
+
+	/**
+	 * Like {@link #ensure(int)}, but a log that ends before is corrupt.
+	 * 
+	 * @param count The number of bytes
+	 * @throws IOException If the file ends before
+	 */
+	private void require(int count) throws IOException
+	{
+		if (!ensure(count))
+		{
+			throw new IOException("Truncated record at " + position());
+		}
+	}
+
+	/**
+	 * Reads a string written by {@link SensorRecorder}, its length has to be
+	 * readable already.
+	 * 
+	 * @return The string
+	 * @throws IOException If the file ends before
+	 */
+	private String getString() throws IOException
+	{
+		int length = region.getInt();
+
+		if (length < 0)
+		{
+			throw new IOException("Invalid string length " + length + " at " + position());
+		}
+
+		require(length);
+
+		if (bytes.length < length)
+		{
+			bytes = new byte[Math.max(length, bytes.length * 2)];
+		}
+
+		region.get(bytes, 0, length);
+		return new String(bytes, 0, length, UTF8);
+	}
+
+	/**
+	 * Maps the region of the file starting at a position.
+	 * 
+	 * @param position The position in the file
+	 * @param minimum The minimum size of the region, unless the file ends
+	 *            before
+	 * @throws IOException If the file cannot be read
+	 */
+	private void map(long position, int minimum) throws IOException
+	{
+		region = channel.map(MapMode.READ_ONLY, position, Math.min(Math.max(regionSize, minimum), size - position));
+		regionStart = position;
+	}
+}
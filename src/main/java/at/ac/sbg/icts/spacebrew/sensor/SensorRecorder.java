@@ -0,0 +1,392 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.sensor;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.HashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import at.ac.sbg.icts.spacebrew.client.PublishListener;
+import at.ac.sbg.icts.spacebrew.client.SpacebrewClient;
+
+/**
+ * Records the messages published by one or more clients (and thus by their
+ * sensors) into a compact binary log, which can be played back by a
+ * {@link ReplaySensor}. Records are written straight into a memory-mapped
+ * region of the file, so recording costs about as much as copying the value
+ * and does not allocate.
+ * <p/>
+ * The log starts with a header (magic number, version, start time in
+ * milliseconds since the epoch), followed by records. A channel record
+ * ({@code 'C'}, id, name, type) defines a publisher the first time it
+ * appears, a value record ({@code 'V'}, nanoseconds since the start, channel
+ * id, value) holds one message. Strings are UTF-8 encoded with a length
+ * prefix, numbers are big-endian. See {@link SensorLogReader}.
+ * 
+ * @author Axel Baumgartner
+ */
+public class SensorRecorder implements PublishListener, Closeable
+{
+	/**
+	 * The magic number at the start of every log ("SBRL").
+	 */
+	static final int										MAGIC				= 0x5342524c;
+
+	/**
+	 * The version of the log format.
+	 */
+	static final int										VERSION				= 1;
+
+	/**
+	 * The size of the header.
+	 */
+	static final int										HEADER_SIZE			= 16;
+
+	/**
+	 * Marks a channel record.
+	 */
+	static final byte										CHANNEL				= 'C';
+
+	/**
+	 * Marks a value record.
+	 */
+	static final byte										VALUE				= 'V';
+
+	/**
+	 * The default size of the regions of the file mapped at once.
+	 */
+	public static final int									DEFAULT_REGION_SIZE	= 16 * 1024 * 1024;
+
+	/**
+	 * Provides logging facilities.
+	 */
+	private final Logger									log					= LoggerFactory.getLogger(SensorRecorder.class);
+
+	/**
+	 * The file the log is written to.
+	 */
+	private final RandomAccessFile							file;
+
+	/**
+	 * The channel of {@code file}.
+	 */
+	private final FileChannel								channel;
+
+	/**
+	 * The size of the regions of the file mapped at once.
+	 */
+	private final int										regionSize;
+
+	/**
+	 * The region currently written.
+	 */
+	private MappedByteBuffer								region;
+
+	/**
+	 * The position of {@code region} in the file.
+	 */
+	private long											regionStart;
+
+	/**
+	 * The time the recording started, as given by {@link System#nanoTime()}.
+	 */
+	private final long										startNanos;
+
+	/**
+	 * The ids of the channels recorded so far (name, (type, id)).
+	 */
+	private final HashMap<String, HashMap<String, Integer>>	channels			= new HashMap<String, HashMap<String, Integer>>();
+
+	/**
+	 * The number of channels recorded so far.
+	 */
+	private int												channelCount		= 0;
+
+	/**
+	 * The number of value records written.
+	 */
+	private long											records				= 0;
+
+	/**
+	 * True once the recorder has been closed.
+	 */
+	private boolean											closed				= false;
+
+	/**
+	 * Creates a log, replacing an existing file.
+	 * 
+	 * @param file The file to write the log to
+	 * @throws IOException If the file cannot be created
+	 */
+	public SensorRecorder(File file) throws IOException
+	{
+		this(file, DEFAULT_REGION_SIZE);
+	}
+
+	/**
+	 * Creates a log, replacing an existing file.
+	 * 
+	 * @param file The file to write the log to
+	 * @param regionSize The size of the regions of the file mapped at once
+	 * @throws IOException If the file cannot be created
+	 */
+	public SensorRecorder(File file, int regionSize) throws IOException
+	{
+		this.file = new RandomAccessFile(file, "rw");
+		this.file.setLength(0);
+		this.channel = this.file.getChannel();
+		this.regionSize = Math.max(4096, regionSize);
+		this.startNanos = System.nanoTime();
+
+		map(0, HEADER_SIZE);
+		region.putInt(MAGIC);
+		region.putInt(VERSION);
+		region.putLong(System.currentTimeMillis());
+	}
+
+	/**
+	 * Starts recording the messages published by a client.
+	 * 
+	 * @param client The client
+	 */
+	public void attach(SpacebrewClient client)
+	{
+		client.addPublishListener(this);
+	}
+
+	/**
+	 * Stops recording the messages published by a client.
+	 * 
+	 * @param client The client
+	 */
+	public void detach(SpacebrewClient client)
+	{
+		client.removePublishListener(this);
+	}
+
+	/**
+	 * Records a published message.
+	 */
+	@Override
+	public void onPublish(String name, String type, CharSequence value)
+	{
+		record(name, type, value);
+	}
+
+	/**
+	 * Appends a value record to the log.
+	 * 
+	 * @param name The name of the publisher
+	 * @param type The type of the publisher
+	 * @param value The value of the message
+	 */
+	public synchronized void record(String name, String type, CharSequence value)
+	{
+		if (closed)
+		{
+			return;
+		}
+
+		try
+		{
+			int id = channelId(name, type);
+
+			long nanos = System.nanoTime() - startNanos;
+			ensure(1 + 8 + 2 + 4 + value.length() * 3);
+
+			region.put(VALUE);
+			region.putLong(nanos);
+			region.putShort((short) id);
+			putString(value);
+
+			records++;
+		}
+		catch (IOException e)
+		{
+			log.error("Could not record message, closing recorder!");
+			log.debug("Exception: {}", e);
+			close();
+		}
+	}
+
+	/**
+	 * @return The number of value records written
+	 */
+	public synchronized long getRecords()
+	{
+		return records;
+	}
+
+	/**
+	 * @return The number of bytes written
+	 */
+	public synchronized long getSize()
+	{
+		return region != null ? regionStart + region.position() : 0;
+	}
+
+	/**
+	 * Writes all records to the file and cuts it to the written size.
+	 */
+	@Override
+	public synchronized void close()
+	{
+		if (closed)
+		{
+			return;
+		}
+
+		closed = true;
+
+		try
+		{
+			long size = regionStart + region.position();
+
+			region.force();
+			region = null;
+
+			channel.truncate(size);
+			file.close();
+		}
+		catch (IOException e)
+		{
+			log.error("Could not close recorder!");
+			log.debug("Exception: {}", e);
+		}
+	}
+
+	/**
+	 * Returns the id of a channel, writing a channel record the first time
+	 * the channel appears.
+	 * 
+	 * @param name The name of the publisher
+	 * @param type The type of the publisher
+	 * @return The id of the channel
+	 * @throws IOException If the file cannot be extended
+	 */
+	private int channelId(String name, String type) throws IOException
+	{
+		HashMap<String, Integer> types = channels.get(name);
+
+		if (types == null)
+		{
+			types = new HashMap<String, Integer>();
+			channels.put(name, types);
+		}
+
+		Integer id = types.get(type);
+
+		if (id == null)
+		{
+			if (channelCount > Short.MAX_VALUE)
+			{
+				throw new IOException("Too many channels");
+			}
+
+			id = channelCount++;
+			types.put(type, id);
+
+			ensure(1 + 2 + 4 + name.length() * 3 + 4 + type.length() * 3);
+
+			region.put(CHANNEL);
+			region.putShort((short) id.intValue());
+			putString(name);
+			putString(type);
+		}
+
+		return id;
+	}
+
+	/**
+	 * Makes sure the current region has room for a record, mapping the next
+	 * region if necessary.
+	 * 
+	 * @param bytes The maximum size of the record
+	 * @throws IOException If the file cannot be extended
+	 */
+	private void ensure(int bytes) throws IOException
+	{
+		if (region.remaining() < bytes)
+		{
+			map(regionStart + region.position(), bytes);
+		}
+	}
+
+	/**
+	 * Maps the region of the file starting at a position.
+	 * 
+	 * @param position The position in the file
+	 * @param minimum The minimum size of the region
+	 * @throws IOException If the file cannot be extended
+	 */
+	private void map(long position, int minimum) throws IOException
+	{
+		region = channel.map(MapMode.READ_WRITE, position, Math.max(regionSize, minimum));
+		regionStart = position;
+	}
+
+	/**
+	 * Writes a string as its UTF-8 length followed by its UTF-8 bytes.
+	 * Unpaired surrogates are written as '?'.
+	 * 
+	 * @param chars The string
+	 */
+	private void putString(CharSequence chars)
+	{
+		int lengthPosition = region.position();
+		region.putInt(0);
+
+		int length = chars.length();
+
+		for (int i = 0; i < length; i++)
+		{
+			char c = chars.charAt(i);
+
+			if (c < 0x80)
+			{
+				region.put((byte) c);
+			}
+			else if (c < 0x800)
+			{
+				region.put((byte) (0xc0 | (c >> 6)));
+				region.put((byte) (0x80 | (c & 0x3f)));
+			}
+			else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(chars.charAt(i + 1)))
+			{
+				int codePoint = Character.toCodePoint(c, chars.charAt(++i));
+				region.put((byte) (0xf0 | (codePoint >> 18)));
+				region.put((byte) (0x80 | ((codePoint >> 12) & 0x3f)));
+				region.put((byte) (0x80 | ((codePoint >> 6) & 0x3f)));
+				region.put((byte) (0x80 | (codePoint & 0x3f)));
+			}
+			else if (Character.isSurrogate(c))
+			{
+				region.put((byte) '?');
+			}
+			else
+			{
+				region.put((byte) (0xe0 | (c >> 12)));
+				region.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+				region.put((byte) (0x80 | (c & 0x3f)));
+			}
+		}
+
+		region.putInt(lengthPosition, region.position() - lengthPosition - 4);
+	}
+}
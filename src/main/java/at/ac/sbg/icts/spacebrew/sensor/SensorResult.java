@@ -0,0 +1,47 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.sensor;
+
+/**
+ * The result of activating or deactivating a single sensor through a
+ * {@link SpacebrewSensorManager}.
+ * 
+ * @author Axel Baumgartner
+ */
+public enum SensorResult
+{
+	/**
+	 * The sensor has been activated.
+	 */
+	ACTIVATED,
+
+	/**
+	 * The sensor has been deactivated.
+	 */
+	DEACTIVATED,
+
+	/**
+	 * Nothing had to be done, e.g. the sensor is not available or not enabled.
+	 */
+	SKIPPED,
+
+	/**
+	 * Activating or deactivating the sensor threw an exception.
+	 */
+	FAILED,
+
+	/**
+	 * Activating or deactivating the sensor did not finish within the timeout.
+	 * It may still finish later, {@link SpacebrewSensor#isActive()} tells the
+	 * actual state.
+	 */
+	TIMED_OUT
+}
@@ -0,0 +1,65 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.sensor;
+
+import at.ac.sbg.icts.spacebrew.client.SpacebrewClient;
+
+/**
+ * A synthetic sensor publishing sine waves between 0 and 1. The waves of the
+ * channels are shifted evenly across one period.
+ * 
+ * @author Axel Baumgartner
+ */
+public class SineSensor extends SyntheticSensor
+{
+	/**
+	 * The frequency of the waves in Hz.
+	 */
+	private volatile double	frequency;
+
+	/**
+	 * @param client The client through which messages are published
+	 * @param name The name of the sensor
+	 * @param channelCount The number of channels
+	 * @param rate The sample rate in samples per second
+	 * @param payloadSize The minimum length of a value in characters
+	 * @param frequency The frequency of the waves in Hz
+	 */
+	public SineSensor(SpacebrewClient client, String name, int channelCount, double rate, int payloadSize,
+			double frequency)
+	{
+		super(client, name, channelCount, rate, payloadSize);
+		this.frequency = frequency;
+	}
+
+	/**
+	 * @param frequency The frequency of the waves in Hz
+	 */
+	public void setFrequency(double frequency)
+	{
+		this.frequency = frequency;
+	}
+
+	/**
+	 * @return The frequency of the waves in Hz
+	 */
+	public double getFrequency()
+	{
+		return frequency;
+	}
+
+	@Override
+	protected double sample(int channel, long tick, double seconds)
+	{
+		double phase = (double) channel / getChannelCount();
+		return 0.5 + 0.5 * Math.sin(2 * Math.PI * (frequency * seconds + phase));
+	}
+}
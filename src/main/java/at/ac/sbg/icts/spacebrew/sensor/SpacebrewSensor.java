@@ -11,12 +11,16 @@
 package at.ac.sbg.icts.spacebrew.sensor;
 
 import java.util.HashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 import at.ac.sbg.icts.spacebrew.client.SpacebrewClient;
 import at.ac.sbg.icts.spacebrew.client.SpacebrewMessage;
+import at.ac.sbg.icts.spacebrew.client.codec.DoubleVectorCodec;
 import at.ac.sbg.icts.spacebrew.client.publisher.BooleanPublisher;
 import at.ac.sbg.icts.spacebrew.client.publisher.Publisher;
 import at.ac.sbg.icts.spacebrew.client.publisher.RangePublisher;
+import at.ac.sbg.icts.spacebrew.client.publisher.TypedPublisher;
 
 /**
  * A {@code SpacebrewSensor} is used to publish data from a hardware sensor
@@ -43,29 +47,81 @@ public abstract class SpacebrewSensor
 	/**
 	 * Holds all publishers this sensor offers (name, (type, publisher)).
 	 */
-	protected HashMap<String, HashMap<String, Publisher>>	publishers	= new HashMap<String, HashMap<String, Publisher>>();
+	protected HashMap<String, HashMap<String, Publisher>>	publishers		= new HashMap<String, HashMap<String, Publisher>>();
 
 	/**
 	 * True if the hardware components the sensor needs to work are available on
 	 * the device this software runs on.
 	 */
-	protected boolean										available	= false;
+	protected boolean										available		= false;
 
 	/**
 	 * True if this sensor has been enabled by the user.
 	 */
-	private boolean											enabled		= false;
+	private boolean											enabled			= false;
 
 	/**
 	 * True if the sensor is currently trying to publish data.
 	 */
-	protected boolean										active		= false;
+	protected volatile boolean								active			= false;
 
 	/**
 	 * The name of this sensor
 	 */
 	private final String									name;
 
+	/**
+	 * The lowest sample rate in samples per second, 0 if the sample rate is
+	 * not adapted.
+	 */
+	private volatile double									minSampleRate	= 0;
+
+	/**
+	 * The highest sample rate in samples per second, 0 if the sample rate is
+	 * not adapted.
+	 */
+	private volatile double									maxSampleRate	= 0;
+
+	/**
+	 * The bits (see {@link Double#doubleToLongBits(double)}) of the sample
+	 * rate in samples per second the sensor should currently sample at, 0 if
+	 * the sample rate is not adapted. Changed without the monitor of the
+	 * sensor, which {@link #activate()} and {@link #deactivate()} hold while
+	 * calling into the implementation.
+	 */
+	private final AtomicLong								sampleRate		= new AtomicLong();
+
+	/**
+	 * The publishers of the channels of a frame, in channel order.
+	 */
+	private Publisher[]										channels		= new Publisher[0];
+
+	/**
+	 * The names of the publishers of the channels.
+	 */
+	private String[]										channelNames	= new String[0];
+
+	/**
+	 * The types of the publishers of the channels.
+	 */
+	private String[]										channelTypes	= new String[0];
+
+	/**
+	 * Publishes frames as a single combined message, null if frames are
+	 * published as one message per channel.
+	 */
+	private volatile TypedPublisher<double[]>				framePublisher;
+
+	/**
+	 * Holds the frames that are not in use.
+	 */
+	private final ConcurrentLinkedQueue<SensorFrame>		framePool		= new ConcurrentLinkedQueue<SensorFrame>();
+
+	/**
+	 * Numbers the frames.
+	 */
+	private final AtomicLong								frameSequence	= new AtomicLong();
+
 	/**
 	 * Constructor.
 	 * 
@@ -110,29 +166,246 @@ public abstract class SpacebrewSensor
 		}
 	}
 
+	/**
+	 * Defines the channels of the frames of this sensor, e.g. one publisher
+	 * per axis of an accelerometer. Publishers not added yet are added to the
+	 * sensor. Frames acquired before are discarded when they are released.
+	 * <p/>
+	 * If frames are published as one message per channel, the messages carry
+	 * only the values, as range, boolean and string messages have no room for
+	 * more. The timestamp and sequence number of the frame are not sent, so
+	 * receivers cannot tell which values were read together. Combined
+	 * messages (see {@link #enableCombinedFrames(String)}) carry the
+	 * timestamp.
+	 * 
+	 * @param channels The publishers of the channels, in channel order
+	 */
+	public synchronized void setChannels(Publisher... channels)
+	{
+		String[] names = new String[channels.length];
+		String[] types = new String[channels.length];
+
+		for (int i = 0; i < channels.length; i++)
+		{
+			names[i] = channels[i].getName();
+			types[i] = getType(channels[i]);
+
+			if (!hasPublisher(names[i], types[i]))
+			{
+				addPublisher(channels[i]);
+			}
+		}
+
+		this.channels = channels.clone();
+		this.channelNames = names;
+		this.channelTypes = types;
+
+		framePool.clear();
+	}
+
+	/**
+	 * Publishes frames as a single message of the custom type
+	 * {@link DoubleVectorCodec#TYPE} instead of one message per channel, which
+	 * cuts the overhead per message. The vector holds the timestamp of the
+	 * frame in milliseconds since the epoch, followed by the values of the
+	 * channels.
+	 * 
+	 * @param name The name of the publisher of the combined messages
+	 */
+	public synchronized void enableCombinedFrames(String name)
+	{
+		if (framePublisher == null || !framePublisher.getName().equals(name))
+		{
+			framePublisher = new TypedPublisher<double[]>(name, new DoubleVectorCodec(), new double[0], client);
+		}
+	}
+
+	/**
+	 * Publishes frames as one message per channel again.
+	 */
+	public synchronized void disableCombinedFrames()
+	{
+		framePublisher = null;
+	}
+
+	/**
+	 * Takes a frame from the pool for the next reading, stamped with the
+	 * current time. The frame has to be passed to
+	 * {@link #publishFrame(SensorFrame)} or {@link #releaseFrame(SensorFrame)}.
+	 * 
+	 * @return A frame with one channel per publisher given to
+	 *         {@link #setChannels(Publisher...)}
+	 */
+	public SensorFrame acquireFrame()
+	{
+		SensorFrame frame = framePool.poll();
+
+		if (frame == null)
+		{
+			frame = new SensorFrame(channelNames.length);
+		}
+
+		frame.reset(System.currentTimeMillis(), frameSequence.incrementAndGet());
+		return frame;
+	}
+
+	/**
+	 * Returns a frame to the pool without publishing it.
+	 * 
+	 * @param frame The frame, must not be used afterwards
+	 */
+	public void releaseFrame(SensorFrame frame)
+	{
+		if (frame.getChannelCount() == channelNames.length)
+		{
+			framePool.offer(frame);
+		}
+	}
+
+	/**
+	 * Publishes all channels of a frame at once and returns the frame to the
+	 * pool. The channel messages are sent as one batch in a single outbound
+	 * flush (see {@link SpacebrewClient#publishBatch(String[], String[], CharSequence[], int)}),
+	 * or as a single combined message if enabled. Range channels are mapped
+	 * and limited like {@link RangePublisher} does, boolean channels are true
+	 * for values other than 0. Filters of the publishers are not applied,
+	 * since they would break up the frame. Only combined messages carry the
+	 * timestamp of the frame, see {@link #setChannels(Publisher...)}.
+	 * 
+	 * @param frame The frame, must not be used afterwards
+	 */
+	public void publishFrame(SensorFrame frame)
+	{
+		TypedPublisher<double[]> combined = framePublisher;
+
+		if (combined != null)
+		{
+			frame.combined[0] = frame.getTimestamp();
+
+			for (int i = 0; i < frame.getChannelCount(); i++)
+			{
+				frame.combined[i + 1] = frame.get(i);
+			}
+
+			combined.publish(frame.combined);
+		}
+		else
+		{
+			Publisher[] publishers = channels;
+			int count = Math.min(publishers.length, frame.getChannelCount());
+
+			for (int i = 0; i < count; i++)
+			{
+				frame.encoded[i] = encode(publishers[i], frame.get(i));
+			}
+
+			client.publishBatch(channelNames, channelTypes, frame.encoded, count);
+
+			for (int i = 0; i < count; i++)
+			{
+				frame.encoded[i] = null;
+			}
+		}
+
+		releaseFrame(frame);
+	}
+
+	/**
+	 * Encodes the value of a channel for its publisher.
+	 * 
+	 * @param publisher The publisher of the channel
+	 * @param value The value of the channel
+	 * @return The encoded value
+	 */
+	private static String encode(Publisher publisher, double value)
+	{
+		if (publisher instanceof RangePublisher)
+		{
+			RangePublisher range = (RangePublisher) publisher;
+			float rangeValue = (float) value;
+
+			if (range.getMinValue() != range.getMaxValue())
+			{
+				rangeValue = range.rangeify(rangeValue);
+			}
+
+			int limited = Math.max(RangePublisher.MIN_RANGE_VALUE,
+					Math.min(RangePublisher.MAX_RANGE_VALUE, (int) rangeValue));
+
+			return Integer.toString(limited);
+		}
+		else if (publisher instanceof BooleanPublisher)
+		{
+			return Boolean.toString(value != 0);
+		}
+		else
+		{
+			return Double.toString(value);
+		}
+	}
+
 	/**
 	 * Infers the type of a given publisher.
 	 * 
 	 * @param publisher The publisher to infer the type from
 	 * @return The type of the publisher (i.e.
 	 *         {@code SpacebrewMessage.TYPE_BOOLEAN},
-	 *         {@code SpacebrewMessage.TYPE_RANGE} or
-	 *         {@code SpacebrewMessage.TYPE_STRING})
+	 *         {@code SpacebrewMessage.TYPE_RANGE},
+	 *         {@code SpacebrewMessage.TYPE_STRING} or a custom type)
 	 */
 	private String getType(Publisher publisher)
 	{
-		if (publisher instanceof BooleanPublisher)
+		if (publisher.getType() != null)
+		{
+			return publisher.getType();
+		}
+		else if (publisher instanceof BooleanPublisher)
 		{
 			return SpacebrewMessage.TYPE_BOOLEAN;
 		}
 		else if (publisher instanceof RangePublisher)
 		{
-			return SpacebrewMessage.TYPE_BOOLEAN;
+			return SpacebrewMessage.TYPE_RANGE;
 		}
 		else
 		{
-			return SpacebrewMessage.TYPE_BOOLEAN;
+			return SpacebrewMessage.TYPE_STRING;
+		}
+	}
+
+	/**
+	 * @param name The name of the publisher
+	 * @param type The type of the publisher
+	 * @return True if this sensor offers the publisher
+	 */
+	public boolean hasPublisher(String name, String type)
+	{
+		HashMap<String, Publisher> types = publishers.get(name);
+		return types != null && types.containsKey(type);
+	}
+
+	/**
+	 * @return True if at least one publisher of this sensor is routed to a
+	 *         subscriber, as far as known to its client (see
+	 *         {@link SpacebrewClient#setRouteTracking(boolean)})
+	 */
+	public boolean isRouted()
+	{
+		for (HashMap<String, Publisher> types : publishers.values())
+		{
+			for (Publisher publisher : types.values())
+			{
+				SpacebrewClient publisherClient = publisher.getClient() != null ? publisher.getClient() : client;
+
+				if (publisherClient != null
+						&& publisherClient.getRouteCount(publisher.getName(), getType(publisher)) > 0)
+				{
+					return true;
+				}
+			}
 		}
+
+		return false;
 	}
 
 	/**
@@ -178,6 +451,111 @@ public abstract class SpacebrewSensor
 		return name;
 	}
 
+	/**
+	 * @return The client through which messages are published
+	 */
+	public SpacebrewClient getClient()
+	{
+		return client;
+	}
+
+	/**
+	 * Sets the range in which the sample rate of this sensor is adapted to
+	 * the load of the client (see {@link SampleRateController}). The sample
+	 * rate starts at the highest rate.
+	 * 
+	 * @param minSampleRate The lowest sample rate in samples per second
+	 * @param maxSampleRate The highest sample rate in samples per second
+	 */
+	public void setSampleRateRange(double minSampleRate, double maxSampleRate)
+	{
+		if (minSampleRate <= 0 || maxSampleRate < minSampleRate)
+		{
+			throw new IllegalArgumentException("Invalid sample rate range: " + minSampleRate + " - " + maxSampleRate);
+		}
+
+		this.minSampleRate = minSampleRate;
+		this.maxSampleRate = maxSampleRate;
+
+		adjustSampleRate(maxSampleRate);
+	}
+
+	/**
+	 * @return The lowest sample rate in samples per second, 0 if the sample
+	 *         rate is not adapted
+	 */
+	public double getMinSampleRate()
+	{
+		return minSampleRate;
+	}
+
+	/**
+	 * @return The highest sample rate in samples per second, 0 if the sample
+	 *         rate is not adapted
+	 */
+	public double getMaxSampleRate()
+	{
+		return maxSampleRate;
+	}
+
+	/**
+	 * Returns the sample rate the sensor should currently sample at.
+	 * Implementations read it before taking the next sample or override
+	 * {@link #onSampleRateChanged(double)} to reconfigure the hardware.
+	 * 
+	 * @return The sample rate in samples per second, 0 if the sample rate is
+	 *         not adapted
+	 */
+	public double getSampleRate()
+	{
+		return Double.longBitsToDouble(sampleRate.get());
+	}
+
+	/**
+	 * @return The time between two samples in milliseconds at the current
+	 *         sample rate, 0 if the sample rate is not adapted
+	 */
+	public long getSampleInterval()
+	{
+		double rate = getSampleRate();
+		return rate > 0 ? Math.round(1000 / rate) : 0;
+	}
+
+	/**
+	 * Sets the sample rate, limited to the sample rate range. Takes no lock,
+	 * so {@link #onSampleRateChanged(double)} is called without holding the
+	 * monitor of the sensor.
+	 * 
+	 * @param rate The new sample rate in samples per second
+	 */
+	void adjustSampleRate(double rate)
+	{
+		double max = maxSampleRate;
+
+		if (max <= 0)
+		{
+			return;
+		}
+
+		double limited = Math.max(minSampleRate, Math.min(max, rate));
+		long bits = Double.doubleToLongBits(limited);
+
+		if (sampleRate.getAndSet(bits) != bits)
+		{
+			onSampleRateChanged(limited);
+		}
+	}
+
+	/**
+	 * Called when the sample rate has been changed, without any lock held.
+	 * Does nothing by default.
+	 * 
+	 * @param sampleRate The new sample rate in samples per second
+	 */
+	protected void onSampleRateChanged(double sampleRate)
+	{
+	}
+
 	/**
 	 * @return True if the sensor is active (i.e. currently sending data).
 	 */
@@ -189,7 +567,7 @@ public abstract class SpacebrewSensor
 	/**
 	 * Activates the sensor to start sending data.
 	 */
-	public final void activate()
+	public final synchronized void activate()
 	{
 		if (available && enabled && !active)
 		{
@@ -201,7 +579,7 @@ public abstract class SpacebrewSensor
 	/**
 	 * Deactivates the sensor and stops sending data.
 	 */
-	public final void deactivate()
+	public final synchronized void deactivate()
 	{
 		if (active)
 		{
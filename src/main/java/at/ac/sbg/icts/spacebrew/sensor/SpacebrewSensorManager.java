@@ -10,56 +10,377 @@
  ******************************************************************************/
 package at.ac.sbg.icts.spacebrew.sensor;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import at.ac.sbg.icts.spacebrew.client.RouteListener;
+import at.ac.sbg.icts.spacebrew.client.SpacebrewClient;
+import at.ac.sbg.icts.spacebrew.client.SpacebrewRoute;
 
 /**
  * Collects <link>SpacebrewSensor</link> instances to activate and deactivate
- * them at the same time.
+ * them at the same time. Sensors are activated and deactivated in parallel on
+ * a bounded pool of threads, each sensor has to finish within a timeout.
  * 
  * @author Axel Baumgartner
  */
 public abstract class SpacebrewSensorManager
 {
+	/**
+	 * The default number of sensors activated or deactivated at the same time.
+	 */
+	public static final int											DEFAULT_PARALLELISM		= 8;
+
+	/**
+	 * The default time in milliseconds a sensor stays active after the last
+	 * route of its publishers has been removed.
+	 */
+	public static final long										DEFAULT_GRACE_PERIOD	= 30000;
+
+	/**
+	 * The default time in milliseconds a sensor may take to activate or
+	 * deactivate.
+	 */
+	public static final long										DEFAULT_TIMEOUT			= 5000;
+
+	/**
+	 * Numbers the threads of all managers.
+	 */
+	private static final AtomicInteger								threadNumber			= new AtomicInteger();
+
+	/**
+	 * Provides logging facilities.
+	 */
+	private final Logger											log						= LoggerFactory.getLogger(SpacebrewSensorManager.class);
+
 	/**
 	 * Holds all sensors
 	 */
-	protected HashMap<String, SpacebrewSensor>	sensors	= new HashMap<String, SpacebrewSensor>();
+	protected HashMap<String, SpacebrewSensor>						sensors					= new HashMap<String, SpacebrewSensor>();
 
 	/**
-	 * True if all sensor are active.
+	 * Holds the result of the last activation or deactivation of every sensor
+	 * (name, result).
 	 */
-	private boolean								active	= false;
+	private final ConcurrentHashMap<String, SensorResult>			results					= new ConcurrentHashMap<String, SensorResult>();
 
 	/**
-	 * Activates all sensors.
+	 * The number of sensors activated or deactivated at the same time.
 	 */
-	public void activate()
+	private int														parallelism				= DEFAULT_PARALLELISM;
+
+	/**
+	 * The time in milliseconds a sensor may take to activate or deactivate.
+	 */
+	private long													timeout					= DEFAULT_TIMEOUT;
+
+	/**
+	 * Adapts the sample rates of the sensors, one controller per client
+	 * (client, controller).
+	 */
+	private final HashMap<SpacebrewClient, SampleRateController>	controllers				= new HashMap<SpacebrewClient, SampleRateController>();
+
+	/**
+	 * True if sensors are activated and deactivated depending on the routes
+	 * of their publishers.
+	 */
+	private boolean													demandDriven			= false;
+
+	/**
+	 * The time in milliseconds a sensor stays active after the last route of
+	 * its publishers has been removed.
+	 */
+	private long													gracePeriod				= DEFAULT_GRACE_PERIOD;
+
+	/**
+	 * Observe the routes of the clients of the sensors while sensors are
+	 * activated on demand (client, listener).
+	 */
+	private final HashMap<SpacebrewClient, DemandListener>			demandListeners			= new HashMap<SpacebrewClient, DemandListener>();
+
+	/**
+	 * The deactivations scheduled after the grace period (sensor,
+	 * deactivation).
+	 */
+	private final HashMap<SpacebrewSensor, ScheduledFuture<?>>		pendingDeactivations	= new HashMap<SpacebrewSensor, ScheduledFuture<?>>();
+
+	/**
+	 * Activates and deactivates the sensors, created on first use.
+	 */
+	private ThreadPoolExecutor										executor;
+
+	/**
+	 * Times out activations and deactivations, created on first use.
+	 */
+	private ScheduledThreadPoolExecutor								watchdog;
+
+	/**
+	 * Activates all sensors in parallel and waits until every sensor is
+	 * activated, failed or timed out.
+	 * 
+	 * @return The result per sensor (name, result)
+	 */
+	public HashMap<String, SensorResult> activate()
+	{
+		return transition(true);
+	}
+
+	/**
+	 * Deactivates all sensors in parallel and waits until every sensor is
+	 * deactivated, failed or timed out.
+	 * 
+	 * @return The result per sensor (name, result)
+	 */
+	public HashMap<String, SensorResult> deactivate()
 	{
+		return transition(false);
+	}
+
+	/**
+	 * @return True if at least one sensor is available and enabled and all
+	 *         available and enabled sensors are active
+	 */
+	public boolean activated()
+	{
+		boolean any = false;
+
 		for (SpacebrewSensor sensor : sensors.values())
 		{
-			sensor.activate();
+			if (sensor.isAvailable() && sensor.isEnabled())
+			{
+				if (!sensor.isActive())
+				{
+					return false;
+				}
+
+				any = true;
+			}
 		}
-		active = true;
+
+		return any;
 	}
 
 	/**
-	 * Deactivates all sensors.
+	 * Starts adapting the sample rates of all sensors with a sample rate range
+	 * to the load of their clients, one {@link SampleRateController} per
+	 * client. Sensors added later are included when this method is called
+	 * again.
 	 */
-	public void deactivate()
+	public synchronized void enableAdaptiveSampling()
 	{
 		for (SpacebrewSensor sensor : sensors.values())
 		{
-			sensor.deactivate();
+			SpacebrewClient client = sensor.getClient();
+
+			if (client == null || sensor.getMaxSampleRate() <= 0)
+			{
+				continue;
+			}
+
+			SampleRateController controller = controllers.get(client);
+
+			if (controller == null)
+			{
+				controller = new SampleRateController(client);
+				controllers.put(client, controller);
+			}
+
+			controller.addSensor(sensor);
+		}
+
+		for (SampleRateController controller : controllers.values())
+		{
+			controller.start();
 		}
-		active = false;
 	}
 
 	/**
-	 * @return true if the sensors are activated
+	 * Stops adapting the sample rates of the sensors, they stay as they are.
 	 */
-	public boolean activated()
+	public synchronized void disableAdaptiveSampling()
+	{
+		for (SampleRateController controller : controllers.values())
+		{
+			controller.stop();
+		}
+
+		controllers.clear();
+	}
+
+	/**
+	 * @param client The client
+	 * @return The controller adapting the sample rates of the sensors
+	 *         publishing through the client, null if adaptive sampling is not
+	 *         enabled for it
+	 */
+	public synchronized SampleRateController getSampleRateController(SpacebrewClient client)
+	{
+		return controllers.get(client);
+	}
+
+	/**
+	 * Activates sensors only while at least one of their publishers is routed
+	 * to a subscriber. A sensor is activated when the first route of its
+	 * publishers appears and deactivated when the last route has been gone
+	 * for the grace period, so short reconnects of subscribers do not restart
+	 * the hardware. Enables route tracking on the clients of the sensors (see
+	 * {@link SpacebrewClient#setRouteTracking(boolean)}). Sensors added later
+	 * are included when this method is called again.
+	 * 
+	 * @param gracePeriod The time in milliseconds a sensor stays active after
+	 *            the last route of its publishers has been removed
+	 */
+	public synchronized void enableDemandDrivenActivation(long gracePeriod)
+	{
+		this.gracePeriod = Math.max(0, gracePeriod);
+		this.demandDriven = true;
+
+		for (SpacebrewSensor sensor : sensors.values())
+		{
+			SpacebrewClient client = sensor.getClient();
+
+			if (client != null && !demandListeners.containsKey(client))
+			{
+				DemandListener listener = new DemandListener(client);
+				demandListeners.put(client, listener);
+				client.addRouteListener(listener);
+				client.setRouteTracking(true);
+			}
+		}
+
+		for (SpacebrewSensor sensor : sensors.values())
+		{
+			updateDemand(sensor);
+		}
+	}
+
+	/**
+	 * Stops activating and deactivating sensors depending on the routes of
+	 * their publishers, the sensors stay as they are. Route tracking stays
+	 * enabled on the clients.
+	 */
+	public synchronized void disableDemandDrivenActivation()
+	{
+		demandDriven = false;
+
+		for (DemandListener listener : demandListeners.values())
+		{
+			listener.client.removeRouteListener(listener);
+		}
+
+		demandListeners.clear();
+
+		for (ScheduledFuture<?> deactivation : pendingDeactivations.values())
+		{
+			deactivation.cancel(false);
+		}
+
+		pendingDeactivations.clear();
+	}
+
+	/**
+	 * @return True if sensors are activated and deactivated depending on the
+	 *         routes of their publishers
+	 */
+	public synchronized boolean isDemandDriven()
+	{
+		return demandDriven;
+	}
+
+	/**
+	 * @return The time in milliseconds a sensor stays active after the last
+	 *         route of its publishers has been removed
+	 */
+	public synchronized long getGracePeriod()
+	{
+		return gracePeriod;
+	}
+
+	/**
+	 * @param name The name of the sensor
+	 * @return The result of the last activation or deactivation of the
+	 *         sensor, null if it has not been activated or deactivated yet
+	 */
+	public SensorResult getResult(String name)
+	{
+		return results.get(name);
+	}
+
+	/**
+	 * @return The results of the last activation or deactivation of all
+	 *         sensors (name, result)
+	 */
+	public HashMap<String, SensorResult> getResults()
 	{
-		return this.active;
+		return new HashMap<String, SensorResult>(results);
+	}
+
+	/**
+	 * Sets the number of sensors activated or deactivated at the same time.
+	 * 
+	 * @param parallelism The number of threads, at least 1
+	 */
+	public synchronized void setParallelism(int parallelism)
+	{
+		this.parallelism = Math.max(1, parallelism);
+
+		if (executor != null)
+		{
+			if (this.parallelism > executor.getMaximumPoolSize())
+			{
+				executor.setMaximumPoolSize(this.parallelism);
+				executor.setCorePoolSize(this.parallelism);
+			}
+			else
+			{
+				executor.setCorePoolSize(this.parallelism);
+				executor.setMaximumPoolSize(this.parallelism);
+			}
+		}
+	}
+
+	/**
+	 * @return The number of sensors activated or deactivated at the same time
+	 */
+	public synchronized int getParallelism()
+	{
+		return parallelism;
+	}
+
+	/**
+	 * Sets the time a sensor may take to activate or deactivate. The time is
+	 * measured from the moment the sensor is started, not from the moment it
+	 * is queued. When the time is up the thread running the sensor is
+	 * interrupted.
+	 * 
+	 * @param timeout The timeout in milliseconds
+	 */
+	public void setTimeout(long timeout)
+	{
+		this.timeout = timeout;
+	}
+
+	/**
+	 * @return The time in milliseconds a sensor may take to activate or
+	 *         deactivate
+	 */
+	public long getTimeout()
+	{
+		return timeout;
 	}
 
 	/**
@@ -78,4 +399,347 @@ public abstract class SpacebrewSensorManager
 	{
 		return sensors.get(name);
 	}
+
+	/**
+	 * Activates or deactivates all sensors in parallel.
+	 * 
+	 * @param activate True to activate, false to deactivate the sensors
+	 * @return The result per sensor (name, result)
+	 */
+	private HashMap<String, SensorResult> transition(boolean activate)
+	{
+		List<SpacebrewSensor> list = new ArrayList<SpacebrewSensor>(sensors.values());
+		CountDownLatch done = new CountDownLatch(list.size());
+		List<Transition> transitions = new ArrayList<Transition>(list.size());
+
+		for (SpacebrewSensor sensor : list)
+		{
+			Transition transition = new Transition(sensor, activate, false, done);
+			transitions.add(transition);
+			getExecutor().execute(transition);
+		}
+
+		try
+		{
+			done.await();
+		}
+		catch (InterruptedException e)
+		{
+			log.warn("Interrupted while waiting for sensors to {}!", activate ? "activate" : "deactivate");
+			Thread.currentThread().interrupt();
+		}
+
+		HashMap<String, SensorResult> transitionResults = new HashMap<String, SensorResult>();
+
+		for (Transition transition : transitions)
+		{
+			SensorResult result = transition.result;
+
+			if (result != null)
+			{
+				transitionResults.put(transition.sensor.getName(), result);
+			}
+		}
+
+		return transitionResults;
+	}
+
+	/**
+	 * Activates a sensor whose publishers are routed and schedules the
+	 * deactivation of a sensor whose publishers are not routed anymore.
+	 * 
+	 * @param sensor The sensor
+	 */
+	private synchronized void updateDemand(final SpacebrewSensor sensor)
+	{
+		if (!demandDriven)
+		{
+			return;
+		}
+
+		ScheduledFuture<?> deactivation = pendingDeactivations.get(sensor);
+
+		if (sensor.isRouted())
+		{
+			if (deactivation != null)
+			{
+				deactivation.cancel(false);
+				pendingDeactivations.remove(sensor);
+			}
+
+			if (!sensor.isActive())
+			{
+				getExecutor().execute(new Transition(sensor, true, true, null));
+			}
+		}
+		else if (deactivation == null)
+		{
+			// scheduled even if the sensor is not active yet, its activation
+			// may still be running
+			pendingDeactivations.put(sensor, getWatchdog().schedule(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					expire(sensor);
+				}
+			}, gracePeriod, TimeUnit.MILLISECONDS));
+		}
+	}
+
+	/**
+	 * Deactivates a sensor once the grace period is over.
+	 * 
+	 * @param sensor The sensor
+	 */
+	private synchronized void expire(SpacebrewSensor sensor)
+	{
+		pendingDeactivations.remove(sensor);
+
+		if (demandDriven && !sensor.isRouted() && sensor.isActive())
+		{
+			getExecutor().execute(new Transition(sensor, false, true, null));
+		}
+	}
+
+	/**
+	 * @return The executor activating and deactivating the sensors
+	 */
+	private synchronized ThreadPoolExecutor getExecutor()
+	{
+		if (executor == null)
+		{
+			executor = new ThreadPoolExecutor(parallelism, parallelism, 30, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), createThreadFactory());
+			executor.allowCoreThreadTimeOut(true);
+		}
+
+		return executor;
+	}
+
+	/**
+	 * @return The executor timing out activations and deactivations
+	 */
+	private synchronized ScheduledThreadPoolExecutor getWatchdog()
+	{
+		if (watchdog == null)
+		{
+			watchdog = new ScheduledThreadPoolExecutor(1, createThreadFactory());
+			watchdog.setRemoveOnCancelPolicy(true);
+			watchdog.setKeepAliveTime(30, TimeUnit.SECONDS);
+			watchdog.allowCoreThreadTimeOut(true);
+		}
+
+		return watchdog;
+	}
+
+	private static ThreadFactory createThreadFactory()
+	{
+		return new ThreadFactory()
+		{
+			@Override
+			public Thread newThread(Runnable runnable)
+			{
+				Thread thread = new Thread(runnable, "SpacebrewSensorManager-" + threadNumber.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	/**
+	 * Activates and deactivates the sensors of one client when the routes of
+	 * their publishers change.
+	 */
+	private class DemandListener implements RouteListener
+	{
+		/**
+		 * The client whose routes are observed.
+		 */
+		private final SpacebrewClient	client;
+
+		DemandListener(SpacebrewClient client)
+		{
+			this.client = client;
+		}
+
+		@Override
+		public void onRouteAdded(SpacebrewRoute route)
+		{
+			update(route);
+		}
+
+		@Override
+		public void onRouteRemoved(SpacebrewRoute route)
+		{
+			update(route);
+		}
+
+		private void update(SpacebrewRoute route)
+		{
+			if (!route.getPublisherClientName().equals(client.getName()))
+			{
+				return;
+			}
+
+			for (SpacebrewSensor sensor : sensors.values())
+			{
+				if (sensor.getClient() == client && sensor.hasPublisher(route.getPublisherName(), route.getType()))
+				{
+					updateDemand(sensor);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Activates or deactivates a single sensor and reports the result exactly
+	 * once, either when the sensor is done or when the timeout is up.
+	 */
+	private class Transition implements Runnable
+	{
+		/**
+		 * The sensor to activate or deactivate.
+		 */
+		private final SpacebrewSensor	sensor;
+
+		/**
+		 * True to activate, false to deactivate the sensor.
+		 */
+		private final boolean			activate;
+
+		/**
+		 * True if the transition depends on the routes of the publishers of
+		 * the sensor and is skipped if they changed in the meantime.
+		 */
+		private final boolean			onDemand;
+
+		/**
+		 * Counted down when the result has been reported, null if nobody
+		 * waits for it.
+		 */
+		private final CountDownLatch	done;
+
+		/**
+		 * True once the result has been reported.
+		 */
+		private final AtomicBoolean		finished	= new AtomicBoolean();
+
+		/**
+		 * The reported result.
+		 */
+		private volatile SensorResult	result;
+
+		/**
+		 * The thread running the sensor, null if it is not running.
+		 */
+		private Thread					thread;
+
+		Transition(SpacebrewSensor sensor, boolean activate, boolean onDemand, CountDownLatch done)
+		{
+			this.sensor = sensor;
+			this.activate = activate;
+			this.onDemand = onDemand;
+			this.done = done;
+		}
+
+		@Override
+		public void run()
+		{
+			synchronized (this)
+			{
+				thread = Thread.currentThread();
+			}
+
+			ScheduledFuture<?> timer = getWatchdog().schedule(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					timeout();
+				}
+			}, timeout, TimeUnit.MILLISECONDS);
+
+			SensorResult outcome;
+
+			try
+			{
+				if (onDemand && sensor.isRouted() != activate)
+				{
+					outcome = SensorResult.SKIPPED;
+				}
+				else if (activate)
+				{
+					boolean wasActive = sensor.isActive();
+					sensor.activate();
+					outcome = sensor.isActive() && !wasActive ? SensorResult.ACTIVATED : SensorResult.SKIPPED;
+				}
+				else
+				{
+					boolean wasActive = sensor.isActive();
+					sensor.deactivate();
+					outcome = wasActive && !sensor.isActive() ? SensorResult.DEACTIVATED : SensorResult.SKIPPED;
+				}
+			}
+			catch (Exception e)
+			{
+				log.error("Could not {} sensor \"{}\"!", activate ? "activate" : "deactivate", sensor.getName());
+				log.debug("Exception: {}", e);
+				outcome = SensorResult.FAILED;
+			}
+
+			timer.cancel(false);
+
+			synchronized (this)
+			{
+				thread = null;
+				Thread.interrupted();
+			}
+
+			finish(outcome);
+		}
+
+		/**
+		 * Called by the watchdog when the timeout is up.
+		 */
+		private void timeout()
+		{
+			if (finish(SensorResult.TIMED_OUT))
+			{
+				log.warn("Sensor \"{}\" did not {} within {} ms!", sensor.getName(),
+						activate ? "activate" : "deactivate", timeout);
+
+				synchronized (this)
+				{
+					if (thread != null)
+					{
+						thread.interrupt();
+					}
+				}
+			}
+		}
+
+		/**
+		 * @param outcome The result to report
+		 * @return True if the result has been reported, false if a result had
+		 *         already been reported
+		 */
+		private boolean finish(SensorResult outcome)
+		{
+			if (finished.compareAndSet(false, true))
+			{
+				result = outcome;
+				results.put(sensor.getName(), outcome);
+
+				if (done != null)
+				{
+					done.countDown();
+				}
+
+				return true;
+			}
+
+			return false;
+		}
+	}
 }
@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.sensor;
+
+import at.ac.sbg.icts.spacebrew.client.SpacebrewClient;
+
+/**
+ * A synthetic sensor publishing a square wave that steps between 0 and 1,
+ * e.g. to mimic switches or presence detectors. The channels step one
+ * after another.
+ * 
+ * @author Axel Baumgartner
+ */
+public class StepSensor extends SyntheticSensor
+{
+	/**
+	 * The time between two steps in seconds.
+	 */
+	private volatile double	period;
+
+	/**
+	 * @param client The client through which messages are published
+	 * @param name The name of the sensor
+	 * @param channelCount The number of channels
+	 * @param rate The sample rate in samples per second
+	 * @param payloadSize The minimum length of a value in characters
+	 * @param period The time between two steps in seconds
+	 */
+	public StepSensor(SpacebrewClient client, String name, int channelCount, double rate, int payloadSize,
+			double period)
+	{
+		super(client, name, channelCount, rate, payloadSize);
+		setPeriod(period);
+	}
+
+	/**
+	 * @param period The time between two steps in seconds
+	 */
+	public void setPeriod(double period)
+	{
+		if (!(period > 0))
+		{
+			throw new IllegalArgumentException("Invalid period: " + period);
+		}
+
+		this.period = period;
+	}
+
+	/**
+	 * @return The time between two steps in seconds
+	 */
+	public double getPeriod()
+	{
+		return period;
+	}
+
+	@Override
+	protected double sample(int channel, long tick, double seconds)
+	{
+		double shifted = seconds / period + (double) channel / getChannelCount();
+		return (long) shifted % 2 == 0 ? 0 : 1;
+	}
+}
@@ -0,0 +1,450 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+package at.ac.sbg.icts.spacebrew.sensor;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import at.ac.sbg.icts.spacebrew.client.SpacebrewClient;
+import at.ac.sbg.icts.spacebrew.client.SpacebrewMessage;
+import at.ac.sbg.icts.spacebrew.client.publisher.StringPublisher;
+
+/**
+ * Base class of sensors generating synthetic data for capacity tests, so the
+ * number of publishers and rates a client can sustain can be measured
+ * without hardware. Every sample holds one value per channel, which are
+ * published as one batch on string publishers named
+ * {@code <sensor name>-<channel>}. Each value is encoded as
+ * {@code <sequence>:<nanos>:<value>}, followed by spaces up to the payload
+ * size, so receivers can detect lost messages by gaps in the sequence and
+ * measure the latency from the time stamp (see {@link #parseSequence(String)}
+ * and {@link #parseNanos(String)}).
+ * <p/>
+ * Samples are taken at the configured sample rate, or at the adapted sample
+ * rate if a sample rate range has been set. A sample is dropped instead of
+ * published while the client is not connected or its outbound queue is
+ * full, or if the sensor fell behind by more than one sample interval. The
+ * time stamp is the time the sample was due, not the time it was published,
+ * so delays of the sampling thread are part of the latency.
+ * 
+ * @author Axel Baumgartner
+ */
+public abstract class SyntheticSensor extends SpacebrewSensor
+{
+	/**
+	 * Separates the fields of a value.
+	 */
+	public static final char			SEPARATOR	= ':';
+
+	/**
+	 * The number of channels.
+	 */
+	private final int					channelCount;
+
+	/**
+	 * The names of the publishers of the channels.
+	 */
+	private final String[]				names;
+
+	/**
+	 * The types of the publishers of the channels.
+	 */
+	private final String[]				types;
+
+	/**
+	 * The values of the current sample, only used by the sampling thread.
+	 */
+	private final CharSequence[]		values;
+
+	/**
+	 * The sample rate in samples per second if the sample rate is not
+	 * adapted.
+	 */
+	private volatile double				rate;
+
+	/**
+	 * The minimum length of a value in characters.
+	 */
+	private volatile int				payloadSize;
+
+	/**
+	 * The number of published samples.
+	 */
+	private final AtomicLong			published	= new AtomicLong();
+
+	/**
+	 * The number of dropped samples.
+	 */
+	private final AtomicLong			dropped		= new AtomicLong();
+
+	/**
+	 * The sequence number of the last published sample.
+	 */
+	private long						sequence	= 0;
+
+	/**
+	 * The thread taking the samples, null if the sensor is not active.
+	 */
+	private Thread						thread;
+
+	/**
+	 * Adds one string publisher per channel to the client. The sensor is
+	 * available right away.
+	 * 
+	 * @param client The client through which messages are published
+	 * @param name The name of the sensor
+	 * @param channelCount The number of channels
+	 * @param rate The sample rate in samples per second
+	 * @param payloadSize The minimum length of a value in characters
+	 */
+	public SyntheticSensor(SpacebrewClient client, String name, int channelCount, double rate, int payloadSize)
+	{
+		super(client, name);
+
+		if (channelCount < 1)
+		{
+			throw new IllegalArgumentException("Invalid channel count: " + channelCount);
+		}
+
+		this.channelCount = channelCount;
+		this.names = new String[channelCount];
+		this.types = new String[channelCount];
+		this.values = new CharSequence[channelCount];
+
+		setRate(rate);
+		setPayloadSize(payloadSize);
+
+		for (int i = 0; i < channelCount; i++)
+		{
+			names[i] = name + "-" + i;
+			types[i] = SpacebrewMessage.TYPE_STRING;
+			addPublisher(new StringPublisher(names[i], "", client));
+		}
+
+		available = true;
+	}
+
+	/**
+	 * @return The number of channels
+	 */
+	public int getChannelCount()
+	{
+		return channelCount;
+	}
+
+	/**
+	 * @param channel The index of a channel
+	 * @return The name of the publisher of the channel
+	 */
+	public String getChannelName(int channel)
+	{
+		return names[channel];
+	}
+
+	/**
+	 * Sets the sample rate used if the sample rate is not adapted, takes
+	 * effect with the next sample.
+	 * 
+	 * @param rate The sample rate in samples per second
+	 */
+	public void setRate(double rate)
+	{
+		if (!(rate > 0))
+		{
+			throw new IllegalArgumentException("Invalid rate: " + rate);
+		}
+
+		this.rate = rate;
+	}
+
+	/**
+	 * @return The sample rate in samples per second used if the sample rate
+	 *         is not adapted
+	 */
+	public double getRate()
+	{
+		return rate;
+	}
+
+	/**
+	 * @param payloadSize The minimum length of a value in characters, values
+	 *            are padded with spaces
+	 */
+	public void setPayloadSize(int payloadSize)
+	{
+		this.payloadSize = Math.max(0, payloadSize);
+	}
+
+	/**
+	 * @return The minimum length of a value in characters
+	 */
+	public int getPayloadSize()
+	{
+		return payloadSize;
+	}
+
+	/**
+	 * @return The number of published samples
+	 */
+	public long getPublished()
+	{
+		return published.get();
+	}
+
+	/**
+	 * @return The number of samples dropped because the client was not
+	 *         connected, the outbound queue was full or the sensor fell behind
+	 */
+	public long getDropped()
+	{
+		return dropped.get();
+	}
+
+	/**
+	 * Starts sampling.
+	 */
+	@Override
+	public synchronized void onActivate()
+	{
+		thread = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				generate();
+			}
+		}, "SyntheticSensor-" + getName());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops sampling and waits for the sampling thread to end.
+	 */
+	@Override
+	public synchronized void onDeactivate()
+	{
+		if (thread != null)
+		{
+			thread.interrupt();
+
+			try
+			{
+				thread.join();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+
+			thread = null;
+		}
+	}
+
+	/**
+	 * Returns the number of samples to publish at a tick, e.g. more than one
+	 * to generate bursts. Returns 1 by default.
+	 * 
+	 * @param tick The number of the tick, starting at 0
+	 * @return The number of samples to publish back to back
+	 */
+	protected int getSampleCount(long tick)
+	{
+		return 1;
+	}
+
+	/**
+	 * Generates the value of a channel.
+	 * 
+	 * @param channel The index of the channel
+	 * @param tick The number of the tick, starting at 0
+	 * @param seconds The time since the sensor was activated in seconds
+	 * @return The value, usually between 0 and 1
+	 */
+	protected abstract double sample(int channel, long tick, double seconds);
+
+	/**
+	 * Takes samples until the sensor is deactivated.
+	 */
+	private void generate()
+	{
+		long start = System.nanoTime();
+		long due = start;
+		long tick = 0;
+
+		while (!Thread.currentThread().isInterrupted())
+		{
+			double currentRate = getSampleRate() > 0 ? getSampleRate() : rate;
+			long interval = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / currentRate));
+
+			if (!waitUntil(due))
+			{
+				return;
+			}
+
+			long late = System.nanoTime() - due;
+
+			if (late > interval)
+			{
+				// fell behind, skip the samples that are overdue
+				long skipped = late / interval;
+				dropped.addAndGet(skipped);
+				due += skipped * interval;
+				tick += skipped;
+			}
+
+			int count = getSampleCount(tick);
+
+			for (int i = 0; i < count; i++)
+			{
+				if (!client.isConnected() || client.getOutboundQueueRemainingCapacity() == 0)
+				{
+					dropped.incrementAndGet();
+					continue;
+				}
+
+				publish(tick, due, (due - start) / 1e9);
+			}
+
+			due += interval;
+			tick++;
+		}
+	}
+
+	/**
+	 * Publishes the values of all channels as one batch.
+	 * 
+	 * @param tick The number of the tick
+	 * @param due The time the sample was due as given by
+	 *            {@link System#nanoTime()}
+	 * @param seconds The time since the sensor was activated in seconds
+	 */
+	private void publish(long tick, long due, double seconds)
+	{
+		sequence++;
+
+		int size = payloadSize;
+
+		for (int i = 0; i < channelCount; i++)
+		{
+			StringBuilder value = new StringBuilder(Math.max(size, 48));
+			value.append(sequence).append(SEPARATOR).append(due).append(SEPARATOR).append(sample(i, tick, seconds));
+
+			while (value.length() < size)
+			{
+				value.append(' ');
+			}
+
+			values[i] = value;
+		}
+
+		client.publishBatch(names, types, values, channelCount);
+		published.incrementAndGet();
+
+		for (int i = 0; i < channelCount; i++)
+		{
+			values[i] = null;
+		}
+	}
+
+	/**
+	 * @param value A value published by a synthetic sensor
+	 * @return The sequence number of the sample, -1 if the value is invalid
+	 */
+	public static long parseSequence(String value)
+	{
+		int end = value.indexOf(SEPARATOR);
+		return end > 0 ? parse(value, 0, end) : -1;
+	}
+
+	/**
+	 * @param value A value published by a synthetic sensor
+	 * @return The time the sample was due as given by {@link System#nanoTime()}
+	 *         of the publishing JVM, {@code Long.MIN_VALUE} if the value is
+	 *         invalid
+	 */
+	public static long parseNanos(String value)
+	{
+		int start = value.indexOf(SEPARATOR) + 1;
+		int end = start > 0 ? value.indexOf(SEPARATOR, start) : -1;
+
+		if (end <= start)
+		{
+			return Long.MIN_VALUE;
+		}
+
+		boolean negative = value.charAt(start) == '-';
+		long nanos = parse(value, negative ? start + 1 : start, end);
+
+		if (nanos < 0)
+		{
+			return Long.MIN_VALUE;
+		}
+
+		return negative ? -nanos : nanos;
+	}
+
+	/**
+	 * Parses a non-negative decimal number without allocating.
+	 * 
+	 * @param text The text holding the number
+	 * @param start The index of the first digit
+	 * @param end The index after the last digit
+	 * @return The number or -1 if it is invalid
+	 */
+	private static long parse(String text, int start, int end)
+	{
+		if (start >= end || end - start > 18)
+		{
+			return -1;
+		}
+
+		long number = 0;
+
+		for (int i = start; i < end; i++)
+		{
+			char c = text.charAt(i);
+
+			if (c < '0' || c > '9')
+			{
+				return -1;
+			}
+
+			number = number * 10 + (c - '0');
+		}
+
+		return number;
+	}
+
+	/**
+	 * Waits until a point in time.
+	 * 
+	 * @param deadline The point in time as given by {@link System#nanoTime()}
+	 * @return False if the thread has been interrupted
+	 */
+	private static boolean waitUntil(long deadline)
+	{
+		long remaining;
+
+		while ((remaining = deadline - System.nanoTime()) > 0)
+		{
+			LockSupport.parkNanos(remaining);
+
+			if (Thread.currentThread().isInterrupted())
+			{
+				return false;
+			}
+		}
+
+		return !Thread.currentThread().isInterrupted();
+	}
+}
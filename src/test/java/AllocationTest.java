@@ -0,0 +1,478 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner. All rights reserved. This program and
+ * the accompanying materials are made available under the terms of the GNU
+ * Lesser Public License v2.1 which accompanies this distribution, and is
+ * available at http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * Contributors: Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import at.ac.sbg.icts.spacebrew.client.BooleanSubscriber;
+import at.ac.sbg.icts.spacebrew.client.RangeSubscriber;
+import at.ac.sbg.icts.spacebrew.client.SpacebrewClient;
+import at.ac.sbg.icts.spacebrew.client.SpacebrewClientCallback;
+import at.ac.sbg.icts.spacebrew.client.SpacebrewMessage;
+import at.ac.sbg.icts.spacebrew.client.StringSubscriber;
+import at.ac.sbg.icts.spacebrew.client.TypedSubscriber;
+import at.ac.sbg.icts.spacebrew.client.codec.DoubleVectorCodec;
+import at.ac.sbg.icts.spacebrew.client.publisher.BooleanPublisher;
+import at.ac.sbg.icts.spacebrew.client.publisher.DeltaStringPublisher;
+import at.ac.sbg.icts.spacebrew.client.publisher.RangePublisher;
+import at.ac.sbg.icts.spacebrew.client.publisher.StringPublisher;
+import at.ac.sbg.icts.spacebrew.client.publisher.TypedPublisher;
+
+/**
+ * Guards against garbage reintroduced on the per-message paths. Measures the
+ * bytes allocated by the calling thread per operation, with the allocation
+ * counter of the {@link com.sun.management.ThreadMXBean}, and compares them
+ * with a budget per path:
+ * <ul>
+ * <li>Steady-state {@code publish} of every publisher type, connected to a
+ * {@link SpacebrewTestServer}. Only the publishing thread is measured, the
+ * messages are encoded and sent by the sending thread.</li>
+ * <li>Parsing and dispatching an incoming message to every subscriber
+ * type.</li>
+ * <li>The filters of a {@link RangePublisher}, once with values that are
+ * published and once with values the update filter suppresses.</li>
+ * </ul>
+ * Prints one line per path and exits with status 1 if a path exceeds its
+ * budget, so the {@code allocation} Maven profile fails the build:
+ * {@code mvn -P allocation test}. Options:
+ * <ul>
+ * <li>{@code -port <n>} The port of the server on the loopback interface
+ * (default 19014)</li>
+ * </ul>
+ * Budgets are the allocations of the current release plus some headroom for
+ * differences between JIT compilations. Lower them when a path gets cheaper.
+ * 
+ * @author Axel Baumgartner
+ */
+public class AllocationTest implements SpacebrewClientCallback
+{
+	// Operations run before measuring, so the paths are compiled
+	private static final int						WARMUP		= 50000;
+
+	// Operations measured per path
+	private static final int						OPERATIONS	= 100000;
+
+	// Operations after which the outbound queue is drained
+	private static final int						BATCH		= 500;
+
+	private final int								port;
+	private final com.sun.management.ThreadMXBean	threads;
+	private final CountDownLatch					opened		= new CountDownLatch(1);
+	private SpacebrewClient							client;
+	private boolean									failed		= false;
+
+	// Keeps the values received, so dispatching cannot be optimized away
+	private volatile Object							received;
+
+	/**
+	 * Runs the allocation test.
+	 * 
+	 * @param args The options, see above
+	 */
+	public static void main(String args[]) throws Exception
+	{
+		int port = 19014;
+
+		for (int i = 0; i + 1 < args.length; i += 2)
+		{
+			if (args[i].equals("-port"))
+			{
+				port = Integer.parseInt(args[i + 1]);
+			}
+			else
+			{
+				System.err.println("Unknown option: " + args[i]);
+				System.exit(1);
+			}
+		}
+
+		System.exit(new AllocationTest(port).run() ? 0 : 1);
+	}
+
+	public AllocationTest(int port)
+	{
+		this.port = port;
+		this.threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+	}
+
+	/**
+	 * Measures all paths.
+	 * 
+	 * @return True if all paths are within their budget
+	 */
+	public boolean run() throws Exception
+	{
+		if (!threads.isThreadAllocatedMemorySupported())
+		{
+			System.err.println("Allocation counters are not supported by this JVM");
+			return false;
+		}
+
+		threads.setThreadAllocatedMemoryEnabled(true);
+
+		SpacebrewTestServer server = new SpacebrewTestServer(port);
+		server.startAndWait();
+
+		try
+		{
+			client = new SpacebrewClient(this, "ws://127.0.0.1:" + port, "AllocationTest");
+			client.setOutboundQueueCapacity(BATCH * 2);
+
+			final BooleanPublisher booleanPublisher = new BooleanPublisher("boolean", false, client);
+			final RangePublisher rangePublisher = new RangePublisher("range", 0, client);
+			final StringPublisher stringPublisher = new StringPublisher("string", "", client);
+			final DeltaStringPublisher deltaPublisher = new DeltaStringPublisher("delta", "", client);
+			final TypedPublisher<double[]> typedPublisher = new TypedPublisher<double[]>("vector",
+					new DoubleVectorCodec(), null, client);
+
+			final RangePublisher filteredPublisher = new RangePublisher("filtered", 0, client);
+			filteredPublisher.activateLowPassFilter();
+			filteredPublisher.activateUpdateFilter();
+			filteredPublisher.setMinValue(0);
+			filteredPublisher.setMaxValue(100);
+
+			addSubscribers();
+
+			client.connect();
+
+			if (!opened.await(10, TimeUnit.SECONDS))
+			{
+				System.err.println("Could not connect to the test server");
+				return false;
+			}
+
+			final String[] strings = { "The quick brown fox jumps over the lazy dog",
+					"The quick brown fox jumps over the lazy cat" };
+			final String[] documents = { document(0), document(1) };
+			final double[] vector = { 0.25, -1.5, 3.125, 1e-3, 42 };
+
+			System.out.println(String.format(Locale.ROOT, "%-34s %10s %10s", "path", "B/op", "budget"));
+
+			measure("publish boolean", 96, true, new Operation()
+			{
+				@Override
+				public void run(int i)
+				{
+					booleanPublisher.publish((i & 1) == 0);
+				}
+			});
+
+			measure("publish range", 160, true, new Operation()
+			{
+				@Override
+				public void run(int i)
+				{
+					rangePublisher.publish(i & 1023);
+				}
+			});
+
+			measure("publish string", 96, true, new Operation()
+			{
+				@Override
+				public void run(int i)
+				{
+					stringPublisher.publish(strings[i & 1]);
+				}
+			});
+
+			measure("publish delta string", 1000, true, new Operation()
+			{
+				@Override
+				public void run(int i)
+				{
+					deltaPublisher.publish(documents[i & 1]);
+				}
+			});
+
+			measure("publish typed", 380, true, new Operation()
+			{
+				@Override
+				public void run(int i)
+				{
+					vector[0] = i;
+					typedPublisher.publish(vector);
+				}
+			});
+
+			measure("range filters, published", 160, true, new Operation()
+			{
+				@Override
+				public void run(int i)
+				{
+					filteredPublisher.publish((float) (i & 127));
+				}
+			});
+
+			measure("range filters, suppressed", 0.5, true, new Operation()
+			{
+				@Override
+				public void run(int i)
+				{
+					filteredPublisher.publish(50f);
+				}
+			});
+
+			final String[] booleanMessages = messages("boolean", SpacebrewMessage.TYPE_BOOLEAN, "true", "false");
+			final String[] rangeMessages = messages("range", SpacebrewMessage.TYPE_RANGE, "12", "1023");
+			final String[] stringMessages = messages("string", SpacebrewMessage.TYPE_STRING, strings[0], strings[1]);
+			final String[] reflectiveMessages = messages("reflective", SpacebrewMessage.TYPE_STRING, strings[0],
+					strings[1]);
+			final String[] typedMessages = messages("vector", DoubleVectorCodec.TYPE,
+					new DoubleVectorCodec().encode(vector), new DoubleVectorCodec().encode(new double[] { 1, 2 }));
+			final String[] deltaMessages = messages("delta", "stringdelta", "K1:" + strings[0], "K2:" + strings[1]);
+
+			measure("dispatch boolean", 2700, false, new Operation()
+			{
+				@Override
+				public void run(int i)
+				{
+					client.onMessage(booleanMessages[i & 1]);
+				}
+			});
+
+			measure("dispatch range", 2700, false, new Operation()
+			{
+				@Override
+				public void run(int i)
+				{
+					client.onMessage(rangeMessages[i & 1]);
+				}
+			});
+
+			measure("dispatch string", 2700, false, new Operation()
+			{
+				@Override
+				public void run(int i)
+				{
+					client.onMessage(stringMessages[i & 1]);
+				}
+			});
+
+			measure("dispatch reflective", 2700, false, new Operation()
+			{
+				@Override
+				public void run(int i)
+				{
+					client.onMessage(reflectiveMessages[i & 1]);
+				}
+			});
+
+			measure("dispatch typed", 2800, false, new Operation()
+			{
+				@Override
+				public void run(int i)
+				{
+					client.onMessage(typedMessages[i & 1]);
+				}
+			});
+
+			measure("dispatch delta string", 2900, false, new Operation()
+			{
+				@Override
+				public void run(int i)
+				{
+					client.onMessage(deltaMessages[i & 1]);
+				}
+			});
+
+			client.disconnect();
+		}
+		finally
+		{
+			server.stop();
+		}
+
+		System.out.println(failed ? "FAILED: allocations exceed the budget" : "OK");
+		return !failed;
+	}
+
+	/**
+	 * Adds a subscriber of every type, each receiving the messages of the
+	 * publisher with the same name.
+	 */
+	private void addSubscribers()
+	{
+		client.addSubscriber("boolean", new BooleanSubscriber()
+		{
+			@Override
+			public void receive(boolean value)
+			{
+				received = value ? Boolean.TRUE : Boolean.FALSE;
+			}
+		});
+
+		client.addSubscriber("range", new RangeSubscriber()
+		{
+			@Override
+			public void receive(int value)
+			{
+				received = value > 512 ? Boolean.TRUE : Boolean.FALSE;
+			}
+		});
+
+		client.addSubscriber("string", new StringSubscriber()
+		{
+			@Override
+			public void receive(String value)
+			{
+				received = value;
+			}
+		});
+
+		client.addSubscriber("vector", new DoubleVectorCodec(), new TypedSubscriber<double[]>()
+		{
+			@Override
+			public void receive(double[] value)
+			{
+				received = value;
+			}
+		});
+
+		client.addDeltaSubscriber("delta", new StringSubscriber()
+		{
+			@Override
+			public void receive(String value)
+			{
+				received = value;
+			}
+		});
+
+		client.addSubscriber("reflective", SpacebrewMessage.TYPE_STRING, "input");
+	}
+
+	/**
+	 * Measures the bytes allocated by an operation and compares them with its
+	 * budget.
+	 * 
+	 * @param path The name of the path
+	 * @param budget The budget in bytes per operation
+	 * @param drain True to wait for the outbound queue to drain between
+	 *            batches, so publishing never finds a full queue
+	 * @param operation The operation
+	 */
+	private void measure(String path, double budget, boolean drain, Operation operation) throws InterruptedException
+	{
+		long thread = Thread.currentThread().getId();
+
+		for (int i = 0; i < WARMUP; i++)
+		{
+			operation.run(i);
+			drain(drain, i);
+		}
+
+		long allocated = 0;
+
+		for (int batch = 0; batch < OPERATIONS; batch += BATCH)
+		{
+			long before = threads.getThreadAllocatedBytes(thread);
+
+			for (int i = batch; i < batch + BATCH; i++)
+			{
+				operation.run(i);
+			}
+
+			allocated += threads.getThreadAllocatedBytes(thread) - before;
+			drain(drain, BATCH - 1);
+		}
+
+		double perOperation = (double) allocated / OPERATIONS;
+		boolean exceeded = perOperation > budget;
+		failed |= exceeded;
+
+		System.out.println(String.format(Locale.ROOT, "%-34s %10.1f %10.1f %s", path, perOperation, budget,
+				exceeded ? "FAIL" : "ok"));
+	}
+
+	/**
+	 * Waits for the outbound queue to drain after every batch.
+	 */
+	private void drain(boolean drain, int i) throws InterruptedException
+	{
+		if (drain && i % BATCH == BATCH - 1)
+		{
+			while (client.getOutboundQueueSize() > 0)
+			{
+				Thread.sleep(1);
+			}
+		}
+	}
+
+	/**
+	 * @return Two incoming messages for a subscriber, alternated by the
+	 *         operations
+	 */
+	@SuppressWarnings("unchecked")
+	private static String[] messages(String name, String type, String first, String second)
+	{
+		String[] messages = new String[2];
+		String[] values = { first, second };
+
+		for (int i = 0; i < 2; i++)
+		{
+			org.json.simple.JSONObject body = new org.json.simple.JSONObject();
+			body.put("clientName", "AllocationTest");
+			body.put("name", name);
+			body.put("type", type);
+			body.put("value", values[i]);
+
+			org.json.simple.JSONObject message = new org.json.simple.JSONObject();
+			message.put("message", body);
+			messages[i] = message.toJSONString();
+		}
+
+		return messages;
+	}
+
+	/**
+	 * @return A JSON document of 100 numbers of which one depends on the
+	 *         variant
+	 */
+	private static String document(int variant)
+	{
+		StringBuilder document = new StringBuilder("[");
+
+		for (int i = 0; i < 100; i++)
+		{
+			document.append(i == 50 ? variant : i * 37).append(i < 99 ? "," : "]");
+		}
+
+		return document.toString();
+	}
+
+	/**
+	 * The callback method of the reflective subscriber.
+	 * 
+	 * @param value The received value
+	 */
+	public void input(String value)
+	{
+		received = value;
+	}
+
+	@Override
+	public void onOpen()
+	{
+		opened.countDown();
+	}
+
+	@Override
+	public void onClose()
+	{
+	}
+
+	@Override
+	public void onError()
+	{
+	}
+
+	private interface Operation
+	{
+		void run(int i);
+	}
+}
@@ -0,0 +1,493 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner. All rights reserved. This program and
+ * the accompanying materials are made available under the terms of the GNU
+ * Lesser Public License v2.1 which accompanies this distribution, and is
+ * available at http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * Contributors: Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import org.java_websocket.WebSocket.Role;
+import org.java_websocket.drafts.Draft.HandshakeState;
+import org.java_websocket.drafts.Draft_17;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.framing.Framedata.Opcode;
+import org.java_websocket.framing.FramedataImpl1;
+import org.java_websocket.handshake.ClientHandshakeBuilder;
+import org.java_websocket.handshake.HandshakeImpl1Client;
+import org.java_websocket.handshake.HandshakeImpl1Server;
+import org.java_websocket.handshake.ServerHandshake;
+
+import at.ac.sbg.icts.spacebrew.client.CompressionStatistics;
+import at.ac.sbg.icts.spacebrew.client.PerMessageDeflateDraft;
+import at.ac.sbg.icts.spacebrew.client.SpacebrewClient;
+import at.ac.sbg.icts.spacebrew.client.SpacebrewClientCallback;
+import at.ac.sbg.icts.spacebrew.client.SpacebrewRoute;
+import at.ac.sbg.icts.spacebrew.client.StringSubscriber;
+
+/**
+ * Checks the permessage-deflate extension of {@link PerMessageDeflateDraft}:
+ * <ul>
+ * <li>Frames: a client and a server copy of the draft negotiate the extension
+ * without a connection. A compressed message is split into fragments with a
+ * ping and a pong between them, and the frames are passed to the server in
+ * chunks of random size. The control frames must not be compressed and the
+ * message has to be rebuilt exactly. Messages below the threshold must be
+ * sent uncompressed.</li>
+ * <li>Negotiation: a client with compression enabled, routed to itself
+ * through a {@link SpacebrewTestServer} that offers the extension. Small and
+ * large values, fragmented and with pings sent meanwhile, have to be
+ * received, large ones compressed in both directions.</li>
+ * <li>Fallback: the same client and a server that only accepts
+ * {@link Draft_17}, the extension must not be negotiated and values have to
+ * be received uncompressed.</li>
+ * </ul>
+ * Exits with status 1 if a check fails. Options:
+ * <ul>
+ * <li>{@code -port <n>} The port of the server offering the extension, the
+ * server declining it uses the next port (default 19033)</li>
+ * <li>{@code -values <n>} The number of large values per server (default
+ * 200)</li>
+ * </ul>
+ * 
+ * @author Axel Baumgartner
+ */
+public class CompressionTest
+{
+	private static final Charset	UTF8		= Charset.forName("UTF-8");
+	private static final String		NAME		= "compression";
+	private static final String		TEXT		= "text";
+	private static final int		THRESHOLD	= 256;
+	private static final int		FRAGMENT	= 256;
+
+	private final int				port;
+	private final int				values;
+	private final Random			random		= new Random(42);
+	private boolean					passed		= true;
+
+	// The last value the subscriber received
+	private volatile String			received;
+
+	/**
+	 * Runs the compression test.
+	 * 
+	 * @param args The options, see above
+	 */
+	public static void main(String args[]) throws Exception
+	{
+		int port = 19033;
+		int values = 200;
+
+		for (int i = 0; i + 1 < args.length; i += 2)
+		{
+			String value = args[i + 1];
+
+			if (args[i].equals("-port"))
+			{
+				port = Integer.parseInt(value);
+			}
+			else if (args[i].equals("-values"))
+			{
+				values = Integer.parseInt(value);
+			}
+			else
+			{
+				System.err.println("Unknown option: " + args[i]);
+				System.exit(1);
+			}
+		}
+
+		boolean passed = new CompressionTest(port, values).run();
+		System.exit(passed ? 0 : 1);
+	}
+
+	public CompressionTest(int port, int values)
+	{
+		this.port = port;
+		this.values = values;
+	}
+
+	/**
+	 * Runs all checks.
+	 * 
+	 * @return True if all checks passed
+	 */
+	public boolean run() throws Exception
+	{
+		frames();
+		negotiation();
+		fallback();
+
+		System.out.println(passed ? "Passed" : "Failed");
+		return passed;
+	}
+
+	/**
+	 * Passes frames from a client to a server copy of the draft.
+	 */
+	private void frames() throws Exception
+	{
+		PerMessageDeflateDraft client = new PerMessageDeflateDraft(THRESHOLD, Deflater.DEFAULT_COMPRESSION,
+				new CompressionStatistics());
+		PerMessageDeflateDraft server = new PerMessageDeflateDraft(THRESHOLD, Deflater.DEFAULT_COMPRESSION,
+				new CompressionStatistics());
+		client.setParseMode(Role.CLIENT);
+		server.setParseMode(Role.SERVER);
+
+		ClientHandshakeBuilder request = client.postProcessHandshakeRequestAsClient(new HandshakeImpl1Client());
+		check("frames: server accepts the handshake", server.acceptHandshakeAsServer(request) == HandshakeState.MATCHED);
+		ServerHandshake response = (ServerHandshake) server.postProcessHandshakeResponseAsServer(request,
+				new HandshakeImpl1Server());
+		check("frames: client accepts the handshake",
+				client.acceptHandshakeAsClient(request, response) == HandshakeState.MATCHED);
+		check("frames: negotiated", client.isNegotiated() && server.isNegotiated());
+
+		for (int round = 0; round < 10; round++)
+		{
+			byte[] message = document(100 + round * 50).getBytes(UTF8);
+			ByteArrayOutputStream sent = new ByteArrayOutputStream();
+
+			for (int offset = 0; offset < message.length; offset += FRAGMENT)
+			{
+				int length = Math.min(FRAGMENT, message.length - offset);
+				FramedataImpl1 fragment = new FramedataImpl1(offset == 0 ? Opcode.TEXT : Opcode.CONTINUOUS);
+				fragment.setFin(offset + length == message.length);
+				fragment.setPayload(ByteBuffer.wrap(message, offset, length));
+				write(sent, client.createBinaryFrame(fragment));
+
+				if (offset == 0)
+				{
+					write(sent, client.createBinaryFrame(control(Opcode.PING)));
+					write(sent, client.createBinaryFrame(control(Opcode.PONG)));
+				}
+			}
+
+			byte[] bytes = sent.toByteArray();
+			check("frames: first fragment of round " + round + " compressed", (bytes[0] & 0x40) != 0);
+
+			List<Framedata> frames = receive(server, bytes);
+			ByteArrayOutputStream rebuilt = new ByteArrayOutputStream();
+			int controls = 0;
+
+			for (Framedata frame : frames)
+			{
+				if (frame.getOpcode() == Opcode.PING || frame.getOpcode() == Opcode.PONG)
+				{
+					controls++;
+					check("frames: control frame of round " + round + " unchanged",
+							frame.getPayloadData().remaining() == 4);
+				}
+				else
+				{
+					write(rebuilt, frame.getPayloadData());
+				}
+			}
+
+			check("frames: control frames of round " + round + " received", controls == 2);
+			check("frames: message of round " + round + " rebuilt",
+					new String(rebuilt.toByteArray(), UTF8).equals(new String(message, UTF8)));
+		}
+
+		String small = document(2);
+		FramedataImpl1 frame = new FramedataImpl1(Opcode.TEXT);
+		frame.setFin(true);
+		frame.setPayload(ByteBuffer.wrap(small.getBytes(UTF8)));
+		byte[] bytes = toArray(client.createBinaryFrame(frame));
+		check("frames: small message not compressed", (bytes[0] & 0x40) == 0);
+		List<Framedata> frames = receive(server, bytes);
+		check("frames: small message received", frames.size() == 1
+				&& new String(toArray(frames.get(0).getPayloadData()), UTF8).equals(small));
+
+		CompressionStatistics statistics = client.getStatistics();
+		check("frames: messages counted", statistics.getCompressedMessages() == 10
+				&& statistics.getUncompressedMessages() == 1
+				&& server.getStatistics().getDecompressedMessages() == 10);
+	}
+
+	/**
+	 * Sends values through a server offering the extension.
+	 */
+	private void negotiation() throws Exception
+	{
+		CompressionStatistics serverStatistics = new CompressionStatistics();
+		SpacebrewTestServer server = new SpacebrewTestServer(port, new PerMessageDeflateDraft(THRESHOLD,
+				Deflater.DEFAULT_COMPRESSION, serverStatistics));
+		server.startAndWait();
+
+		SpacebrewClient client = createClient(port);
+
+		try
+		{
+			if (!connect(client, server))
+			{
+				fail("negotiation: could not connect to the test server");
+				return;
+			}
+
+			check("negotiation: negotiated", client.isCompressionNegotiated());
+
+			CompressionStatistics statistics = client.getCompressionStatistics();
+			long compressed = statistics.getCompressedMessages();
+			long uncompressed = statistics.getUncompressedMessages();
+
+			if (!publish(client, "negotiation"))
+			{
+				return;
+			}
+
+			check("negotiation: large values compressed by the client",
+					statistics.getCompressedMessages() - compressed >= values);
+			check("negotiation: small values not compressed by the client",
+					statistics.getUncompressedMessages() - uncompressed >= values);
+			check("negotiation: large values decompressed by the server",
+					serverStatistics.getDecompressedMessages() >= values);
+			check("negotiation: large values decompressed by the client",
+					statistics.getDecompressedMessages() >= values);
+
+			System.out.println(String.format(Locale.ROOT,
+					"Negotiation: %d compressed, %d uncompressed, ratio %.3f, round trip %d us",
+					statistics.getCompressedMessages(), statistics.getUncompressedMessages(),
+					statistics.getCompressionRatio(), client.getRoundTripNanos() / 1000));
+		}
+		finally
+		{
+			client.disconnect();
+			server.stop();
+		}
+	}
+
+	/**
+	 * Sends values through a server declining the extension.
+	 */
+	private void fallback() throws Exception
+	{
+		SpacebrewTestServer server = new SpacebrewTestServer(port + 1, new Draft_17());
+		server.startAndWait();
+
+		SpacebrewClient client = createClient(port + 1);
+
+		try
+		{
+			if (!connect(client, server))
+			{
+				fail("fallback: could not connect to the test server");
+				return;
+			}
+
+			check("fallback: not negotiated", !client.isCompressionNegotiated());
+
+			if (!publish(client, "fallback"))
+			{
+				return;
+			}
+
+			CompressionStatistics statistics = client.getCompressionStatistics();
+			check("fallback: nothing compressed",
+					statistics.getCompressedMessages() == 0 && statistics.getDecompressedMessages() == 0);
+		}
+		finally
+		{
+			client.disconnect();
+			server.stop();
+		}
+	}
+
+	/**
+	 * Publishes small and large values alternately while pinging the server.
+	 * 
+	 * @return True if every value was received
+	 */
+	private boolean publish(SpacebrewClient client, String description) throws InterruptedException
+	{
+		client.setPingInterval(1);
+
+		try
+		{
+			for (int i = 0; i < values; i++)
+			{
+				String small = "small " + i;
+				client.publish(TEXT, small);
+
+				if (!await(small))
+				{
+					fail(description + ": small value " + i + " not received");
+					return false;
+				}
+
+				// non-BMP characters make sure fragments are cut within
+				// characters
+				String large = document(50 + random.nextInt(200)) + "😀" + i;
+				client.publish(TEXT, large);
+
+				if (!await(large))
+				{
+					fail(description + ": large value " + i + " not received");
+					return false;
+				}
+			}
+
+			return true;
+		}
+		finally
+		{
+			client.setPingInterval(0);
+		}
+	}
+
+	private SpacebrewClient createClient(int port)
+	{
+		SpacebrewClient client = new SpacebrewClient(new SpacebrewClientCallback()
+		{
+			@Override
+			public void onOpen()
+			{
+			}
+
+			@Override
+			public void onClose()
+			{
+			}
+
+			@Override
+			public void onError()
+			{
+			}
+		}, "ws://127.0.0.1:" + port, NAME);
+
+		client.setCompressionEnabled(true);
+		client.setCompressionThreshold(THRESHOLD);
+		client.setFragmentSize(FRAGMENT);
+		client.addPublisher(TEXT, "");
+		client.addSubscriber(TEXT, new StringSubscriber()
+		{
+			@Override
+			public void receive(String value)
+			{
+				received = value;
+			}
+		});
+
+		return client;
+	}
+
+	/**
+	 * Connects the client and routes its publisher to its subscriber.
+	 * 
+	 * @return True if the route was set up within 10 seconds
+	 */
+	private boolean connect(SpacebrewClient client, SpacebrewTestServer server) throws InterruptedException
+	{
+		client.connect();
+
+		long deadline = System.currentTimeMillis() + 10000;
+
+		while (server.getClientCount() == 0 && System.currentTimeMillis() < deadline)
+		{
+			Thread.sleep(1);
+		}
+
+		client.addRoute(new SpacebrewRoute(NAME, "127.0.0.1", TEXT, NAME, "127.0.0.1", TEXT, "string"));
+
+		while (server.getRouteCount() == 0 && System.currentTimeMillis() < deadline)
+		{
+			Thread.sleep(1);
+		}
+
+		return server.getRouteCount() > 0 && client.isConnected();
+	}
+
+	/**
+	 * @return True if the value was received within 10 seconds
+	 */
+	private boolean await(String value) throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + 10000;
+
+		while (!value.equals(received) && System.currentTimeMillis() < deadline)
+		{
+			Thread.sleep(1);
+		}
+
+		return value.equals(received);
+	}
+
+	/**
+	 * Passes bytes to a draft in chunks of random size.
+	 * 
+	 * @return The frames parsed from the bytes
+	 */
+	private List<Framedata> receive(PerMessageDeflateDraft draft, byte[] bytes) throws Exception
+	{
+		List<Framedata> frames = new ArrayList<Framedata>();
+		int offset = 0;
+
+		while (offset < bytes.length)
+		{
+			int length = Math.min(1 + random.nextInt(100), bytes.length - offset);
+			frames.addAll(draft.translateFrame(ByteBuffer.wrap(bytes, offset, length).slice()));
+			offset += length;
+		}
+
+		return frames;
+	}
+
+	/**
+	 * @return A control frame with a four byte payload
+	 */
+	private FramedataImpl1 control(Opcode opcode) throws Exception
+	{
+		FramedataImpl1 frame = new FramedataImpl1(opcode);
+		frame.setFin(true);
+		frame.setPayload(ByteBuffer.wrap(new byte[] { 1, 2, 3, 4 }));
+		return frame;
+	}
+
+	/**
+	 * @return A JSON-like document with the number of fields
+	 */
+	private String document(int fields)
+	{
+		StringBuilder document = new StringBuilder("{");
+
+		for (int i = 0; i < fields; i++)
+		{
+			document.append(i > 0 ? "," : "").append("\"field").append(i).append("\":").append(random.nextInt(1000));
+		}
+
+		return document.append('}').toString();
+	}
+
+	private static void write(ByteArrayOutputStream stream, ByteBuffer buffer)
+	{
+		byte[] bytes = toArray(buffer);
+		stream.write(bytes, 0, bytes.length);
+	}
+
+	private static byte[] toArray(ByteBuffer buffer)
+	{
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.duplicate().get(bytes);
+		return bytes;
+	}
+
+	private void check(String description, boolean condition)
+	{
+		if (!condition)
+		{
+			fail(description);
+		}
+	}
+
+	private void fail(String description)
+	{
+		System.err.println("Failed: " + description);
+		passed = false;
+	}
+}
@@ -0,0 +1,345 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner. All rights reserved. This program and
+ * the accompanying materials are made available under the terms of the GNU
+ * Lesser Public License v2.1 which accompanies this distribution, and is
+ * available at http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * Contributors: Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.simple.JSONObject;
+
+import at.ac.sbg.icts.spacebrew.client.PublishListener;
+import at.ac.sbg.icts.spacebrew.client.SpacebrewClient;
+import at.ac.sbg.icts.spacebrew.client.SpacebrewClientCallback;
+import at.ac.sbg.icts.spacebrew.client.SpacebrewMessage;
+import at.ac.sbg.icts.spacebrew.client.StringSubscriber;
+
+/**
+ * Publishes and receives while the publishers and subscribers of the client
+ * change. A client connected to a {@link SpacebrewTestServer} runs three
+ * threads at once:
+ * <ul>
+ * <li>One adds and removes publishers and subscribers of new names, so the
+ * maps holding them grow all the time.</li>
+ * <li>One publishes single messages and batches on a publisher that is never
+ * removed. Every message has to be queued, i.e. passed to the publish
+ * listeners.</li>
+ * <li>One passes messages for a reflective and an interface subscriber that
+ * are never removed to the client, as if they were received from the
+ * server, and messages for the changing subscribers. Every message for the
+ * fixed subscribers has to be received by both of them.</li>
+ * </ul>
+ * No exception may escape and no error may be counted. Exits with status 1
+ * if a check fails. Options:
+ * <ul>
+ * <li>{@code -port <n>} The port of the server (default 19035)</li>
+ * <li>{@code -seconds <n>} How long the threads run (default 5)</li>
+ * </ul>
+ * 
+ * @author Axel Baumgartner
+ */
+public class ConcurrencyTest implements SpacebrewClientCallback
+{
+	private static final String		NAME		= "concurrency";
+	private static final String		FIXED		= "fixed";
+	private static final String		CHANGING	= "changing";
+
+	private final int				port;
+	private final long				seconds;
+	private final SpacebrewClient	client;
+	private volatile boolean		running		= true;
+	private boolean					passed		= true;
+
+	// The number of changes, of messages published and queued, and of
+	// messages fed to and received by the fixed subscribers
+	private final AtomicLong		changes		= new AtomicLong();
+	private final AtomicLong		published	= new AtomicLong();
+	private final AtomicLong		queued		= new AtomicLong();
+	private final AtomicLong		fed			= new AtomicLong();
+	private final AtomicLong		reflective	= new AtomicLong();
+	private final AtomicLong		typed		= new AtomicLong();
+
+	/**
+	 * Runs the concurrency test.
+	 * 
+	 * @param args The options, see above
+	 */
+	public static void main(String args[]) throws Exception
+	{
+		int port = 19035;
+		long seconds = 5;
+
+		for (int i = 0; i + 1 < args.length; i += 2)
+		{
+			String value = args[i + 1];
+
+			if (args[i].equals("-port"))
+			{
+				port = Integer.parseInt(value);
+			}
+			else if (args[i].equals("-seconds"))
+			{
+				seconds = Long.parseLong(value);
+			}
+			else
+			{
+				System.err.println("Unknown option: " + args[i]);
+				System.exit(1);
+			}
+		}
+
+		boolean passed = new ConcurrencyTest(port, seconds).run();
+		System.exit(passed ? 0 : 1);
+	}
+
+	public ConcurrencyTest(int port, long seconds)
+	{
+		this.port = port;
+		this.seconds = seconds;
+		this.client = new SpacebrewClient(this, "ws://127.0.0.1:" + port, NAME);
+	}
+
+	/**
+	 * Runs all checks.
+	 * 
+	 * @return True if all checks passed
+	 */
+	public boolean run() throws Exception
+	{
+		SpacebrewTestServer server = new SpacebrewTestServer(port);
+		server.startAndWait();
+
+		client.addPublisher(FIXED, "");
+		client.addSubscriber(FIXED, SpacebrewMessage.TYPE_STRING, "onValue");
+		client.addSubscriber(FIXED, new StringSubscriber()
+		{
+			@Override
+			public void receive(String value)
+			{
+				typed.incrementAndGet();
+			}
+		});
+		client.addPublishListener(new PublishListener()
+		{
+			@Override
+			public void onPublish(String name, String type, CharSequence value)
+			{
+				if (name.equals(FIXED))
+				{
+					queued.incrementAndGet();
+				}
+			}
+		});
+
+		try
+		{
+			client.connect();
+
+			long deadline = System.currentTimeMillis() + 10000;
+
+			while (server.getClientCount() == 0 && System.currentTimeMillis() < deadline)
+			{
+				Thread.sleep(1);
+			}
+
+			if (!client.isConnected())
+			{
+				fail("could not connect to the test server");
+				return false;
+			}
+
+			Thread[] threads = { start("change", new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					change();
+				}
+			}), start("publish", new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					publish();
+				}
+			}), start("receive", new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					receive();
+				}
+			}) };
+
+			Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+			running = false;
+
+			for (Thread thread : threads)
+			{
+				thread.join();
+			}
+
+			check("changes made", changes.get() > 0);
+			check("every message queued", published.get() > 0 && queued.get() == published.get());
+			check("every message received by the reflective subscriber",
+					fed.get() > 0 && reflective.get() == fed.get());
+			check("every message received by the interface subscriber", typed.get() == fed.get());
+			check("no errors counted", client.getMetrics().getErrors() == 0);
+
+			System.out.println(String.format("%d changes, %d messages published, %d received", changes.get(),
+					published.get(), fed.get()));
+		}
+		finally
+		{
+			client.disconnect();
+			server.stop();
+		}
+
+		System.out.println(passed ? "Passed" : "Failed");
+		return passed;
+	}
+
+	/**
+	 * Called by the client for the reflective subscribers.
+	 * 
+	 * @param value The value
+	 */
+	public void onValue(String value)
+	{
+		if (value.equals(FIXED))
+		{
+			reflective.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Adds and removes publishers and subscribers of new names.
+	 */
+	private void change()
+	{
+		for (int i = 0; running; i++)
+		{
+			String name = CHANGING + i;
+
+			client.addPublisher(name, "");
+			client.addSubscriber(name, SpacebrewMessage.TYPE_STRING, "onValue");
+			client.addSubscriber(name, new StringSubscriber()
+			{
+				@Override
+				public void receive(String value)
+				{
+				}
+			});
+
+			client.removePublisher(name, SpacebrewMessage.TYPE_STRING);
+			client.removeSubscriber(name, SpacebrewMessage.TYPE_STRING);
+			changes.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Publishes single messages and batches on the fixed publisher.
+	 */
+	private void publish()
+	{
+		String[] names = { FIXED, FIXED };
+		String[] types = { SpacebrewMessage.TYPE_STRING, SpacebrewMessage.TYPE_STRING };
+		CharSequence[] values = { FIXED, FIXED };
+
+		while (running)
+		{
+			if (client.getOutboundQueueRemainingCapacity() < 3)
+			{
+				Thread.yield();
+				continue;
+			}
+
+			client.publish(FIXED, FIXED);
+			client.publishBatch(names, types, values, 2);
+			published.addAndGet(3);
+		}
+	}
+
+	/**
+	 * Passes messages for the fixed and the changing subscribers to the
+	 * client.
+	 */
+	private void receive()
+	{
+		while (running)
+		{
+			onMessage(FIXED);
+			fed.incrementAndGet();
+			onMessage(CHANGING + changes.get());
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void onMessage(String name)
+	{
+		JSONObject message = new JSONObject();
+		message.put("clientName", NAME);
+		message.put("name", name);
+		message.put("type", SpacebrewMessage.TYPE_STRING);
+		message.put("value", name);
+
+		JSONObject container = new JSONObject();
+		container.put("message", message);
+
+		client.onMessage(container.toJSONString());
+	}
+
+	private Thread start(String name, final Runnable task)
+	{
+		Thread thread = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					task.run();
+				}
+				catch (RuntimeException e)
+				{
+					fail(Thread.currentThread().getName() + ": exception escaped: " + e);
+					running = false;
+				}
+			}
+		}, name);
+
+		thread.start();
+		return thread;
+	}
+
+	private void check(String description, boolean condition)
+	{
+		if (!condition)
+		{
+			fail(description);
+		}
+	}
+
+	private synchronized void fail(String description)
+	{
+		System.err.println("Failed: " + description);
+		passed = false;
+	}
+
+	@Override
+	public void onOpen()
+	{
+	}
+
+	@Override
+	public void onClose()
+	{
+	}
+
+	@Override
+	public void onError()
+	{
+	}
+}
@@ -0,0 +1,226 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner. All rights reserved. This program and
+ * the accompanying materials are made available under the terms of the GNU
+ * Lesser Public License v2.1 which accompanies this distribution, and is
+ * available at http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * Contributors: Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.simple.JSONObject;
+
+import at.ac.sbg.icts.spacebrew.client.SpacebrewClient;
+import at.ac.sbg.icts.spacebrew.client.SpacebrewClientCallback;
+import at.ac.sbg.icts.spacebrew.client.TypedSubscriber;
+import at.ac.sbg.icts.spacebrew.client.codec.SpacebrewCodec;
+
+/**
+ * Checks that a failing subscriber does not keep the other subscribers of a
+ * message from receiving it. Messages are passed to the client as if they
+ * were received from a server, no connection is needed:
+ * <ul>
+ * <li>A reflective and an interface subscriber of a custom type whose codec
+ * throws on a value it cannot decode, no exception may escape and later
+ * values have to be received.</li>
+ * <li>A reflective subscriber removed while an interface subscriber of the
+ * same name and type still receives.</li>
+ * <li>Messages without name or type, with a cached subscriber and with
+ * polling enabled, must be ignored.</li>
+ * </ul>
+ * Exits with status 1 if a check fails.
+ * 
+ * @author Axel Baumgartner
+ */
+public class DispatchTest implements SpacebrewClientCallback
+{
+	private static final String	NAME	= "dispatch";
+	private static final String	TYPE	= "failing";
+
+	private final SpacebrewClient	client;
+	private final AtomicInteger		reflective	= new AtomicInteger();
+	private final AtomicInteger		typed		= new AtomicInteger();
+	private final AtomicInteger		rejected	= new AtomicInteger();
+	private boolean					passed		= true;
+
+	/**
+	 * Runs the dispatch test.
+	 * 
+	 * @param args Not used
+	 */
+	public static void main(String args[]) throws Exception
+	{
+		boolean passed = new DispatchTest().run();
+		System.exit(passed ? 0 : 1);
+	}
+
+	public DispatchTest()
+	{
+		client = new SpacebrewClient(this, "ws://127.0.0.1:1", NAME);
+	}
+
+	/**
+	 * Runs all checks.
+	 * 
+	 * @return True if all checks passed
+	 */
+	public boolean run()
+	{
+		client.addSubscriber("value", new FailingCodec(), new TypedSubscriber<String>()
+		{
+			@Override
+			public void receive(String value)
+			{
+				typed.incrementAndGet();
+			}
+		});
+		client.addSubscriber("value", TYPE, "onValue");
+
+		receive("value", TYPE, "good");
+		check("codec: both subscribers receive a valid value", reflective.get() == 1 && typed.get() == 1);
+
+		receive("value", TYPE, "bad");
+		check("codec: the codec rejected the value", rejected.get() >= 1);
+		check("codec: no callback with an undecodable value", reflective.get() == 1 && typed.get() == 1);
+
+		receive("value", TYPE, "good");
+		check("codec: subscribers receive after a failure", reflective.get() == 2 && typed.get() == 2);
+
+		client.addSubscriber("removed", TYPE, "onValue");
+		client.removeSubscriber("removed", TYPE);
+		client.addSubscriber("removed", new FailingCodec(), new TypedSubscriber<String>()
+		{
+			@Override
+			public void receive(String value)
+			{
+				typed.incrementAndGet();
+			}
+		});
+
+		receive("removed", TYPE, "good");
+		check("removed: the remaining subscriber still receives", typed.get() == 3 && reflective.get() == 2);
+
+		int handle = client.addCachedSubscriber("cached", TYPE);
+		receive(null, TYPE, "good");
+		receive("cached", null, "good");
+		check("incomplete: ignored by the cache", client.getLastValueCache().getSequence(handle) == 0);
+		receive("cached", TYPE, "good");
+		check("incomplete: complete message cached", client.getLastValueCache().getSequence(handle) == 1);
+
+		client.enablePolling(16);
+		receive(null, TYPE, "good");
+		receive("value", null, "good");
+		check("incomplete: not queued", client.getInboundQueueSize() == 0);
+		receive("value", TYPE, "good");
+		check("incomplete: complete message queued", client.getInboundQueueSize() == 1);
+		client.drain(16);
+		check("incomplete: complete message dispatched", reflective.get() == 3 && typed.get() == 4);
+
+		System.out.println(passed ? "Passed" : "Failed");
+		return passed;
+	}
+
+	/**
+	 * Called by the client for the reflective subscribers.
+	 * 
+	 * @param value The decoded value
+	 */
+	public void onValue(String value)
+	{
+		reflective.incrementAndGet();
+	}
+
+	@SuppressWarnings("unchecked")
+	private void receive(String name, String type, String value)
+	{
+		JSONObject message = new JSONObject();
+		message.put("clientName", "publisher");
+		if (name != null)
+		{
+			message.put("name", name);
+		}
+
+		if (type != null)
+		{
+			message.put("type", type);
+		}
+
+		message.put("value", value);
+
+		JSONObject container = new JSONObject();
+		container.put("message", message);
+
+		try
+		{
+			client.onMessage(container.toJSONString());
+		}
+		catch (RuntimeException e)
+		{
+			fail("exception escaped from the client: " + e);
+		}
+	}
+
+	private void check(String description, boolean condition)
+	{
+		if (!condition)
+		{
+			fail(description);
+		}
+	}
+
+	private void fail(String description)
+	{
+		System.err.println("Failed: " + description);
+		passed = false;
+	}
+
+	@Override
+	public void onOpen()
+	{
+	}
+
+	@Override
+	public void onClose()
+	{
+	}
+
+	@Override
+	public void onError()
+	{
+	}
+
+	/**
+	 * Passes strings through, but rejects the value "bad".
+	 */
+	private class FailingCodec implements SpacebrewCodec<String>
+	{
+		@Override
+		public String getType()
+		{
+			return TYPE;
+		}
+
+		@Override
+		public Class<String> getValueType()
+		{
+			return String.class;
+		}
+
+		@Override
+		public String encode(String value)
+		{
+			return value;
+		}
+
+		@Override
+		public String decode(String value, String reuse)
+		{
+			if (value.equals("bad"))
+			{
+				rejected.incrementAndGet();
+				throw new IllegalArgumentException("Invalid value: " + value);
+			}
+
+			return value;
+		}
+	}
+}
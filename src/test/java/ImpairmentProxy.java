@@ -0,0 +1,451 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner. All rights reserved. This program and
+ * the accompanying materials are made available under the terms of the GNU
+ * Lesser Public License v2.1 which accompanies this distribution, and is
+ * available at http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * Contributors: Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A TCP proxy on the loopback interface that impairs the connections passing
+ * through it like a flaky wireless network. Conditions can be changed at any
+ * time, directly or with commands (see {@link #apply(String)}), and apply to
+ * both directions of all connections:
+ * <ul>
+ * <li>Latency and jitter: every chunk of data is delayed by the latency plus
+ * a random part of the jitter. Data is never reordered.</li>
+ * <li>Bandwidth: data is forwarded at most at a number of bytes per
+ * second.</li>
+ * <li>Stalls: forwarding stops for a time, as when TCP retransmits lost
+ * packets.</li>
+ * <li>Disconnects: all connections are reset.</li>
+ * <li>Refusing: new connections are reset right after they are
+ * accepted.</li>
+ * </ul>
+ * Only a small amount of data is buffered per direction and the socket
+ * buffers of the proxy are small, so the sender is slowed down by TCP flow
+ * control as by a slow network.
+ * 
+ * @author Axel Baumgartner
+ */
+public class ImpairmentProxy
+{
+	// Size of the chunks read, and number of chunks buffered per direction
+	private static final int		CHUNK_SIZE			= 4096;
+	private static final int		BUFFERED_CHUNKS		= 16;
+
+	// Size of the socket buffers of the proxy, kept small like on a slow link
+	private static final int		SOCKET_BUFFER_SIZE	= 16384;
+
+	private final ServerSocket		serverSocket;
+	private final InetSocketAddress	target;
+	private final List<Socket>		sockets				= new CopyOnWriteArrayList<Socket>();
+	private final Random			random				= new Random(1);
+	private volatile boolean		running				= true;
+
+	// Conditions
+	private volatile long			latencyNanos		= 0;
+	private volatile long			jitterNanos			= 0;
+	private volatile long			bandwidth			= 0;
+	private volatile long			stalledUntil		= System.nanoTime();
+	private volatile boolean		refusing			= false;
+
+	// Connections accepted and bytes forwarded
+	private final AtomicLong		connections			= new AtomicLong();
+	private final AtomicLong		forwarded			= new AtomicLong();
+
+	/**
+	 * Starts a proxy.
+	 * 
+	 * @param port The port of the proxy on the loopback interface
+	 * @param targetPort The port on the loopback interface connections are
+	 *            forwarded to
+	 */
+	public ImpairmentProxy(int port, int targetPort) throws IOException
+	{
+		serverSocket = new ServerSocket();
+		serverSocket.setReceiveBufferSize(SOCKET_BUFFER_SIZE);
+		serverSocket.bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port), 50);
+		target = new InetSocketAddress("127.0.0.1", targetPort);
+
+		Thread acceptor = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				accept();
+			}
+		}, "ImpairmentProxy-" + port);
+
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	/**
+	 * Applies a command changing the conditions:
+	 * <ul>
+	 * <li>{@code latency <ms> [<jitter ms>]}</li>
+	 * <li>{@code bandwidth <bytes per second>}, 0 for unlimited</li>
+	 * <li>{@code stall <ms>}</li>
+	 * <li>{@code disconnect}</li>
+	 * <li>{@code refuse} and {@code accept}</li>
+	 * <li>{@code clear} Removes all impairments.</li>
+	 * </ul>
+	 * 
+	 * @param command The command
+	 * @throws IllegalArgumentException If the command is invalid
+	 */
+	public void apply(String command)
+	{
+		String[] words = command.trim().split("\\s+");
+
+		try
+		{
+			if (words[0].equals("latency"))
+			{
+				setLatency(Long.parseLong(words[1]), words.length > 2 ? Long.parseLong(words[2]) : 0);
+			}
+			else if (words[0].equals("bandwidth"))
+			{
+				setBandwidth(Long.parseLong(words[1]));
+			}
+			else if (words[0].equals("stall"))
+			{
+				stall(Long.parseLong(words[1]));
+			}
+			else if (words[0].equals("disconnect"))
+			{
+				disconnect();
+			}
+			else if (words[0].equals("refuse"))
+			{
+				setRefusing(true);
+			}
+			else if (words[0].equals("accept"))
+			{
+				setRefusing(false);
+			}
+			else if (words[0].equals("clear"))
+			{
+				clear();
+			}
+			else
+			{
+				throw new IllegalArgumentException("Unknown command: " + command);
+			}
+		}
+		catch (ArrayIndexOutOfBoundsException e)
+		{
+			throw new IllegalArgumentException("Missing argument: " + command);
+		}
+		catch (NumberFormatException e)
+		{
+			throw new IllegalArgumentException("Invalid argument: " + command);
+		}
+	}
+
+	/**
+	 * @param latency The latency in milliseconds
+	 * @param jitter The maximum random delay added to the latency in
+	 *            milliseconds
+	 */
+	public void setLatency(long latency, long jitter)
+	{
+		latencyNanos = TimeUnit.MILLISECONDS.toNanos(latency);
+		jitterNanos = TimeUnit.MILLISECONDS.toNanos(jitter);
+	}
+
+	/**
+	 * @param bandwidth The bandwidth in bytes per second, 0 for unlimited
+	 */
+	public void setBandwidth(long bandwidth)
+	{
+		this.bandwidth = bandwidth;
+	}
+
+	/**
+	 * Stops forwarding data for a time.
+	 * 
+	 * @param millis The time in milliseconds
+	 */
+	public void stall(long millis)
+	{
+		stalledUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+	}
+
+	/**
+	 * Resets all connections.
+	 */
+	public void disconnect()
+	{
+		for (Socket socket : sockets)
+		{
+			reset(socket);
+		}
+	}
+
+	/**
+	 * @param refusing True to reset new connections right after accepting
+	 *            them
+	 */
+	public void setRefusing(boolean refusing)
+	{
+		this.refusing = refusing;
+	}
+
+	/**
+	 * Removes all impairments, open connections are kept.
+	 */
+	public void clear()
+	{
+		setLatency(0, 0);
+		setBandwidth(0);
+		stalledUntil = System.nanoTime();
+		refusing = false;
+	}
+
+	/**
+	 * @return The number of connections accepted
+	 */
+	public long getConnections()
+	{
+		return connections.get();
+	}
+
+	/**
+	 * @return The number of bytes forwarded in both directions
+	 */
+	public long getForwarded()
+	{
+		return forwarded.get();
+	}
+
+	/**
+	 * Stops accepting connections and resets all connections.
+	 */
+	public void close()
+	{
+		running = false;
+
+		try
+		{
+			serverSocket.close();
+		}
+		catch (IOException e)
+		{
+			// ignore
+		}
+
+		disconnect();
+	}
+
+	private void accept()
+	{
+		while (running)
+		{
+			Socket client;
+
+			try
+			{
+				client = serverSocket.accept();
+			}
+			catch (IOException e)
+			{
+				return;
+			}
+
+			connections.incrementAndGet();
+
+			if (refusing)
+			{
+				reset(client);
+				continue;
+			}
+
+			try
+			{
+				Socket server = new Socket();
+				server.setReceiveBufferSize(SOCKET_BUFFER_SIZE);
+				server.connect(target, 1000);
+
+				client.setSendBufferSize(SOCKET_BUFFER_SIZE);
+				server.setSendBufferSize(SOCKET_BUFFER_SIZE);
+
+				client.setTcpNoDelay(true);
+				server.setTcpNoDelay(true);
+				sockets.add(client);
+				sockets.add(server);
+
+				pipe(client, server, "up");
+				pipe(server, client, "down");
+			}
+			catch (IOException e)
+			{
+				reset(client);
+			}
+		}
+	}
+
+	/**
+	 * Starts forwarding the data of one direction of a connection, read and
+	 * written by separate threads so impairments do not stop reading.
+	 */
+	private void pipe(final Socket from, final Socket to, String direction) throws IOException
+	{
+		final InputStream input = from.getInputStream();
+		final OutputStream output = to.getOutputStream();
+		final BlockingQueue<Chunk> chunks = new ArrayBlockingQueue<Chunk>(BUFFERED_CHUNKS);
+
+		Thread reader = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				long lastDue = System.nanoTime();
+
+				byte[] buffer = new byte[CHUNK_SIZE];
+
+				try
+				{
+					while (true)
+					{
+						int length = input.read(buffer);
+
+						if (length < 0)
+						{
+							break;
+						}
+
+						long jitter = jitterNanos > 0 ? (long) (random.nextDouble() * jitterNanos) : 0;
+						long due = System.nanoTime() + latencyNanos + jitter;
+						lastDue = due - lastDue > 0 ? due : lastDue;
+						chunks.put(new Chunk(Arrays.copyOf(buffer, length), lastDue));
+					}
+				}
+				catch (Exception e)
+				{
+					// connection reset
+				}
+
+				chunks.clear();
+				chunks.offer(Chunk.END);
+			}
+		}, "ImpairmentProxy-" + direction + "-reader");
+
+		Thread writer = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				long nextSend = System.nanoTime();
+
+				try
+				{
+					while (true)
+					{
+						Chunk chunk = chunks.take();
+
+						if (chunk == Chunk.END)
+						{
+							break;
+						}
+
+						waitUntil(chunk.due);
+						waitUntil(nextSend);
+
+						while (stalledUntil - System.nanoTime() > 0)
+						{
+							waitUntil(stalledUntil);
+						}
+
+						output.write(chunk.data);
+						output.flush();
+						forwarded.addAndGet(chunk.data.length);
+
+						long rate = bandwidth;
+						nextSend = System.nanoTime() + (rate > 0 ? chunk.data.length * 1000000000L / rate : 0);
+					}
+				}
+				catch (Exception e)
+				{
+					// connection reset
+				}
+
+				reset(from);
+				reset(to);
+			}
+		}, "ImpairmentProxy-" + direction + "-writer");
+
+		reader.setDaemon(true);
+		writer.setDaemon(true);
+		reader.start();
+		writer.start();
+	}
+
+	/**
+	 * Closes a socket abruptly, the peer sees a connection reset.
+	 */
+	private void reset(Socket socket)
+	{
+		sockets.remove(socket);
+
+		try
+		{
+			socket.setSoLinger(true, 0);
+			socket.close();
+		}
+		catch (IOException e)
+		{
+			// ignore
+		}
+	}
+
+	private static void waitUntil(long nanos) throws InterruptedException
+	{
+		long remaining;
+
+		while ((remaining = nanos - System.nanoTime()) > 0)
+		{
+			LockSupport.parkNanos(remaining);
+
+			if (Thread.interrupted())
+			{
+				throw new InterruptedException();
+			}
+		}
+	}
+
+	/**
+	 * Data read from one side of a connection and the time it is due on the
+	 * other side.
+	 */
+	private static class Chunk
+	{
+		private static final Chunk	END	= new Chunk(new byte[0], 0);
+
+		private final byte[]		data;
+		private final long			due;
+
+		private Chunk(byte[] data, long due)
+		{
+			this.data = data;
+			this.due = due;
+		}
+	}
+}
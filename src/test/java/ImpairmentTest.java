@@ -0,0 +1,437 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner. All rights reserved. This program and
+ * the accompanying materials are made available under the terms of the GNU
+ * Lesser Public License v2.1 which accompanies this distribution, and is
+ * available at http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * Contributors: Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import at.ac.sbg.icts.spacebrew.client.SpacebrewClient;
+import at.ac.sbg.icts.spacebrew.client.SpacebrewClientCallback;
+import at.ac.sbg.icts.spacebrew.client.SpacebrewMessage;
+import at.ac.sbg.icts.spacebrew.client.SpacebrewRoute;
+import at.ac.sbg.icts.spacebrew.client.StringSubscriber;
+import at.ac.sbg.icts.spacebrew.sensor.SineSensor;
+import at.ac.sbg.icts.spacebrew.sensor.SyntheticSensor;
+
+/**
+ * Checks how a client behaves on a flaky network. A publishing client is
+ * connected to a {@link SpacebrewTestServer} through an
+ * {@link ImpairmentProxy}, a receiving client is connected directly. A script
+ * changes the conditions of the proxy over time while synthetic publishers
+ * send at a fixed rate. The throughput, dropped and lost messages, the
+ * outbound queue, reconnects and the heap are printed once per second.
+ * <p/>
+ * A script has one command per line, {@code <second> <command>}, where the
+ * command is one of the commands of {@link ImpairmentProxy#apply(String)} or
+ * {@code end}, which ends the test. Empty lines and lines starting with
+ * {@code #} are ignored. The default script runs latency, jitter, a bandwidth
+ * cap, a stall, a disconnect and refused reconnects one after the other.
+ * <p/>
+ * The test fails (exit status 1) if the publisher does not recover, i.e.
+ * if less than 90% of the messages published in the last five seconds are
+ * received, or if the heap used after a full garbage collection grew by more
+ * than a limit. Options:
+ * <ul>
+ * <li>{@code -port <n>} The port of the server, the proxy uses the next port
+ * (default 19015)</li>
+ * <li>{@code -script <file>} The script (default see above)</li>
+ * <li>{@code -channels <n>} The number of publishers (default 4)</li>
+ * <li>{@code -rate <n>} The rate per publisher in messages per second
+ * (default 200)</li>
+ * <li>{@code -payload <n>} The minimum length of a value in characters
+ * (default 256)</li>
+ * <li>{@code -queue <n>} The capacity of the outbound queue (default
+ * 1000)</li>
+ * <li>{@code -heap <mb>} The allowed growth of the heap (default 32)</li>
+ * </ul>
+ * 
+ * @author Axel Baumgartner
+ */
+public class ImpairmentTest
+{
+	private static final String[]	DEFAULT_SCRIPT	= { "0 clear", "10 latency 50 20", "20 latency 200 150",
+			"30 clear", "30 bandwidth 50000", "40 clear", "45 stall 3000", "50 disconnect", "55 disconnect",
+			"55 refuse", "60 accept", "70 end"	};
+
+	private final int				port;
+	private final List<String>		script;
+	private final int				channels;
+	private final double			rate;
+	private final int				payload;
+	private final int				queue;
+	private final long				heapLimit;
+
+	// Messages received and messages missing in the sequence of a channel
+	private final AtomicLong		received		= new AtomicLong();
+	private final AtomicLong		lost			= new AtomicLong();
+
+	private final MemoryMXBean		memory			= ManagementFactory.getMemoryMXBean();
+	private SpacebrewTestServer		server;
+	private ImpairmentProxy			proxy;
+	private SpacebrewClient			publisher;
+	private SpacebrewClient			receiver;
+	private SyntheticSensor			sensor;
+
+	/**
+	 * Runs the impairment test.
+	 * 
+	 * @param args The options, see above
+	 */
+	public static void main(String args[]) throws Exception
+	{
+		int port = 19015;
+		String scriptFile = null;
+		int channels = 4;
+		double rate = 200;
+		int payload = 256;
+		int queue = 1000;
+		long heap = 32;
+
+		for (int i = 0; i + 1 < args.length; i += 2)
+		{
+			String value = args[i + 1];
+
+			if (args[i].equals("-port"))
+			{
+				port = Integer.parseInt(value);
+			}
+			else if (args[i].equals("-script"))
+			{
+				scriptFile = value;
+			}
+			else if (args[i].equals("-channels"))
+			{
+				channels = Integer.parseInt(value);
+			}
+			else if (args[i].equals("-rate"))
+			{
+				rate = Double.parseDouble(value);
+			}
+			else if (args[i].equals("-payload"))
+			{
+				payload = Integer.parseInt(value);
+			}
+			else if (args[i].equals("-queue"))
+			{
+				queue = Integer.parseInt(value);
+			}
+			else if (args[i].equals("-heap"))
+			{
+				heap = Long.parseLong(value);
+			}
+			else
+			{
+				System.err.println("Unknown option: " + args[i]);
+				System.exit(1);
+			}
+		}
+
+		List<String> script = new ArrayList<String>();
+
+		if (scriptFile != null)
+		{
+			BufferedReader reader = new BufferedReader(new FileReader(scriptFile));
+
+			try
+			{
+				String line;
+
+				while ((line = reader.readLine()) != null)
+				{
+					script.add(line);
+				}
+			}
+			finally
+			{
+				reader.close();
+			}
+		}
+		else
+		{
+			for (String line : DEFAULT_SCRIPT)
+			{
+				script.add(line);
+			}
+		}
+
+		boolean passed = new ImpairmentTest(port, script, channels, rate, payload, queue, heap).run();
+		System.exit(passed ? 0 : 1);
+	}
+
+	public ImpairmentTest(int port, List<String> script, int channels, double rate, int payload, int queue,
+			long heapLimit)
+	{
+		this.port = port;
+		this.script = script;
+		this.channels = channels;
+		this.rate = rate;
+		this.payload = payload;
+		this.queue = queue;
+		this.heapLimit = heapLimit * 1024 * 1024;
+	}
+
+	/**
+	 * Sets up the server, proxy and clients, runs the script and checks the
+	 * results.
+	 * 
+	 * @return True if the publisher recovered and the heap stayed bounded
+	 */
+	public boolean run() throws IOException, InterruptedException
+	{
+		server = new SpacebrewTestServer(port);
+		server.startAndWait();
+		proxy = new ImpairmentProxy(port + 1, port);
+
+		try
+		{
+			setUp();
+			return runScript();
+		}
+		finally
+		{
+			sensor.deactivate();
+			publisher.disconnect();
+			receiver.disconnect();
+			proxy.close();
+			server.stop();
+		}
+	}
+
+	private void setUp() throws InterruptedException
+	{
+		SpacebrewClientCallback callback = new SpacebrewClientCallback()
+		{
+			@Override
+			public void onOpen()
+			{
+			}
+
+			@Override
+			public void onClose()
+			{
+			}
+
+			@Override
+			public void onError()
+			{
+			}
+		};
+
+		publisher = new SpacebrewClient(callback, "ws://127.0.0.1:" + (port + 1), "impaired");
+		publisher.setOutboundQueueCapacity(queue);
+		sensor = new SineSensor(publisher, "load", channels, rate, payload, 0.5);
+		sensor.enable();
+
+		receiver = new SpacebrewClient(callback, "ws://127.0.0.1:" + port, "receiver");
+
+		for (int channel = 0; channel < channels; channel++)
+		{
+			receiver.addSubscriber(sensor.getChannelName(channel), new ChannelSubscriber());
+		}
+
+		publisher.connect();
+		receiver.connect();
+
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+
+		while (!publisher.isConnected() || !receiver.isConnected() || server.getClientCount() < 2)
+		{
+			if (System.nanoTime() > deadline)
+			{
+				throw new IllegalStateException("Could not connect to the test server");
+			}
+
+			Thread.sleep(10);
+		}
+
+		while (server.getRouteCount() < channels)
+		{
+			if (System.nanoTime() > deadline)
+			{
+				throw new IllegalStateException("Could not route the publishers");
+			}
+
+			routeIfMissing();
+			Thread.sleep(100);
+		}
+
+		sensor.activate();
+	}
+
+	/**
+	 * Runs the script, printing the results once per second.
+	 * 
+	 * @return True if the publisher recovered and the heap stayed bounded
+	 */
+	private boolean runScript() throws InterruptedException
+	{
+		long baseline = usedHeapAfterGc();
+		long start = System.nanoTime();
+		long second = 0;
+		int line = 0;
+		long lastPublished = published();
+		long lastReceived = received.get();
+		long[] recentPublished = new long[5];
+		long[] recentReceived = new long[5];
+
+		System.out.println(String.format(Locale.ROOT, "%d publishers at %.1f msg/s, payload %d, queue %d", channels,
+				rate, payload, queue));
+
+		while (true)
+		{
+			String command = "";
+
+			while (line < script.size())
+			{
+				String[] words = script.get(line).trim().split("\\s+", 2);
+
+				if (words[0].length() == 0 || words[0].startsWith("#"))
+				{
+					line++;
+					continue;
+				}
+
+				if (Long.parseLong(words[0]) > second)
+				{
+					break;
+				}
+
+				line++;
+				command += (command.length() > 0 ? ", " : "") + words[1];
+
+				if (words[1].equals("end"))
+				{
+					return check(baseline, sum(recentPublished), sum(recentReceived));
+				}
+
+				proxy.apply(words[1]);
+			}
+
+			routeIfMissing();
+
+			second++;
+			Thread.sleep(Math.max(0, TimeUnit.NANOSECONDS.toMillis(start + TimeUnit.SECONDS.toNanos(second)
+					- System.nanoTime())));
+
+			long currentPublished = published();
+			long currentReceived = received.get();
+			long published = currentPublished - lastPublished;
+			long receivedCount = currentReceived - lastReceived;
+
+			System.out.println(String.format(Locale.ROOT, "%4d  published %7d  received %7d  dropped %7d  "
+					+ "lost %7d  queue %5d  %-12s  reconnects %3d  heap %5.1f MB  %s", second, published,
+					receivedCount, dropped(), lost.get(), publisher.getOutboundQueueSize(),
+					publisher.isConnected() ? "connected" : "disconnected", publisher.getMetrics().getReconnects(),
+					memory.getHeapMemoryUsage().getUsed() / 1048576.0, command));
+
+			// keep the counts of the last five seconds
+			recentPublished[(int) (second % 5)] = published;
+			recentReceived[(int) (second % 5)] = receivedCount;
+
+			lastPublished = currentPublished;
+			lastReceived = currentReceived;
+		}
+	}
+
+	/**
+	 * Checks that the publisher recovered and the heap stayed bounded.
+	 */
+	private boolean check(long baseline, long recentPublished, long recentReceived) throws InterruptedException
+	{
+		boolean recovered = recentPublished > 0 && recentReceived >= recentPublished * 0.9;
+		long growth = usedHeapAfterGc() - baseline;
+		boolean bounded = growth <= heapLimit;
+
+		System.out.println(String.format(Locale.ROOT, "recovered %s (%d of %d recent messages received), "
+				+ "heap growth %.1f MB of %.1f MB allowed, %d connections through the proxy", recovered ? "yes" : "NO",
+				recentReceived, recentPublished, growth / 1048576.0, heapLimit / 1048576.0, proxy.getConnections()));
+
+		return recovered && bounded;
+	}
+
+	/**
+	 * Routes the publishers again after the publisher reconnected, as the
+	 * server removes the routes of clients that disconnect.
+	 */
+	private void routeIfMissing()
+	{
+		if (!publisher.isConnected() || server.getRouteCount() == channels)
+		{
+			return;
+		}
+
+		for (int channel = 0; channel < channels; channel++)
+		{
+			String name = sensor.getChannelName(channel);
+			receiver.addRoute(new SpacebrewRoute(publisher.getName(), "127.0.0.1", name, receiver.getName(),
+					"127.0.0.1", name, SpacebrewMessage.TYPE_STRING));
+		}
+	}
+
+	private static long sum(long[] values)
+	{
+		long sum = 0;
+
+		for (long value : values)
+		{
+			sum += value;
+		}
+
+		return sum;
+	}
+
+	private long usedHeapAfterGc() throws InterruptedException
+	{
+		System.gc();
+		Thread.sleep(100);
+		return memory.getHeapMemoryUsage().getUsed();
+	}
+
+	private long published()
+	{
+		return sensor.getPublished() * channels;
+	}
+
+	private long dropped()
+	{
+		return sensor.getDropped() * channels;
+	}
+
+	/**
+	 * Counts gaps in the sequence of the messages of one channel.
+	 */
+	private class ChannelSubscriber implements StringSubscriber
+	{
+		private long	lastSequence	= 0;
+
+		@Override
+		public void receive(String value)
+		{
+			long sequence = SyntheticSensor.parseSequence(value);
+
+			if (sequence < 0)
+			{
+				return;
+			}
+
+			if (sequence > lastSequence + 1)
+			{
+				lost.addAndGet(sequence - lastSequence - 1);
+			}
+
+			lastSequence = Math.max(lastSequence, sequence);
+			received.incrementAndGet();
+		}
+	}
+}
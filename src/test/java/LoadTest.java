@@ -0,0 +1,413 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner. All rights reserved. This program and
+ * the accompanying materials are made available under the terms of the GNU
+ * Lesser Public License v2.1 which accompanies this distribution, and is
+ * available at http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * Contributors: Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.server.WebSocketServer;
+
+import at.ac.sbg.icts.spacebrew.client.SpacebrewClient;
+import at.ac.sbg.icts.spacebrew.client.SpacebrewClientCallback;
+import at.ac.sbg.icts.spacebrew.client.StringSubscriber;
+import at.ac.sbg.icts.spacebrew.client.metrics.LatencyHistogram;
+import at.ac.sbg.icts.spacebrew.sensor.BurstSensor;
+import at.ac.sbg.icts.spacebrew.sensor.RandomWalkSensor;
+import at.ac.sbg.icts.spacebrew.sensor.SineSensor;
+import at.ac.sbg.icts.spacebrew.sensor.SpacebrewSensorManager;
+import at.ac.sbg.icts.spacebrew.sensor.StepSensor;
+import at.ac.sbg.icts.spacebrew.sensor.SyntheticSensor;
+
+/**
+ * Measures how many synthetic publishers at which rates a single
+ * {@link SpacebrewClient} can sustain. Starts a number of
+ * {@link SyntheticSensor}s, subscribes to every channel on the same client
+ * and reports the achieved rates, dropped and lost messages and latency
+ * percentiles once per second and at the end of the run. Options:
+ * <ul>
+ * <li>{@code -server <uri>} Connects to a Spacebrew server (default
+ * {@code ws://localhost:9000}). Every publisher has to be routed to the
+ * subscriber of the same name, e.g. in the admin interface.</li>
+ * <li>{@code -loopback <port>} Starts a stand-in server on the loopback
+ * interface instead, which sends every message back to its client.</li>
+ * <li>{@code -pattern sine|walk|step|burst} The pattern of the sensors
+ * (default sine)</li>
+ * <li>{@code -sensors <n>} The number of sensors (default 4)</li>
+ * <li>{@code -channels <n>} The number of channels per sensor (default 3)</li>
+ * <li>{@code -rate <n>} The sample rate per sensor in samples per second
+ * (default 100)</li>
+ * <li>{@code -payload <n>} The minimum length of a value in characters
+ * (default 32)</li>
+ * <li>{@code -warmup <s>} The time before measuring starts (default 5)</li>
+ * <li>{@code -duration <s>} The time measured (default 30)</li>
+ * </ul>
+ * Latencies are measured from the time a sample was due to the time it was
+ * received, so they include delays of the sampling threads.
+ * 
+ * @author Axel Baumgartner
+ */
+public class LoadTest implements SpacebrewClientCallback
+{
+	private final String					serverUri;
+	private final String					pattern;
+	private final int						sensorCount;
+	private final int						channels;
+	private final double					rate;
+	private final int						payload;
+	private final long						warmup;
+	private final long						duration;
+
+	// Latencies from sample to reception
+	private final LatencyHistogram			latencies	= new LatencyHistogram();
+
+	// Messages received and messages missing in the sequence of a channel
+	private final AtomicLong				received	= new AtomicLong();
+	private final AtomicLong				lost		= new AtomicLong();
+
+	// Counts of the warm-up, subtracted from the totals
+	private long							publishedOffset	= 0;
+	private long							droppedOffset	= 0;
+
+	private final CountDownLatch			opened		= new CountDownLatch(1);
+	private final ArrayList<SyntheticSensor>	sensors	= new ArrayList<SyntheticSensor>();
+	private SpacebrewClient					client;
+
+	/**
+	 * Runs a load test.
+	 * 
+	 * @param args The options, see above
+	 */
+	public static void main(String args[]) throws Exception
+	{
+		String serverUri = "ws://localhost:9000";
+		String pattern = "sine";
+		int sensorCount = 4;
+		int channels = 3;
+		double rate = 100;
+		int payload = 32;
+		long warmup = 5;
+		long duration = 30;
+		WebSocketServer loopback = null;
+
+		for (int i = 0; i + 1 < args.length; i += 2)
+		{
+			String value = args[i + 1];
+
+			if (args[i].equals("-server"))
+			{
+				serverUri = value;
+			}
+			else if (args[i].equals("-loopback"))
+			{
+				loopback = startLoopback(Integer.parseInt(value));
+				serverUri = "ws://127.0.0.1:" + value;
+			}
+			else if (args[i].equals("-pattern"))
+			{
+				pattern = value;
+			}
+			else if (args[i].equals("-sensors"))
+			{
+				sensorCount = Integer.parseInt(value);
+			}
+			else if (args[i].equals("-channels"))
+			{
+				channels = Integer.parseInt(value);
+			}
+			else if (args[i].equals("-rate"))
+			{
+				rate = Double.parseDouble(value);
+			}
+			else if (args[i].equals("-payload"))
+			{
+				payload = Integer.parseInt(value);
+			}
+			else if (args[i].equals("-warmup"))
+			{
+				warmup = Long.parseLong(value);
+			}
+			else if (args[i].equals("-duration"))
+			{
+				duration = Long.parseLong(value);
+			}
+			else
+			{
+				System.err.println("Unknown option: " + args[i]);
+				System.exit(1);
+			}
+		}
+
+		new LoadTest(serverUri, pattern, sensorCount, channels, rate, payload, warmup, duration).run();
+
+		if (loopback != null)
+		{
+			loopback.stop();
+		}
+
+		System.exit(0);
+	}
+
+	public LoadTest(String serverUri, String pattern, int sensorCount, int channels, double rate, int payload,
+			long warmup, long duration)
+	{
+		this.serverUri = serverUri;
+		this.pattern = pattern;
+		this.sensorCount = sensorCount;
+		this.channels = channels;
+		this.rate = rate;
+		this.payload = payload;
+		this.warmup = warmup;
+		this.duration = duration;
+	}
+
+	/**
+	 * Connects, runs the sensors for the warm-up and measured time and prints
+	 * the results.
+	 */
+	public void run() throws InterruptedException
+	{
+		client = new SpacebrewClient(this, serverUri, "LoadTest", "Synthetic load generator");
+		client.setOutboundQueueCapacity(Math.max(1024, (int) (sensorCount * rate)));
+
+		SpacebrewSensorManager manager = new SpacebrewSensorManager()
+		{
+		};
+
+		for (int i = 0; i < sensorCount; i++)
+		{
+			SyntheticSensor sensor = createSensor("load" + i);
+
+			for (int channel = 0; channel < channels; channel++)
+			{
+				client.addSubscriber(sensor.getChannelName(channel), new ChannelSubscriber());
+			}
+
+			sensor.enable();
+			sensors.add(sensor);
+			manager.getSensors().put(sensor.getName(), sensor);
+		}
+
+		client.connect();
+
+		if (!opened.await(10, TimeUnit.SECONDS))
+		{
+			System.err.println("Could not connect to " + serverUri);
+			return;
+		}
+
+		System.out.println(String.format(Locale.ROOT, "%d %s sensors x %d channels at %.1f samples/s, payload %d",
+				sensorCount, pattern, channels, rate, payload));
+
+		manager.activate();
+
+		report(warmup, "warmup");
+		reset();
+		report(duration, "run");
+
+		manager.deactivate();
+		client.disconnect();
+	}
+
+	/**
+	 * Prints the results once per second for a time, and in total at the
+	 * end.
+	 * 
+	 * @param seconds The time to report
+	 * @param phase The name of the phase
+	 */
+	private void report(long seconds, String phase) throws InterruptedException
+	{
+		long start = System.nanoTime();
+		long lastPublished = published();
+		long lastReceived = received.get();
+
+		for (long second = 1; second <= seconds; second++)
+		{
+			Thread.sleep(Math.max(0, TimeUnit.NANOSECONDS.toMillis(start + TimeUnit.SECONDS.toNanos(second)
+					- System.nanoTime())));
+
+			long currentPublished = published();
+			long currentReceived = received.get();
+
+			print(phase + " " + second, currentPublished - lastPublished, currentReceived - lastReceived, 1);
+
+			lastPublished = currentPublished;
+			lastReceived = currentReceived;
+		}
+
+		if (!phase.equals("warmup"))
+		{
+			print("total", published(), received.get(), (System.nanoTime() - start) / 1e9);
+		}
+	}
+
+	private void print(String label, long published, long received, double seconds)
+	{
+		System.out.println(String.format(Locale.ROOT, "%-10s published %9.0f msg/s  received %9.0f msg/s  "
+				+ "dropped %7d  lost %7d  queue %5d  latency ms p50 %7.3f  p99 %7.3f  p99.9 %7.3f  max %7.3f", label,
+				published / seconds, received / seconds, dropped(), lost.get(), client.getOutboundQueueSize(),
+				latencies.getValueAtPercentile(50) / 1e6, latencies.getValueAtPercentile(99) / 1e6,
+				latencies.getValueAtPercentile(99.9) / 1e6, latencies.getMax() / 1e6));
+	}
+
+	/**
+	 * Discards the results of the warm-up.
+	 */
+	private void reset()
+	{
+		latencies.reset();
+		received.set(0);
+		lost.set(0);
+		publishedOffset = published();
+		droppedOffset = dropped();
+	}
+
+	/**
+	 * @return The number of messages published since the warm-up
+	 */
+	private long published()
+	{
+		long samples = 0;
+
+		for (SyntheticSensor sensor : sensors)
+		{
+			samples += sensor.getPublished();
+		}
+
+		return samples * channels - publishedOffset;
+	}
+
+	/**
+	 * @return The number of messages dropped since the warm-up
+	 */
+	private long dropped()
+	{
+		long samples = 0;
+
+		for (SyntheticSensor sensor : sensors)
+		{
+			samples += sensor.getDropped();
+		}
+
+		return samples * channels - droppedOffset;
+	}
+
+	private SyntheticSensor createSensor(String name)
+	{
+		if (pattern.equals("walk"))
+		{
+			return new RandomWalkSensor(client, name, channels, rate, payload, 0.05, name.hashCode());
+		}
+		else if (pattern.equals("step"))
+		{
+			return new StepSensor(client, name, channels, rate, payload, 1);
+		}
+		else if (pattern.equals("burst"))
+		{
+			return new BurstSensor(client, name, channels, rate, payload, (int) Math.max(1, rate / 10),
+					(long) Math.max(1, rate));
+		}
+		else
+		{
+			return new SineSensor(client, name, channels, rate, payload, 0.5);
+		}
+	}
+
+	/**
+	 * Starts a stand-in server that sends every publisher message back to its
+	 * client, so the client receives its own messages on the subscribers of
+	 * the same name.
+	 * 
+	 * @param port The port on the loopback interface
+	 * @return The started server
+	 */
+	private static WebSocketServer startLoopback(int port) throws InterruptedException
+	{
+		WebSocketServer server = new WebSocketServer(new InetSocketAddress("127.0.0.1", port))
+		{
+			@Override
+			public void onOpen(WebSocket connection, ClientHandshake handshake)
+			{
+			}
+
+			@Override
+			public void onClose(WebSocket connection, int code, String reason, boolean remote)
+			{
+			}
+
+			@Override
+			public void onMessage(WebSocket connection, String message)
+			{
+				if (message.startsWith("{\"message\""))
+				{
+					connection.send(message);
+				}
+			}
+
+			@Override
+			public void onError(WebSocket connection, Exception exception)
+			{
+			}
+		};
+
+		server.start();
+		Thread.sleep(200);
+		return server;
+	}
+
+	@Override
+	public void onOpen()
+	{
+		opened.countDown();
+	}
+
+	@Override
+	public void onClose()
+	{
+	}
+
+	@Override
+	public void onError()
+	{
+	}
+
+	/**
+	 * Measures the latency of the messages of one channel and counts gaps in
+	 * their sequence.
+	 */
+	private class ChannelSubscriber implements StringSubscriber
+	{
+		private long	lastSequence	= 0;
+
+		@Override
+		public void receive(String value)
+		{
+			long now = System.nanoTime();
+			long sequence = SyntheticSensor.parseSequence(value);
+			long nanos = SyntheticSensor.parseNanos(value);
+
+			if (sequence < 0 || nanos == Long.MIN_VALUE)
+			{
+				return;
+			}
+
+			if (sequence > lastSequence + 1)
+			{
+				lost.addAndGet(sequence - lastSequence - 1);
+			}
+
+			lastSequence = Math.max(lastSequence, sequence);
+			received.incrementAndGet();
+			latencies.record(now - nanos);
+		}
+	}
+}
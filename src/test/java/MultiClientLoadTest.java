@@ -0,0 +1,547 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner. All rights reserved. This program and
+ * the accompanying materials are made available under the terms of the GNU
+ * Lesser Public License v2.1 which accompanies this distribution, and is
+ * available at http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * Contributors: Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import at.ac.sbg.icts.spacebrew.client.SpacebrewClient;
+import at.ac.sbg.icts.spacebrew.client.SpacebrewClientCallback;
+import at.ac.sbg.icts.spacebrew.client.SpacebrewClientPool;
+import at.ac.sbg.icts.spacebrew.client.SpacebrewMessage;
+import at.ac.sbg.icts.spacebrew.client.SpacebrewRoute;
+import at.ac.sbg.icts.spacebrew.client.StringSubscriber;
+import at.ac.sbg.icts.spacebrew.client.StripedSpacebrewClient;
+import at.ac.sbg.icts.spacebrew.client.metrics.LatencyHistogram;
+import at.ac.sbg.icts.spacebrew.sensor.SineSensor;
+import at.ac.sbg.icts.spacebrew.sensor.SyntheticSensor;
+
+/**
+ * Measures a complete setup on a single machine without network access.
+ * Starts a {@link SpacebrewTestServer} and a number of clients with a number
+ * of publishers each, routes every publisher to the subscriber of the same
+ * name on the next client, drives all publishers at a fixed rate and reports
+ * the sustained throughput, delivery latency percentiles, garbage collections
+ * and threads once per second and at the end of the run. Options:
+ * <ul>
+ * <li>{@code -port <n>} The port of the server on the loopback interface
+ * (default 19013)</li>
+ * <li>{@code -clients <n>} The number of clients (default 10)</li>
+ * <li>{@code -publishers <n>} The number of publishers per client (default
+ * 10)</li>
+ * <li>{@code -stripes <n>} The number of connections per client, more than 1
+ * uses a {@link StripedSpacebrewClient} (default 1)</li>
+ * <li>{@code -pool <n>} The number of threads of a {@link SpacebrewClientPool}
+ * shared by all clients, 0 for a thread per client (default 0)</li>
+ * <li>{@code -rate <n>} The rate per publisher in messages per second
+ * (default 100)</li>
+ * <li>{@code -payload <n>} The minimum length of a value in characters
+ * (default 32)</li>
+ * <li>{@code -warmup <s>} The time before measuring starts (default 5)</li>
+ * <li>{@code -duration <s>} The time measured (default 30)</li>
+ * </ul>
+ * Latencies are measured from the time a message was due to the time it was
+ * received by the subscriber. Garbage collections are reported as count and
+ * accumulated time of all collectors.
+ * 
+ * @author Axel Baumgartner
+ */
+public class MultiClientLoadTest
+{
+	private final int					port;
+	private final int					clientCount;
+	private final int					publisherCount;
+	private final int					stripeCount;
+	private final int					poolThreads;
+	private final double				rate;
+	private final int					payload;
+	private final long					warmup;
+	private final long					duration;
+
+	// Latencies from publishing to reception
+	private final LatencyHistogram		latencies		= new LatencyHistogram();
+
+	// Messages received and messages missing in the sequence of a route
+	private final AtomicLong			received		= new AtomicLong();
+	private final AtomicLong			lost			= new AtomicLong();
+
+	// Counts of the warm-up, subtracted from the totals
+	private long						publishedOffset	= 0;
+	private long						droppedOffset	= 0;
+	private long						gcCountOffset	= 0;
+	private long						gcTimeOffset	= 0;
+
+	private final List<SpacebrewClient>	clients			= new ArrayList<SpacebrewClient>();
+	private final List<SyntheticSensor>	sensors			= new ArrayList<SyntheticSensor>();
+	private final ThreadMXBean			threads			= ManagementFactory.getThreadMXBean();
+	private SpacebrewTestServer			server;
+	private SpacebrewClientPool			pool;
+
+	/**
+	 * Runs a load test.
+	 * 
+	 * @param args The options, see above
+	 */
+	public static void main(String args[]) throws Exception
+	{
+		int port = 19013;
+		int clientCount = 10;
+		int publisherCount = 10;
+		int stripeCount = 1;
+		int poolThreads = 0;
+		double rate = 100;
+		int payload = 32;
+		long warmup = 5;
+		long duration = 30;
+
+		for (int i = 0; i + 1 < args.length; i += 2)
+		{
+			String value = args[i + 1];
+
+			if (args[i].equals("-port"))
+			{
+				port = Integer.parseInt(value);
+			}
+			else if (args[i].equals("-clients"))
+			{
+				clientCount = Integer.parseInt(value);
+			}
+			else if (args[i].equals("-publishers"))
+			{
+				publisherCount = Integer.parseInt(value);
+			}
+			else if (args[i].equals("-stripes"))
+			{
+				stripeCount = Integer.parseInt(value);
+			}
+			else if (args[i].equals("-pool"))
+			{
+				poolThreads = Integer.parseInt(value);
+			}
+			else if (args[i].equals("-rate"))
+			{
+				rate = Double.parseDouble(value);
+			}
+			else if (args[i].equals("-payload"))
+			{
+				payload = Integer.parseInt(value);
+			}
+			else if (args[i].equals("-warmup"))
+			{
+				warmup = Long.parseLong(value);
+			}
+			else if (args[i].equals("-duration"))
+			{
+				duration = Long.parseLong(value);
+			}
+			else
+			{
+				System.err.println("Unknown option: " + args[i]);
+				System.exit(1);
+			}
+		}
+
+		boolean completed = new MultiClientLoadTest(port, clientCount, publisherCount, stripeCount, poolThreads,
+				rate, payload, warmup, duration).run();
+
+		System.exit(completed ? 0 : 1);
+	}
+
+	public MultiClientLoadTest(int port, int clientCount, int publisherCount, int stripeCount, int poolThreads,
+			double rate, int payload, long warmup, long duration)
+	{
+		this.port = port;
+		this.clientCount = clientCount;
+		this.publisherCount = publisherCount;
+		this.stripeCount = stripeCount;
+		this.poolThreads = poolThreads;
+		this.rate = rate;
+		this.payload = payload;
+		this.warmup = warmup;
+		this.duration = duration;
+	}
+
+	/**
+	 * Starts the server, connects and routes the clients, runs the publishers
+	 * for the warm-up and measured time and prints the results.
+	 * 
+	 * @return True if the test ran, false if the setup failed
+	 */
+	public boolean run() throws Exception
+	{
+		server = new SpacebrewTestServer(port);
+		server.startAndWait();
+
+		try
+		{
+			return connect() && route() && measure();
+		}
+		finally
+		{
+			for (SyntheticSensor sensor : sensors)
+			{
+				sensor.deactivate();
+			}
+
+			for (SpacebrewClient client : clients)
+			{
+				client.disconnect();
+			}
+
+			if (pool != null)
+			{
+				pool.shutdown();
+			}
+
+			server.stop();
+		}
+	}
+
+	/**
+	 * Creates and connects the clients, each with a sensor publishing on all
+	 * channels and a subscriber per channel.
+	 * 
+	 * @return True if all clients connected and sent their configuration
+	 */
+	private boolean connect() throws InterruptedException
+	{
+		final CountDownLatch opened = new CountDownLatch(clientCount);
+
+		SpacebrewClientCallback callback = new SpacebrewClientCallback()
+		{
+			@Override
+			public void onOpen()
+			{
+				opened.countDown();
+			}
+
+			@Override
+			public void onClose()
+			{
+			}
+
+			@Override
+			public void onError()
+			{
+			}
+		};
+
+		for (int i = 0; i < clientCount; i++)
+		{
+			SpacebrewClient client;
+
+			if (stripeCount > 1)
+			{
+				client = new StripedSpacebrewClient(callback, "ws://127.0.0.1:" + port, "client" + i, stripeCount);
+			}
+			else
+			{
+				client = new SpacebrewClient(callback, "ws://127.0.0.1:" + port, "client" + i);
+			}
+
+			if (poolThreads > 0)
+			{
+				if (pool == null)
+				{
+					pool = new SpacebrewClientPool(poolThreads, SpacebrewClientPool.DEFAULT_MAX_CONNECTING);
+				}
+
+				pool.add(client);
+			}
+
+
+			client.setOutboundQueueCapacity(Math.max(1024, (int) (publisherCount * rate)));
+
+			SyntheticSensor sensor = new SineSensor(client, "load", publisherCount, rate, payload, 0.5);
+
+			for (int channel = 0; channel < publisherCount; channel++)
+			{
+				client.addSubscriber(sensor.getChannelName(channel), new RouteSubscriber());
+			}
+
+			sensor.enable();
+			clients.add(client);
+			sensors.add(sensor);
+		}
+
+		for (SpacebrewClient client : clients)
+		{
+			client.connect();
+		}
+
+		if (!opened.await(30, TimeUnit.SECONDS) || !await(new Condition()
+		{
+			@Override
+			public boolean isMet()
+			{
+				return server.getClientCount() == clientCount * stripeCount;
+			}
+		}))
+		{
+			System.err.println("Could not connect all clients");
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Routes every publisher to the subscriber of the same name on the next
+	 * client, through the route messages of the first client. Publishers of
+	 * striped clients are routed from the stripe they are assigned to.
+	 * 
+	 * @return True if the server added all routes
+	 */
+	private boolean route() throws InterruptedException
+	{
+		SpacebrewClient admin = clients.get(0);
+
+		for (int i = 0; i < clientCount; i++)
+		{
+			SpacebrewClient client = clients.get(i);
+			String subscriberClient = clients.get((i + 1) % clientCount).getName();
+
+			for (int channel = 0; channel < publisherCount; channel++)
+			{
+				String name = sensors.get(i).getChannelName(channel);
+				String publisherClient = client.getName();
+
+				if (client instanceof StripedSpacebrewClient)
+				{
+					StripedSpacebrewClient striped = (StripedSpacebrewClient) client;
+					publisherClient = striped.getStripe(striped.getStripeIndex(name)).getName();
+				}
+
+				admin.addRoute(new SpacebrewRoute(publisherClient, "127.0.0.1", name, subscriberClient, "127.0.0.1",
+						name, SpacebrewMessage.TYPE_STRING));
+			}
+		}
+
+		if (!await(new Condition()
+		{
+			@Override
+			public boolean isMet()
+			{
+				return server.getRouteCount() == clientCount * publisherCount;
+			}
+		}))
+		{
+			System.err.println("Could not add all routes");
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Activates the publishers and reports the warm-up and measured time.
+	 * 
+	 * @return True
+	 */
+	private boolean measure() throws InterruptedException
+	{
+		System.out.println(String.format(Locale.ROOT,
+				"%d clients x %d publishers at %.1f msg/s, payload %d, %d stripes, %d routes, %d threads", clientCount,
+				publisherCount, rate, payload, stripeCount, server.getRouteCount(), threads.getThreadCount()));
+
+		for (SyntheticSensor sensor : sensors)
+		{
+			sensor.activate();
+		}
+
+		report(warmup, "warmup");
+		reset();
+		report(duration, "run");
+
+		return true;
+	}
+
+	/**
+	 * Prints the results once per second for a time, and in total at the
+	 * end.
+	 * 
+	 * @param seconds The time to report
+	 * @param phase The name of the phase
+	 */
+	private void report(long seconds, String phase) throws InterruptedException
+	{
+		long start = System.nanoTime();
+		long lastPublished = published();
+		long lastReceived = received.get();
+
+		threads.resetPeakThreadCount();
+
+		for (long second = 1; second <= seconds; second++)
+		{
+			Thread.sleep(Math.max(0, TimeUnit.NANOSECONDS.toMillis(start + TimeUnit.SECONDS.toNanos(second)
+					- System.nanoTime())));
+
+			long currentPublished = published();
+			long currentReceived = received.get();
+
+			print(phase + " " + second, currentPublished - lastPublished, currentReceived - lastReceived, 1);
+
+			lastPublished = currentPublished;
+			lastReceived = currentReceived;
+		}
+
+		if (!phase.equals("warmup"))
+		{
+			print("total", published(), received.get(), (System.nanoTime() - start) / 1e9);
+		}
+	}
+
+	private void print(String label, long published, long received, double seconds)
+	{
+		System.out.println(String.format(Locale.ROOT, "%-10s published %9.0f msg/s  received %9.0f msg/s  "
+				+ "dropped %7d  lost %7d  latency ms p50 %7.3f  p99 %7.3f  p99.9 %7.3f  max %7.3f  gc %4d / %6d ms  "
+				+ "threads %4d (peak %d)", label, published / seconds, received / seconds, dropped(), lost.get(),
+				latencies.getValueAtPercentile(50) / 1e6, latencies.getValueAtPercentile(99) / 1e6,
+				latencies.getValueAtPercentile(99.9) / 1e6, latencies.getMax() / 1e6, gcCount() - gcCountOffset,
+				gcTime() - gcTimeOffset, threads.getThreadCount(), threads.getPeakThreadCount()));
+	}
+
+	/**
+	 * Discards the results of the warm-up.
+	 */
+	private void reset()
+	{
+		latencies.reset();
+		received.set(0);
+		lost.set(0);
+		publishedOffset = published();
+		droppedOffset = dropped();
+		gcCountOffset = gcCount();
+		gcTimeOffset = gcTime();
+	}
+
+	/**
+	 * @return The number of messages published since the warm-up
+	 */
+	private long published()
+	{
+		long samples = 0;
+
+		for (SyntheticSensor sensor : sensors)
+		{
+			samples += sensor.getPublished();
+		}
+
+		return samples * publisherCount - publishedOffset;
+	}
+
+	/**
+	 * @return The number of messages dropped since the warm-up
+	 */
+	private long dropped()
+	{
+		long samples = 0;
+
+		for (SyntheticSensor sensor : sensors)
+		{
+			samples += sensor.getDropped();
+		}
+
+		return samples * publisherCount - droppedOffset;
+	}
+
+	/**
+	 * @return The number of garbage collections of all collectors
+	 */
+	private static long gcCount()
+	{
+		long count = 0;
+
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+		{
+			count += Math.max(0, collector.getCollectionCount());
+		}
+
+		return count;
+	}
+
+	/**
+	 * @return The accumulated time of the garbage collections of all
+	 *         collectors in milliseconds
+	 */
+	private static long gcTime()
+	{
+		long time = 0;
+
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+		{
+			time += Math.max(0, collector.getCollectionTime());
+		}
+
+		return time;
+	}
+
+	/**
+	 * Waits up to ten seconds for a condition.
+	 * 
+	 * @param condition The condition
+	 * @return True if the condition is met
+	 */
+	private static boolean await(Condition condition) throws InterruptedException
+	{
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+
+		while (!condition.isMet())
+		{
+			if (System.nanoTime() > deadline)
+			{
+				return false;
+			}
+
+			Thread.sleep(10);
+		}
+
+		return true;
+	}
+
+	private interface Condition
+	{
+		boolean isMet();
+	}
+
+	/**
+	 * Measures the latency of the messages of one route and counts gaps in
+	 * their sequence.
+	 */
+	private class RouteSubscriber implements StringSubscriber
+	{
+		private long	lastSequence	= 0;
+
+		@Override
+		public void receive(String value)
+		{
+			long now = System.nanoTime();
+			long sequence = SyntheticSensor.parseSequence(value);
+			long nanos = SyntheticSensor.parseNanos(value);
+
+			if (sequence < 0 || nanos == Long.MIN_VALUE)
+			{
+				return;
+			}
+
+			if (sequence > lastSequence + 1)
+			{
+				lost.addAndGet(sequence - lastSequence - 1);
+			}
+
+			lastSequence = Math.max(lastSequence, sequence);
+			received.incrementAndGet();
+			latencies.record(now - nanos);
+		}
+	}
+}
@@ -0,0 +1,475 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner. All rights reserved. This program and
+ * the accompanying materials are made available under the terms of the GNU
+ * Lesser Public License v2.1 which accompanies this distribution, and is
+ * available at http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * Contributors: Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import at.ac.sbg.icts.spacebrew.client.SpacebrewClient;
+import at.ac.sbg.icts.spacebrew.client.SpacebrewClientCallback;
+import at.ac.sbg.icts.spacebrew.client.SpacebrewMessage;
+import at.ac.sbg.icts.spacebrew.client.SpacebrewRoute;
+import at.ac.sbg.icts.spacebrew.client.StringSubscriber;
+
+/**
+ * Measures the time to apply large configuration changes on a live
+ * connection. A client routed to itself publishes a numbered message every
+ * millisecond through a {@link SpacebrewTestServer} while a number of
+ * publishers are added and removed, once one by one (a configuration message
+ * per change) and once as a single reconfiguration. Each change is timed
+ * until the server holds the resulting configuration. Finally the client is
+ * renamed and its description changed on the same connection, which must
+ * only send the description, the name is applied on the next connection.
+ * <p/>
+ * The test fails (exit status 1) if a reconfiguration sends more than one
+ * configuration message, an empty reconfiguration sends any, the client
+ * reconnects or a numbered message is lost or reordered. Options:
+ * <ul>
+ * <li>{@code -port <n>} The port of the server (default 19023)</li>
+ * <li>{@code -routes <n>} The number of publishers added and removed per
+ * change (default 1000)</li>
+ * <li>{@code -rounds <n>} The number of times all changes are applied
+ * (default 3)</li>
+ * </ul>
+ * 
+ * @author Axel Baumgartner
+ */
+public class ReconfigurationTest
+{
+	private static final String	NAME		= "reconfiguration";
+	private static final String	SEQUENCE	= "sequence";
+
+	private final int			port;
+	private final int			routes;
+	private final int			rounds;
+
+	// Numbered messages published, received and missing or out of order
+	private final AtomicLong	published	= new AtomicLong();
+	private final AtomicLong	received	= new AtomicLong();
+	private final AtomicLong	lost		= new AtomicLong();
+
+	private SpacebrewTestServer	server;
+	private SpacebrewClient		client;
+	private volatile boolean	publishing;
+	private boolean				passed		= true;
+
+	/**
+	 * Runs the reconfiguration test.
+	 * 
+	 * @param args The options, see above
+	 */
+	public static void main(String args[]) throws Exception
+	{
+		int port = 19023;
+		int routes = 1000;
+		int rounds = 3;
+
+		for (int i = 0; i + 1 < args.length; i += 2)
+		{
+			String value = args[i + 1];
+
+			if (args[i].equals("-port"))
+			{
+				port = Integer.parseInt(value);
+			}
+			else if (args[i].equals("-routes"))
+			{
+				routes = Integer.parseInt(value);
+			}
+			else if (args[i].equals("-rounds"))
+			{
+				rounds = Integer.parseInt(value);
+			}
+			else
+			{
+				System.err.println("Unknown option: " + args[i]);
+				System.exit(1);
+			}
+		}
+
+		boolean passed = new ReconfigurationTest(port, routes, rounds).run();
+		System.exit(passed ? 0 : 1);
+	}
+
+	public ReconfigurationTest(int port, int routes, int rounds)
+	{
+		this.port = port;
+		this.routes = routes;
+		this.rounds = rounds;
+	}
+
+	/**
+	 * Connects the client, applies the changes and checks the results.
+	 * 
+	 * @return True if all checks passed
+	 */
+	public boolean run() throws Exception
+	{
+		server = new SpacebrewTestServer(port);
+		server.startAndWait();
+
+		client = new SpacebrewClient(new SpacebrewClientCallback()
+		{
+			@Override
+			public void onOpen()
+			{
+			}
+
+			@Override
+			public void onClose()
+			{
+			}
+
+			@Override
+			public void onError()
+			{
+			}
+		}, "ws://127.0.0.1:" + port, NAME);
+
+		client.addPublisher(SEQUENCE, SpacebrewMessage.TYPE_STRING, "");
+		client.addSubscriber(SEQUENCE, new StringSubscriber()
+		{
+			private long	expected	= 0;
+
+			@Override
+			public void receive(String value)
+			{
+				long sequence = Long.parseLong(value);
+
+				if (sequence != expected)
+				{
+					lost.incrementAndGet();
+				}
+
+				expected = sequence + 1;
+				received.incrementAndGet();
+			}
+		});
+
+		Thread publisher = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				while (publishing)
+				{
+					client.publish(SEQUENCE, SpacebrewMessage.TYPE_STRING, Long.toString(published.get()));
+					published.incrementAndGet();
+
+					try
+					{
+						Thread.sleep(1);
+					}
+					catch (InterruptedException e)
+					{
+						return;
+					}
+				}
+			}
+		}, "ReconfigurationTest-publisher");
+
+		try
+		{
+			client.connect();
+
+			if (!await(NAME, 1))
+			{
+				System.err.println("Could not connect to the test server");
+				return false;
+			}
+
+			client.addRoute(new SpacebrewRoute(NAME, "127.0.0.1", SEQUENCE, NAME, "127.0.0.1", SEQUENCE,
+					SpacebrewMessage.TYPE_STRING));
+
+			while (server.getRouteCount() == 0)
+			{
+				Thread.sleep(1);
+			}
+
+			publishing = true;
+			publisher.start();
+
+			System.out.println(String.format(Locale.ROOT, "%d publishers per change, %d rounds", routes, rounds));
+
+			for (int round = 1; round <= rounds; round++)
+			{
+				applyIndividually(round);
+				applyAsReconfiguration(round);
+				applyEmptyReconfiguration(round);
+			}
+
+			publishing = false;
+			publisher.join();
+			Thread.sleep(200);
+
+			rename();
+
+			passed &= check("connects", client.getMetrics().getConnects(), 1);
+			passed &= check("lost or reordered", lost.get(), 0);
+			passed &= check("not received", published.get() - received.get(), 0);
+
+			System.out.println(passed ? "OK" : "FAILED");
+			return passed;
+		}
+		finally
+		{
+			publishing = false;
+			client.disconnect();
+			server.stop();
+		}
+	}
+
+	/**
+	 * Adds and removes the publishers one by one.
+	 * 
+	 * @param round The current round
+	 */
+	private void applyIndividually(int round) throws InterruptedException
+	{
+		long start = begin();
+
+		for (int i = 0; i < routes; i++)
+		{
+			client.addPublisher("publisher" + i, SpacebrewMessage.TYPE_STRING, "");
+		}
+
+		end(round, "add one by one", start, 1 + routes, -1);
+		start = begin();
+
+		for (int i = 0; i < routes; i++)
+		{
+			client.removePublisher("publisher" + i, SpacebrewMessage.TYPE_STRING);
+		}
+
+		end(round, "remove one by one", start, 1, -1);
+	}
+
+	/**
+	 * Adds and removes the publishers as one reconfiguration each.
+	 * 
+	 * @param round The current round
+	 */
+	private void applyAsReconfiguration(int round) throws InterruptedException
+	{
+		long start = begin();
+
+		client.reconfigure(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				for (int i = 0; i < routes; i++)
+				{
+					client.addPublisher("publisher" + i, SpacebrewMessage.TYPE_STRING, "");
+				}
+			}
+		});
+
+		end(round, "add reconfigured", start, 1 + routes, 1);
+		start = begin();
+
+		client.reconfigure(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				for (int i = 0; i < routes; i++)
+				{
+					client.removePublisher("publisher" + i, SpacebrewMessage.TYPE_STRING);
+				}
+			}
+		});
+
+		end(round, "remove reconfigured", start, 1, 1);
+	}
+
+	/**
+	 * Adds and removes the publishers in the same reconfiguration, which must
+	 * not send anything.
+	 * 
+	 * @param round The current round
+	 */
+	private void applyEmptyReconfiguration(int round) throws InterruptedException
+	{
+		long start = begin();
+
+		client.reconfigure(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				for (int i = 0; i < routes; i++)
+				{
+					client.addPublisher("publisher" + i, SpacebrewMessage.TYPE_STRING, "");
+				}
+
+				for (int i = 0; i < routes; i++)
+				{
+					client.removePublisher("publisher" + i, SpacebrewMessage.TYPE_STRING);
+				}
+			}
+		});
+
+		end(round, "add and remove", start, 1, 0);
+	}
+
+	/**
+	 * Renames the client and changes its description in one reconfiguration.
+	 * The server must receive the new description under the old name.
+	 */
+	private void rename() throws InterruptedException
+	{
+		long start = begin();
+		final String renamed = NAME + "-renamed";
+		final String description = "renamed on the same connection";
+
+		client.reconfigure(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				client.setName(renamed);
+				client.setDescription(description);
+			}
+		});
+
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+
+		while (server.getConfig(NAME) == null || !description.equals(server.getConfig(NAME).get("description")))
+		{
+			if (System.nanoTime() > deadline)
+			{
+				System.err.println("The server did not receive the new description");
+				passed = false;
+				break;
+			}
+
+			Thread.sleep(1);
+		}
+
+		if (server.getConfig(renamed) != null || !NAME.equals(client.getCurrentName()))
+		{
+			System.err.println("The name was applied on the current connection");
+			passed = false;
+		}
+
+		if (report(0, "rename", start, 1) != 1)
+		{
+			System.err.println("The rename did not send exactly one configuration message");
+			passed = false;
+		}
+	}
+
+	/**
+	 * @return The start time of a change
+	 */
+	private long begin()
+	{
+		configsOffset = client.getMetrics().getConfigSends();
+		return System.nanoTime();
+	}
+
+	// Configuration messages sent before the current change
+	private long	configsOffset;
+
+	/**
+	 * Waits until the server holds the configuration and reports the change.
+	 * 
+	 * @param round The current round
+	 * @param change The name of the change
+	 * @param start The start time of the change
+	 * @param publishers The number of publishers the server must hold
+	 * @param configs The number of configuration messages the change must
+	 *            send, -1 if not checked
+	 */
+	private void end(int round, String change, long start, int publishers, int configs) throws InterruptedException
+	{
+		if (!await(NAME, publishers))
+		{
+			System.err.println("The server did not receive the configuration of: " + change);
+			passed = false;
+		}
+
+		long sent = report(round, change, start, configs);
+
+		if (configs >= 0 && sent != configs)
+		{
+			System.err.println(String.format(Locale.ROOT, "%s sent %d configuration messages instead of %d", change,
+					sent, configs));
+			passed = false;
+		}
+	}
+
+	/**
+	 * Prints the time and configuration messages of a change.
+	 * 
+	 * @return The number of configuration messages sent
+	 */
+	private long report(int round, String change, long start, int configs)
+	{
+		double millis = (System.nanoTime() - start) / 1e6;
+		long sent = client.getMetrics().getConfigSends() - configsOffset;
+
+		System.out.println(String.format(Locale.ROOT, "round %2d  %-20s %9.1f ms  %6d config messages  "
+				+ "queue %5d  received %8d", round, change, millis, sent, client.getOutboundQueueSize(),
+				received.get()));
+
+		return sent;
+	}
+
+	/**
+	 * Waits until the server holds a configuration of a client with a number
+	 * of publishers.
+	 * 
+	 * @param name The name of the client
+	 * @param publishers The number of publishers
+	 * @return True if the server holds the configuration within 30 seconds
+	 */
+	private boolean await(String name, int publishers) throws InterruptedException
+	{
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+
+		while (countPublishers(name) != publishers)
+		{
+			if (System.nanoTime() > deadline)
+			{
+				return false;
+			}
+
+			Thread.sleep(1);
+		}
+
+		return true;
+	}
+
+	/**
+	 * @param name The name of a client
+	 * @return The number of publishers in the latest configuration of the
+	 *         client on the server, -1 if there is none
+	 */
+	private int countPublishers(String name)
+	{
+		JSONObject config = server.getConfig(name);
+
+		if (config == null)
+		{
+			return -1;
+		}
+
+		return ((JSONArray) ((JSONObject) config.get("publish")).get("messages")).size();
+	}
+
+	private boolean check(String what, long value, long expected)
+	{
+		boolean ok = value == expected;
+		System.out.println(String.format(Locale.ROOT, "%-18s %8d  %s", what, value, ok ? "ok" : "FAILED"));
+		return ok;
+	}
+}
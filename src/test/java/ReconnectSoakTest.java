@@ -0,0 +1,321 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner. All rights reserved. This program and
+ * the accompanying materials are made available under the terms of the GNU
+ * Lesser Public License v2.1 which accompanies this distribution, and is
+ * available at http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * Contributors: Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import at.ac.sbg.icts.spacebrew.client.SpacebrewClient;
+import at.ac.sbg.icts.spacebrew.client.SpacebrewClientCallback;
+import at.ac.sbg.icts.spacebrew.sensor.SineSensor;
+import at.ac.sbg.icts.spacebrew.sensor.SyntheticSensor;
+
+/**
+ * Checks that connecting and reconnecting does not leak. A client publishing
+ * continuously is connected to a {@link SpacebrewTestServer} through an
+ * {@link ImpairmentProxy} and goes through many cycles, alternately dropped
+ * by the proxy (the client reconnects by itself) and disconnected and
+ * connected again by the application. The threads, the heap used after a
+ * full garbage collection and the open file descriptors are sampled at
+ * regular intervals.
+ * <p/>
+ * The test fails (exit status 1) if a resource grows without bound, i.e. if
+ * even its lowest value in the last quarter of the samples exceeds its
+ * highest value in the first quarter by more than a tolerance, or if the
+ * client does not reconnect. Options:
+ * <ul>
+ * <li>{@code -port <n>} The port of the server, the proxy uses the next port
+ * (default 19017)</li>
+ * <li>{@code -cycles <n>} The number of connect/drop cycles (default
+ * 1000)</li>
+ * <li>{@code -connected <ms>} The time the client stays connected per cycle
+ * (default 100)</li>
+ * <li>{@code -sample <n>} The number of cycles between samples (default
+ * 50)</li>
+ * <li>{@code -rate <n>} The rate of the publishers in messages per second
+ * (default 200)</li>
+ * </ul>
+ * 
+ * @author Axel Baumgartner
+ */
+public class ReconnectSoakTest
+{
+	// Growth allowed from the first to the last quarter of the samples
+	private static final int			THREAD_TOLERANCE	= 8;
+	private static final long			HEAP_TOLERANCE		= 8 * 1024 * 1024;
+	private static final long			FD_TOLERANCE		= 16;
+
+	private final int					port;
+	private final int					cycles;
+	private final long					connectedMillis;
+	private final int					sampleInterval;
+	private final double				rate;
+
+	private final ThreadMXBean			threads				= ManagementFactory.getThreadMXBean();
+	private final MemoryMXBean			memory				= ManagementFactory.getMemoryMXBean();
+	private final OperatingSystemMXBean	system				= ManagementFactory.getOperatingSystemMXBean();
+
+	// Samples of the threads, heap after GC and open file descriptors
+	private final List<Long>			threadSamples		= new ArrayList<Long>();
+	private final List<Long>			heapSamples			= new ArrayList<Long>();
+	private final List<Long>			fdSamples			= new ArrayList<Long>();
+
+	private SpacebrewTestServer			server;
+	private ImpairmentProxy				proxy;
+	private SpacebrewClient				client;
+	private SyntheticSensor				sensor;
+
+	/**
+	 * Runs the soak test.
+	 * 
+	 * @param args The options, see above
+	 */
+	public static void main(String args[]) throws Exception
+	{
+		int port = 19017;
+		int cycles = 1000;
+		long connected = 100;
+		int sample = 50;
+		double rate = 200;
+
+		for (int i = 0; i + 1 < args.length; i += 2)
+		{
+			String value = args[i + 1];
+
+			if (args[i].equals("-port"))
+			{
+				port = Integer.parseInt(value);
+			}
+			else if (args[i].equals("-cycles"))
+			{
+				cycles = Integer.parseInt(value);
+			}
+			else if (args[i].equals("-connected"))
+			{
+				connected = Long.parseLong(value);
+			}
+			else if (args[i].equals("-sample"))
+			{
+				sample = Integer.parseInt(value);
+			}
+			else if (args[i].equals("-rate"))
+			{
+				rate = Double.parseDouble(value);
+			}
+			else
+			{
+				System.err.println("Unknown option: " + args[i]);
+				System.exit(1);
+			}
+		}
+
+		boolean passed = new ReconnectSoakTest(port, cycles, connected, sample, rate).run();
+		System.exit(passed ? 0 : 1);
+	}
+
+	public ReconnectSoakTest(int port, int cycles, long connectedMillis, int sampleInterval, double rate)
+	{
+		this.port = port;
+		this.cycles = cycles;
+		this.connectedMillis = connectedMillis;
+		this.sampleInterval = Math.max(1, sampleInterval);
+		this.rate = rate;
+	}
+
+	/**
+	 * Runs the cycles and checks the samples.
+	 * 
+	 * @return True if the client always reconnected and no resource grew
+	 *         without bound
+	 */
+	public boolean run() throws Exception
+	{
+		server = new SpacebrewTestServer(port);
+		server.startAndWait();
+		proxy = new ImpairmentProxy(port + 1, port);
+
+		client = new SpacebrewClient(new SpacebrewClientCallback()
+		{
+			@Override
+			public void onOpen()
+			{
+			}
+
+			@Override
+			public void onClose()
+			{
+			}
+
+			@Override
+			public void onError()
+			{
+			}
+		}, "ws://127.0.0.1:" + (port + 1), "soak");
+
+		client.setTimeout(50);
+		sensor = new SineSensor(client, "soak", 2, rate, 64, 0.5);
+		sensor.enable();
+
+		try
+		{
+			client.connect();
+
+			if (!awaitConnected())
+			{
+				System.err.println("Could not connect to the test server");
+				return false;
+			}
+
+			sensor.activate();
+
+			System.out.println(String.format(Locale.ROOT, "%d cycles, %d ms connected, publishing at %.1f msg/s",
+					cycles, connectedMillis, rate));
+
+			sample(0);
+
+			for (int cycle = 1; cycle <= cycles; cycle++)
+			{
+				Thread.sleep(connectedMillis);
+
+				if (cycle % 2 == 1)
+				{
+					proxy.disconnect();
+				}
+				else
+				{
+					client.disconnect();
+					awaitDisconnected();
+					client.connect();
+				}
+
+				if (!awaitConnected())
+				{
+					System.err.println("Client did not reconnect in cycle " + cycle);
+					return false;
+				}
+
+				if (cycle % sampleInterval == 0)
+				{
+					sample(cycle);
+				}
+			}
+
+			return check();
+		}
+		finally
+		{
+			sensor.deactivate();
+			client.disconnect();
+			proxy.close();
+			server.stop();
+		}
+	}
+
+	/**
+	 * Samples the resources and prints them.
+	 * 
+	 * @param cycle The current cycle
+	 */
+	private void sample(int cycle) throws InterruptedException
+	{
+		System.gc();
+		Thread.sleep(50);
+
+		long threadCount = threads.getThreadCount();
+		long heap = memory.getHeapMemoryUsage().getUsed();
+		long fds = openFileDescriptors();
+
+		threadSamples.add(threadCount);
+		heapSamples.add(heap);
+		fdSamples.add(fds);
+
+		System.out.println(String.format(Locale.ROOT, "cycle %6d  threads %4d  heap %6.1f MB  fds %5d  "
+				+ "published %8d  connections %6d", cycle, threadCount, heap / 1048576.0, fds, sensor.getPublished(),
+				proxy.getConnections()));
+	}
+
+	/**
+	 * Compares the first and the last quarter of the samples.
+	 * 
+	 * @return True if no resource grew without bound
+	 */
+	private boolean check()
+	{
+		boolean passed = check("threads", threadSamples, THREAD_TOLERANCE, 1);
+		passed &= check("heap (MB)", heapSamples, HEAP_TOLERANCE, 1048576.0);
+		passed &= fdSamples.get(0) < 0 || check("file descriptors", fdSamples, FD_TOLERANCE, 1);
+
+		System.out.println(passed ? "OK" : "FAILED: resources grow with reconnects");
+		return passed;
+	}
+
+	private boolean check(String resource, List<Long> samples, long tolerance, double unit)
+	{
+		int quarter = Math.max(1, samples.size() / 4);
+		long firstMax = Long.MIN_VALUE;
+		long lastMin = Long.MAX_VALUE;
+
+		for (int i = 0; i < quarter; i++)
+		{
+			firstMax = Math.max(firstMax, samples.get(i));
+			lastMin = Math.min(lastMin, samples.get(samples.size() - 1 - i));
+		}
+
+		boolean bounded = lastMin <= firstMax + tolerance;
+
+		System.out.println(String.format(Locale.ROOT, "%-18s first quarter max %8.1f  last quarter min %8.1f  %s",
+				resource, firstMax / unit, lastMin / unit, bounded ? "ok" : "GROWING"));
+
+		return bounded;
+	}
+
+	/**
+	 * @return The number of open file descriptors of the process, -1 if the
+	 *         platform does not report them
+	 */
+	private long openFileDescriptors()
+	{
+		if (system instanceof com.sun.management.UnixOperatingSystemMXBean)
+		{
+			return ((com.sun.management.UnixOperatingSystemMXBean) system).getOpenFileDescriptorCount();
+		}
+
+		return -1;
+	}
+
+	private boolean awaitConnected() throws InterruptedException
+	{
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+
+		while (!client.isConnected())
+		{
+			if (System.nanoTime() > deadline)
+			{
+				return false;
+			}
+
+			Thread.sleep(1);
+		}
+
+		return true;
+	}
+
+	private void awaitDisconnected() throws InterruptedException
+	{
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+
+		while (client.isConnected() && System.nanoTime() < deadline)
+		{
+			Thread.sleep(1);
+		}
+	}
+}
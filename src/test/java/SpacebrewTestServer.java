@@ -0,0 +1,553 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner. All rights reserved. This program and
+ * the accompanying materials are made available under the terms of the GNU
+ * Lesser Public License v2.1 which accompanies this distribution, and is
+ * available at http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * Contributors: Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.server.WebSocketServer;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+
+/**
+ * A stand-in for a Spacebrew server running in the same process, so load
+ * tests can run offline on a single machine. Implements the parts of the
+ * protocol the client uses:
+ * <ul>
+ * <li>Configuration messages are stored per connection, completed with the
+ * remote address and announced to admin clients.</li>
+ * <li>Admin clients receive all configurations and routes when they
+ * register, and every later configuration, route and removal.</li>
+ * <li>Route messages from any client add or remove routes.</li>
+ * <li>Publisher messages are forwarded to the subscribers they are routed
+ * to. Fragmented messages are reassembled first.</li>
+ * </ul>
+ * Clients are identified by name and remote address, as by the Spacebrew
+ * server.
+ * 
+ * @author Axel Baumgartner
+ */
+@SuppressWarnings("unchecked")
+public class SpacebrewTestServer extends WebSocketServer
+{
+	private static final Charset											UTF8		= Charset.forName("UTF-8");
+
+	// Connections, and connections with a configuration by name and address
+	private final Map<WebSocket, Connection>								connections	= new ConcurrentHashMap<WebSocket, Connection>();
+	private final Map<String, Connection>									clients		= new ConcurrentHashMap<String, Connection>();
+
+	// Routes, and routes by publisher
+	private final List<Route>												routes		= new CopyOnWriteArrayList<Route>();
+	private final ConcurrentHashMap<String, CopyOnWriteArrayList<Route>>	publishers	= new ConcurrentHashMap<String, CopyOnWriteArrayList<Route>>();
+
+	// Publisher messages received, messages forwarded to subscribers and
+	// configurations received
+	private final AtomicLong												received	= new AtomicLong();
+	private final AtomicLong												forwarded	= new AtomicLong();
+	private final AtomicLong												configs		= new AtomicLong();
+
+	/**
+	 * @param port The port on the loopback interface
+	 */
+	public SpacebrewTestServer(int port)
+	{
+		super(new InetSocketAddress("127.0.0.1", port));
+	}
+
+	/**
+	 * @param port The port on the loopback interface
+	 * @param draft The only protocol draft the server accepts, e.g. a
+	 *            {@code PerMessageDeflateDraft} to offer compression
+	 */
+	public SpacebrewTestServer(int port, Draft draft)
+	{
+		super(new InetSocketAddress("127.0.0.1", port), Collections.singletonList(draft));
+	}
+
+	/**
+	 * Starts the server and waits until it accepts connections.
+	 */
+	public void startAndWait() throws InterruptedException
+	{
+		start();
+		Thread.sleep(200);
+	}
+
+	/**
+	 * Stops the server, waiting at most a second for the close handshakes. A
+	 * connection that was dropped during its close handshake would otherwise
+	 * keep the server from stopping. The connections are closed before, as
+	 * {@link WebSocketServer#stop(int)} closes them while holding the lock the
+	 * selector needs to finish a close that is already in progress.
+	 */
+	@Override
+	public void stop() throws IOException, InterruptedException
+	{
+		for (WebSocket socket : connections.keySet())
+		{
+			socket.close(CloseFrame.GOING_AWAY);
+		}
+
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+
+		while (!connections.isEmpty() && System.nanoTime() < deadline)
+		{
+			Thread.sleep(1);
+		}
+
+		stop(1000);
+	}
+
+	/**
+	 * @return The number of clients that sent a configuration
+	 */
+	public int getClientCount()
+	{
+		return clients.size();
+	}
+
+	/**
+	 * @return The number of routes
+	 */
+	public int getRouteCount()
+	{
+		return routes.size();
+	}
+
+	/**
+	 * @return The number of publisher messages received
+	 */
+	public long getReceived()
+	{
+		return received.get();
+	}
+
+	/**
+	 * @return The number of messages forwarded to subscribers
+	 */
+	public long getForwarded()
+	{
+		return forwarded.get();
+	}
+
+	/**
+	 * @return The number of configuration messages received
+	 */
+	public long getConfigs()
+	{
+		return configs.get();
+	}
+
+	/**
+	 * @param name The name of a client
+	 * @return The latest configuration of the client with the name, null if
+	 *         there is none
+	 */
+	public JSONObject getConfig(String name)
+	{
+		for (Connection connection : clients.values())
+		{
+			if (name.equals(connection.name))
+			{
+				return (JSONObject) connection.config.get("config");
+			}
+		}
+
+		return null;
+	}
+
+	@Override
+	public void onOpen(WebSocket socket, ClientHandshake handshake)
+	{
+		connections.put(socket, new Connection(socket));
+	}
+
+	@Override
+	public void onClose(WebSocket socket, int code, String reason, boolean remote)
+	{
+		Connection connection = connections.remove(socket);
+
+		if (connection == null || connection.name == null)
+		{
+			return;
+		}
+
+		clients.remove(connection.key(), connection);
+
+		for (Route route : routes)
+		{
+			if (route.involves(connection.name, connection.address))
+			{
+				removeRoute(route);
+			}
+		}
+
+		JSONObject client = new JSONObject();
+		client.put("name", connection.name);
+		client.put("remoteAddress", connection.address);
+
+		JSONArray removed = new JSONArray();
+		removed.add(client);
+
+		JSONObject message = new JSONObject();
+		message.put("remove", removed);
+		sendToAdmins(message.toJSONString());
+	}
+
+	@Override
+	public void onError(WebSocket socket, Exception exception)
+	{
+	}
+
+	@Override
+	public void onWebsocketMessageFragment(WebSocket socket, Framedata frame)
+	{
+		Connection connection = connections.get(socket);
+
+		if (connection == null)
+		{
+			return;
+		}
+
+		ByteBuffer payload = frame.getPayloadData();
+		byte[] bytes = new byte[payload.remaining()];
+		payload.get(bytes);
+		connection.fragments.write(bytes, 0, bytes.length);
+
+		if (frame.isFin())
+		{
+			String message = new String(connection.fragments.toByteArray(), UTF8);
+			connection.fragments.reset();
+			onMessage(socket, message);
+		}
+	}
+
+	@Override
+	public void onMessage(WebSocket socket, String text)
+	{
+		Connection connection = connections.get(socket);
+		Object parsed = JSONValue.parse(text);
+
+		if (connection == null || !(parsed instanceof JSONObject))
+		{
+			return;
+		}
+
+		JSONObject message = (JSONObject) parsed;
+
+		if (message.get("message") instanceof JSONObject)
+		{
+			forward(connection, (JSONObject) message.get("message"));
+		}
+		else if (message.get("config") instanceof JSONObject)
+		{
+			configure(connection, message);
+		}
+		else if (message.get("route") instanceof JSONObject)
+		{
+			route((JSONObject) message.get("route"), message);
+		}
+		else if (message.get("admin") != null)
+		{
+			register(connection);
+		}
+	}
+
+	/**
+	 * Forwards a publisher message to the subscribers it is routed to.
+	 * 
+	 * @param connection The connection of the publisher
+	 * @param message The body of the message
+	 */
+	private void forward(Connection connection, JSONObject message)
+	{
+		received.incrementAndGet();
+
+		List<Route> routed = publishers.get(Route.key(connection.name, connection.address, (String) message.get("name"),
+				(String) message.get("type")));
+
+		if (routed == null)
+		{
+			return;
+		}
+
+		for (Route route : routed)
+		{
+			Connection subscriber = clients.get(route.subscriberClientName + "@" + route.subscriberAddress);
+
+			if (subscriber == null)
+			{
+				continue;
+			}
+
+			JSONObject body = new JSONObject();
+			body.put("clientName", route.subscriberClientName);
+			body.put("name", route.subscriberName);
+			body.put("type", route.type);
+			body.put("value", message.get("value"));
+
+			JSONObject forward = new JSONObject();
+			forward.put("message", body);
+
+			subscriber.socket.send(forward.toJSONString());
+			forwarded.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Stores the configuration of a client and announces it to the admin
+	 * clients. Like the Spacebrew server, a client is known by the name of its
+	 * first configuration on a connection, later configurations update it
+	 * under that name.
+	 * 
+	 * @param connection The connection of the client
+	 * @param message The configuration message
+	 */
+	private void configure(Connection connection, JSONObject message)
+	{
+		JSONObject config = (JSONObject) message.get("config");
+		config.put("remoteAddress", connection.address);
+
+		connection.config = message;
+
+		if (connection.name == null)
+		{
+			connection.name = (String) config.get("name");
+			clients.put(connection.key(), connection);
+		}
+
+		configs.incrementAndGet();
+
+		sendToAdmins(message.toJSONString());
+	}
+
+	/**
+	 * Adds or removes a route and announces it to the admin clients.
+	 * 
+	 * @param body The body of the route message
+	 * @param message The route message
+	 */
+	private void route(JSONObject body, JSONObject message)
+	{
+		Object publisher = body.get("publisher");
+		Object subscriber = body.get("subscriber");
+
+		if (!(publisher instanceof JSONObject) || !(subscriber instanceof JSONObject))
+		{
+			return;
+		}
+
+		Route route = new Route((JSONObject) publisher, (JSONObject) subscriber);
+
+		if ("add".equals(body.get("type")))
+		{
+			if (routes.contains(route))
+			{
+				return;
+			}
+
+			routes.add(route);
+
+			CopyOnWriteArrayList<Route> routed = publishers.get(route.publisherKey);
+
+			if (routed == null)
+			{
+				routed = new CopyOnWriteArrayList<Route>();
+				CopyOnWriteArrayList<Route> existing = publishers.putIfAbsent(route.publisherKey, routed);
+				routed = existing != null ? existing : routed;
+			}
+
+			routed.add(route);
+			sendToAdmins(message.toJSONString());
+		}
+		else if ("remove".equals(body.get("type")))
+		{
+			removeRoute(route);
+		}
+	}
+
+	/**
+	 * Removes a route and announces it to the admin clients.
+	 * 
+	 * @param route The route
+	 */
+	private void removeRoute(Route route)
+	{
+		if (!routes.remove(route))
+		{
+			return;
+		}
+
+		List<Route> routed = publishers.get(route.publisherKey);
+
+		if (routed != null)
+		{
+			routed.remove(route);
+		}
+
+		sendToAdmins(route.toMessage("remove"));
+	}
+
+	/**
+	 * Registers an admin client and sends it all configurations and routes.
+	 * 
+	 * @param connection The connection of the admin client
+	 */
+	private void register(Connection connection)
+	{
+		connection.admin = true;
+
+		JSONArray state = new JSONArray();
+
+		for (Connection client : clients.values())
+		{
+			state.add(client.config);
+		}
+
+		if (!state.isEmpty())
+		{
+			connection.socket.send(state.toJSONString());
+		}
+
+		for (Route route : routes)
+		{
+			connection.socket.send(route.toMessage("add"));
+		}
+	}
+
+	private void sendToAdmins(String message)
+	{
+		for (Connection connection : connections.values())
+		{
+			if (connection.admin)
+			{
+				connection.socket.send(message);
+			}
+		}
+	}
+
+	/**
+	 * A client connection.
+	 */
+	private static class Connection
+	{
+		private final WebSocket					socket;
+		private final String					address;
+		private final ByteArrayOutputStream		fragments	= new ByteArrayOutputStream();
+		private volatile String					name;
+		private volatile JSONObject				config;
+		private volatile boolean				admin		= false;
+
+		private Connection(WebSocket socket)
+		{
+			this.socket = socket;
+			this.address = socket.getRemoteSocketAddress().getAddress().getHostAddress();
+		}
+
+		private String key()
+		{
+			return name + "@" + address;
+		}
+	}
+
+	/**
+	 * A route from a publisher to a subscriber.
+	 */
+	private static class Route
+	{
+		private final String	publisherClientName;
+		private final String	publisherAddress;
+		private final String	publisherName;
+		private final String	subscriberClientName;
+		private final String	subscriberAddress;
+		private final String	subscriberName;
+		private final String	type;
+		private final String	publisherKey;
+
+		private Route(JSONObject publisher, JSONObject subscriber)
+		{
+			publisherClientName = (String) publisher.get("clientName");
+			publisherAddress = (String) publisher.get("remoteAddress");
+			publisherName = (String) publisher.get("name");
+			subscriberClientName = (String) subscriber.get("clientName");
+			subscriberAddress = (String) subscriber.get("remoteAddress");
+			subscriberName = (String) subscriber.get("name");
+			type = (String) publisher.get("type");
+			publisherKey = key(publisherClientName, publisherAddress, publisherName, type);
+		}
+
+		private static String key(String clientName, String address, String name, String type)
+		{
+			return clientName + "@" + address + "/" + name + "/" + type;
+		}
+
+		private boolean involves(String clientName, String address)
+		{
+			return (clientName.equals(publisherClientName) && address.equals(publisherAddress))
+					|| (clientName.equals(subscriberClientName) && address.equals(subscriberAddress));
+		}
+
+		private String toMessage(String action)
+		{
+			JSONObject publisher = new JSONObject();
+			publisher.put("clientName", publisherClientName);
+			publisher.put("name", publisherName);
+			publisher.put("type", type);
+			publisher.put("remoteAddress", publisherAddress);
+
+			JSONObject subscriber = new JSONObject();
+			subscriber.put("clientName", subscriberClientName);
+			subscriber.put("name", subscriberName);
+			subscriber.put("type", type);
+			subscriber.put("remoteAddress", subscriberAddress);
+
+			JSONObject body = new JSONObject();
+			body.put("type", action);
+			body.put("publisher", publisher);
+			body.put("subscriber", subscriber);
+
+			JSONObject message = new JSONObject();
+			message.put("route", body);
+
+			return message.toJSONString();
+		}
+
+		@Override
+		public boolean equals(Object other)
+		{
+			if (!(other instanceof Route))
+			{
+				return false;
+			}
+
+			Route route = (Route) other;
+			return publisherKey.equals(route.publisherKey) && subscriberClientName.equals(route.subscriberClientName)
+					&& subscriberAddress.equals(route.subscriberAddress) && subscriberName.equals(route.subscriberName);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return publisherKey.hashCode() * 31 + subscriberName.hashCode();
+		}
+	}
+}
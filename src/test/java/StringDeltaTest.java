@@ -0,0 +1,533 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Axel Baumgartner. All rights reserved. This program and
+ * the accompanying materials are made available under the terms of the GNU
+ * Lesser Public License v2.1 which accompanies this distribution, and is
+ * available at http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * Contributors: Axel Baumgartner - initial API and implementation
+ ******************************************************************************/
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.Random;
+
+import at.ac.sbg.icts.spacebrew.client.SpacebrewClient;
+import at.ac.sbg.icts.spacebrew.client.SpacebrewClientCallback;
+import at.ac.sbg.icts.spacebrew.client.SpacebrewRoute;
+import at.ac.sbg.icts.spacebrew.client.StringSubscriber;
+import at.ac.sbg.icts.spacebrew.client.codec.StringDeltaDecoder;
+import at.ac.sbg.icts.spacebrew.client.codec.StringDeltaEncoder;
+import at.ac.sbg.icts.spacebrew.client.publisher.DeltaStringPublisher;
+
+/**
+ * Round-trips values through a {@link StringDeltaEncoder} and a
+ * {@link StringDeltaDecoder}:
+ * <ul>
+ * <li>Random edits of a JSON-like document, every value has to be rebuilt
+ * exactly.</li>
+ * <li>Characters outside the BMP: random edits of emoji sharing their high
+ * surrogate, the messages are sent as UTF-8, so an operation splitting a
+ * surrogate pair would corrupt the value.</li>
+ * <li>Several publishers: the messages of two encoders are interleaved, the
+ * decoder has to rebuild the values of both without missing a delta.</li>
+ * <li>Sequence gaps: deltas are dropped, the decoder has to ignore the
+ * following deltas and resync at the next keyframe, or immediately after the
+ * encoder was asked for a keyframe. Duplicates and garbled messages must not
+ * change the value.</li>
+ * <li>Reconnects: a {@link DeltaStringPublisher} routed to a delta subscriber
+ * of the same client through a {@link SpacebrewTestServer}. Values published
+ * while disconnected must not be encoded and the first value after
+ * reconnecting has to be sent as keyframe.</li>
+ * </ul>
+ * Exits with status 1 if a check fails. Options:
+ * <ul>
+ * <li>{@code -port <n>} The port of the server (default 19026)</li>
+ * <li>{@code -values <n>} The number of values per round trip (default
+ * 5000)</li>
+ * </ul>
+ * 
+ * @author Axel Baumgartner
+ */
+public class StringDeltaTest
+{
+	private static final Charset	UTF8		= Charset.forName("UTF-8");
+	private static final String		NAME		= "delta";
+	private static final String		DOCUMENT	= "document";
+	private static final int		INTERVAL	= 20;
+
+	private final int				port;
+	private final int				values;
+	private final Random			random		= new Random(42);
+	private boolean					passed		= true;
+
+	// The last value the delta subscriber received
+	private volatile String			received;
+
+	/**
+	 * Runs the delta test.
+	 * 
+	 * @param args The options, see above
+	 */
+	public static void main(String args[]) throws Exception
+	{
+		int port = 19026;
+		int values = 5000;
+
+		for (int i = 0; i + 1 < args.length; i += 2)
+		{
+			String value = args[i + 1];
+
+			if (args[i].equals("-port"))
+			{
+				port = Integer.parseInt(value);
+			}
+			else if (args[i].equals("-values"))
+			{
+				values = Integer.parseInt(value);
+			}
+			else
+			{
+				System.err.println("Unknown option: " + args[i]);
+				System.exit(1);
+			}
+		}
+
+		boolean passed = new StringDeltaTest(port, values).run();
+		System.exit(passed ? 0 : 1);
+	}
+
+	public StringDeltaTest(int port, int values)
+	{
+		this.port = port;
+		this.values = values;
+	}
+
+	/**
+	 * Runs all checks.
+	 * 
+	 * @return True if all checks passed
+	 */
+	public boolean run() throws Exception
+	{
+		roundTrip();
+		supplementary();
+		publishers();
+		gaps();
+		reconnect();
+
+		System.out.println(passed ? "Passed" : "Failed");
+		return passed;
+	}
+
+	/**
+	 * Decodes every encoded value and compares it with the original.
+	 */
+	private void roundTrip()
+	{
+		StringDeltaEncoder encoder = new StringDeltaEncoder(INTERVAL);
+		StringDeltaDecoder decoder = new StringDeltaDecoder();
+		String value = document(200);
+
+		for (int i = 0; i < values; i++)
+		{
+			value = edit(value);
+
+			if (!decoder.decode(encoder.encode(value)))
+			{
+				fail("round trip: value " + i + " was ignored");
+				return;
+			}
+
+			if (!value.equals(decoder.getValue()))
+			{
+				fail("round trip: value " + i + " differs");
+				return;
+			}
+		}
+
+		check("round trip: no deltas missed", decoder.getMissed() == 0);
+		check("round trip: every message decoded",
+				decoder.getKeyframes() + decoder.getDeltas() == encoder.getKeyframes() + encoder.getDeltas());
+
+		System.out.println(String.format(Locale.ROOT, "Round trip: %d keyframes, %d deltas, ratio %.3f",
+				encoder.getKeyframes(), encoder.getDeltas(), encoder.getRatio()));
+	}
+
+	/**
+	 * Round-trips values of characters outside the BMP through UTF-8.
+	 */
+	private void supplementary()
+	{
+		StringDeltaEncoder encoder = new StringDeltaEncoder(INTERVAL);
+		StringDeltaDecoder decoder = new StringDeltaDecoder();
+		StringBuilder value = new StringBuilder();
+
+		for (int i = 0; i < 100; i++)
+		{
+			value.append(i % 5 == 0 ? "," : "").appendCodePoint(emoji());
+		}
+
+		for (int i = 0; i < values; i++)
+		{
+			int characters = value.codePointCount(0, value.length());
+			int edits = 1 + random.nextInt(4);
+
+			// replaces, inserts or removes a few emoji
+			for (int j = 0; j < edits; j++)
+			{
+				int start = value.offsetByCodePoints(0, random.nextInt(characters));
+				int end = value.offsetByCodePoints(start, 1);
+
+				switch (random.nextInt(3))
+				{
+					case 0:
+						value.replace(start, end, new String(Character.toChars(emoji())));
+						break;
+					case 1:
+						value.insert(start, Character.toChars(emoji()));
+						characters++;
+						break;
+					default:
+						if (characters > 10)
+						{
+							value.delete(start, end);
+							characters--;
+						}
+						break;
+				}
+			}
+
+			String message = new String(encoder.encode(value.toString()).getBytes(UTF8), UTF8);
+
+			if (!decoder.decode(message) || !value.toString().equals(decoder.getValue()))
+			{
+				fail("supplementary: value " + i + " differs");
+				return;
+			}
+		}
+
+		check("supplementary: deltas sent", encoder.getDeltas() > 0);
+
+		System.out.println(String.format(Locale.ROOT, "Supplementary: %d keyframes, %d deltas, ratio %.3f",
+				encoder.getKeyframes(), encoder.getDeltas(), encoder.getRatio()));
+	}
+
+	/**
+	 * @return A random emoji, all share the same high surrogate
+	 */
+	private int emoji()
+	{
+		return 0x1f600 + random.nextInt(64);
+	}
+
+	/**
+	 * Decodes the interleaved messages of two encoders with one decoder.
+	 */
+	private void publishers()
+	{
+		StringDeltaEncoder[] encoders = { new StringDeltaEncoder(INTERVAL), new StringDeltaEncoder(INTERVAL) };
+		String[] published = { document(200), document(200) };
+		StringDeltaDecoder decoder = new StringDeltaDecoder();
+
+		for (int i = 0; i < values; i++)
+		{
+			int publisher = random.nextInt(2);
+			published[publisher] = edit(published[publisher]);
+
+			if (!decoder.decode(encoders[publisher].encode(published[publisher]))
+					|| !published[publisher].equals(decoder.getValue()))
+			{
+				fail("publishers: value " + i + " of publisher " + publisher + " differs");
+				return;
+			}
+		}
+
+		check("publishers: no deltas missed", decoder.getMissed() == 0 && decoder.getSkipped() == 0);
+		check("publishers: deltas sent", encoders[0].getDeltas() > 0 && encoders[1].getDeltas() > 0);
+	}
+
+	/**
+	 * Drops deltas and checks that the decoder never passes a wrong value and
+	 * resyncs at the next keyframe.
+	 */
+	private void gaps()
+	{
+		StringDeltaEncoder encoder = new StringDeltaEncoder(INTERVAL);
+		StringDeltaDecoder decoder = new StringDeltaDecoder();
+		String value = document(200);
+		long dropped = 0;
+		long resynced = 0;
+
+		for (int i = 0; i < values; i++)
+		{
+			value = edit(value);
+			String message = encoder.encode(value);
+			boolean keyframe = message.charAt(0) == 'K';
+
+			// drops about every 7th delta, resyncs by request every other time
+			if (!keyframe && random.nextInt(7) == 0)
+			{
+				dropped++;
+
+				if (dropped % 2 == 0)
+				{
+					encoder.requestKeyframe();
+				}
+
+				continue;
+			}
+
+			boolean synced = decoder.isSynced();
+
+			if (decoder.decode(message))
+			{
+				if (!value.equals(decoder.getValue()))
+				{
+					fail("gaps: value " + i + " differs");
+					return;
+				}
+
+				if (!synced)
+				{
+					resynced++;
+
+					if (!keyframe)
+					{
+						fail("gaps: value " + i + " resynced on a delta");
+						return;
+					}
+				}
+			}
+			else if (keyframe || decoder.isSynced())
+			{
+				fail("gaps: value " + i + " was ignored although the decoder was synced");
+				return;
+			}
+
+			if (decoder.isSynced())
+			{
+				// a duplicate must not change the value
+				decoder.decode(message);
+				check("gaps: duplicate ignored", value.equals(decoder.getValue()));
+			}
+		}
+
+		check("gaps: every gap detected", decoder.getMissed() > 0 && decoder.getMissed() <= dropped);
+		check("gaps: every gap resynced", resynced + (decoder.isSynced() ? 0 : 1) >= decoder.getMissed());
+
+		// a garbled delta has to desync the decoder, the next keyframe resyncs
+		encoder.requestKeyframe();
+		value = edit(value);
+		decoder.decode(encoder.encode(value));
+		value = edit(value);
+		String delta = encoder.encode(value);
+		String garbled = delta.substring(0, delta.indexOf(':') + 1) + "x";
+		check("gaps: garbled delta ignored", !decoder.decode(garbled) && !decoder.isSynced());
+		check("gaps: deltas ignored while desynced", !decoder.decode(delta));
+		encoder.requestKeyframe();
+		value = edit(value);
+		check("gaps: keyframe resyncs", decoder.decode(encoder.encode(value)) && value.equals(decoder.getValue()));
+
+		System.out.println(String.format(Locale.ROOT, "Gaps: %d deltas dropped, %d missed, %d skipped", dropped,
+				decoder.getMissed(), decoder.getSkipped()));
+	}
+
+	/**
+	 * Publishes through a test server, disconnects, publishes while
+	 * disconnected and reconnects.
+	 */
+	private void reconnect() throws Exception
+	{
+		SpacebrewTestServer server = new SpacebrewTestServer(port);
+		server.startAndWait();
+
+		SpacebrewClient client = new SpacebrewClient(new SpacebrewClientCallback()
+		{
+			@Override
+			public void onOpen()
+			{
+			}
+
+			@Override
+			public void onClose()
+			{
+			}
+
+			@Override
+			public void onError()
+			{
+			}
+		}, "ws://127.0.0.1:" + port, NAME);
+
+		DeltaStringPublisher publisher = new DeltaStringPublisher(DOCUMENT, "", INTERVAL, client);
+		StringDeltaDecoder decoder = client.addDeltaSubscriber(DOCUMENT, new StringSubscriber()
+		{
+			@Override
+			public void receive(String value)
+			{
+				received = value;
+			}
+		});
+		StringDeltaEncoder encoder = publisher.getEncoder();
+
+		try
+		{
+			String value = document(200);
+
+			for (int round = 1; round <= 3; round++)
+			{
+				if (!connect(client, server))
+				{
+					fail("reconnect: could not connect to the test server");
+					return;
+				}
+
+				long keyframes = encoder.getKeyframes();
+
+				for (int i = 0; i < INTERVAL * 2; i++)
+				{
+					value = edit(value);
+					publisher.publish(value);
+
+					if (i == 0)
+					{
+						check("reconnect: first value of round " + round + " sent as keyframe",
+								encoder.getKeyframes() == keyframes + 1);
+					}
+
+					if (!await(value))
+					{
+						fail("reconnect: value " + i + " of round " + round + " not received");
+						return;
+					}
+				}
+
+				client.disconnect();
+
+				while (client.isConnected() || server.getClientCount() > 0 || server.getRouteCount() > 0)
+				{
+					Thread.sleep(1);
+				}
+
+				long encoded = encoder.getKeyframes() + encoder.getDeltas();
+
+				for (int i = 0; i < INTERVAL / 2; i++)
+				{
+					value = edit(value);
+					publisher.publish(value);
+				}
+
+				check("reconnect: nothing encoded while disconnected in round " + round,
+						encoder.getKeyframes() + encoder.getDeltas() == encoded);
+			}
+
+			check("reconnect: no deltas missed", decoder.getMissed() == 0);
+
+			System.out.println(String.format(Locale.ROOT, "Reconnect: %d keyframes, %d deltas, %d missed",
+					decoder.getKeyframes(), decoder.getDeltas(), decoder.getMissed()));
+		}
+		finally
+		{
+			client.disconnect();
+			server.stop();
+		}
+	}
+
+	/**
+	 * Connects the client and routes its publisher to its subscriber.
+	 * 
+	 * @return True if the route was set up within 10 seconds
+	 */
+	private boolean connect(SpacebrewClient client, SpacebrewTestServer server) throws InterruptedException
+	{
+		client.connect();
+
+		long deadline = System.currentTimeMillis() + 10000;
+
+		while (server.getClientCount() == 0 && System.currentTimeMillis() < deadline)
+		{
+			Thread.sleep(1);
+		}
+
+		client.addRoute(new SpacebrewRoute(NAME, "127.0.0.1", DOCUMENT, NAME, "127.0.0.1", DOCUMENT,
+				StringDeltaEncoder.TYPE));
+
+		while (server.getRouteCount() == 0 && System.currentTimeMillis() < deadline)
+		{
+			Thread.sleep(1);
+		}
+
+		return server.getRouteCount() > 0 && client.isConnected();
+	}
+
+	/**
+	 * @return True if the value was received within 10 seconds
+	 */
+	private boolean await(String value) throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + 10000;
+
+		while (!value.equals(received) && System.currentTimeMillis() < deadline)
+		{
+			Thread.sleep(1);
+		}
+
+		return value.equals(received);
+	}
+
+	/**
+	 * @return A JSON-like document with the number of fields
+	 */
+	private String document(int fields)
+	{
+		StringBuilder document = new StringBuilder("{");
+
+		for (int i = 0; i < fields; i++)
+		{
+			document.append(i > 0 ? "," : "").append("\"field").append(i).append("\":").append(random.nextInt(1000));
+		}
+
+		return document.append('}').toString();
+	}
+
+	/**
+	 * @return The value with a few characters replaced, inserted or removed
+	 */
+	private String edit(String value)
+	{
+		StringBuilder edited = new StringBuilder(value);
+		int edits = 1 + random.nextInt(4);
+
+		for (int i = 0; i < edits; i++)
+		{
+			int position = 1 + random.nextInt(edited.length() - 2);
+
+			switch (random.nextInt(3))
+			{
+				case 0:
+					edited.setCharAt(position, (char) ('0' + random.nextInt(10)));
+					break;
+				case 1:
+					edited.insert(position, random.nextInt(100));
+					break;
+				default:
+					edited.deleteCharAt(position);
+					break;
+			}
+		}
+
+		return edited.toString();
+	}
+
+	private void check(String description, boolean condition)
+	{
+		if (!condition)
+		{
+			fail(description);
+		}
+	}
+
+	private void fail(String description)
+	{
+		System.err.println("Failed: " + description);
+		passed = false;
+	}
+}